@@ -0,0 +1,163 @@
+/*
+ * AsyncDataSource.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao;
+
+import com.theredpixelteam.kraitudao.criteria.Criteria;
+import com.theredpixelteam.kraitudao.criteria.Projection;
+import com.theredpixelteam.redtea.function.FunctionWithThrowable;
+import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+@SuppressWarnings("unchecked")
+public interface AsyncDataSource {
+    public DataSource getDataSource();
+
+    public <R> CompletableFuture<R> submit(String operation, FunctionWithThrowable<DataSource, R, DataSourceException> task);
+
+    public default <T> CompletableFuture<Boolean> pull(T object)
+    {
+        return pull(object, (Class<T>) object.getClass());
+    }
+
+    public default <T> CompletableFuture<Boolean> pull(T object, Class<T> type)
+    {
+        return submit("pull", dataSource -> dataSource.pull(object, type));
+    }
+
+    public default <T> CompletableFuture<Boolean> pull(T object, Class<T> type, Projection projection)
+    {
+        return submit("pull", dataSource -> dataSource.pull(object, type, projection));
+    }
+
+    public default <T> CompletableFuture<Collection<T>> pull(Class<T> type)
+    {
+        return submit("pull", dataSource -> dataSource.pull(type));
+    }
+
+    public default <T, X extends Throwable> CompletableFuture<Collection<T>> pull(Class<T> type, SupplierWithThrowable<T, X> constructor)
+    {
+        return submit("pull", dataSource -> dataSource.pull(type, constructor));
+    }
+
+    public default <T> CompletableFuture<Collection<T>> pull(Class<T> type, Projection projection)
+    {
+        return submit("pull", dataSource -> dataSource.pull(type, projection));
+    }
+
+    public default <T> CompletableFuture<Collection<T>> pull(Criteria<T> criteria)
+    {
+        return submit("pull", dataSource -> dataSource.pull(criteria));
+    }
+
+    public default <T> CompletableFuture<Page<T>> pullPage(Class<T> type, int size, String continuation)
+    {
+        return submit("pullPage", dataSource -> dataSource.pullPage(type, size, continuation));
+    }
+
+    public default <T> CompletableFuture<Collection<T>> pullVaguely(T object)
+    {
+        return pullVaguely(object, (Class<T>) object.getClass());
+    }
+
+    public default <T> CompletableFuture<Collection<T>> pullVaguely(T object, Class<T> type)
+    {
+        return submit("pullVaguely", dataSource -> dataSource.pullVaguely(object, type));
+    }
+
+    public default <T> CompletableFuture<Long> count(Criteria<T> criteria)
+    {
+        return submit("count", dataSource -> dataSource.count(criteria));
+    }
+
+    public default <T> CompletableFuture<Boolean> exists(T object)
+    {
+        return submit("exists", dataSource -> dataSource.exists(object));
+    }
+
+    public default <T> CompletableFuture<Transaction> commit(T object)
+    {
+        return commit(null, object);
+    }
+
+    public default <T> CompletableFuture<Transaction> commit(Transaction transaction, T object)
+    {
+        return commit(transaction, object, (Class<T>) object.getClass());
+    }
+
+    public default <T> CompletableFuture<Transaction> commit(Transaction transaction, T object, Class<T> type)
+    {
+        return submit("commit", dataSource -> dataSource.commit(transaction, object, type));
+    }
+
+    public default <T> CompletableFuture<Void> commitInstantly(T object)
+    {
+        return submit("commitInstantly", dataSource -> {
+            dataSource.commitInstantly(object);
+            return null;
+        });
+    }
+
+    public default <T> CompletableFuture<Transaction> remove(T object)
+    {
+        return remove(null, object);
+    }
+
+    public default <T> CompletableFuture<Transaction> remove(Transaction transaction, T object)
+    {
+        return remove(transaction, object, (Class<T>) object.getClass());
+    }
+
+    public default <T> CompletableFuture<Transaction> remove(Transaction transaction, T object, Class<T> type)
+    {
+        return submit("remove", dataSource -> dataSource.remove(transaction, object, type));
+    }
+
+    public default <T> CompletableFuture<Void> removeInstantly(T object)
+    {
+        return submit("removeInstantly", dataSource -> {
+            dataSource.removeInstantly(object);
+            return null;
+        });
+    }
+
+    public default <T> CompletableFuture<Transaction> removeVaguely(Transaction transaction, T object, Class<T> type)
+    {
+        return submit("removeVaguely", dataSource -> dataSource.removeVaguely(transaction, object, type));
+    }
+
+    public default CompletableFuture<Transaction> clear(Transaction transaction)
+    {
+        return submit("clear", dataSource -> dataSource.clear(transaction));
+    }
+
+    public default CompletableFuture<Boolean> push(Transaction transaction)
+    {
+        return submit("push", dataSource -> transaction.push());
+    }
+
+    public default CompletableFuture<Boolean> cancel(Transaction transaction)
+    {
+        return submit("cancel", dataSource -> transaction.cancel());
+    }
+}
@@ -21,8 +21,11 @@
 
 package com.theredpixelteam.kraitudao;
 
+import com.theredpixelteam.kraitudao.criteria.Criteria;
+import com.theredpixelteam.kraitudao.criteria.Projection;
 import com.theredpixelteam.redtea.function.Supplier;
 import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+import com.theredpixelteam.redtea.util.Optional;
 
 import java.util.Collection;
 
@@ -35,6 +38,16 @@ public interface DataSource {
 
     public <T> boolean pull(T object, Class<T> type) throws DataSourceException;
 
+    public default <T> boolean pull(T object, Projection projection) throws DataSourceException
+    {
+        return pull(object, (Class<T>) object.getClass(), projection);
+    }
+
+    public default <T> boolean pull(T object, Class<T> type, Projection projection) throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("pull(Projection)");
+    }
+
     public default <T> Collection<T> pull(Class<T> type) throws DataSourceException
     {
         return pull(type, type::newInstance);
@@ -42,6 +55,17 @@ public interface DataSource {
 
     public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException;
 
+    public default <T> Collection<T> pull(Class<T> type, Projection projection) throws DataSourceException
+    {
+        return pull(type, projection, type::newInstance);
+    }
+
+    public default <T, X extends Throwable> Collection<T> pull(Class<T> type, Projection projection, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("pull(Projection)");
+    }
+
     public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures) throws DataSourceException;
 
     public default <T> T pull(Class<T> type, T object, Class<?>... signatures) throws DataSourceException
@@ -66,6 +90,82 @@ public interface DataSource {
 
     public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException;
 
+    public default <T> Collection<T> pull(Criteria<T> criteria) throws DataSourceException
+    {
+        return pull(criteria, criteria.getType()::newInstance);
+    }
+
+    public default <T, X extends Throwable> Collection<T> pull(Criteria<T> criteria, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("pull(Criteria)");
+    }
+
+    public default <T> Page<T> pullPage(Class<T> type, int size) throws DataSourceException
+    {
+        return pullPage(type, size, null);
+    }
+
+    public default <T> Page<T> pullPage(Class<T> type, int size, String continuation) throws DataSourceException
+    {
+        return pullPage(type, size, continuation, type::newInstance);
+    }
+
+    public default <T, X extends Throwable> Page<T> pullPage(Class<T> type, int size, String continuation, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("pullPage");
+    }
+
+    public default <T> long count(Class<T> type) throws DataSourceException
+    {
+        return count(Criteria.of(type).build());
+    }
+
+    public default <T> long count(Criteria<T> criteria) throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("count");
+    }
+
+    public default <T> boolean exists(T object) throws DataSourceException
+    {
+        return exists(object, (Class<T>) object.getClass());
+    }
+
+    public default <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("exists");
+    }
+
+    public default <T, V> Optional<V> min(Class<T> type, String column) throws DataSourceException
+    {
+        return min(Criteria.of(type).build(), column);
+    }
+
+    public default <T, V> Optional<V> min(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("min");
+    }
+
+    public default <T, V> Optional<V> max(Class<T> type, String column) throws DataSourceException
+    {
+        return max(Criteria.of(type).build(), column);
+    }
+
+    public default <T, V> Optional<V> max(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("max");
+    }
+
+    public default <T> Optional<Number> sum(Class<T> type, String column) throws DataSourceException
+    {
+        return sum(Criteria.of(type).build(), column);
+    }
+
+    public default <T> Optional<Number> sum(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("sum");
+    }
+
     public default <T> Transaction commit(T object) throws DataSourceException
     {
         return commit(null, object);
@@ -84,4 +84,26 @@ public class DataSourceException extends Exception {
             super(msg, cause);
         }
     }
+
+    public static class UnsupportedOperation extends DataSourceException
+    {
+        public UnsupportedOperation()
+        {
+        }
+
+        public UnsupportedOperation(String msg)
+        {
+            super(msg);
+        }
+
+        public UnsupportedOperation(Throwable cause)
+        {
+            super(cause);
+        }
+
+        public UnsupportedOperation(String msg, Throwable cause)
+        {
+            super(msg, cause);
+        }
+    }
 }
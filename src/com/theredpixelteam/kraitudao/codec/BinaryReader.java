@@ -0,0 +1,245 @@
+/*
+ * BinaryReader.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+import java.nio.ByteBuffer;
+
+// reads what BinaryWriter writes, from an array or from the remaining bytes of a buffer without copying them
+public final class BinaryReader {
+    public BinaryReader()
+    {
+    }
+
+    public BinaryReader(byte[] array)
+    {
+        reset(array, 0, array.length);
+    }
+
+    public BinaryReader(ByteBuffer buffer)
+    {
+        reset(buffer);
+    }
+
+    public BinaryReader reset(byte[] array, int offset, int length)
+    {
+        this.array = array;
+        this.buffer = null;
+        this.position = offset;
+        this.limit = offset + length;
+
+        return this;
+    }
+
+    // reads absolutely, the position of the buffer is left untouched
+    public BinaryReader reset(ByteBuffer buffer)
+    {
+        this.array = null;
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+
+        return this;
+    }
+
+    public int position()
+    {
+        return position;
+    }
+
+    public int remaining()
+    {
+        return limit - position;
+    }
+
+    private void require(int length) throws CodecException
+    {
+        if (limit - position < length)
+            throw new CodecException("Unexpected end of input");
+    }
+
+    private byte get(int index)
+    {
+        return array != null ? array[index] : buffer.get(index);
+    }
+
+    public byte readByte() throws CodecException
+    {
+        require(1);
+        return get(position++);
+    }
+
+    public boolean readBoolean() throws CodecException
+    {
+        return readByte() != 0;
+    }
+
+    public int readInt() throws CodecException
+    {
+        require(4);
+
+        int value = 0;
+        for (int i = 0; i < 4; i++)
+            value |= (get(position++) & 0xFF) << (i * 8);
+
+        return value;
+    }
+
+    public long readLong() throws CodecException
+    {
+        require(8);
+
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value |= (get(position++) & 0xFFL) << (i * 8);
+
+        return value;
+    }
+
+    public float readFloat() throws CodecException
+    {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws CodecException
+    {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public long readVarLong() throws CodecException
+    {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new CodecException("Malformed varint");
+    }
+
+    public int readVarInt() throws CodecException
+    {
+        long value = readVarLong();
+
+        if ((value >>> 32) != 0)
+            throw new CodecException("Varint out of int range");
+
+        return (int) value;
+    }
+
+    public long readSignedVarLong() throws CodecException
+    {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readSignedVarInt() throws CodecException
+    {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public byte[] readBytes(int length) throws CodecException
+    {
+        require(length);
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = get(position++);
+
+        return bytes;
+    }
+
+    public String readString() throws CodecException
+    {
+        int length = readVarInt();
+        require(length);
+
+        int end = position + length;
+        char[] chars = new char[length];
+        int count = 0;
+
+        while (position < end)
+        {
+            int b = get(position++) & 0xFF;
+
+            if (b < 0x80)
+                chars[count++] = (char) b;
+            else if ((b & 0xE0) == 0xC0)
+                chars[count++] = (char) (((b & 0x1F) << 6) | continuation(end));
+            else if ((b & 0xF0) == 0xE0)
+                chars[count++] = (char) (((b & 0x0F) << 12) | (continuation(end) << 6) | continuation(end));
+            else if ((b & 0xF8) == 0xF0)
+            {
+                int codePoint = ((b & 0x07) << 18) | (continuation(end) << 12) | (continuation(end) << 6) | continuation(end);
+
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+            }
+            else
+                throw new CodecException("Malformed UTF-8");
+        }
+
+        return new String(chars, 0, count);
+    }
+
+    private int continuation(int end) throws CodecException
+    {
+        if (position >= end)
+            throw new CodecException("Malformed UTF-8");
+
+        int b = get(position++) & 0xFF;
+
+        if ((b & 0xC0) != 0x80)
+            throw new CodecException("Malformed UTF-8");
+
+        return b & 0x3F;
+    }
+
+    // skips bytes to be looked at later, returns their position
+    public int skip(int length) throws CodecException
+    {
+        require(length);
+
+        int mark = position;
+        position += length;
+
+        return mark;
+    }
+
+    public boolean bit(int mark, int bit)
+    {
+        return (get(mark + (bit >>> 3)) & (1 << (bit & 7))) != 0;
+    }
+
+    private byte[] array;
+
+    private ByteBuffer buffer;
+
+    private int position;
+
+    private int limit;
+}
@@ -0,0 +1,224 @@
+/*
+ * BinaryWriter.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// a growable little-endian buffer meant to be reset and reused, it only allocates when it has to grow
+public final class BinaryWriter {
+    public BinaryWriter()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public BinaryWriter(int capacity)
+    {
+        this.array = new byte[Math.max(capacity, 16)];
+    }
+
+    public BinaryWriter reset()
+    {
+        position = 0;
+        return this;
+    }
+
+    public int position()
+    {
+        return position;
+    }
+
+    // valid up to the position, replaced when growing
+    public byte[] array()
+    {
+        return array;
+    }
+
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(array, position);
+    }
+
+    public void writeTo(ByteBuffer buffer)
+    {
+        buffer.put(array, 0, position);
+    }
+
+    private void ensure(int length)
+    {
+        if (position + length > array.length)
+            array = Arrays.copyOf(array, Math.max(array.length * 2, position + length));
+    }
+
+    public void writeByte(int value)
+    {
+        ensure(1);
+        array[position++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value)
+    {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeBytes(byte[] bytes, int offset, int length)
+    {
+        ensure(length);
+        System.arraycopy(bytes, offset, array, position, length);
+        position += length;
+    }
+
+    public void writeInt(int value)
+    {
+        ensure(4);
+
+        for (int i = 0; i < 4; i++)
+            array[position++] = (byte) (value >>> (i * 8));
+    }
+
+    public void writeLong(long value)
+    {
+        ensure(8);
+
+        for (int i = 0; i < 8; i++)
+            array[position++] = (byte) (value >>> (i * 8));
+    }
+
+    public void writeFloat(float value)
+    {
+        writeInt(Float.floatToIntBits(value));
+    }
+
+    public void writeDouble(double value)
+    {
+        writeLong(Double.doubleToLongBits(value));
+    }
+
+    // unsigned LEB128
+    public void writeVarLong(long value)
+    {
+        ensure(10);
+
+        while ((value & ~0x7FL) != 0)
+        {
+            array[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        array[position++] = (byte) value;
+    }
+
+    public void writeVarInt(int value)
+    {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    // zigzag, so that small negative values stay short
+    public void writeSignedVarLong(long value)
+    {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeSignedVarInt(int value)
+    {
+        writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    // length prefixed UTF-8, encoded in place
+    public void writeString(CharSequence string)
+    {
+        int length = string.length();
+        int encoded = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = string.charAt(i);
+
+            if (c < 0x80)
+                encoded += 1;
+            else if (c < 0x800)
+                encoded += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1)))
+            {
+                encoded += 4;
+                i++;
+            }
+            else
+                encoded += 3;
+        }
+
+        writeVarInt(encoded);
+        ensure(encoded);
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = string.charAt(i);
+
+            if (c < 0x80)
+                array[position++] = (byte) c;
+            else if (c < 0x800)
+            {
+                array[position++] = (byte) (0xC0 | (c >> 6));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+
+                array[position++] = (byte) (0xF0 | (codePoint >> 18));
+                array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else
+            {
+                // unpaired surrogates are written as is, like CESU-8
+                array[position++] = (byte) (0xE0 | (c >> 12));
+                array[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    // zero filled bytes to be set later, returns their position
+    public int reserve(int length)
+    {
+        ensure(length);
+
+        int mark = position;
+        Arrays.fill(array, mark, mark + length, (byte) 0);
+        position += length;
+
+        return mark;
+    }
+
+    public void setBit(int mark, int bit)
+    {
+        array[mark + (bit >>> 3)] |= (byte) (1 << (bit & 7));
+    }
+
+    private byte[] array;
+
+    private int position;
+
+    private static final int DEFAULT_CAPACITY = 256;
+}
@@ -0,0 +1,68 @@
+/*
+ * CodecException.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+public class CodecException extends Exception {
+    public CodecException()
+    {
+    }
+
+    public CodecException(String msg)
+    {
+        super(msg);
+    }
+
+    public CodecException(Throwable cause)
+    {
+        super(cause);
+    }
+
+    public CodecException(String msg, Throwable cause)
+    {
+        super(msg, cause);
+    }
+
+    public static class SchemaMismatch extends CodecException
+    {
+        public SchemaMismatch(long expected, long actual)
+        {
+            super(String.format("Schema hash mismatch (Expected: %016x, Actual: %016x)", expected, actual));
+
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        public long getExpected()
+        {
+            return expected;
+        }
+
+        public long getActual()
+        {
+            return actual;
+        }
+
+        private final long expected;
+
+        private final long actual;
+    }
+}
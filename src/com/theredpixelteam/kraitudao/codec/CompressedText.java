@@ -0,0 +1,81 @@
+/*
+ * CompressedText.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+// text kept in its compressed frame until first read
+public final class CompressedText {
+    private CompressedText(String string, byte[] frame, Compression.Metrics metrics)
+    {
+        this.string = string;
+        this.frame = frame;
+        this.metrics = metrics;
+    }
+
+    public static CompressedText of(String string)
+    {
+        return new CompressedText(Objects.requireNonNull(string, "string"), null, null);
+    }
+
+    public static CompressedText ofFrame(byte[] frame, Compression.Metrics metrics)
+    {
+        return new CompressedText(null, Objects.requireNonNull(frame, "frame"), metrics);
+    }
+
+    // inflated once
+    public String asString() throws CodecException
+    {
+        String string = this.string;
+
+        if (string == null)
+            this.string = string = new String(Compression.decompress(frame, metrics), StandardCharsets.UTF_8);
+
+        return string;
+    }
+
+    public boolean isMaterialized()
+    {
+        return string != null;
+    }
+
+    // the frame read from the store, null if created from a string
+    public byte[] getFrame()
+    {
+        return frame;
+    }
+
+    public byte[] toFrame(int threshold, int level, Compression.Metrics metrics) throws CodecException
+    {
+        if (frame != null)
+            return frame;
+
+        return Compression.compress(asString().getBytes(StandardCharsets.UTF_8), threshold, level, metrics);
+    }
+
+    private volatile String string;
+
+    private final byte[] frame;
+
+    private final Compression.Metrics metrics;
+}
@@ -0,0 +1,249 @@
+/*
+ * Compression.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// values framed as [method][varint raw length][payload], deflated only from the threshold on and only when it pays off
+public final class Compression {
+    private Compression()
+    {
+    }
+
+    public static byte[] compress(byte[] raw, int threshold, int level, Metrics metrics)
+    {
+        BinaryWriter writer = new BinaryWriter(HEADER + raw.length);
+
+        if (raw.length >= threshold)
+        {
+            long start = System.nanoTime();
+
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            deflater.setLevel(level);
+            deflater.setInput(raw);
+            deflater.finish();
+
+            // anything not fitting in the raw length is not worth it
+            byte[] buffer = new byte[raw.length];
+            int length = 0;
+
+            while (!deflater.finished() && length < buffer.length)
+                length += deflater.deflate(buffer, length, buffer.length - length);
+
+            boolean finished = deflater.finished();
+            deflater.reset();
+
+            if (metrics != null)
+                metrics.compressionNanos.add(System.nanoTime() - start);
+
+            if (finished && length < raw.length)
+            {
+                writer.writeByte(DEFLATED);
+                writer.writeVarInt(raw.length);
+                writer.writeBytes(buffer, 0, length);
+
+                return record(writer.toByteArray(), raw.length, true, metrics);
+            }
+        }
+
+        writer.writeByte(STORED);
+        writer.writeVarInt(raw.length);
+        writer.writeBytes(raw, 0, raw.length);
+
+        return record(writer.toByteArray(), raw.length, false, metrics);
+    }
+
+    public static byte[] decompress(byte[] frame, Metrics metrics) throws CodecException
+    {
+        BinaryReader reader = new BinaryReader(frame);
+
+        byte method = reader.readByte();
+        int length = reader.readVarInt();
+
+        if (length < 0)
+            throw new CodecException("Negative raw length: " + length);
+
+        switch (method)
+        {
+            case STORED:
+                if (reader.remaining() != length)
+                    throw new CodecException("Stored length mismatch (Expected: " + length + ", Actual: " + reader.remaining() + ")");
+
+                return reader.readBytes(length);
+
+            case DEFLATED:
+                long start = System.nanoTime();
+
+                Inflater inflater = INFLATER.get();
+                inflater.reset();
+                inflater.setInput(frame, reader.position(), reader.remaining());
+
+                byte[] raw = new byte[length];
+
+                try {
+                    int inflated = 0;
+
+                    while (inflated < length && !inflater.finished())
+                    {
+                        int n = inflater.inflate(raw, inflated, length - inflated);
+
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                            break;
+
+                        inflated += n;
+                    }
+
+                    if (inflated != length || !inflater.finished())
+                        throw new CodecException("Inflated length mismatch (Expected: " + length + ", Actual: " + inflated + ")");
+                } catch (DataFormatException e) {
+                    throw new CodecException(e);
+                } finally {
+                    inflater.reset();
+                }
+
+                if (metrics != null)
+                {
+                    metrics.inflatedValues.increment();
+                    metrics.decompressionNanos.add(System.nanoTime() - start);
+                }
+
+                return raw;
+
+            default:
+                throw new CodecException("Unknown compression method: " + method);
+        }
+    }
+
+    public static boolean isDeflated(byte[] frame)
+    {
+        return frame.length > 0 && frame[0] == DEFLATED;
+    }
+
+    private static byte[] record(byte[] frame, int rawLength, boolean deflated, Metrics metrics)
+    {
+        if (metrics != null)
+        {
+            (deflated ? metrics.deflatedValues : metrics.storedValues).increment();
+            metrics.rawBytes.add(rawLength);
+            metrics.encodedBytes.add(frame.length);
+        }
+
+        return frame;
+    }
+
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+
+    private static final byte STORED = 0;
+
+    private static final byte DEFLATED = 1;
+
+    private static final int HEADER = 1 + 5;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    public static final class Metrics
+    {
+        public long getDeflatedValues()
+        {
+            return deflatedValues.sum();
+        }
+
+        public long getStoredValues()
+        {
+            return storedValues.sum();
+        }
+
+        public long getInflatedValues()
+        {
+            return inflatedValues.sum();
+        }
+
+        public long getRawBytes()
+        {
+            return rawBytes.sum();
+        }
+
+        public long getEncodedBytes()
+        {
+            return encodedBytes.sum();
+        }
+
+        // raw over encoded bytes of everything written, stored values included
+        public double getCompressionRatio()
+        {
+            long encoded = getEncodedBytes();
+
+            return encoded == 0 ? 1.0D : (double) getRawBytes() / encoded;
+        }
+
+        public long getCompressionNanos()
+        {
+            return compressionNanos.sum();
+        }
+
+        public long getDecompressionNanos()
+        {
+            return decompressionNanos.sum();
+        }
+
+        public void reset()
+        {
+            deflatedValues.reset();
+            storedValues.reset();
+            inflatedValues.reset();
+            rawBytes.reset();
+            encodedBytes.reset();
+            compressionNanos.reset();
+            decompressionNanos.reset();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Compression[deflated=%d, stored=%d, inflated=%d, ratio=%.3f, compress=%dus, decompress=%dus]",
+                    getDeflatedValues(), getStoredValues(), getInflatedValues(), getCompressionRatio(),
+                    getCompressionNanos() / 1000, getDecompressionNanos() / 1000);
+        }
+
+        private final LongAdder deflatedValues = new LongAdder();
+
+        private final LongAdder storedValues = new LongAdder();
+
+        private final LongAdder inflatedValues = new LongAdder();
+
+        private final LongAdder rawBytes = new LongAdder();
+
+        private final LongAdder encodedBytes = new LongAdder();
+
+        private final LongAdder compressionNanos = new LongAdder();
+
+        private final LongAdder decompressionNanos = new LongAdder();
+    }
+}
@@ -0,0 +1,742 @@
+/*
+ * ObjectCodec.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+import com.theredpixelteam.kraitudao.annotations.Element;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ExpandForcibly;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueList;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueMap;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueSet;
+import com.theredpixelteam.kraitudao.common.DataObjectCache;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.dataobject.util.ValueObjectIterator;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectInterpreter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+// encodes objects as a schema hash followed by, per object level, a null bitmap and the non-null values in order
+@SuppressWarnings("unchecked")
+public final class ObjectCodec<T> {
+    private ObjectCodec(Class<T> type, DataObject dataObject, Layout layout, long schemaHash)
+    {
+        this.type = type;
+        this.dataObject = dataObject;
+        this.layout = layout;
+        this.schemaHash = schemaHash;
+    }
+
+    public static <T> ObjectCodec<T> of(Class<T> type) throws CodecException
+    {
+        return of(type, StandardDataObjectInterpreter.INSTANCE, StandardDataObjectExpander.INSTANCE, DataObjectCache.getGlobal());
+    }
+
+    public static <T> ObjectCodec<T> of(Class<T> type,
+                                        DataObjectInterpreter interpreter,
+                                        DataObjectExpander expander,
+                                        DataObjectContainer container)
+            throws CodecException
+    {
+        Compiler compiler = new Compiler(interpreter, expander, container);
+        DataObject dataObject = compiler.interpret(type);
+
+        StringBuilder schema = new StringBuilder(type.getName());
+        Layout layout = compiler.compile(new ValueObjectIterator(dataObject), schema);
+
+        return new ObjectCodec<>(type, dataObject, layout, hash(schema));
+    }
+
+    public Class<T> getType()
+    {
+        return type;
+    }
+
+    public DataObject getDataObject()
+    {
+        return dataObject;
+    }
+
+    public long getSchemaHash()
+    {
+        return schemaHash;
+    }
+
+    public void encode(T object, BinaryWriter writer) throws CodecException
+    {
+        writer.writeLong(schemaHash);
+        layout.encode(object, writer);
+    }
+
+    public byte[] encode(T object) throws CodecException
+    {
+        BinaryWriter writer = new BinaryWriter();
+        encode(object, writer);
+
+        return writer.toByteArray();
+    }
+
+    // every value of the object is overwritten
+    public T decode(BinaryReader reader, T object) throws CodecException
+    {
+        long hash = reader.readLong();
+
+        if (hash != schemaHash)
+            throw new CodecException.SchemaMismatch(schemaHash, hash);
+
+        layout.decode(reader, object);
+
+        return object;
+    }
+
+    public T decode(byte[] bytes, T object) throws CodecException
+    {
+        return decode(new BinaryReader(bytes), object);
+    }
+
+    private static long hash(CharSequence schema)
+    {
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < schema.length(); i++)
+            h = (h ^ schema.charAt(i)) * 0x100000001b3L;
+
+        return h;
+    }
+
+    private static Object construct(Constructable constructable, Object owner) throws CodecException
+    {
+        try {
+            return constructable.getConstructor().newInstance(owner);
+        } catch (Exception e) {
+            throw new CodecException("Construction failure", e);
+        }
+    }
+
+    private final Class<T> type;
+
+    private final DataObject dataObject;
+
+    private final Layout layout;
+
+    private final long schemaHash;
+
+    private static final class Compiler
+    {
+        Compiler(DataObjectInterpreter interpreter, DataObjectExpander expander, DataObjectContainer container)
+        {
+            this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+            this.expander = Objects.requireNonNull(expander, "expander");
+            this.container = Objects.requireNonNull(container, "container");
+        }
+
+        DataObject interpret(Class<?> type) throws CodecException
+        {
+            try {
+                return container.interpretIfAbsent(type, interpreter);
+            } catch (DataObjectInterpretationException e) {
+                throw new CodecException(e);
+            }
+        }
+
+        Layout compile(Iterable<ValueObject> valueObjects, StringBuilder schema) throws CodecException
+        {
+            List<Field> fields = new ArrayList<>();
+
+            schema.append('{');
+
+            for (ValueObject valueObject : valueObjects)
+            {
+                schema.append(valueObject.getName()).append(':');
+                fields.add(new Field(valueObject, compile(valueObject, schema)));
+                schema.append(';');
+            }
+
+            schema.append('}');
+
+            return new Layout(fields.toArray(new Field[0]));
+        }
+
+        ValueCodec compile(ValueObject valueObject, StringBuilder schema) throws CodecException
+        {
+            Class<?> type = valueObject.getType();
+
+            switch (valueObject.getStructure())
+            {
+                case VALUE:
+                    break;
+
+                case MAP:
+                {
+                    Class<?>[] signature = signatureOf(valueObject, valueObject.getMetadata(ValueMap.class).isPresent()
+                            ? valueObject.getMetadata(ValueMap.class).get().signatured() : null, "@ValueMap", 2);
+
+                    schema.append("M<");
+                    ValueCodec key = element(signature[0], schema);
+                    schema.append(',');
+                    ValueCodec value = element(signature[1], schema);
+                    schema.append('>');
+
+                    return new MapCodec(valueObject, key, value);
+                }
+
+                case SET:
+                {
+                    Class<?>[] signature = signatureOf(valueObject, valueObject.getMetadata(ValueSet.class).isPresent()
+                            ? valueObject.getMetadata(ValueSet.class).get().signatured() : null, "@ValueSet", 1);
+
+                    schema.append("S<");
+                    ValueCodec element = element(signature[0], schema);
+                    schema.append('>');
+
+                    return new CollectionCodec(valueObject, element);
+                }
+
+                case LIST:
+                {
+                    Class<?>[] signature = signatureOf(valueObject, valueObject.getMetadata(ValueList.class).isPresent()
+                            ? valueObject.getMetadata(ValueList.class).get().signatured() : null, "@ValueList", 1);
+
+                    schema.append("L<");
+                    ValueCodec element = element(signature[0], schema);
+                    schema.append('>');
+
+                    return new CollectionCodec(valueObject, element);
+                }
+
+                default:
+                    throw new CodecException("Unsupported structure of \"" + valueObject.getName() + "\"");
+            }
+
+            boolean expandForcibly = valueObject.hasMetadata(ExpandForcibly.class);
+
+            if (!expandForcibly && Scalar.of(type) != null)
+                return scalar(type, schema);
+
+            if (!expandForcibly && type.getAnnotation(Element.class) != null)
+                return nested(type, valueObject, schema);
+
+            Map<String, ValueObject> expanded;
+
+            try {
+                expanded = container.expand(valueObject, expander)
+                        .orElseThrow(() -> new CodecException("Unsupported value type " + type.getCanonicalName()));
+            } catch (DataObjectInterpretationException e) {
+                throw new CodecException(e);
+            }
+
+            schema.append('X');
+
+            return new NestedCodec(compile(expanded.values(), schema), valueObject);
+        }
+
+        ValueCodec element(Class<?> type, StringBuilder schema) throws CodecException
+        {
+            if (Scalar.of(type) != null)
+                return scalar(type, schema);
+
+            if (type.getAnnotation(Element.class) != null)
+                return nested(type, null, schema);
+
+            throw new CodecException("Unsupported collection element type " + type.getCanonicalName());
+        }
+
+        ValueCodec scalar(Class<?> type, StringBuilder schema)
+        {
+            Scalar scalar = Scalar.of(type);
+            schema.append(scalar.name());
+
+            // ordinals are only stable as long as the constants are
+            if (scalar == Scalar.ENUM)
+            {
+                schema.append('(');
+
+                for (Object constant : type.getEnumConstants())
+                    schema.append(((Enum<?>) constant).name()).append(',');
+
+                schema.append(')');
+            }
+
+            return new ScalarCodec(scalar, type);
+        }
+
+        // element layouts are shared, recursive element types refer to the layout being compiled
+        ValueCodec nested(Class<?> type, ValueObject valueObject, StringBuilder schema) throws CodecException
+        {
+            DataObject elementDataObject = interpret(type);
+
+            if (!DataObjectType.ELEMENT.equals(elementDataObject.getDataObjectType()))
+                throw new CodecException("Not an element type " + type.getCanonicalName());
+
+            schema.append('E').append(type.getName());
+
+            Layout layout = elements.get(type);
+
+            if (layout == null)
+            {
+                layout = new Layout(null);
+                elements.put(type, layout);
+
+                layout.fields = compile(new ValueObjectIterator(elementDataObject), schema).fields;
+            }
+
+            return valueObject == null ? new NestedCodec(layout, elementDataObject) : new NestedCodec(layout, valueObject);
+        }
+
+        // only flat signatures, nested collections are not representable here
+        static Class<?>[] signatureOf(ValueObject valueObject, Class<?>[] signature, String metadata, int length)
+                throws CodecException
+        {
+            if (signature == null)
+                throw new CodecException("Missing metadata " + metadata + " (Name: " + valueObject.getName() + ")");
+
+            if (signature.length != length)
+                throw new CodecException("Nested collection \"" + valueObject.getName() + "\" is not supported");
+
+            return signature;
+        }
+
+        private final DataObjectInterpreter interpreter;
+
+        private final DataObjectExpander expander;
+
+        private final DataObjectContainer container;
+
+        private final Map<Class<?>, Layout> elements = new HashMap<>();
+    }
+
+    private interface ValueCodec
+    {
+        void encode(Object value, BinaryWriter writer) throws CodecException;
+
+        // the existing value may be reused, the owner is the object the value is going to be set on
+        Object decode(BinaryReader reader, Object existing, Object owner) throws CodecException;
+    }
+
+    private static final class Field
+    {
+        Field(ValueObject valueObject, ValueCodec codec)
+        {
+            this.valueObject = valueObject;
+            this.codec = codec;
+            this.primitive = valueObject.getType().isPrimitive();
+        }
+
+        final ValueObject valueObject;
+
+        final ValueCodec codec;
+
+        final boolean primitive;
+    }
+
+    private static final class Layout
+    {
+        Layout(Field[] fields)
+        {
+            this.fields = fields;
+        }
+
+        void encode(Object object, BinaryWriter writer) throws CodecException
+        {
+            int bitmap = writer.reserve((fields.length + 7) >>> 3);
+
+            for (int i = 0; i < fields.length; i++)
+            {
+                Object value = fields[i].valueObject.get(object);
+
+                if (value == null)
+                    writer.setBit(bitmap, i);
+                else
+                    fields[i].codec.encode(value, writer);
+            }
+        }
+
+        void decode(BinaryReader reader, Object object) throws CodecException
+        {
+            int bitmap = reader.skip((fields.length + 7) >>> 3);
+
+            for (int i = 0; i < fields.length; i++)
+            {
+                Field field = fields[i];
+
+                if (reader.bit(bitmap, i))
+                {
+                    if (!field.primitive)
+                        field.valueObject.set(object, null);
+
+                    continue;
+                }
+
+                field.valueObject.set(object, field.codec.decode(reader, field.valueObject.get(object), object));
+            }
+        }
+
+        Field[] fields;
+    }
+
+    private enum Scalar
+    {
+        BOOLEAN,
+        BYTE,
+        SHORT,
+        CHAR,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        STRING,
+        ENUM,
+        BIG_DECIMAL,
+        BIG_INTEGER;
+
+        static Scalar of(Class<?> type)
+        {
+            if (type == boolean.class || type == Boolean.class)
+                return BOOLEAN;
+
+            if (type == byte.class || type == Byte.class)
+                return BYTE;
+
+            if (type == short.class || type == Short.class)
+                return SHORT;
+
+            if (type == char.class || type == Character.class)
+                return CHAR;
+
+            if (type == int.class || type == Integer.class)
+                return INT;
+
+            if (type == long.class || type == Long.class)
+                return LONG;
+
+            if (type == float.class || type == Float.class)
+                return FLOAT;
+
+            if (type == double.class || type == Double.class)
+                return DOUBLE;
+
+            if (type == String.class)
+                return STRING;
+
+            if (type.isEnum())
+                return ENUM;
+
+            if (type == BigDecimal.class)
+                return BIG_DECIMAL;
+
+            if (type == BigInteger.class)
+                return BIG_INTEGER;
+
+            return null;
+        }
+    }
+
+    private static final class ScalarCodec implements ValueCodec
+    {
+        ScalarCodec(Scalar scalar, Class<?> type)
+        {
+            this.scalar = scalar;
+            this.constants = scalar == Scalar.ENUM ? type.getEnumConstants() : null;
+        }
+
+        @Override
+        public void encode(Object value, BinaryWriter writer) throws CodecException
+        {
+            switch (scalar)
+            {
+                case BOOLEAN:
+                    writer.writeBoolean((Boolean) value);
+                    break;
+
+                case BYTE:
+                    writer.writeByte((Byte) value);
+                    break;
+
+                case SHORT:
+                    writer.writeSignedVarInt((Short) value);
+                    break;
+
+                case CHAR:
+                    writer.writeVarInt((Character) value);
+                    break;
+
+                case INT:
+                    writer.writeSignedVarInt((Integer) value);
+                    break;
+
+                case LONG:
+                    writer.writeSignedVarLong((Long) value);
+                    break;
+
+                case FLOAT:
+                    writer.writeFloat((Float) value);
+                    break;
+
+                case DOUBLE:
+                    writer.writeDouble((Double) value);
+                    break;
+
+                case STRING:
+                    writer.writeString((String) value);
+                    break;
+
+                case ENUM:
+                    writer.writeVarInt(((Enum<?>) value).ordinal());
+                    break;
+
+                case BIG_DECIMAL:
+                {
+                    BigDecimal decimal = (BigDecimal) value;
+                    byte[] unscaled = decimal.unscaledValue().toByteArray();
+
+                    writer.writeSignedVarInt(decimal.scale());
+                    writer.writeVarInt(unscaled.length);
+                    writer.writeBytes(unscaled, 0, unscaled.length);
+                    break;
+                }
+
+                case BIG_INTEGER:
+                {
+                    byte[] bytes = ((BigInteger) value).toByteArray();
+
+                    writer.writeVarInt(bytes.length);
+                    writer.writeBytes(bytes, 0, bytes.length);
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public Object decode(BinaryReader reader, Object existing, Object owner) throws CodecException
+        {
+            switch (scalar)
+            {
+                case BOOLEAN:
+                    return reader.readBoolean();
+
+                case BYTE:
+                    return reader.readByte();
+
+                case SHORT:
+                    return (short) reader.readSignedVarInt();
+
+                case CHAR:
+                    return (char) reader.readVarInt();
+
+                case INT:
+                    return reader.readSignedVarInt();
+
+                case LONG:
+                    return reader.readSignedVarLong();
+
+                case FLOAT:
+                    return reader.readFloat();
+
+                case DOUBLE:
+                    return reader.readDouble();
+
+                case STRING:
+                    return reader.readString();
+
+                case ENUM:
+                {
+                    int ordinal = reader.readVarInt();
+
+                    if (ordinal >= constants.length)
+                        throw new CodecException("Enum ordinal out of range: " + ordinal);
+
+                    return constants[ordinal];
+                }
+
+                case BIG_DECIMAL:
+                {
+                    int scale = reader.readSignedVarInt();
+                    return new BigDecimal(new BigInteger(reader.readBytes(reader.readVarInt())), scale);
+                }
+
+                case BIG_INTEGER:
+                    return new BigInteger(reader.readBytes(reader.readVarInt()));
+
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        private final Scalar scalar;
+
+        private final Object[] constants;
+    }
+
+    // elements and expanded values, inlined with a null bitmap of their own
+    private static final class NestedCodec implements ValueCodec
+    {
+        NestedCodec(Layout layout, Constructable constructable)
+        {
+            this.layout = layout;
+            this.constructable = constructable;
+        }
+
+        @Override
+        public void encode(Object value, BinaryWriter writer) throws CodecException
+        {
+            layout.encode(value, writer);
+        }
+
+        @Override
+        public Object decode(BinaryReader reader, Object existing, Object owner) throws CodecException
+        {
+            Object value = existing != null ? existing : construct(constructable, owner);
+            layout.decode(reader, value);
+
+            return value;
+        }
+
+        private final Layout layout;
+
+        private final Constructable constructable;
+    }
+
+    // a count, a null bitmap over the elements and the non-null elements
+    private static final class CollectionCodec implements ValueCodec
+    {
+        CollectionCodec(ValueObject valueObject, ValueCodec element)
+        {
+            this.valueObject = valueObject;
+            this.element = element;
+        }
+
+        @Override
+        public void encode(Object value, BinaryWriter writer) throws CodecException
+        {
+            Collection<Object> collection = (Collection<Object>) value;
+            int size = collection.size();
+
+            writer.writeVarInt(size);
+            int bitmap = writer.reserve((size + 7) >>> 3);
+
+            int i = 0;
+            for (Object element : collection)
+            {
+                if (i >= size)
+                    throw new CodecException("Concurrent modification of \"" + valueObject.getName() + "\"");
+
+                if (element == null)
+                    writer.setBit(bitmap, i);
+                else
+                    this.element.encode(element, writer);
+
+                i++;
+            }
+        }
+
+        @Override
+        public Object decode(BinaryReader reader, Object existing, Object owner) throws CodecException
+        {
+            Collection<Object> collection = (Collection<Object>) (existing != null && valueObject.getConstructor().onlyOnNull()
+                    ? existing : construct(valueObject, owner));
+
+            collection.clear();
+
+            int size = reader.readVarInt();
+            int bitmap = reader.skip((size + 7) >>> 3);
+
+            for (int i = 0; i < size; i++)
+                collection.add(reader.bit(bitmap, i) ? null : element.decode(reader, null, null));
+
+            return collection;
+        }
+
+        private final ValueObject valueObject;
+
+        private final ValueCodec element;
+    }
+
+    // a count, a null bitmap over the values and the entries, keys are never null
+    private static final class MapCodec implements ValueCodec
+    {
+        MapCodec(ValueObject valueObject, ValueCodec key, ValueCodec value)
+        {
+            this.valueObject = valueObject;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public void encode(Object value, BinaryWriter writer) throws CodecException
+        {
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            int size = map.size();
+
+            writer.writeVarInt(size);
+            int bitmap = writer.reserve((size + 7) >>> 3);
+
+            int i = 0;
+            for (Map.Entry<Object, Object> entry : map.entrySet())
+            {
+                if (i >= size)
+                    throw new CodecException("Concurrent modification of \"" + valueObject.getName() + "\"");
+
+                if (entry.getKey() == null)
+                    throw new CodecException("Null key in \"" + valueObject.getName() + "\"");
+
+                key.encode(entry.getKey(), writer);
+
+                if (entry.getValue() == null)
+                    writer.setBit(bitmap, i);
+                else
+                    this.value.encode(entry.getValue(), writer);
+
+                i++;
+            }
+        }
+
+        @Override
+        public Object decode(BinaryReader reader, Object existing, Object owner) throws CodecException
+        {
+            Map<Object, Object> map = (Map<Object, Object>) (existing != null && valueObject.getConstructor().onlyOnNull()
+                    ? existing : construct(valueObject, owner));
+
+            map.clear();
+
+            int size = reader.readVarInt();
+            int bitmap = reader.skip((size + 7) >>> 3);
+
+            for (int i = 0; i < size; i++)
+            {
+                Object key = this.key.decode(reader, null, null);
+                map.put(key, reader.bit(bitmap, i) ? null : value.decode(reader, null, null));
+            }
+
+            return map;
+        }
+
+        private final ValueObject valueObject;
+
+        private final ValueCodec key;
+
+        private final ValueCodec value;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * PackedArrays.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// primitive arrays as [kind | delta flag][varint count][payload], the payload being either the little-endian
+// elements or, for integral kinds, zigzag varints of the differences between consecutive elements
+public final class PackedArrays {
+    private PackedArrays()
+    {
+    }
+
+    public static boolean supports(Class<?> arrayType)
+    {
+        return KINDS.containsKey(arrayType);
+    }
+
+    // the array type packing the boxed or primitive element type, or null
+    public static Class<?> arrayTypeOf(Class<?> elementType)
+    {
+        return ARRAYS.get(elementType);
+    }
+
+    public static byte[] pack(Object array, boolean delta) throws CodecException
+    {
+        Kind kind = kindOf(array.getClass());
+        int length = Array.getLength(array);
+
+        delta &= kind.integral;
+
+        BinaryWriter writer = new BinaryWriter(HEADER + (delta ? length * 2 : length * kind.width));
+
+        writer.writeByte(kind.ordinal() | (delta ? DELTA : 0));
+        writer.writeVarInt(length);
+
+        if (delta)
+        {
+            long previous = 0;
+
+            for (int i = 0; i < length; i++)
+            {
+                long value = integral(kind, array, i);
+
+                writer.writeSignedVarLong(value - previous);
+                previous = value;
+            }
+
+            return writer.toByteArray();
+        }
+
+        byte[] bytes = new byte[writer.position() + length * kind.width];
+        System.arraycopy(writer.array(), 0, bytes, 0, writer.position());
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, writer.position(), length * kind.width).slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        switch (kind)
+        {
+            case BYTE:
+                buffer.put((byte[]) array);
+                break;
+
+            case SHORT:
+                buffer.asShortBuffer().put((short[]) array);
+                break;
+
+            case INT:
+                buffer.asIntBuffer().put((int[]) array);
+                break;
+
+            case LONG:
+                buffer.asLongBuffer().put((long[]) array);
+                break;
+
+            case FLOAT:
+                buffer.asFloatBuffer().put((float[]) array);
+                break;
+
+            case DOUBLE:
+                buffer.asDoubleBuffer().put((double[]) array);
+                break;
+        }
+
+        return bytes;
+    }
+
+    public static Object unpack(byte[] bytes, Class<?> arrayType) throws CodecException
+    {
+        Kind expected = kindOf(arrayType);
+        BinaryReader reader = new BinaryReader(bytes);
+
+        int header = reader.readByte() & 0xFF;
+        boolean delta = (header & DELTA) != 0;
+
+        if ((header & ~DELTA) != expected.ordinal())
+            throw new CodecException("Packed kind mismatch: expected " + expected + ", got " + (header & ~DELTA));
+
+        int length = reader.readVarInt();
+
+        if (delta)
+        {
+            if (!expected.integral)
+                throw new CodecException("Delta encoding of non-integral kind " + expected);
+
+            Object array = Array.newInstance(arrayType.getComponentType(), length);
+            long previous = 0;
+
+            for (int i = 0; i < length; i++)
+                integral(expected, array, i, previous += reader.readSignedVarLong());
+
+            return array;
+        }
+
+        int offset = reader.position();
+
+        if (bytes.length - offset != (long) length * expected.width)
+            throw new CodecException("Packed length mismatch: " + length + " elements in " + (bytes.length - offset) + " bytes");
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, bytes.length - offset).slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        switch (expected)
+        {
+            case BYTE:
+            {
+                byte[] array = new byte[length];
+                buffer.get(array);
+                return array;
+            }
+
+            case SHORT:
+            {
+                short[] array = new short[length];
+                buffer.asShortBuffer().get(array);
+                return array;
+            }
+
+            case INT:
+            {
+                int[] array = new int[length];
+                buffer.asIntBuffer().get(array);
+                return array;
+            }
+
+            case LONG:
+            {
+                long[] array = new long[length];
+                buffer.asLongBuffer().get(array);
+                return array;
+            }
+
+            case FLOAT:
+            {
+                float[] array = new float[length];
+                buffer.asFloatBuffer().get(array);
+                return array;
+            }
+
+            case DOUBLE:
+            {
+                double[] array = new double[length];
+                buffer.asDoubleBuffer().get(array);
+                return array;
+            }
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    // null elements cannot be packed
+    public static byte[] pack(Collection<?> collection, Class<?> elementType, boolean delta) throws CodecException
+    {
+        Class<?> arrayType = arrayTypeOf(elementType);
+
+        if (arrayType == null)
+            throw new CodecException("Unpackable element type " + elementType.getCanonicalName());
+
+        Object array = Array.newInstance(arrayType.getComponentType(), collection.size());
+
+        int i = 0;
+        for (Object element : collection)
+        {
+            if (element == null)
+                throw new CodecException("Null element at " + i);
+
+            if (i == collection.size())
+                throw new CodecException("Concurrent modification");
+
+            Array.set(array, i++, element);
+        }
+
+        if (i != collection.size())
+            throw new CodecException("Concurrent modification");
+
+        return pack(array, delta);
+    }
+
+    public static void unpack(byte[] bytes, Class<?> elementType, Collection<Object> collection) throws CodecException
+    {
+        Class<?> arrayType = arrayTypeOf(elementType);
+
+        if (arrayType == null)
+            throw new CodecException("Unpackable element type " + elementType.getCanonicalName());
+
+        Object array = unpack(bytes, arrayType);
+        int length = Array.getLength(array);
+
+        for (int i = 0; i < length; i++)
+            collection.add(Array.get(array, i));
+    }
+
+    private static Kind kindOf(Class<?> arrayType) throws CodecException
+    {
+        Kind kind = KINDS.get(arrayType);
+
+        if (kind == null)
+            throw new CodecException("Unpackable type " + arrayType.getCanonicalName());
+
+        return kind;
+    }
+
+    private static long integral(Kind kind, Object array, int index)
+    {
+        switch (kind)
+        {
+            case BYTE:
+                return ((byte[]) array)[index];
+
+            case SHORT:
+                return ((short[]) array)[index];
+
+            case INT:
+                return ((int[]) array)[index];
+
+            case LONG:
+                return ((long[]) array)[index];
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static void integral(Kind kind, Object array, int index, long value)
+    {
+        switch (kind)
+        {
+            case BYTE:
+                ((byte[]) array)[index] = (byte) value;
+                break;
+
+            case SHORT:
+                ((short[]) array)[index] = (short) value;
+                break;
+
+            case INT:
+                ((int[]) array)[index] = (int) value;
+                break;
+
+            case LONG:
+                ((long[]) array)[index] = value;
+                break;
+        }
+    }
+
+    private enum Kind
+    {
+        BYTE(1, true),
+        SHORT(2, true),
+        INT(4, true),
+        LONG(8, true),
+        FLOAT(4, false),
+        DOUBLE(8, false);
+
+        Kind(int width, boolean integral)
+        {
+            this.width = width;
+            this.integral = integral;
+        }
+
+        final int width;
+
+        final boolean integral;
+    }
+
+    private static final int DELTA = 0x80;
+
+    private static final int HEADER = 6;
+
+    private static final Map<Class<?>, Kind> KINDS = new HashMap<Class<?>, Kind>() {
+        {
+            put(byte[].class,       Kind.BYTE);
+            put(short[].class,      Kind.SHORT);
+            put(int[].class,        Kind.INT);
+            put(long[].class,       Kind.LONG);
+            put(float[].class,      Kind.FLOAT);
+            put(double[].class,     Kind.DOUBLE);
+        }
+    };
+
+    private static final Map<Class<?>, Class<?>> ARRAYS = new HashMap<Class<?>, Class<?>>() {
+        {
+            put(byte.class,         byte[].class);
+            put(Byte.class,         byte[].class);
+            put(short.class,        short[].class);
+            put(Short.class,        short[].class);
+            put(int.class,          int[].class);
+            put(Integer.class,      int[].class);
+            put(long.class,         long[].class);
+            put(Long.class,         long[].class);
+            put(float.class,        float[].class);
+            put(Float.class,        float[].class);
+            put(double.class,       double[].class);
+            put(Double.class,       double[].class);
+        }
+    };
+}
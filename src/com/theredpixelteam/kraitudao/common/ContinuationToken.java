@@ -0,0 +1,287 @@
+/*
+ * ContinuationToken.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.DataSourceException;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.UUID;
+
+public final class ContinuationToken {
+    private ContinuationToken()
+    {
+    }
+
+    public static String encode(Class<?> type, Object[] values) throws DataSourceException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(buffer)) {
+            output.writeByte(VERSION);
+            output.writeInt(type.getName().hashCode());
+            output.writeByte(values.length);
+
+            for (Object value : values)
+                write(output, value);
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+    }
+
+    public static Object[] decode(Class<?> type, String token, int arity) throws DataSourceException
+    {
+        byte[] bytes;
+
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw malformed(e);
+        }
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (input.readByte() != VERSION)
+                throw malformed(null);
+
+            if (input.readInt() != type.getName().hashCode())
+                throw new DataSourceException("Continuation token does not belong to type: " + type.getCanonicalName());
+
+            int length = input.readUnsignedByte();
+
+            if (length != arity)
+                throw malformed(null);
+
+            Object[] values = new Object[length];
+
+            for (int i = 0; i < length; i++)
+                values[i] = read(input, type.getClassLoader());
+
+            return values;
+        } catch (IOException e) {
+            throw malformed(e);
+        }
+    }
+
+    private static void write(DataOutput output, Object value) throws IOException, DataSourceException
+    {
+        if (value instanceof Integer)
+        {
+            output.writeByte(TAG_INT);
+            output.writeInt((Integer) value);
+        }
+        else if (value instanceof Long)
+        {
+            output.writeByte(TAG_LONG);
+            output.writeLong((Long) value);
+        }
+        else if (value instanceof String)
+        {
+            output.writeByte(TAG_STRING);
+            output.writeUTF((String) value);
+        }
+        else if (value instanceof Short)
+        {
+            output.writeByte(TAG_SHORT);
+            output.writeShort((Short) value);
+        }
+        else if (value instanceof Byte)
+        {
+            output.writeByte(TAG_BYTE);
+            output.writeByte((Byte) value);
+        }
+        else if (value instanceof Character)
+        {
+            output.writeByte(TAG_CHAR);
+            output.writeChar((Character) value);
+        }
+        else if (value instanceof Boolean)
+        {
+            output.writeByte(TAG_BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Float)
+        {
+            output.writeByte(TAG_FLOAT);
+            output.writeFloat((Float) value);
+        }
+        else if (value instanceof Double)
+        {
+            output.writeByte(TAG_DOUBLE);
+            output.writeDouble((Double) value);
+        }
+        else if (value instanceof BigDecimal)
+        {
+            output.writeByte(TAG_DECIMAL);
+            output.writeUTF(value.toString());
+        }
+        else if (value instanceof UUID)
+        {
+            output.writeByte(TAG_UUID);
+            output.writeLong(((UUID) value).getMostSignificantBits());
+            output.writeLong(((UUID) value).getLeastSignificantBits());
+        }
+        else if (value instanceof Enum)
+        {
+            // constants with a body are subclasses of their enum
+            output.writeByte(TAG_ENUM);
+            output.writeUTF(((Enum<?>) value).getDeclaringClass().getName());
+            output.writeInt(((Enum<?>) value).ordinal());
+        }
+        else if (value instanceof Instant)
+        {
+            output.writeByte(TAG_INSTANT);
+            output.writeLong(((Instant) value).getEpochSecond());
+            output.writeInt(((Instant) value).getNano());
+        }
+        else if (value instanceof LocalDateTime)
+        {
+            output.writeByte(TAG_LOCAL_DATE_TIME);
+            output.writeLong(((LocalDateTime) value).toEpochSecond(ZoneOffset.UTC));
+            output.writeInt(((LocalDateTime) value).getNano());
+        }
+        else if (value instanceof Duration)
+        {
+            output.writeByte(TAG_DURATION);
+            output.writeLong(((Duration) value).getSeconds());
+            output.writeInt(((Duration) value).getNano());
+        }
+        else
+            throw new DataSourceException.UnsupportedValueType("(As continuation key) "
+                    + (value == null ? "null" : value.getClass().getCanonicalName()));
+    }
+
+    private static Object read(DataInput input, ClassLoader classLoader) throws IOException, DataSourceException
+    {
+        switch (input.readByte())
+        {
+            case TAG_INT:
+                return input.readInt();
+
+            case TAG_LONG:
+                return input.readLong();
+
+            case TAG_STRING:
+                return input.readUTF();
+
+            case TAG_SHORT:
+                return input.readShort();
+
+            case TAG_BYTE:
+                return input.readByte();
+
+            case TAG_CHAR:
+                return input.readChar();
+
+            case TAG_BOOLEAN:
+                return input.readBoolean();
+
+            case TAG_FLOAT:
+                return input.readFloat();
+
+            case TAG_DOUBLE:
+                return input.readDouble();
+
+            case TAG_DECIMAL:
+                return new BigDecimal(input.readUTF());
+
+            case TAG_UUID:
+                return new UUID(input.readLong(), input.readLong());
+
+            case TAG_ENUM:
+                return constantOf(input.readUTF(), input.readInt(), classLoader);
+
+            case TAG_INSTANT:
+                return Instant.ofEpochSecond(input.readLong(), input.readInt());
+
+            case TAG_LOCAL_DATE_TIME:
+                return LocalDateTime.ofEpochSecond(input.readLong(), input.readInt(), ZoneOffset.UTC);
+
+            case TAG_DURATION:
+                return Duration.ofSeconds(input.readLong(), input.readInt());
+
+            default:
+                throw malformed(null);
+        }
+    }
+
+    private static Object constantOf(String typeName, int ordinal, ClassLoader classLoader) throws DataSourceException
+    {
+        Class<?> enumType;
+
+        try {
+            enumType = Class.forName(typeName, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw malformed(e);
+        }
+
+        Object[] constants = enumType.getEnumConstants();
+
+        if (constants == null || ordinal < 0 || ordinal >= constants.length)
+            throw malformed(null);
+
+        return constants[ordinal];
+    }
+
+    private static DataSourceException malformed(Throwable cause)
+    {
+        return new DataSourceException("Malformed continuation token", cause);
+    }
+
+    private static final byte VERSION = 1;
+
+    private static final byte TAG_INT = 1;
+
+    private static final byte TAG_LONG = 2;
+
+    private static final byte TAG_STRING = 3;
+
+    private static final byte TAG_SHORT = 4;
+
+    private static final byte TAG_BYTE = 5;
+
+    private static final byte TAG_CHAR = 6;
+
+    private static final byte TAG_BOOLEAN = 7;
+
+    private static final byte TAG_FLOAT = 8;
+
+    private static final byte TAG_DOUBLE = 9;
+
+    private static final byte TAG_DECIMAL = 10;
+
+    private static final byte TAG_UUID = 11;
+
+    private static final byte TAG_ENUM = 12;
+
+    private static final byte TAG_INSTANT = 13;
+
+    private static final byte TAG_LOCAL_DATE_TIME = 14;
+
+    private static final byte TAG_DURATION = 15;
+}
@@ -29,8 +29,12 @@ import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
 import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
 import com.theredpixelteam.redtea.util.Optional;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DataObjectCache implements DataObjectContainer {
     public DataObjectCache()
@@ -47,12 +51,13 @@ public class DataObjectCache implements DataObjectContainer {
     public Optional<Map<String, ValueObject>> expand(ValueObject valueObject, DataObjectExpander expander)
             throws DataObjectInterpretationException
     {
-        DataObject dataObject = valueObject.getOwner();
-        Class<?> dataType = dataObject.getType();
         Map<String, ValueObject> result;
 
-        if ((result = expansionCache.get(dataType)) != null)
-            return Optional.of(result);
+        if ((result = expansionCache.get(valueObject)) != null)
+            return result == NOT_EXPANDABLE ? Optional.empty() : Optional.of(result);
+
+        DataObject dataObject = valueObject.getOwner();
+        Class<?> dataType = dataObject.getType();
 
         // -- check consistency --
         DataObject cachedDataObject = cache.get(dataType);
@@ -65,12 +70,13 @@ public class DataObjectCache implements DataObjectContainer {
 
         result = expander.expand(valueObject).orElse(null);
 
-        if(result == null)
-            return Optional.empty();
+        // value objects without expand rules are remembered as well
+        Map<String, ValueObject> cached = expansionCache.putIfAbsent(valueObject, result == null ? NOT_EXPANDABLE : result);
 
-        expansionCache.put(dataType, result);
+        if (cached != null) // raced, keep the first expansion
+            result = cached == NOT_EXPANDABLE ? null : cached;
 
-        return Optional.of(result);
+        return Optional.ofNullable(result);
     }
 
     @Override
@@ -83,19 +89,53 @@ public class DataObjectCache implements DataObjectContainer {
     @Override
     public boolean remove(Class<?> type)
     {
-        return cache.remove(type) != null;
+        DataObject removed = cache.remove(type);
+
+        if (removed == null)
+            return false;
+
+        evictExpansions(removed);
+        return true;
     }
 
     @Override
     public boolean remove(Class<?> type, DataObject dataObject)
     {
-        return cache.remove(type, dataObject);
+        if (!cache.remove(type, dataObject))
+            return false;
+
+        evictExpansions(dataObject);
+        return true;
     }
 
     @Override
     public Optional<DataObject> put(Class<?> type, DataObject dataObject)
     {
-        return Optional.ofNullable(cache.put(type, dataObject));
+        DataObject replaced = cache.put(type, dataObject);
+
+        if (replaced != null && replaced != dataObject)
+            evictExpansions(replaced);
+
+        return Optional.ofNullable(replaced);
+    }
+
+    // expansions of expanded value objects are keyed by those, so they are followed from the evicted ones
+    private void evictExpansions(DataObject dataObject)
+    {
+        Deque<ValueObject> evicting = new ArrayDeque<>();
+
+        for (ValueObject valueObject : expansionCache.keySet())
+            if (valueObject.getOwner() == dataObject)
+                evicting.add(valueObject);
+
+        ValueObject valueObject;
+        while ((valueObject = evicting.poll()) != null)
+        {
+            Map<String, ValueObject> expansion = expansionCache.remove(valueObject);
+
+            if (expansion != null)
+                evicting.addAll(expansion.values());
+        }
     }
 
     public static DataObjectCache getGlobal()
@@ -105,7 +145,10 @@ public class DataObjectCache implements DataObjectContainer {
 
     private static final DataObjectCache GLOBAL = new DataObjectCache();
 
-    private final Map<Class<?>, DataObject> cache = new HashMap<>();
+    private final Map<Class<?>, DataObject> cache = new ConcurrentHashMap<>();
+
+    // keyed by the origin value object, each of them expands once
+    private final Map<ValueObject, Map<String, ValueObject>> expansionCache = new ConcurrentHashMap<>();
 
-    private final Map<Class<?>, Map<String, ValueObject>> expansionCache = new HashMap<>();
+    private static final Map<String, ValueObject> NOT_EXPANDABLE = Collections.unmodifiableMap(new HashMap<>());
 }
@@ -23,11 +23,18 @@ package com.theredpixelteam.kraitudao.common;
 
 import com.theredpixelteam.kraitudao.DataSource;
 import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.Page;
 import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.criteria.Criteria;
+import com.theredpixelteam.kraitudao.criteria.Projection;
 import com.theredpixelteam.redtea.function.SupplierWithThrowable;
 import com.theredpixelteam.redtea.util.Optional;
 
 import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class DataSourceUtil {
     private DataSourceUtil()
@@ -36,256 +43,474 @@ public final class DataSourceUtil {
 
     public static DataSource synchronizedDataSource(DataSource dataSource)
     {
-        return new SynchronizedDataSource(dataSource);
+        return synchronizedDataSource(dataSource, new ReentrantLock());
     }
 
-    private static final class SynchronizedDataSource implements DataSource
+    public static DataSource synchronizedDataSource(DataSource dataSource, Lock lock)
     {
-        private SynchronizedDataSource(DataSource object)
+        return new GuardedDataSource(dataSource, new LockGuard(lock));
+    }
+
+    // for thread-safe data sources over a connection pool, permits should match the pool size
+    public static DataSource boundedDataSource(DataSource dataSource, int permits)
+    {
+        return new GuardedDataSource(dataSource, new SemaphoreGuard(new Semaphore(permits, true)));
+    }
+
+    // locks park the waiting threads instead of pinning them on a monitor
+    private interface Guard
+    {
+        public <R, X extends Throwable> R call(SupplierWithThrowable<R, X> task) throws X;
+    }
+
+    private static final class LockGuard implements Guard
+    {
+        private LockGuard(Lock lock)
+        {
+            this.lock = Objects.requireNonNull(lock, "lock");
+        }
+
+        @Override
+        public <R, X extends Throwable> R call(SupplierWithThrowable<R, X> task) throws X
+        {
+            lock.lock();
+
+            try {
+                return task.get();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private final Lock lock;
+    }
+
+    private static final class SemaphoreGuard implements Guard
+    {
+        private SemaphoreGuard(Semaphore semaphore)
+        {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public <R, X extends Throwable> R call(SupplierWithThrowable<R, X> task) throws X
+        {
+            semaphore.acquireUninterruptibly();
+
+            try {
+                return task.get();
+            } finally {
+                semaphore.release();
+            }
+        }
+
+        private final Semaphore semaphore;
+    }
+
+    private static final class GuardedDataSource implements DataSource
+    {
+        private GuardedDataSource(DataSource object, Guard guard)
         {
             this.object = object;
+            this.guard = guard;
+        }
+
+        @Override
+        public <T> void pull(T object) throws DataSourceException
+        {
+            guard.call(() -> {
+                this.object.pull(object);
+                return null;
+            });
+        }
+
+        @Override
+        public <T> boolean pull(T object, Class<T> type) throws DataSourceException
+        {
+            return guard.call(() -> this.object.pull(object, type));
         }
 
         @Override
-        public synchronized <T> void pull(T object) throws DataSourceException
+        public <T> boolean pull(T object, Projection projection) throws DataSourceException
         {
-            this.object.pull(object);
+            return guard.call(() -> this.object.pull(object, projection));
         }
 
         @Override
-        public synchronized <T> boolean pull(T object, Class<T> type) throws DataSourceException
+        public <T> boolean pull(T object, Class<T> type, Projection projection) throws DataSourceException
         {
-            return this.object.pull(object, type);
+            return guard.call(() -> this.object.pull(object, type, projection));
         }
 
         @Override
-        public synchronized <T> Collection<T> pull(Class<T> type) throws DataSourceException
+        public <T> Collection<T> pull(Class<T> type) throws DataSourceException
         {
-            return this.object.pull(type);
+            return guard.call(() -> this.object.pull(type));
         }
 
         @Override
-        public synchronized <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor)
+        public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor)
                 throws DataSourceException
         {
-            return this.object.pull(type, constructor);
+            return guard.call(() -> this.object.pull(type, constructor));
+        }
+
+        @Override
+        public <T> Collection<T> pull(Class<T> type, Projection projection) throws DataSourceException
+        {
+            return guard.call(() -> this.object.pull(type, projection));
+        }
+
+        @Override
+        public <T, X extends Throwable> Collection<T> pull(Class<T> type, Projection projection, SupplierWithThrowable<T, X> constructor)
+                throws DataSourceException
+        {
+            return guard.call(() -> this.object.pull(type, projection, constructor));
         }
 
         @Override
         public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures)
                 throws DataSourceException
         {
-            return this.object.pull(type, constructor, signatures);
+            return guard.call(() -> this.object.pull(type, constructor, signatures));
         }
 
         @Override
         public <T> T pull(Class<T> type, T object, Class<?>... signatures) throws DataSourceException
         {
-            return this.object.pull(type, object, signatures);
+            return guard.call(() -> this.object.pull(type, object, signatures));
         }
 
         @Override
         public <T> T pull(Class<T> type, Class<?>... signatures) throws DataSourceException
         {
-            return this.object.pull(type, signatures);
+            return guard.call(() -> this.object.pull(type, signatures));
+        }
+
+        @Override
+        public <T> Collection<T> pull(Criteria<T> criteria) throws DataSourceException
+        {
+            return guard.call(() -> this.object.pull(criteria));
         }
 
         @Override
-        public synchronized <T> Collection<T> pullVaguely(T object)
+        public <T, X extends Throwable> Collection<T> pull(Criteria<T> criteria, SupplierWithThrowable<T, X> constructor)
                 throws DataSourceException
         {
-            return this.object.pullVaguely(object);
+            return guard.call(() -> this.object.pull(criteria, constructor));
         }
 
         @Override
-        public synchronized <T> Collection<T> pullVaguely(T object, Class<T> type) throws DataSourceException
+        public <T> Page<T> pullPage(Class<T> type, int size) throws DataSourceException
         {
-            return this.object.pullVaguely(object, type);
+            return guard.call(() -> this.object.pullPage(type, size));
         }
 
         @Override
-        public synchronized <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+        public <T> Page<T> pullPage(Class<T> type, int size, String continuation) throws DataSourceException
+        {
+            return guard.call(() -> this.object.pullPage(type, size, continuation));
+        }
+
+        @Override
+        public <T, X extends Throwable> Page<T> pullPage(Class<T> type, int size, String continuation, SupplierWithThrowable<T, X> constructor)
                 throws DataSourceException
         {
-            return this.object.pullVaguely(object, type, constructor);
+            return guard.call(() -> this.object.pullPage(type, size, continuation, constructor));
+        }
+
+        @Override
+        public <T> long count(Class<T> type) throws DataSourceException
+        {
+            return guard.call(() -> this.object.count(type));
         }
 
         @Override
-        public synchronized <T> Transaction commit(T object) throws DataSourceException
+        public <T> long count(Criteria<T> criteria) throws DataSourceException
         {
-            return this.object.commit(object);
+            return guard.call(() -> this.object.count(criteria));
         }
 
         @Override
-        public synchronized <T> void commitInstantly(T object) throws DataSourceException
+        public <T> boolean exists(T object) throws DataSourceException
         {
-            this.object.commitInstantly(object);
+            return guard.call(() -> this.object.exists(object));
         }
 
         @Override
-        public synchronized <T> Transaction commit(Transaction transaction, T object) throws DataSourceException
+        public <T> boolean exists(T object, Class<T> type) throws DataSourceException
         {
-            return this.object.commit(transaction, object);
+            return guard.call(() -> this.object.exists(object, type));
         }
 
         @Override
-        public synchronized <T> void commitInstantly(Transaction transaction, T object) throws DataSourceException
+        public <T, V> Optional<V> min(Class<T> type, String column) throws DataSourceException
         {
-            this.object.commitInstantly(transaction, object);
+            return guard.call(() -> this.object.min(type, column));
         }
 
         @Override
-        public synchronized <T> Transaction commit(T object, Class<T> type)
+        public <T, V> Optional<V> min(Criteria<T> criteria, String column) throws DataSourceException
+        {
+            return guard.call(() -> this.object.min(criteria, column));
+        }
+
+        @Override
+        public <T, V> Optional<V> max(Class<T> type, String column) throws DataSourceException
+        {
+            return guard.call(() -> this.object.max(type, column));
+        }
+
+        @Override
+        public <T, V> Optional<V> max(Criteria<T> criteria, String column) throws DataSourceException
+        {
+            return guard.call(() -> this.object.max(criteria, column));
+        }
+
+        @Override
+        public <T> Optional<Number> sum(Class<T> type, String column) throws DataSourceException
+        {
+            return guard.call(() -> this.object.sum(type, column));
+        }
+
+        @Override
+        public <T> Optional<Number> sum(Criteria<T> criteria, String column) throws DataSourceException
+        {
+            return guard.call(() -> this.object.sum(criteria, column));
+        }
+
+        @Override
+        public <T> Collection<T> pullVaguely(T object)
                 throws DataSourceException
         {
-            return new SynchronizedTransaction(this.object.commit(object, type));
+            return guard.call(() -> this.object.pullVaguely(object));
         }
 
         @Override
-        public synchronized <T> void commitInstantly(T object, Class<T> type) throws DataSourceException
+        public <T> Collection<T> pullVaguely(T object, Class<T> type) throws DataSourceException
         {
-            this.object.commitInstantly(object, type);
+            return guard.call(() -> this.object.pullVaguely(object, type));
+        }
+
+        @Override
+        public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+                throws DataSourceException
+        {
+            return guard.call(() -> this.object.pullVaguely(object, type, constructor));
+        }
+
+        @Override
+        public <T> Transaction commit(T object) throws DataSourceException
+        {
+            return guard.call(() -> wrap(this.object.commit(object)));
+        }
+
+        @Override
+        public <T> void commitInstantly(T object) throws DataSourceException
+        {
+            guard.call(() -> {
+                this.object.commitInstantly(object);
+                return null;
+            });
+        }
+
+        @Override
+        public <T> Transaction commit(Transaction transaction, T object) throws DataSourceException
+        {
+            return guard.call(() -> wrap(this.object.commit(unwrap(transaction), object)));
+        }
+
+        @Override
+        public <T> void commitInstantly(Transaction transaction, T object) throws DataSourceException
+        {
+            guard.call(() -> {
+                this.object.commitInstantly(unwrap(transaction), object);
+                return null;
+            });
+        }
+
+        @Override
+        public <T> Transaction commit(T object, Class<T> type)
+                throws DataSourceException
+        {
+            return guard.call(() -> wrap(this.object.commit(object, type)));
+        }
+
+        @Override
+        public <T> void commitInstantly(T object, Class<T> type) throws DataSourceException
+        {
+            guard.call(() -> {
+                this.object.commitInstantly(object, type);
+                return null;
+            });
         }
 
         @Override
         public <T> Transaction commit(T object, Class<T> type, Class<?>... signatures) throws DataSourceException
         {
-            return this.object.commit(object, type, signatures);
+            return guard.call(() -> wrap(this.object.commit(object, type, signatures)));
         }
 
         @Override
         public <T> void commitInstantly(T object, Class<T> type, Class<?>... signatures) throws DataSourceException
         {
-            this.object.commitInstantly(object, type, signatures);
+            guard.call(() -> {
+                this.object.commitInstantly(object, type, signatures);
+                return null;
+            });
         }
 
         @Override
-        public synchronized <T> Transaction commit(Transaction transition, T object, Class<T> type)
+        public <T> Transaction commit(Transaction transition, T object, Class<T> type)
                 throws DataSourceException
         {
-            return this.object.commit(transition, object, type);
+            return guard.call(() -> wrap(this.object.commit(unwrap(transition), object, type)));
         }
 
         @Override
-        public synchronized <T> void commitInstantly(Transaction transaction, T object, Class<T> type) throws DataSourceException
+        public <T> void commitInstantly(Transaction transaction, T object, Class<T> type) throws DataSourceException
         {
-            this.object.commitInstantly(transaction, object, type);
+            guard.call(() -> {
+                this.object.commitInstantly(unwrap(transaction), object, type);
+                return null;
+            });
         }
 
         @Override
         public <T> Transaction commit(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
                 throws DataSourceException
         {
-            return this.object.commit(transaction, object, type, signatures);
+            return guard.call(() -> wrap(this.object.commit(unwrap(transaction), object, type, signatures)));
         }
 
         @Override
         public <T> void commitInstantly(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
                 throws DataSourceException
         {
-            this.object.commitInstantly(transaction, object, type, signatures);
+            guard.call(() -> {
+                this.object.commitInstantly(unwrap(transaction), object, type, signatures);
+                return null;
+            });
         }
 
         @Override
-        public synchronized <T> Transaction remove(T object)
+        public <T> Transaction remove(T object)
                 throws DataSourceException
         {
-            return new SynchronizedTransaction(this.object.remove(object));
+            return guard.call(() -> wrap(this.object.remove(object)));
         }
 
         @Override
-        public synchronized <T> void removeInstantly(T object) throws DataSourceException
+        public <T> void removeInstantly(T object) throws DataSourceException
         {
-            this.object.removeInstantly(object);
+            guard.call(() -> {
+                this.object.removeInstantly(object);
+                return null;
+            });
         }
 
         @Override
-        public synchronized <T> Transaction remove(T object, Class<T> type) throws DataSourceException
+        public <T> Transaction remove(T object, Class<T> type) throws DataSourceException
         {
-            return this.object.remove(object, type);
+            return guard.call(() -> wrap(this.object.remove(object, type)));
         }
 
         @Override
-        public synchronized <T> void removeInstantly(T object, Class<T> type) throws DataSourceException
+        public <T> void removeInstantly(T object, Class<T> type) throws DataSourceException
         {
-            this.object.removeInstantly(object, type);
+            guard.call(() -> {
+                this.object.removeInstantly(object, type);
+                return null;
+            });
         }
 
         @Override
-        public synchronized <T> Transaction remove(Transaction transition, T object)
+        public <T> Transaction remove(Transaction transition, T object)
                 throws DataSourceException
         {
-            return this.object.remove(transition, object);
+            return guard.call(() -> wrap(this.object.remove(unwrap(transition), object)));
         }
 
         @Override
-        public synchronized <T> void removeInstantly(Transaction transaction, T object) throws DataSourceException
+        public <T> void removeInstantly(Transaction transaction, T object) throws DataSourceException
         {
-            this.object.removeInstantly(transaction, object);
+            guard.call(() -> {
+                this.object.removeInstantly(unwrap(transaction), object);
+                return null;
+            });
         }
 
         @Override
-        public synchronized <T> Transaction remove(Transaction transaction, T object, Class<T> type)
+        public <T> Transaction remove(Transaction transaction, T object, Class<T> type)
                 throws DataSourceException
         {
-            return this.object.remove(transaction, object, type);
+            return guard.call(() -> wrap(this.object.remove(unwrap(transaction), object, type)));
         }
 
         @Override
-        public synchronized <T> void removeInstantly(Transaction transaction, T object, Class<T> type) throws DataSourceException
+        public <T> void removeInstantly(Transaction transaction, T object, Class<T> type) throws DataSourceException
         {
-            this.object.removeInstantly(transaction, object, type);
+            guard.call(() -> {
+                this.object.removeInstantly(unwrap(transaction), object, type);
+                return null;
+            });
         }
 
         @Override
-        public synchronized Transaction clear() throws DataSourceException
+        public Transaction clear() throws DataSourceException
         {
-            return new SynchronizedTransaction(this.object.clear());
+            return guard.call(() -> wrap(this.object.clear()));
         }
 
         @Override
-        public synchronized void clearInstantly() throws DataSourceException
+        public void clearInstantly() throws DataSourceException
         {
-            this.object.clearInstantly();
+            guard.call(() -> {
+                this.object.clearInstantly();
+                return null;
+            });
         }
 
         @Override
-        public synchronized Transaction clear(Transaction transition) throws DataSourceException
+        public Transaction clear(Transaction transition) throws DataSourceException
         {
-            return this.object.clear(transition);
+            return guard.call(() -> wrap(this.object.clear(unwrap(transition))));
         }
 
         @Override
-        public synchronized void clearInstantly(Transaction transaction) throws DataSourceException
+        public void clearInstantly(Transaction transaction) throws DataSourceException
         {
-            this.object.clearInstantly(transaction);
+            guard.call(() -> {
+                this.object.clearInstantly(unwrap(transaction));
+                return null;
+            });
         }
 
         @Override
-        public synchronized <T> Transaction removeVaguely(T object)
+        public <T> Transaction removeVaguely(T object)
                 throws DataSourceException
         {
-            return new SynchronizedTransaction(this.object.removeVaguely(object));
+            return guard.call(() -> wrap(this.object.removeVaguely(object)));
         }
 
         @Override
-        public synchronized <T> Transaction removeVaguely(T object, Class<T> type) throws DataSourceException
+        public <T> Transaction removeVaguely(T object, Class<T> type) throws DataSourceException
         {
-            return this.object.removeVaguely(object, type);
+            return guard.call(() -> wrap(this.object.removeVaguely(object, type)));
         }
 
         @Override
-        public synchronized <T> Transaction removeVaguely(Transaction transition, T object)
+        public <T> Transaction removeVaguely(Transaction transition, T object)
                 throws DataSourceException
         {
-            return this.object.removeVaguely(transition, object);
+            return guard.call(() -> wrap(this.object.removeVaguely(unwrap(transition), object)));
         }
 
         @Override
-        public synchronized <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type)
+        public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type)
                 throws DataSourceException
         {
-            return this.object.removeVaguely(transaction, object, type);
+            return guard.call(() -> wrap(this.object.removeVaguely(unwrap(transaction), object, type)));
         }
 
         @Override
@@ -294,11 +519,23 @@ public final class DataSourceUtil {
             this.object.waitForTransaction();
         }
 
+        private Transaction wrap(Transaction transaction)
+        {
+            return transaction == null ? null : new GuardedTransaction(transaction);
+        }
+
+        private static Transaction unwrap(Transaction transaction)
+        {
+            return transaction instanceof GuardedTransaction ? ((GuardedTransaction) transaction).transaction : transaction;
+        }
+
         private final DataSource object;
 
-        private class SynchronizedTransaction implements Transaction
+        private final Guard guard;
+
+        private class GuardedTransaction implements Transaction
         {
-            private SynchronizedTransaction(Transaction transaction)
+            private GuardedTransaction(Transaction transaction)
             {
                 this.transaction = transaction;
             }
@@ -306,31 +543,31 @@ public final class DataSourceUtil {
             @Override
             public boolean push() throws DataSourceException
             {
-                synchronized (SynchronizedDataSource.this) {
-                    return this.transaction.push();
-                }
+                return guard.call(this.transaction::push);
             }
 
             @Override
             public boolean cancel()
             {
-                synchronized (SynchronizedDataSource.this) {
-                    return this.cancel();
-                }
+                return guard.call(this.transaction::cancel);
             }
 
             @Override
             public boolean equals(Object object)
             {
-                return this.transaction.equals(object);
+                return this.transaction.equals(object instanceof Transaction ? unwrap((Transaction) object) : object);
+            }
+
+            @Override
+            public int hashCode()
+            {
+                return this.transaction.hashCode();
             }
 
             @Override
             public Optional<Exception> getLastException()
             {
-                synchronized (SynchronizedDataSource.this) {
-                    return this.transaction.getLastException();
-                }
+                return guard.call(this.transaction::getLastException);
             }
 
             private final Transaction transaction;
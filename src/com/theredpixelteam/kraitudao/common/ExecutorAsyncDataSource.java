@@ -0,0 +1,343 @@
+/*
+ * ExecutorAsyncDataSource.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.AsyncDataSource;
+import com.theredpixelteam.kraitudao.DataSource;
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.redtea.function.FunctionWithThrowable;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ExecutorAsyncDataSource implements AsyncDataSource, AutoCloseable {
+    // operations are serialized on the data source, most of them (a PlainSQLDatabaseDataSource over a single
+    // connection for one) are not safe to call from several threads at once
+    public ExecutorAsyncDataSource(DataSource dataSource, ExecutorService executor)
+    {
+        this(dataSource, executor, false);
+    }
+
+    // thread-safe data sources, such as bounded ones over a connection pool, are called concurrently as they are,
+    // the rejection policy of a given executor must either throw or run the task, or its future never completes
+    public ExecutorAsyncDataSource(DataSource dataSource, ExecutorService executor, boolean threadSafe)
+    {
+        this(dataSource, executor, threadSafe, false);
+    }
+
+    private ExecutorAsyncDataSource(DataSource dataSource, ExecutorService executor, boolean threadSafe, boolean owned)
+    {
+        Objects.requireNonNull(dataSource, "dataSource");
+
+        this.dataSource = threadSafe ? dataSource : DataSourceUtil.synchronizedDataSource(dataSource);
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.owned = owned;
+    }
+
+    public static ExecutorAsyncDataSource of(DataSource dataSource, int queueCapacity)
+    {
+        return of(dataSource, 1, queueCapacity);
+    }
+
+    public static ExecutorAsyncDataSource of(DataSource dataSource, int threads, int queueCapacity)
+    {
+        return of(dataSource, Executors.defaultThreadFactory(), threads, queueCapacity);
+    }
+
+    // a virtual thread factory could be passed here for a virtual-thread-backed data source with bounded concurrency
+    public static ExecutorAsyncDataSource of(DataSource dataSource, ThreadFactory threadFactory, int threads, int queueCapacity)
+    {
+        return of(dataSource, threadFactory, threads, queueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // the discarding policies are translated so that the future of a discarded operation fails with Busy,
+    // other policies than the four ones of ThreadPoolExecutor are refused
+    public static ExecutorAsyncDataSource of(DataSource dataSource,
+                                             ThreadFactory threadFactory,
+                                             int threads,
+                                             int queueCapacity,
+                                             RejectedExecutionHandler rejectionPolicy)
+    {
+        return of(dataSource, false, threadFactory, threads, queueCapacity, rejectionPolicy);
+    }
+
+    public static ExecutorAsyncDataSource ofThreadSafe(DataSource dataSource,
+                                                       ThreadFactory threadFactory,
+                                                       int threads,
+                                                       int queueCapacity,
+                                                       RejectedExecutionHandler rejectionPolicy)
+    {
+        return of(dataSource, true, threadFactory, threads, queueCapacity, rejectionPolicy);
+    }
+
+    private static ExecutorAsyncDataSource of(DataSource dataSource,
+                                              boolean threadSafe,
+                                              ThreadFactory threadFactory,
+                                              int threads,
+                                              int queueCapacity,
+                                              RejectedExecutionHandler rejectionPolicy)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory,
+                translate(rejectionPolicy));
+
+        return new ExecutorAsyncDataSource(dataSource, executor, threadSafe, true);
+    }
+
+    private static RejectedExecutionHandler translate(RejectedExecutionHandler rejectionPolicy)
+    {
+        Objects.requireNonNull(rejectionPolicy, "rejectionPolicy");
+
+        if (rejectionPolicy instanceof ThreadPoolExecutor.AbortPolicy)
+            return rejectionPolicy;
+
+        if (rejectionPolicy instanceof ThreadPoolExecutor.DiscardPolicy) // completed with Busy by submit
+            return (task, executor) -> {
+                throw new RejectedExecutionException("Discarded");
+            };
+
+        if (rejectionPolicy instanceof ThreadPoolExecutor.DiscardOldestPolicy)
+            return (task, executor) -> {
+                if (executor.isShutdown())
+                    throw new RejectedExecutionException("Executor shut down");
+
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest instanceof Operation)
+                    ((Operation<?>) oldest).discard();
+
+                executor.execute(task);
+            };
+
+        // the stock policy silently drops the task once the executor is shut down
+        if (rejectionPolicy instanceof ThreadPoolExecutor.CallerRunsPolicy)
+            return (task, executor) -> {
+                if (executor.isShutdown())
+                    throw new RejectedExecutionException("Executor shut down");
+
+                task.run();
+            };
+
+        throw new IllegalArgumentException("Unsupported rejection policy: " + rejectionPolicy.getClass().getName());
+    }
+
+    @Override
+    public DataSource getDataSource()
+    {
+        return dataSource;
+    }
+
+    public ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    @Override
+    public <R> CompletableFuture<R> submit(String operation, FunctionWithThrowable<DataSource, R, DataSourceException> task)
+    {
+        Metrics metrics = metricsOf(operation);
+        CompletableFuture<R> future = new CompletableFuture<>();
+
+        try {
+            executor.execute(new Operation<>(operation, metrics, future, task));
+        } catch (RejectedExecutionException e) {
+            metrics.rejected();
+            future.completeExceptionally(new DataSourceException.Busy("Rejected by executor: " + operation, e));
+        }
+
+        return future;
+    }
+
+    public Metrics getMetrics(String operation)
+    {
+        return metricsOf(operation);
+    }
+
+    public Map<String, Metrics> getMetrics()
+    {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    private Metrics metricsOf(String operation)
+    {
+        return metrics.computeIfAbsent(operation, (unused) -> new Metrics());
+    }
+
+    // only shuts down the executor created by this instance
+    @Override
+    public void close()
+    {
+        if (owned)
+            executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private final DataSource dataSource;
+
+    private final ExecutorService executor;
+
+    private final boolean owned;
+
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    private final class Operation<R> implements Runnable
+    {
+        Operation(String operation, Metrics metrics, CompletableFuture<R> future, FunctionWithThrowable<DataSource, R, DataSourceException> task)
+        {
+            this.operation = operation;
+            this.metrics = metrics;
+            this.future = future;
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            if (future.isDone()) // cancelled or discarded while queued
+                return;
+
+            long started = System.nanoTime();
+            metrics.queued(started - submitted);
+
+            try {
+                R result = task.apply(dataSource);
+
+                metrics.completed(System.nanoTime() - started, false);
+                future.complete(result);
+            } catch (Throwable e) {
+                metrics.completed(System.nanoTime() - started, true);
+                future.completeExceptionally(e);
+            }
+        }
+
+        void discard()
+        {
+            metrics.rejected();
+            future.completeExceptionally(new DataSourceException.Busy("Discarded by executor: " + operation));
+        }
+
+        private final String operation;
+
+        private final Metrics metrics;
+
+        private final CompletableFuture<R> future;
+
+        private final FunctionWithThrowable<DataSource, R, DataSourceException> task;
+
+        private final long submitted = System.nanoTime();
+    }
+
+    public static final class Metrics
+    {
+        private Metrics()
+        {
+        }
+
+        void queued(long nanos)
+        {
+            queueNanos.add(nanos);
+        }
+
+        void completed(long nanos, boolean failed)
+        {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+
+            if (failed)
+                failures.increment();
+        }
+
+        void rejected()
+        {
+            rejections.increment();
+        }
+
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        public long getFailures()
+        {
+            return failures.sum();
+        }
+
+        public long getRejections()
+        {
+            return rejections.sum();
+        }
+
+        public long getTotalNanos()
+        {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos()
+        {
+            return maxNanos.get();
+        }
+
+        public long getTotalQueueNanos()
+        {
+            return queueNanos.sum();
+        }
+
+        public long getAverageNanos()
+        {
+            long count = getCount();
+            return count == 0 ? 0 : getTotalNanos() / count;
+        }
+
+        public void reset()
+        {
+            count.reset();
+            failures.reset();
+            rejections.reset();
+            totalNanos.reset();
+            queueNanos.reset();
+            maxNanos.reset();
+        }
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final LongAdder rejections = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAdder queueNanos = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+}
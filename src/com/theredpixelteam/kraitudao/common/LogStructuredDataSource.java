@@ -0,0 +1,1246 @@
+/*
+ * LogStructuredDataSource.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.DataSource;
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.codec.BinaryReader;
+import com.theredpixelteam.kraitudao.codec.BinaryWriter;
+import com.theredpixelteam.kraitudao.codec.CodecException;
+import com.theredpixelteam.kraitudao.codec.ObjectCodec;
+import com.theredpixelteam.kraitudao.common.tree.BinaryTree;
+import com.theredpixelteam.kraitudao.common.tree.TreeMapper;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectInterpreter;
+import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+import com.theredpixelteam.redtea.util.Optional;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// records are appended to memory-mapped segment files, an in-memory index points to the latest one of each key
+@SuppressWarnings("unchecked")
+public class LogStructuredDataSource implements DataSource, AutoCloseable {
+    public LogStructuredDataSource(Path directory,
+                                   DataObjectInterpreter interpreter,
+                                   DataObjectExpander expander,
+                                   DataObjectContainer container,
+                                   int segmentSize,
+                                   boolean checkpoints,
+                                   ThreadFactory threadFactory,
+                                   Executor recoveryExecutor)
+            throws DataSourceException
+    {
+        if (segmentSize <= RECORD_HEADER)
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+
+        this.directory = Objects.requireNonNull(directory, "directory");
+        this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+        this.expander = Objects.requireNonNull(expander, "expander");
+        this.container = Objects.requireNonNull(container, "container");
+        this.mapper = new TreeMapper(interpreter, expander, container);
+        this.segmentSize = segmentSize;
+        this.checkpoints = checkpoints;
+
+        try {
+            recover(recoveryExecutor);
+        } catch (IOException e) {
+            throw new DataSourceException("Recovery failure", e);
+        }
+
+        this.compactor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    public LogStructuredDataSource(Path directory) throws DataSourceException
+    {
+        this(directory, StandardDataObjectInterpreter.INSTANCE, StandardDataObjectExpander.INSTANCE, DataObjectCache.getGlobal(),
+                DEFAULT_SEGMENT_SIZE, true, Executors.defaultThreadFactory(), ForkJoinPool.commonPool());
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public boolean isSynchronous()
+    {
+        return synchronous;
+    }
+
+    // forces the active segment to the device before push returns
+    public void setSynchronous(boolean synchronous)
+    {
+        this.synchronous = synchronous;
+    }
+
+    public void setCompactionThreshold(double garbageRatio)
+    {
+        if (garbageRatio <= 0 || garbageRatio >= 1)
+            throw new IllegalArgumentException("Garbage ratio out of range: " + garbageRatio);
+
+        this.garbageRatio = garbageRatio;
+    }
+
+    public int getSegmentCount()
+    {
+        lock.readLock().lock();
+
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getGarbageBytes()
+    {
+        lock.readLock().lock();
+
+        try {
+            return garbage();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Optional<Exception> getLastCompactionFailure()
+    {
+        return Optional.ofNullable(lastCompactionFailure);
+    }
+
+    private long garbage()
+    {
+        long garbage = 0;
+
+        for (Segment segment : segments.values())
+            garbage += segment.end - segment.live;
+
+        return garbage;
+    }
+
+    private long written()
+    {
+        long written = 0;
+
+        for (Segment segment : segments.values())
+            written += segment.end;
+
+        return written;
+    }
+
+    // a valid checkpoint restores the index up to the recorded segment ends, segments are scanned in parallel from there
+    private void recover(Executor executor) throws IOException, DataSourceException
+    {
+        Files.createDirectories(directory);
+
+        List<Integer> ids = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream)
+            {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+
+                if (matcher.matches())
+                    ids.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+
+        Collections.sort(ids);
+
+        for (int id : ids)
+            segments.put(id, openSegment(id));
+
+        Map<Integer, Integer> checkpointed = checkpoints ? readCheckpoint(ids) : null;
+
+        if (checkpointed == null)
+        {
+            index.clear();
+
+            for (Segment segment : segments.values())
+                segment.live = 0;
+        }
+
+        List<CompletableFuture<Scan>> scans = new ArrayList<>();
+
+        for (Segment segment : segments.values())
+        {
+            Integer from = checkpointed == null ? null : checkpointed.get(segment.id);
+            int start = from == null ? 0 : from;
+
+            scans.add(CompletableFuture.supplyAsync(() -> scan(segment, start), executor));
+        }
+
+        Iterator<Segment> iterator = segments.values().iterator();
+
+        for (CompletableFuture<Scan> future : scans)
+        {
+            Segment segment = iterator.next();
+            Scan scan;
+
+            try {
+                scan = future.join();
+            } catch (CompletionException e) {
+                throw new DataSourceException("Failed to scan segment " + segment.id, e.getCause());
+            }
+
+            for (Entry entry : scan.entries)
+                apply(entry.kind, entry.type, entry.key, new Location(segment.id, entry.offset, entry.length));
+
+            segment.end = scan.end;
+            segment.sealed = true;
+        }
+
+        if (segments.isEmpty())
+            segments.put(0, openSegment(0));
+
+        active = segments.lastEntry().getValue();
+        active.sealed = false;
+    }
+
+    private Segment openSegment(int id) throws IOException
+    {
+        Path path = directory.resolve(String.format(SEGMENT_FORMAT, id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long size = Math.max(segmentSize, channel.size());
+
+        return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    // stops at the first unwritten or torn record
+    private static Scan scan(Segment segment, int from)
+    {
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = from;
+
+        while (offset + RECORD_HEADER <= buffer.capacity())
+        {
+            int length = buffer.getInt(offset);
+
+            if (length <= 0 || (long) offset + RECORD_HEADER + length > buffer.capacity())
+                break;
+
+            ByteBuffer body = segment.slice(offset + RECORD_HEADER, length);
+
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+
+            if ((int) crc.getValue() != buffer.getInt(offset + 4))
+                break;
+
+            entries.add(parse(body, offset, RECORD_HEADER + length));
+            offset += RECORD_HEADER + length;
+        }
+
+        return new Scan(entries, offset);
+    }
+
+    private static Entry parse(ByteBuffer body, int offset, int length)
+    {
+        int kind = body.get(0);
+
+        if (kind == CLEAR)
+            return new Entry(kind, null, null, offset, length);
+
+        byte[] type = new byte[body.getInt(1)];
+        body.position(5);
+        body.get(type);
+
+        byte[] key = new byte[body.getInt()];
+        body.get(key);
+
+        return new Entry(kind, new String(type, StandardCharsets.UTF_8), ByteBuffer.wrap(key), offset, length);
+    }
+
+    private void apply(int kind, String type, ByteBuffer key, Location location)
+    {
+        Location old;
+
+        switch (kind)
+        {
+            case COMMIT:
+                old = index.computeIfAbsent(type, (unused) -> new HashMap<>()).put(key, location);
+
+                if (old != null)
+                    segments.get(old.segment).live -= old.length;
+
+                segments.get(location.segment).live += location.length;
+                break;
+
+            case REMOVE:
+            {
+                Map<ByteBuffer, Location> records = index.get(type);
+                old = records == null ? null : records.remove(key);
+
+                if (old != null)
+                    segments.get(old.segment).live -= old.length;
+
+                break;
+            }
+
+            case CLEAR:
+                index.clear();
+
+                for (Segment segment : segments.values())
+                    segment.live = 0;
+
+                break;
+        }
+    }
+
+    private static byte[] record(int kind, String type, byte[] key, byte[] value)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(kind);
+
+            if (kind != CLEAR)
+            {
+                byte[] typeName = type.getBytes(StandardCharsets.UTF_8);
+
+                out.writeInt(typeName.length);
+                out.write(typeName);
+                out.writeInt(key.length);
+                out.write(key);
+
+                if (value != null)
+                    out.write(value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by in-memory streams
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.capacity() - RECORD_HEADER;
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER, length);
+
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+
+        return record.array();
+    }
+
+    // rolls over to a new segment if the record does not fit into the active one
+    private Location write(byte[] record) throws DataSourceException
+    {
+        if (record.length > segmentSize)
+            throw new DataSourceException("Record of " + record.length + " bytes exceeds the segment size");
+
+        if (active.end + record.length > active.buffer.capacity())
+        {
+            active.buffer.force();
+            active.sealed = true;
+
+            try {
+                Segment next = openSegment(active.id + 1);
+                segments.put(next.id, next);
+                active = next;
+            } catch (IOException e) {
+                throw new DataSourceException(e);
+            }
+        }
+
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(active.end);
+        buffer.put(record);
+
+        Location location = new Location(active.id, active.end, record.length);
+        active.end += record.length;
+
+        return location;
+    }
+
+    // only valid under the read lock, the segment may be compacted away afterwards
+    private ByteBuffer valueOf(Location location)
+    {
+        ByteBuffer body = segments.get(location.segment).slice(location.offset + RECORD_HEADER, location.length - RECORD_HEADER);
+
+        int position = 1;
+        position += 4 + body.getInt(position);
+        position += 4 + body.getInt(position);
+
+        body.position(position);
+
+        return body;
+    }
+
+    private static byte[] copyOf(ByteBuffer value)
+    {
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+
+        return bytes;
+    }
+
+    private <T> ObjectCodec<T> codecOf(Class<T> type) throws DataSourceException
+    {
+        ObjectCodec<?> codec = codecs.get(type);
+
+        if (codec == null)
+        {
+            try {
+                codec = ObjectCodec.of(type, interpreter, expander, container);
+            } catch (CodecException e) {
+                throw new DataSourceException(e);
+            }
+
+            ObjectCodec<?> existing = codecs.putIfAbsent(type, codec);
+
+            if (existing != null)
+                codec = existing;
+        }
+
+        return (ObjectCodec<T>) codec;
+    }
+
+    private static <T> void decode(ObjectCodec<T> codec, BinaryReader reader, T object) throws DataSourceException
+    {
+        try {
+            codec.decode(reader, object);
+        } catch (CodecException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    private static <T> byte[] encode(ObjectCodec<T> codec, T object) throws DataSourceException
+    {
+        BinaryWriter writer = WRITER.get().reset();
+
+        try {
+            codec.encode(object, writer);
+        } catch (CodecException e) {
+            throw new DataSourceException(e);
+        }
+
+        return writer.toByteArray();
+    }
+
+    private static Map<String, Object> keyTreeOf(ByteBuffer key)
+    {
+        return (Map<String, Object>) BinaryTree.decode(key, new int[] {0});
+    }
+
+    private DataObject interpret(Class<?> type) throws DataSourceException
+    {
+        DataObject dataObject;
+
+        try {
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+
+        if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Element data object is not allowed in global scope");
+
+        return dataObject;
+    }
+
+    private static byte[] encode(Object tree) throws DataSourceException
+    {
+        try {
+            return BinaryTree.encode(tree);
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    private byte[] keyOf(Object object, DataObject dataObject) throws DataSourceException
+    {
+        Map<String, Object> key = mapper.keysToTree(object, dataObject);
+
+        for (Map.Entry<String, Object> entry : key.entrySet())
+            if (entry.getValue() == null)
+                throw new DataSourceException("Null key \"" + entry.getKey() + "\"");
+
+        return encode(key);
+    }
+
+    // non-null keys of the probe have to match
+    private static boolean matchesVaguely(Map<String, Object> probe, Map<String, Object> key)
+    {
+        for (Map.Entry<String, Object> entry : probe.entrySet())
+            if (entry.getValue() != null && !entry.getValue().equals(key.get(entry.getKey())))
+                return false;
+
+        return true;
+    }
+
+    private static <T, X extends Throwable> T construct(SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        try {
+            return constructor.get();
+        } catch (Throwable e) {
+            throw new DataSourceException("Object construction failure", e);
+        }
+    }
+
+    private Map<ByteBuffer, Location> recordsOf(Class<?> type)
+    {
+        Map<ByteBuffer, Location> records = index.get(type.getName());
+        return records == null ? Collections.emptyMap() : records;
+    }
+
+    @Override
+    public <T> boolean pull(T object, Class<T> type) throws DataSourceException
+    {
+        ObjectCodec<T> codec = codecOf(type);
+        ByteBuffer key = ByteBuffer.wrap(keyOf(object, interpret(type)));
+
+        lock.readLock().lock();
+
+        try {
+            Location location = recordsOf(type).get(key);
+
+            if (location == null)
+                return false;
+
+            decode(codec, READER.get().reset(valueOf(location)), object);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        ByteBuffer key = ByteBuffer.wrap(keyOf(object, interpret(type)));
+
+        lock.readLock().lock();
+
+        try {
+            return recordsOf(type).containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> long count(Class<T> type) throws DataSourceException
+    {
+        interpret(type);
+
+        lock.readLock().lock();
+
+        try {
+            return recordsOf(type).size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        interpret(type);
+        ObjectCodec<T> codec = codecOf(type);
+        List<byte[]> values = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            for (Location location : recordsOf(type).values())
+                values.add(copyOf(valueOf(location)));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return decodeAll(codec, values, constructor);
+    }
+
+    private static <T, X extends Throwable> Collection<T> decodeAll(ObjectCodec<T> codec,
+                                                                    List<byte[]> values,
+                                                                    SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        BinaryReader reader = READER.get();
+        Collection<T> collection = new ArrayList<>(values.size());
+
+        for (byte[] value : values)
+        {
+            T object = construct(constructor);
+            decode(codec, reader.reset(value, 0, value.length), object);
+            collection.add(object);
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection pull from log-structured store");
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        ObjectCodec<T> codec = codecOf(type);
+        Map<String, Object> probe = mapper.keysToTree(object, dataObject);
+        List<byte[]> values = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            for (Map.Entry<ByteBuffer, Location> entry : recordsOf(type).entrySet())
+                if (matchesVaguely(probe, keyTreeOf(entry.getKey())))
+                    values.add(copyOf(valueOf(entry.getValue())));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return decodeAll(codec, values, constructor);
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        return of(transaction).enqueue(new Operation(COMMIT, type.getName(), keyOf(object, dataObject),
+                encode(codecOf(type), object), null));
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection commit into log-structured store");
+    }
+
+    @Override
+    public <T> Transaction remove(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        return of(transaction).enqueue(new Operation(REMOVE, type.getName(), keyOf(object, interpret(type)), null, null));
+    }
+
+    @Override
+    public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        return of(transaction).enqueue(new Operation(REMOVE_VAGUELY, type.getName(), null, null,
+                mapper.keysToTree(object, dataObject)));
+    }
+
+    @Override
+    public Transaction clear(Transaction transaction) throws DataSourceException
+    {
+        return of(transaction).enqueue(new Operation(CLEAR, null, null, null, null));
+    }
+
+    @Override
+    public void waitForTransaction()
+    {
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+    }
+
+    private LogTransaction of(Transaction transaction) throws DataSourceException
+    {
+        if (closed)
+            throw new DataSourceException("Closed");
+
+        if (transaction == null)
+            return new LogTransaction();
+
+        if (!(transaction instanceof LogTransaction) || ((LogTransaction) transaction).owner() != this)
+            throw new DataSourceException("Transaction not owned by this data source");
+
+        return (LogTransaction) transaction;
+    }
+
+    private void append(List<Operation> operations) throws DataSourceException
+    {
+        lock.writeLock().lock();
+
+        try {
+            if (closed)
+                throw new DataSourceException("Closed");
+
+            for (Operation operation : operations)
+                if (operation.kind == REMOVE_VAGUELY)
+                {
+                    Map<ByteBuffer, Location> records = index.get(operation.type);
+
+                    if (records == null)
+                        continue;
+
+                    for (ByteBuffer key : new ArrayList<>(records.keySet()))
+                        if (matchesVaguely(operation.probe, keyTreeOf(key)))
+                            apply(REMOVE, operation.type, key, write(record(REMOVE, operation.type, key.array(), null)));
+                }
+                else
+                    apply(operation.kind, operation.type, operation.key == null ? null : ByteBuffer.wrap(operation.key),
+                            write(record(operation.kind, operation.type, operation.key, operation.value)));
+
+            if (synchronous)
+                active.buffer.force();
+
+            if (segments.size() > 1 && garbage() > written() * garbageRatio)
+                compactInBackground();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactInBackground()
+    {
+        if (!compacting.compareAndSet(false, true))
+            return;
+
+        try {
+            compactor.execute(() -> {
+                try {
+                    compact(false);
+                } catch (Exception e) {
+                    lastCompactionFailure = e;
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compacting.set(false);
+        }
+    }
+
+    public void compact() throws DataSourceException
+    {
+        compact(true);
+    }
+
+    // only the oldest segment is ever compacted, so the tombstones it drops cannot uncover anything older
+    private void compact(boolean all) throws DataSourceException
+    {
+        compactionLock.lock();
+
+        try {
+            int limit;
+
+            lock.readLock().lock();
+
+            try {
+                limit = active.id;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // segments sealed while compacting hold the moved records and are left for the next run
+            while (!closed)
+            {
+                Segment oldest;
+                List<Object[]> live = new ArrayList<>();
+
+                lock.readLock().lock();
+
+                try {
+                    oldest = segments.firstEntry().getValue();
+
+                    if (oldest.id >= limit || (!all && garbage() <= written() * garbageRatio))
+                        break;
+
+                    for (Map.Entry<String, Map<ByteBuffer, Location>> records : index.entrySet())
+                        for (Map.Entry<ByteBuffer, Location> entry : records.getValue().entrySet())
+                            if (entry.getValue().segment == oldest.id)
+                                live.add(new Object[] {records.getKey(), entry.getKey(), entry.getValue()});
+                } finally {
+                    lock.readLock().unlock();
+                }
+
+                // moved in batches so that writers are never blocked for a whole segment
+                for (int from = 0; from < live.size(); from += COMPACTION_BATCH)
+                {
+                    lock.writeLock().lock();
+
+                    try {
+                        for (Object[] entry : live.subList(from, Math.min(from + COMPACTION_BATCH, live.size())))
+                        {
+                            String type = (String) entry[0];
+                            ByteBuffer key = (ByteBuffer) entry[1];
+                            Location location = (Location) entry[2];
+
+                            // superseded or removed in the meantime
+                            if (recordsOf(type).get(key) != location)
+                                continue;
+
+                            ByteBuffer source = oldest.slice(location.offset, location.length);
+                            byte[] record = new byte[location.length];
+                            source.get(record);
+
+                            apply(COMMIT, type, key, write(record));
+                        }
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+
+                lock.writeLock().lock();
+
+                try {
+                    segments.remove(oldest.id);
+                    oldest.channel.close();
+                    Files.deleteIfExists(oldest.path);
+                } catch (IOException e) {
+                    throw new DataSourceException(e);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            if (checkpoints && !closed)
+                checkpoint();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private Map<ByteBuffer, Location> recordsOf(String type)
+    {
+        Map<ByteBuffer, Location> records = index.get(type);
+        return records == null ? Collections.emptyMap() : records;
+    }
+
+    // the segments are forced first, so the checkpoint never refers to records not on the device
+    public void checkpoint() throws DataSourceException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        lock.readLock().lock();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Segment segment : segments.values())
+                segment.buffer.force();
+
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeByte(CHECKPOINT_VERSION);
+
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values())
+            {
+                out.writeInt(segment.id);
+                out.writeInt(segment.end);
+            }
+
+            out.writeInt(index.size());
+            for (Map.Entry<String, Map<ByteBuffer, Location>> records : index.entrySet())
+            {
+                out.writeUTF(records.getKey());
+                out.writeInt(records.getValue().size());
+
+                for (Map.Entry<ByteBuffer, Location> entry : records.getValue().entrySet())
+                {
+                    byte[] key = entry.getKey().array();
+
+                    out.writeInt(key.length);
+                    out.write(key);
+                    out.writeInt(entry.getValue().segment);
+                    out.writeInt(entry.getValue().offset);
+                    out.writeInt(entry.getValue().length);
+                }
+            }
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        Path file = directory.resolve(CHECKPOINT_NAME);
+        Path temporary = directory.resolve(CHECKPOINT_NAME + ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                ByteBuffer buffer = ByteBuffer.allocate(bytes.size() + 8);
+                buffer.put(bytes.toByteArray()).putLong(crc.getValue()).flip();
+
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    // the recorded segment ends, or null if there is no usable checkpoint
+    private Map<Integer, Integer> readCheckpoint(List<Integer> ids)
+    {
+        Path file = directory.resolve(CHECKPOINT_NAME);
+
+        if (!Files.exists(file))
+            return null;
+
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+
+            if (bytes.length < 8)
+                return null;
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+
+            if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong())
+                return null;
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readByte() != CHECKPOINT_VERSION)
+                return null;
+
+            Map<Integer, Integer> ends = new LinkedHashMap<>();
+
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++)
+                ends.put(in.readInt(), in.readInt());
+
+            // compacted since, the recorded locations may point into deleted segments
+            if (!ids.subList(0, Math.min(segmentCount, ids.size())).equals(new ArrayList<>(ends.keySet())))
+                return null;
+
+            int typeCount = in.readInt();
+            for (int i = 0; i < typeCount; i++)
+            {
+                String type = in.readUTF();
+                int count = in.readInt();
+
+                for (int j = 0; j < count; j++)
+                {
+                    byte[] key = new byte[in.readInt()];
+                    in.readFully(key);
+
+                    apply(COMMIT, type, ByteBuffer.wrap(key), new Location(in.readInt(), in.readInt(), in.readInt()));
+                }
+            }
+
+            return ends;
+        } catch (IOException | RuntimeException e) {
+            index.clear();
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws DataSourceException
+    {
+        closed = true;
+        compactor.shutdown();
+
+        compactionLock.lock();
+        lock.writeLock().lock();
+
+        try {
+            active.buffer.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            if (checkpoints)
+                checkpoint();
+        } finally {
+            compactionLock.unlock();
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            for (Segment segment : segments.values())
+                segment.channel.close();
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private final Path directory;
+
+    private final DataObjectInterpreter interpreter;
+
+    private final DataObjectExpander expander;
+
+    private final DataObjectContainer container;
+
+    private final TreeMapper mapper;
+
+    private final Map<Class<?>, ObjectCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<BinaryWriter> WRITER = ThreadLocal.withInitial(BinaryWriter::new);
+
+    private static final ThreadLocal<BinaryReader> READER = ThreadLocal.withInitial(BinaryReader::new);
+
+    private final int segmentSize;
+
+    private final boolean checkpoints;
+
+    private final ExecutorService compactor;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    private final Map<String, Map<ByteBuffer, Location>> index = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Lock compactionLock = new ReentrantLock();
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private Segment active;
+
+    private volatile boolean synchronous;
+
+    private volatile double garbageRatio = 0.5D;
+
+    private volatile Exception lastCompactionFailure;
+
+    private volatile boolean closed;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    // body length and CRC32 of the body
+    private static final int RECORD_HEADER = 8;
+
+    private static final int COMPACTION_BATCH = 256;
+
+    private static final int COMMIT = 1;
+
+    private static final int REMOVE = 2;
+
+    private static final int CLEAR = 3;
+
+    private static final int REMOVE_VAGUELY = 4;
+
+    private static final String SEGMENT_FORMAT = "%08d.segment";
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("([0-9]{8})\\.segment");
+
+    private static final String CHECKPOINT_NAME = "index.checkpoint";
+
+    private static final int CHECKPOINT_MAGIC = 0x4B4C5349;
+
+    private static final byte CHECKPOINT_VERSION = 1;
+
+    private static final class Segment
+    {
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer)
+        {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        ByteBuffer slice(int offset, int length)
+        {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset);
+            duplicate.limit(offset + length);
+
+            return duplicate.slice();
+        }
+
+        final int id;
+
+        final Path path;
+
+        final FileChannel channel;
+
+        final MappedByteBuffer buffer;
+
+        int end;
+
+        long live;
+
+        boolean sealed;
+    }
+
+    private static final class Location
+    {
+        Location(int segment, int offset, int length)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        final int segment;
+
+        final int offset;
+
+        final int length;
+    }
+
+    private static final class Entry
+    {
+        Entry(int kind, String type, ByteBuffer key, int offset, int length)
+        {
+            this.kind = kind;
+            this.type = type;
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        final int kind;
+
+        final String type;
+
+        final ByteBuffer key;
+
+        final int offset;
+
+        final int length;
+    }
+
+    private static final class Scan
+    {
+        Scan(List<Entry> entries, int end)
+        {
+            this.entries = entries;
+            this.end = end;
+        }
+
+        final List<Entry> entries;
+
+        final int end;
+    }
+
+    private static final class Operation
+    {
+        Operation(int kind, String type, byte[] key, byte[] value, Map<String, Object> probe)
+        {
+            this.kind = kind;
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.probe = probe;
+        }
+
+        final int kind;
+
+        final String type;
+
+        final byte[] key;
+
+        final byte[] value;
+
+        final Map<String, Object> probe;
+    }
+
+    private class LogTransaction implements Transaction
+    {
+        LogStructuredDataSource owner()
+        {
+            return LogStructuredDataSource.this;
+        }
+
+        LogTransaction enqueue(Operation operation)
+        {
+            operations.add(operation);
+            return this;
+        }
+
+        @Override
+        public boolean push() throws DataSourceException
+        {
+            List<Operation> pushing = new ArrayList<>();
+
+            Operation operation;
+            while ((operation = operations.poll()) != null)
+                pushing.add(operation);
+
+            try {
+                append(pushing);
+            } catch (DataSourceException e) {
+                lastException = e;
+                throw e;
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            operations.clear();
+            return true;
+        }
+
+        @Override
+        public Optional<Exception> getLastException()
+        {
+            return Optional.ofNullable(lastException);
+        }
+
+        private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+
+        private volatile Exception lastException;
+    }
+}
@@ -0,0 +1,1533 @@
+/*
+ * OffHeapDataSource.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.DataSource;
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.annotations.Element;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ExpandForcibly;
+import com.theredpixelteam.kraitudao.common.tree.BinaryTree;
+import com.theredpixelteam.kraitudao.common.tree.TreeMapper;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.dataobject.util.ValueObjectIterator;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectInterpreter;
+import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+import com.theredpixelteam.redtea.util.Optional;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// rows live in direct buffers laid out per flattened value object, objects exist only while being pulled
+@SuppressWarnings("unchecked")
+public class OffHeapDataSource implements DataSource, AutoCloseable {
+    public OffHeapDataSource(DataObjectInterpreter interpreter, DataObjectExpander expander, DataObjectContainer container)
+    {
+        this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+        this.expander = Objects.requireNonNull(expander, "expander");
+        this.container = Objects.requireNonNull(container, "container");
+        this.mapper = new TreeMapper(interpreter, expander, container);
+    }
+
+    public OffHeapDataSource()
+    {
+        this(StandardDataObjectInterpreter.INSTANCE, StandardDataObjectExpander.INSTANCE, DataObjectCache.getGlobal());
+    }
+
+    public long getOffHeapBytes()
+    {
+        long bytes = 0;
+
+        lock.readLock().lock();
+
+        try {
+            for (Table table : tables.values())
+                bytes += table.rows.capacity() + table.heap.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return bytes;
+    }
+
+    private Table tableOf(Class<?> type) throws DataSourceException
+    {
+        Table table = tables.get(type);
+
+        if (table != null)
+            return table;
+
+        DataObject dataObject;
+
+        try {
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+
+        if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Element data object is not allowed in global scope");
+
+        table = new Table(dataObject, layout(dataObject));
+
+        Table existing = tables.putIfAbsent(type, table);
+        return existing == null ? table : existing;
+    }
+
+    private List<Column> layout(DataObject dataObject) throws DataSourceException
+    {
+        List<Column> columns = new ArrayList<>();
+        int[] offset = {ROW_HEADER};
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            flatten(columns, new ValueObject[] {valueObject}, -1, offset);
+
+        return columns;
+    }
+
+    // expandable values become a presence flag followed by the columns of their expanded values
+    private void flatten(List<Column> columns, ValueObject[] path, int parent, int[] offset) throws DataSourceException
+    {
+        ValueObject valueObject = path[path.length - 1];
+        Class<?> type = valueObject.getType();
+        boolean expandForcibly = valueObject.hasMetadata(ExpandForcibly.class);
+
+        Encoding encoding;
+
+        if (!StructureType.VALUE.equals(valueObject.getStructure()))
+            encoding = Encoding.BLOB;
+        else if (!expandForcibly && TreeMapper.isScalarType(type))
+            encoding = Encoding.of(type);
+        else if (!expandForcibly && type.getAnnotation(Element.class) != null)
+            encoding = Encoding.BLOB;
+        else
+        {
+            Map<String, ValueObject> expanded;
+
+            try {
+                expanded = container.expand(valueObject, expander)
+                        .orElseThrow(() -> new DataSourceException.UnsupportedValueType(type.getCanonicalName()));
+            } catch (DataObjectInterpretationException e) {
+                throw new DataSourceException(e);
+            }
+
+            int presence = columns.size();
+            columns.add(new Column(path, Encoding.PRESENCE, parent, offset[0]));
+            offset[0] += Encoding.PRESENCE.width;
+
+            for (ValueObject expandedValueObject : expanded.values())
+            {
+                ValueObject[] expandedPath = Arrays.copyOf(path, path.length + 1);
+                expandedPath[path.length] = expandedValueObject;
+
+                flatten(columns, expandedPath, presence, offset);
+            }
+
+            return;
+        }
+
+        if (valueObject.isKey() && path.length == 1 && !encoding.key)
+            throw new DataSourceException.UnsupportedValueType("(As key) " + type.getCanonicalName());
+
+        columns.add(new Column(path, encoding, parent, offset[0]));
+        offset[0] += encoding.width;
+    }
+
+    private static <T, X extends Throwable> T construct(SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        try {
+            return constructor.get();
+        } catch (Throwable e) {
+            throw new DataSourceException("Object construction failure", e);
+        }
+    }
+
+    @Override
+    public <T> boolean pull(T object, Class<T> type) throws DataSourceException
+    {
+        Table table = tableOf(type);
+        Object[] keys = table.captureKeys(object, false);
+
+        lock.readLock().lock();
+
+        try {
+            int slot = table.find(keys);
+
+            if (slot < 0)
+                return false;
+
+            table.materialize(slot, object);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        Table table = tableOf(type);
+        Object[] keys = table.captureKeys(object, false);
+
+        lock.readLock().lock();
+
+        try {
+            return table.find(keys) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> long count(Class<T> type) throws DataSourceException
+    {
+        Table table = tableOf(type);
+
+        lock.readLock().lock();
+
+        try {
+            return table.live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        Table table = tableOf(type);
+        Collection<T> collection = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            for (int slot = 0; slot < table.rows.allocated(); slot++)
+                if (table.rows.isLive(slot))
+                {
+                    T object = construct(constructor);
+                    table.materialize(slot, object);
+                    collection.add(object);
+                }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection pull from off-heap store");
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        Table table = tableOf(type);
+
+        if (!DataObjectType.MULTIPLE.equals(table.dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        Object[] probe = table.captureKeys(object, true);
+        Collection<T> collection = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            int[] slots = table.findVaguely(probe);
+
+            for (int slot : slots)
+            {
+                T pulled = construct(constructor);
+                table.materialize(slot, pulled);
+                collection.add(pulled);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        Table table = tableOf(type);
+        return of(transaction).enqueue(new Operation(Operation.COMMIT, table, table.capture(object)));
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection commit into off-heap store");
+    }
+
+    @Override
+    public <T> Transaction remove(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        Table table = tableOf(type);
+        return of(transaction).enqueue(new Operation(Operation.REMOVE, table, table.captureKeys(object, false)));
+    }
+
+    @Override
+    public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        Table table = tableOf(type);
+
+        if (!DataObjectType.MULTIPLE.equals(table.dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        return of(transaction).enqueue(new Operation(Operation.REMOVE_VAGUELY, table, table.captureKeys(object, true)));
+    }
+
+    @Override
+    public Transaction clear(Transaction transaction) throws DataSourceException
+    {
+        return of(transaction).enqueue(new Operation(Operation.CLEAR, null, null));
+    }
+
+    @Override
+    public void waitForTransaction()
+    {
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+    }
+
+    private OffHeapTransaction of(Transaction transaction) throws DataSourceException
+    {
+        if (closed)
+            throw new DataSourceException("Closed");
+
+        if (transaction == null)
+            return new OffHeapTransaction();
+
+        if (!(transaction instanceof OffHeapTransaction) || ((OffHeapTransaction) transaction).owner() != this)
+            throw new DataSourceException("Transaction not owned by this data source");
+
+        return (OffHeapTransaction) transaction;
+    }
+
+    private void apply(List<Operation> operations) throws DataSourceException
+    {
+        lock.writeLock().lock();
+
+        try {
+            if (closed)
+                throw new DataSourceException("Closed");
+
+            Set<Table> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            for (Operation operation : operations)
+            {
+                switch (operation.kind)
+                {
+                    case Operation.COMMIT:
+                        operation.table.upsert(operation.values);
+                        break;
+
+                    case Operation.REMOVE:
+                        operation.table.delete(operation.values);
+                        break;
+
+                    case Operation.REMOVE_VAGUELY:
+                        for (int slot : operation.table.findVaguely(operation.values))
+                            operation.table.deleteSlot(slot);
+                        break;
+
+                    case Operation.CLEAR:
+                        for (Table table : tables.values())
+                            table.clear();
+                        break;
+                }
+
+                if (operation.table != null)
+                    touched.add(operation.table);
+            }
+
+            for (Table table : touched)
+                table.compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        lock.writeLock().lock();
+
+        try {
+            closed = true;
+            tables.clear(); // the buffers are released with their last reference
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    private static long hash(CharSequence string)
+    {
+        long h = 0x9E3779B97F4A7C15L;
+
+        for (int i = 0; i < string.length(); i++)
+            h = (h ^ string.charAt(i)) * 0x100000001B3L;
+
+        return mix(h ^ string.length());
+    }
+
+    private final DataObjectInterpreter interpreter;
+
+    private final DataObjectExpander expander;
+
+    private final DataObjectContainer container;
+
+    private final TreeMapper mapper;
+
+    private final Map<Class<?>, Table> tables = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed;
+
+    // the live flag of a row
+    private static final int ROW_HEADER = 1;
+
+    private static final int SLAB_CHUNK_SIZE = 1 << 20;
+
+    private static final long HEAP_COMPACTION_MINIMUM = 1L << 20;
+
+    private static final long NULL_ADDRESS = -1L;
+
+    private enum Encoding
+    {
+        // fixed width values follow a null flag byte
+        LONG(9, true),
+        INT(5, true),
+        SHORT(3, true),
+        BYTE(2, true),
+        CHAR(3, true),
+        BOOLEAN(2, true),
+        FLOAT(5, true),
+        DOUBLE(9, true),
+        ENUM(5, true),
+
+        // variable length values are referenced by heap address (8) and length (4) after the flag
+        STRING(13, true),
+        TEXT(13, true),
+        BLOB(13, false),
+
+        PRESENCE(1, false);
+
+        Encoding(int width, boolean key)
+        {
+            this.width = width;
+            this.key = key;
+        }
+
+        boolean variable()
+        {
+            return this == STRING || this == TEXT || this == BLOB;
+        }
+
+        static Encoding of(Class<?> type)
+        {
+            if (type == long.class || type == Long.class)
+                return LONG;
+
+            if (type == int.class || type == Integer.class)
+                return INT;
+
+            if (type == short.class || type == Short.class)
+                return SHORT;
+
+            if (type == byte.class || type == Byte.class)
+                return BYTE;
+
+            if (type == char.class || type == Character.class)
+                return CHAR;
+
+            if (type == boolean.class || type == Boolean.class)
+                return BOOLEAN;
+
+            if (type == float.class || type == Float.class)
+                return FLOAT;
+
+            if (type == double.class || type == Double.class)
+                return DOUBLE;
+
+            if (type.isEnum())
+                return ENUM;
+
+            if (type == String.class)
+                return STRING;
+
+            // BigDecimal, BigInteger and other numbers by their string form
+            return TEXT;
+        }
+
+        final int width;
+
+        final boolean key;
+    }
+
+    private final class Column
+    {
+        Column(ValueObject[] path, Encoding encoding, int parent, int offset)
+        {
+            this.path = path;
+            this.valueObject = path[path.length - 1];
+            this.encoding = encoding;
+            this.parent = parent;
+            this.offset = offset;
+            this.constants = encoding == Encoding.ENUM ? valueObject.getType().getEnumConstants() : null;
+        }
+
+        // the object holding the value, null if an intermediate value is absent
+        Object holder(Object object)
+        {
+            for (int i = 0; i < path.length - 1 && object != null; i++)
+                object = path[i].get(object);
+
+            return object;
+        }
+
+        Object get(Object object)
+        {
+            Object holder = holder(object);
+            return holder == null ? null : valueObject.get(holder);
+        }
+
+        // intermediate values are constructed as needed
+        Object holderForUpdate(Object object) throws DataSourceException
+        {
+            for (int i = 0; i < path.length - 1; i++)
+            {
+                Object next = path[i].get(object);
+
+                if (next == null) try {
+                    path[i].set(object, next = path[i].getConstructor().newInstance(object));
+                } catch (Exception e) {
+                    throw new DataSourceException("Construction failure", e);
+                }
+
+                object = next;
+            }
+
+            return object;
+        }
+
+        boolean isKey()
+        {
+            return path.length == 1 && valueObject.isKey();
+        }
+
+        final ValueObject[] path;
+
+        final ValueObject valueObject;
+
+        final Encoding encoding;
+
+        final int parent;
+
+        final int offset;
+
+        final Object[] constants;
+    }
+
+    private final class Table
+    {
+        Table(DataObject dataObject, List<Column> columns)
+        {
+            this.dataObject = dataObject;
+            this.columns = columns.toArray(new Column[0]);
+
+            List<Integer> keys = new ArrayList<>();
+            int rowSize = ROW_HEADER;
+
+            for (int i = 0; i < this.columns.length; i++)
+            {
+                if (this.columns[i].isKey())
+                    keys.add(i);
+
+                rowSize += this.columns[i].encoding.width;
+            }
+
+            this.keys = new int[keys.size()];
+            for (int i = 0; i < this.keys.length; i++)
+                this.keys[i] = keys.get(i);
+
+            this.rows = new RowSlab(rowSize);
+
+            // a single key column is already covered by the identity index
+            this.keyIndexes = new LongIntMultiMap[this.keys.length > 1 ? this.keys.length : 0];
+            for (int i = 0; i < keyIndexes.length; i++)
+                keyIndexes[i] = new LongIntMultiMap();
+        }
+
+        // column values in their stored form, trees of collections and elements are encoded here
+        Object[] capture(Object object) throws DataSourceException
+        {
+            Object[] values = new Object[columns.length];
+
+            for (int i = 0; i < columns.length; i++)
+            {
+                Column column = columns[i];
+
+                if (column.parent >= 0 && values[column.parent] == null)
+                    continue;
+
+                Object holder = column.holder(object);
+                Object value = holder == null ? null : column.valueObject.get(holder);
+
+                switch (column.encoding)
+                {
+                    case PRESENCE:
+                        values[i] = value == null ? null : Boolean.TRUE;
+                        break;
+
+                    case BLOB:
+                        values[i] = value == null ? null : encode(mapper.toTree(column.valueObject, value));
+                        break;
+
+                    case TEXT:
+                        values[i] = value == null ? null : value.toString();
+                        break;
+
+                    default:
+                        values[i] = value;
+                }
+            }
+
+            checkKeys(values, false);
+
+            return values;
+        }
+
+        Object[] captureKeys(Object object, boolean vague) throws DataSourceException
+        {
+            Object[] values = new Object[columns.length];
+
+            for (int key : keys)
+            {
+                Object value = columns[key].get(object);
+                values[key] = value != null && columns[key].encoding == Encoding.TEXT ? value.toString() : value;
+            }
+
+            checkKeys(values, vague);
+
+            return values;
+        }
+
+        void checkKeys(Object[] values, boolean vague) throws DataSourceException
+        {
+            if (vague)
+                return;
+
+            for (int key : keys)
+                if (values[key] == null)
+                    throw new DataSourceException("Null key \"" + columns[key].valueObject.getName() + "\"");
+        }
+
+        byte[] encode(Object tree) throws DataSourceException
+        {
+            try {
+                return BinaryTree.encode(tree);
+            } catch (IOException e) {
+                throw new DataSourceException(e);
+            }
+        }
+
+        long code(int column, Object value)
+        {
+            switch (columns[column].encoding)
+            {
+                case LONG:
+                case INT:
+                case SHORT:
+                case BYTE:
+                    return mix(((Number) value).longValue());
+
+                case CHAR:
+                    return mix((Character) value);
+
+                case BOOLEAN:
+                    return mix((Boolean) value ? 1 : 0);
+
+                case FLOAT:
+                    return mix(Float.floatToIntBits((Float) value));
+
+                case DOUBLE:
+                    return mix(Double.doubleToLongBits((Double) value));
+
+                case ENUM:
+                    return mix(((Enum<?>) value).ordinal());
+
+                default:
+                    return hash((String) value);
+            }
+        }
+
+        long identity(Object[] values)
+        {
+            long h = 0;
+
+            for (int key : keys)
+                h = mix(h * 31 + code(key, values[key]));
+
+            return h;
+        }
+
+        boolean matches(int slot, int column, Object value)
+        {
+            ByteBuffer chunk = rows.chunk(slot);
+            int at = rows.offset(slot) + columns[column].offset;
+
+            if (chunk.get(at) == 0)
+                return false;
+
+            switch (columns[column].encoding)
+            {
+                case LONG:
+                    return chunk.getLong(at + 1) == ((Number) value).longValue();
+
+                case INT:
+                    return chunk.getInt(at + 1) == ((Number) value).intValue();
+
+                case SHORT:
+                    return chunk.getShort(at + 1) == ((Number) value).shortValue();
+
+                case BYTE:
+                    return chunk.get(at + 1) == ((Number) value).byteValue();
+
+                case CHAR:
+                    return chunk.getChar(at + 1) == (Character) value;
+
+                case BOOLEAN:
+                    return (chunk.get(at + 1) != 0) == (Boolean) value;
+
+                case FLOAT:
+                    return chunk.getInt(at + 1) == Float.floatToIntBits((Float) value);
+
+                case DOUBLE:
+                    return chunk.getLong(at + 1) == Double.doubleToLongBits((Double) value);
+
+                case ENUM:
+                    return chunk.getInt(at + 1) == ((Enum<?>) value).ordinal();
+
+                default:
+                {
+                    String string = (String) value;
+                    long address = chunk.getLong(at + 1);
+                    int length = chunk.getInt(at + 9);
+
+                    if (length != string.length() * 2)
+                        return false;
+
+                    ByteBuffer heapChunk = heap.chunk(address);
+                    int heapOffset = VarHeap.offset(address);
+
+                    for (int i = 0; i < string.length(); i++)
+                        if (heapChunk.getChar(heapOffset + i * 2) != string.charAt(i))
+                            return false;
+
+                    return true;
+                }
+            }
+        }
+
+        boolean matchesKeys(int slot, Object[] values)
+        {
+            for (int key : keys)
+                if (values[key] != null && !matches(slot, key, values[key]))
+                    return false;
+
+            return true;
+        }
+
+        int find(Object[] values)
+        {
+            long code = identity(values);
+
+            for (int position = identities.seek(code, identities.home(code)); position >= 0;
+                 position = identities.seek(code, identities.after(position)))
+            {
+                int slot = identities.valueAt(position);
+
+                if (matchesKeys(slot, values))
+                    return slot;
+            }
+
+            return -1;
+        }
+
+        // candidates come from the index of the first given key, or from a scan if none is given
+        int[] findVaguely(Object[] probe)
+        {
+            int first = -1;
+
+            for (int i = 0; i < keys.length; i++)
+                if (probe[keys[i]] != null)
+                {
+                    first = i;
+                    break;
+                }
+
+            int[] slots = new int[8];
+            int count = 0;
+
+            if (first < 0)
+            {
+                for (int slot = 0; slot < rows.allocated(); slot++)
+                    if (rows.isLive(slot))
+                    {
+                        if (count == slots.length)
+                            slots = Arrays.copyOf(slots, count * 2);
+
+                        slots[count++] = slot;
+                    }
+
+                return Arrays.copyOf(slots, count);
+            }
+
+            boolean complete = true;
+            for (int key : keys)
+                complete &= probe[key] != null;
+
+            if (complete)
+            {
+                int slot = find(probe);
+                return slot < 0 ? new int[0] : new int[] {slot};
+            }
+
+            LongIntMultiMap index = keyIndexes.length == 0 ? identities : keyIndexes[first];
+            long code = keyIndexes.length == 0 ? identity(probe) : code(keys[first], probe[keys[first]]);
+
+            for (int position = index.seek(code, index.home(code)); position >= 0;
+                 position = index.seek(code, index.after(position)))
+            {
+                int slot = index.valueAt(position);
+
+                if (!matchesKeys(slot, probe))
+                    continue;
+
+                if (count == slots.length)
+                    slots = Arrays.copyOf(slots, count * 2);
+
+                slots[count++] = slot;
+            }
+
+            return Arrays.copyOf(slots, count);
+        }
+
+        void upsert(Object[] values)
+        {
+            int slot = find(values);
+
+            if (slot >= 0)
+            {
+                release(slot);
+                write(slot, values);
+                return;
+            }
+
+            slot = rows.allocate();
+            write(slot, values);
+
+            identities.put(identity(values), slot);
+            for (int i = 0; i < keyIndexes.length; i++)
+                keyIndexes[i].put(code(keys[i], values[keys[i]]), slot);
+
+            live++;
+        }
+
+        void delete(Object[] keyValues)
+        {
+            int slot = find(keyValues);
+
+            if (slot >= 0)
+                deleteSlot(slot);
+        }
+
+        void deleteSlot(int slot)
+        {
+            Object[] keyValues = new Object[columns.length];
+            for (int key : keys)
+                keyValues[key] = read(slot, columns[key]);
+
+            identities.remove(identity(keyValues), slot);
+            for (int i = 0; i < keyIndexes.length; i++)
+                keyIndexes[i].remove(code(keys[i], keyValues[keys[i]]), slot);
+
+            release(slot);
+            rows.free(slot);
+            live--;
+        }
+
+        void clear()
+        {
+            rows.clear();
+            heap.clear();
+            identities.clear();
+
+            for (LongIntMultiMap index : keyIndexes)
+                index.clear();
+
+            live = 0;
+        }
+
+        // the variable length values of a row become garbage of the heap
+        void release(int slot)
+        {
+            ByteBuffer chunk = rows.chunk(slot);
+            int base = rows.offset(slot);
+
+            for (Column column : columns)
+                if (column.encoding.variable() && chunk.get(base + column.offset) != 0)
+                    heap.free(chunk.getInt(base + column.offset + 9));
+        }
+
+        void write(int slot, Object[] values)
+        {
+            ByteBuffer chunk = rows.chunk(slot);
+            int base = rows.offset(slot);
+
+            chunk.put(base, (byte) 1);
+
+            for (int i = 0; i < columns.length; i++)
+            {
+                Column column = columns[i];
+                Object value = values[i];
+                int at = base + column.offset;
+
+                if (value == null)
+                {
+                    chunk.put(at, (byte) 0);
+                    continue;
+                }
+
+                chunk.put(at, (byte) 1);
+
+                switch (column.encoding)
+                {
+                    case LONG:
+                        chunk.putLong(at + 1, ((Number) value).longValue());
+                        break;
+
+                    case INT:
+                        chunk.putInt(at + 1, ((Number) value).intValue());
+                        break;
+
+                    case SHORT:
+                        chunk.putShort(at + 1, ((Number) value).shortValue());
+                        break;
+
+                    case BYTE:
+                        chunk.put(at + 1, ((Number) value).byteValue());
+                        break;
+
+                    case CHAR:
+                        chunk.putChar(at + 1, (Character) value);
+                        break;
+
+                    case BOOLEAN:
+                        chunk.put(at + 1, (byte) ((Boolean) value ? 1 : 0));
+                        break;
+
+                    case FLOAT:
+                        chunk.putFloat(at + 1, (Float) value);
+                        break;
+
+                    case DOUBLE:
+                        chunk.putDouble(at + 1, (Double) value);
+                        break;
+
+                    case ENUM:
+                        chunk.putInt(at + 1, ((Enum<?>) value).ordinal());
+                        break;
+
+                    case STRING:
+                    case TEXT:
+                    {
+                        String string = (String) value;
+                        long address = heap.allocate(string.length() * 2);
+                        ByteBuffer heapChunk = heap.chunk(address);
+                        int heapOffset = VarHeap.offset(address);
+
+                        for (int j = 0; j < string.length(); j++)
+                            heapChunk.putChar(heapOffset + j * 2, string.charAt(j));
+
+                        chunk.putLong(at + 1, address);
+                        chunk.putInt(at + 9, string.length() * 2);
+                        break;
+                    }
+
+                    case BLOB:
+                    {
+                        byte[] bytes = (byte[]) value;
+                        long address = heap.allocate(bytes.length);
+                        ByteBuffer heapChunk = heap.chunk(address);
+                        int heapOffset = VarHeap.offset(address);
+
+                        for (int j = 0; j < bytes.length; j++)
+                            heapChunk.put(heapOffset + j, bytes[j]);
+
+                        chunk.putLong(at + 1, address);
+                        chunk.putInt(at + 9, bytes.length);
+                        break;
+                    }
+
+                    case PRESENCE:
+                        break;
+                }
+            }
+        }
+
+        // scalar columns in their boxed form, blob columns as decoded trees
+        Object read(int slot, Column column)
+        {
+            ByteBuffer chunk = rows.chunk(slot);
+            int at = rows.offset(slot) + column.offset;
+
+            if (chunk.get(at) == 0)
+                return null;
+
+            switch (column.encoding)
+            {
+                case LONG:
+                    return chunk.getLong(at + 1);
+
+                case INT:
+                    return chunk.getInt(at + 1);
+
+                case SHORT:
+                    return chunk.getShort(at + 1);
+
+                case BYTE:
+                    return chunk.get(at + 1);
+
+                case CHAR:
+                    return chunk.getChar(at + 1);
+
+                case BOOLEAN:
+                    return chunk.get(at + 1) != 0;
+
+                case FLOAT:
+                    return chunk.getFloat(at + 1);
+
+                case DOUBLE:
+                    return chunk.getDouble(at + 1);
+
+                case ENUM:
+                    return column.constants[chunk.getInt(at + 1)];
+
+                case STRING:
+                case TEXT:
+                {
+                    long address = chunk.getLong(at + 1);
+                    char[] chars = new char[chunk.getInt(at + 9) / 2];
+                    ByteBuffer heapChunk = heap.chunk(address);
+                    int heapOffset = VarHeap.offset(address);
+
+                    for (int i = 0; i < chars.length; i++)
+                        chars[i] = heapChunk.getChar(heapOffset + i * 2);
+
+                    return new String(chars);
+                }
+
+                case BLOB:
+                {
+                    long address = chunk.getLong(at + 1);
+                    return BinaryTree.decode(heap.chunk(address), new int[] {VarHeap.offset(address)});
+                }
+
+                default:
+                    return Boolean.TRUE;
+            }
+        }
+
+        void materialize(int slot, Object object) throws DataSourceException
+        {
+            boolean[] absent = new boolean[columns.length];
+
+            for (int i = 0; i < columns.length; i++)
+            {
+                Column column = columns[i];
+
+                if (column.parent >= 0 && absent[column.parent])
+                {
+                    absent[i] = true;
+                    continue;
+                }
+
+                Object value = read(slot, column);
+
+                if (column.encoding == Encoding.PRESENCE)
+                {
+                    if (value == null)
+                    {
+                        absent[i] = true;
+                        Object holder = column.holder(object);
+
+                        if (holder != null)
+                            column.valueObject.set(holder, null);
+                    }
+
+                    continue;
+                }
+
+                Object holder = column.holderForUpdate(object);
+
+                if (column.encoding == Encoding.BLOB)
+                    mapper.fromTree(column.valueObject, value, holder);
+                else if (column.encoding == Encoding.TEXT)
+                    column.valueObject.set(holder, TreeMapper.convert(value, column.valueObject.getType()));
+                else if (value != null || !column.valueObject.getType().isPrimitive())
+                    column.valueObject.set(holder, value);
+            }
+        }
+
+        // rewrites the heap once more than half of it is garbage
+        void compactIfNeeded()
+        {
+            if (heap.garbage < HEAP_COMPACTION_MINIMUM || heap.garbage * 2 < heap.used)
+                return;
+
+            VarHeap compacted = new VarHeap();
+
+            for (int slot = 0; slot < rows.allocated(); slot++)
+            {
+                if (!rows.isLive(slot))
+                    continue;
+
+                ByteBuffer chunk = rows.chunk(slot);
+                int base = rows.offset(slot);
+
+                for (Column column : columns)
+                {
+                    int at = base + column.offset;
+
+                    if (!column.encoding.variable() || chunk.get(at) == 0)
+                        continue;
+
+                    long address = chunk.getLong(at + 1);
+                    int length = chunk.getInt(at + 9);
+                    long relocated = compacted.allocate(length);
+
+                    ByteBuffer source = heap.chunk(address).duplicate();
+                    source.limit(VarHeap.offset(address) + length).position(VarHeap.offset(address));
+
+                    ByteBuffer target = compacted.chunk(relocated).duplicate();
+                    target.position(VarHeap.offset(relocated));
+                    target.put(source);
+
+                    chunk.putLong(at + 1, relocated);
+                }
+            }
+
+            heap = compacted;
+        }
+
+        final DataObject dataObject;
+
+        final Column[] columns;
+
+        final int[] keys;
+
+        final RowSlab rows;
+
+        final LongIntMultiMap identities = new LongIntMultiMap();
+
+        final LongIntMultiMap[] keyIndexes;
+
+        VarHeap heap = new VarHeap();
+
+        int live;
+    }
+
+    // fixed size rows in chunks of direct buffers, freed slots are reused first
+    private static final class RowSlab
+    {
+        RowSlab(int rowSize)
+        {
+            this.rowSize = rowSize;
+            this.rowsPerChunk = Math.max(1, SLAB_CHUNK_SIZE / rowSize);
+        }
+
+        int allocate()
+        {
+            if (freeCount > 0)
+                return free[--freeCount];
+
+            int slot = allocated++;
+
+            if (slot / rowsPerChunk >= chunks.size())
+                chunks.add(ByteBuffer.allocateDirect(rowsPerChunk * rowSize));
+
+            return slot;
+        }
+
+        void free(int slot)
+        {
+            chunk(slot).put(offset(slot), (byte) 0);
+
+            if (freeCount == free.length)
+                free = Arrays.copyOf(free, Math.max(16, freeCount * 2));
+
+            free[freeCount++] = slot;
+        }
+
+        boolean isLive(int slot)
+        {
+            return chunk(slot).get(offset(slot)) != 0;
+        }
+
+        ByteBuffer chunk(int slot)
+        {
+            return chunks.get(slot / rowsPerChunk);
+        }
+
+        int offset(int slot)
+        {
+            return (slot % rowsPerChunk) * rowSize;
+        }
+
+        int allocated()
+        {
+            return allocated;
+        }
+
+        long capacity()
+        {
+            return (long) chunks.size() * rowsPerChunk * rowSize;
+        }
+
+        void clear()
+        {
+            chunks.clear();
+            allocated = 0;
+            freeCount = 0;
+        }
+
+        private final int rowSize;
+
+        private final int rowsPerChunk;
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+
+        private int allocated;
+
+        private int[] free = new int[0];
+
+        private int freeCount;
+    }
+
+    // bump allocated chunks of direct buffers addressed by chunk index and offset, freed bytes are only counted
+    private static final class VarHeap
+    {
+        long allocate(int length)
+        {
+            if (length > SLAB_CHUNK_SIZE)
+            {
+                chunks.add(ByteBuffer.allocateDirect(length));
+                used += length;
+                capacity += length;
+
+                return (long) (chunks.size() - 1) << 32;
+            }
+
+            if (current < 0 || chunks.get(current).capacity() - position < length)
+            {
+                chunks.add(ByteBuffer.allocateDirect(SLAB_CHUNK_SIZE));
+                current = chunks.size() - 1;
+                position = 0;
+                capacity += SLAB_CHUNK_SIZE;
+            }
+
+            long address = ((long) current << 32) | position;
+
+            position += length;
+            used += length;
+
+            return address;
+        }
+
+        void free(int length)
+        {
+            garbage += length;
+        }
+
+        ByteBuffer chunk(long address)
+        {
+            return chunks.get((int) (address >>> 32));
+        }
+
+        static int offset(long address)
+        {
+            return (int) address;
+        }
+
+        long capacity()
+        {
+            return capacity;
+        }
+
+        void clear()
+        {
+            chunks.clear();
+            current = -1;
+            position = 0;
+            used = 0;
+            garbage = 0;
+            capacity = 0;
+        }
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+
+        private int current = -1;
+
+        private int position;
+
+        long used;
+
+        long garbage;
+
+        private long capacity;
+    }
+
+    // open addressing from hash codes to row slots with linear probing, equal codes may map to several slots
+    private static final class LongIntMultiMap
+    {
+        LongIntMultiMap()
+        {
+            allocate(16);
+        }
+
+        private void allocate(int capacity)
+        {
+            codes = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, EMPTY);
+            mask = capacity - 1;
+        }
+
+        int home(long code)
+        {
+            return (int) (code ^ (code >>> 32)) & mask;
+        }
+
+        int after(int position)
+        {
+            return (position + 1) & mask;
+        }
+
+        // the next position holding the code from the given one, or -1 at the first empty position
+        int seek(long code, int position)
+        {
+            while (values[position] != EMPTY)
+            {
+                if (codes[position] == code)
+                    return position;
+
+                position = (position + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        int valueAt(int position)
+        {
+            return values[position];
+        }
+
+        void put(long code, int value)
+        {
+            if ((size + 1) * 4 > values.length * 3)
+                grow();
+
+            int position = home(code);
+            while (values[position] != EMPTY)
+                position = (position + 1) & mask;
+
+            codes[position] = code;
+            values[position] = value;
+            size++;
+        }
+
+        // backward shift deletion, no tombstones are left behind
+        void remove(long code, int value)
+        {
+            int position = home(code);
+
+            while (values[position] != EMPTY && (codes[position] != code || values[position] != value))
+                position = (position + 1) & mask;
+
+            if (values[position] == EMPTY)
+                return;
+
+            values[position] = EMPTY;
+            size--;
+
+            int hole = position;
+            for (int next = (hole + 1) & mask; values[next] != EMPTY; next = (next + 1) & mask)
+            {
+                int home = home(codes[next]);
+
+                // moved back only if its home is not cyclically within (hole, next]
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+
+                if (movable)
+                {
+                    codes[hole] = codes[next];
+                    values[hole] = values[next];
+                    values[next] = EMPTY;
+                    hole = next;
+                }
+            }
+        }
+
+        void clear()
+        {
+            allocate(16);
+            size = 0;
+        }
+
+        private void grow()
+        {
+            long[] oldCodes = codes;
+            int[] oldValues = values;
+
+            allocate(values.length * 2);
+            size = 0;
+
+            for (int i = 0; i < oldValues.length; i++)
+                if (oldValues[i] != EMPTY)
+                    put(oldCodes[i], oldValues[i]);
+        }
+
+        private long[] codes;
+
+        private int[] values;
+
+        private int mask;
+
+        private int size;
+
+        private static final int EMPTY = -1;
+    }
+
+    private static final class Operation
+    {
+        Operation(int kind, Table table, Object[] values)
+        {
+            this.kind = kind;
+            this.table = table;
+            this.values = values;
+        }
+
+        final int kind;
+
+        final Table table;
+
+        final Object[] values;
+
+        static final int COMMIT = 0;
+
+        static final int REMOVE = 1;
+
+        static final int REMOVE_VAGUELY = 2;
+
+        static final int CLEAR = 3;
+    }
+
+    private class OffHeapTransaction implements Transaction
+    {
+        OffHeapDataSource owner()
+        {
+            return OffHeapDataSource.this;
+        }
+
+        OffHeapTransaction enqueue(Operation operation)
+        {
+            operations.add(operation);
+            return this;
+        }
+
+        @Override
+        public boolean push() throws DataSourceException
+        {
+            List<Operation> pushing = new ArrayList<>();
+
+            Operation operation;
+            while ((operation = operations.poll()) != null)
+                pushing.add(operation);
+
+            try {
+                apply(pushing);
+            } catch (DataSourceException e) {
+                lastException = e;
+                throw e;
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            operations.clear();
+            return true;
+        }
+
+        @Override
+        public Optional<Exception> getLastException()
+        {
+            return Optional.ofNullable(lastException);
+        }
+
+        private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+
+        private volatile Exception lastException;
+    }
+}
@@ -21,5 +21,690 @@
 
 package com.theredpixelteam.kraitudao.common;
 
-public class PlainHOCONDataSource {
+import com.theredpixelteam.kraitudao.DataSource;
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.common.tree.HOCONTree;
+import com.theredpixelteam.kraitudao.common.tree.TreeMapper;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.dataobject.util.ValueObjectIterator;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectInterpreter;
+import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+import com.theredpixelteam.redtea.util.Optional;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// reads are served from an immutable snapshot, pushes swap in a new one and the file is rewritten behind them
+@SuppressWarnings("unchecked")
+public class PlainHOCONDataSource implements DataSource, AutoCloseable {
+    public PlainHOCONDataSource(Path file,
+                                DataObjectInterpreter interpreter,
+                                DataObjectExpander expander,
+                                DataObjectContainer container,
+                                ThreadFactory threadFactory,
+                                Executor parseExecutor)
+            throws DataSourceException
+    {
+        this.file = Objects.requireNonNull(file, "file");
+        this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+        this.container = Objects.requireNonNull(container, "container");
+        this.mapper = new TreeMapper(interpreter, expander, container);
+        this.snapshot = load(file, parseExecutor);
+        this.persisted = snapshot.version;
+        this.writer = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    public PlainHOCONDataSource(Path file) throws DataSourceException
+    {
+        this(file, StandardDataObjectInterpreter.INSTANCE, StandardDataObjectExpander.INSTANCE, DataObjectCache.getGlobal(),
+                Executors.defaultThreadFactory(), ForkJoinPool.commonPool());
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    public long getVersion()
+    {
+        return snapshot.version;
+    }
+
+    public long getPersistedVersion()
+    {
+        return persisted;
+    }
+
+    public long getWriteCount()
+    {
+        return writes;
+    }
+
+    public Optional<Exception> getLastWriteFailure()
+    {
+        return Optional.ofNullable(lastWriteFailure);
+    }
+
+    private static Snapshot load(Path file, Executor parseExecutor) throws DataSourceException
+    {
+        if (!Files.exists(file))
+            return new Snapshot(0, new LinkedHashMap<>());
+
+        Map<String, Object> root;
+
+        try {
+            root = HOCONTree.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), parseExecutor);
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+
+        Map<String, Section> sections = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Object> entry : root.entrySet())
+        {
+            if (!(entry.getValue() instanceof List))
+                throw new DataSourceException("Malformed section \"" + entry.getKey() + "\", expected an array of records");
+
+            List<Map<String, Object>> records = new ArrayList<>();
+
+            for (Object record : (List<Object>) entry.getValue())
+            {
+                if (!(record instanceof Map))
+                    throw new DataSourceException("Malformed record in section \"" + entry.getKey() + "\", expected an object");
+
+                records.add((Map<String, Object>) record);
+            }
+
+            sections.put(entry.getKey(), new Section(records));
+        }
+
+        return new Snapshot(0, sections);
+    }
+
+    private DataObject interpret(Class<?> type) throws DataSourceException
+    {
+        DataObject dataObject;
+
+        try {
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+
+        if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Element data object is not allowed in global scope");
+
+        return dataObject;
+    }
+
+    private static List<String> keyNamesOf(DataObject dataObject)
+    {
+        List<String> names = new ArrayList<>();
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            if (valueObject.isKey())
+                names.add(valueObject.getName());
+
+        return names;
+    }
+
+    private Map<String, Object> keyOf(Object object, DataObject dataObject) throws DataSourceException
+    {
+        Map<String, Object> key = mapper.keysToTree(object, dataObject);
+
+        for (Map.Entry<String, Object> entry : key.entrySet())
+            if (entry.getValue() == null)
+                throw new DataSourceException("Null key \"" + entry.getKey() + "\"");
+
+        return key;
+    }
+
+    // non-null keys of the probe have to match
+    private static boolean matchesVaguely(Map<String, Object> probe, Map<String, Object> key)
+    {
+        for (Map.Entry<String, Object> entry : probe.entrySet())
+            if (entry.getValue() != null && !entry.getValue().equals(key.get(entry.getKey())))
+                return false;
+
+        return true;
+    }
+
+    private static <T, X extends Throwable> T construct(SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        try {
+            return constructor.get();
+        } catch (Throwable e) {
+            throw new DataSourceException("Object construction failure", e);
+        }
+    }
+
+    private Map<Map<String, Object>, Map<String, Object>> recordsOf(Snapshot snapshot, Class<?> type, DataObject dataObject)
+            throws DataSourceException
+    {
+        Section section = snapshot.sections.get(type.getName());
+        return section == null ? Collections.emptyMap() : section.index(keyNamesOf(dataObject));
+    }
+
+    @Override
+    public <T> boolean pull(T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Map<String, Object> record = recordsOf(snapshot, type, dataObject).get(keyOf(object, dataObject));
+
+        if (record == null)
+            return false;
+
+        mapper.fromTree(record, object, dataObject);
+        return true;
+    }
+
+    @Override
+    public <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        return recordsOf(snapshot, type, dataObject).containsKey(keyOf(object, dataObject));
+    }
+
+    @Override
+    public <T> long count(Class<T> type) throws DataSourceException
+    {
+        return recordsOf(snapshot, type, interpret(type)).size();
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Collection<T> collection = new ArrayList<>();
+
+        for (Map<String, Object> record : recordsOf(snapshot, type, dataObject).values())
+        {
+            T object = construct(constructor);
+            mapper.fromTree(record, object, dataObject);
+            collection.add(object);
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection pull from HOCON snapshot");
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        Map<String, Object> probe = mapper.keysToTree(object, dataObject);
+        Collection<T> collection = new ArrayList<>();
+
+        for (Map.Entry<Map<String, Object>, Map<String, Object>> entry : recordsOf(snapshot, type, dataObject).entrySet())
+        {
+            if (!matchesVaguely(probe, entry.getKey()))
+                continue;
+
+            T pulled = construct(constructor);
+            mapper.fromTree(entry.getValue(), pulled, dataObject);
+            collection.add(pulled);
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        return of(transaction).enqueue(new Operation(Operation.COMMIT, type.getName(), keyNamesOf(dataObject),
+                keyOf(object, dataObject), mapper.toTree(object, dataObject)));
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection commit into HOCON snapshot");
+    }
+
+    @Override
+    public <T> Transaction remove(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        return of(transaction).enqueue(new Operation(Operation.REMOVE, type.getName(), keyNamesOf(dataObject),
+                keyOf(object, dataObject), null));
+    }
+
+    @Override
+    public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        return of(transaction).enqueue(new Operation(Operation.REMOVE_VAGUELY, type.getName(), keyNamesOf(dataObject),
+                mapper.keysToTree(object, dataObject), null));
+    }
+
+    @Override
+    public Transaction clear(Transaction transaction) throws DataSourceException
+    {
+        return of(transaction).enqueue(new Operation(Operation.CLEAR, null, null, null, null));
+    }
+
+    @Override
+    public void waitForTransaction()
+    {
+        try {
+            flush();
+        } catch (DataSourceException e) {
+            // kept as the last write failure
+        }
+    }
+
+    private HOCONTransaction of(Transaction transaction) throws DataSourceException
+    {
+        if (closed)
+            throw new DataSourceException("Closed");
+
+        if (transaction == null)
+            return new HOCONTransaction();
+
+        if (!(transaction instanceof HOCONTransaction) || ((HOCONTransaction) transaction).owner() != this)
+            throw new DataSourceException("Transaction not owned by this data source");
+
+        return (HOCONTransaction) transaction;
+    }
+
+    // copies only the sections touched by the batch, readers keep whichever snapshot they started with
+    private void apply(List<Operation> operations) throws DataSourceException
+    {
+        pushLock.lock();
+
+        try {
+            if (closed)
+                throw new DataSourceException("Closed");
+
+            Snapshot current = snapshot;
+            Map<String, Section> sections = new LinkedHashMap<>(current.sections);
+            Map<String, Map<Map<String, Object>, Map<String, Object>>> touched = new HashMap<>();
+
+            for (Operation operation : operations)
+            {
+                if (operation.kind == Operation.CLEAR)
+                {
+                    sections.clear();
+                    touched.clear();
+                    continue;
+                }
+
+                Map<Map<String, Object>, Map<String, Object>> records = touched.get(operation.type);
+
+                if (records == null)
+                {
+                    Section section = sections.get(operation.type);
+
+                    records = section == null ? new LinkedHashMap<>() : new LinkedHashMap<>(section.index(operation.keyNames));
+                    touched.put(operation.type, records);
+                }
+
+                switch (operation.kind)
+                {
+                    case Operation.COMMIT:
+                        records.put(operation.key, operation.value);
+                        break;
+
+                    case Operation.REMOVE:
+                        records.remove(operation.key);
+                        break;
+
+                    case Operation.REMOVE_VAGUELY:
+                        records.keySet().removeIf((key) -> matchesVaguely(operation.key, key));
+                        break;
+                }
+            }
+
+            for (Map.Entry<String, Map<Map<String, Object>, Map<String, Object>>> entry : touched.entrySet())
+                if (entry.getValue().isEmpty())
+                    sections.remove(entry.getKey());
+                else
+                    sections.put(entry.getKey(), new Section(entry.getValue()));
+
+            snapshot = new Snapshot(current.version + 1, sections);
+        } finally {
+            pushLock.unlock();
+        }
+
+        schedule();
+    }
+
+    // pushes arriving while a write is in progress are coalesced into the next one
+    private void schedule()
+    {
+        if (!scheduled.compareAndSet(false, true))
+            return;
+
+        try {
+            writer.execute(this::write);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+        }
+    }
+
+    private void write()
+    {
+        scheduled.set(false);
+
+        Snapshot snapshot = this.snapshot;
+
+        if (snapshot.version <= persisted)
+            return;
+
+        try {
+            write(snapshot);
+
+            writes++;
+            persisted = snapshot.version;
+        } catch (Exception e) {
+            lastWriteFailure = e;
+            failed = snapshot.version;
+        }
+
+        flushLock.lock();
+
+        try {
+            written.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void write(Snapshot snapshot) throws IOException
+    {
+        Map<String, Object> root = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Section> entry : snapshot.sections.entrySet())
+            root.put(entry.getKey(), entry.getValue().records());
+
+        StringBuilder out = new StringBuilder();
+        HOCONTree.emit(out, root);
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8));
+
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // waits until the current snapshot is on disk
+    public void flush() throws DataSourceException
+    {
+        long version = snapshot.version;
+
+        flushLock.lock();
+
+        try {
+            while (persisted < version)
+            {
+                if (failed >= version)
+                    throw new DataSourceException("Write failure", lastWriteFailure);
+
+                if (closed && writer.isTerminated())
+                    throw new DataSourceException("Closed");
+
+                written.await(FLUSH_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSourceException(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws DataSourceException
+    {
+        pushLock.lock();
+
+        try {
+            closed = true;
+        } finally {
+            pushLock.unlock();
+        }
+
+        // the final snapshot is written even if no write was pending
+        scheduled.set(false);
+        schedule();
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSourceException(e);
+        }
+
+        if (persisted < snapshot.version)
+            throw new DataSourceException("Write failure", lastWriteFailure);
+    }
+
+    private final Path file;
+
+    private final DataObjectInterpreter interpreter;
+
+    private final DataObjectContainer container;
+
+    private final TreeMapper mapper;
+
+    private final ExecutorService writer;
+
+    private final Lock pushLock = new ReentrantLock();
+
+    private final Lock flushLock = new ReentrantLock();
+
+    private final Condition written = flushLock.newCondition();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+
+    private volatile long persisted;
+
+    private volatile long failed = -1;
+
+    private volatile long writes;
+
+    private volatile Exception lastWriteFailure;
+
+    private volatile boolean closed;
+
+    private static final long FLUSH_CHECK_INTERVAL = 100;
+
+    private static final class Snapshot
+    {
+        Snapshot(long version, Map<String, Section> sections)
+        {
+            this.version = version;
+            this.sections = Collections.unmodifiableMap(sections);
+        }
+
+        final long version;
+
+        final Map<String, Section> sections;
+    }
+
+    // records of a type as parsed, indexed by key on first access
+    private static final class Section
+    {
+        Section(List<Map<String, Object>> records)
+        {
+            this.records = records;
+        }
+
+        Section(Map<Map<String, Object>, Map<String, Object>> indexed)
+        {
+            this.records = null;
+            this.indexed = Collections.unmodifiableMap(indexed);
+        }
+
+        // concurrent first accesses may both build it, with the same result
+        Map<Map<String, Object>, Map<String, Object>> index(List<String> keyNames) throws DataSourceException
+        {
+            Map<Map<String, Object>, Map<String, Object>> indexed = this.indexed;
+
+            if (indexed != null)
+                return indexed;
+
+            indexed = new LinkedHashMap<>();
+
+            for (Map<String, Object> record : records)
+            {
+                Map<String, Object> key = new LinkedHashMap<>();
+
+                for (String name : keyNames)
+                {
+                    Object value = record.get(name);
+
+                    if (value == null)
+                        throw new DataSourceException("Record without key \"" + name + "\"");
+
+                    key.put(name, value);
+                }
+
+                indexed.remove(key); // the last definition decides the position
+                indexed.put(key, record);
+            }
+
+            return this.indexed = Collections.unmodifiableMap(indexed);
+        }
+
+        // a list either way, the tree emitters only write lists as arrays
+        List<Map<String, Object>> records()
+        {
+            Map<Map<String, Object>, Map<String, Object>> indexed = this.indexed;
+            return indexed == null ? records : new ArrayList<>(indexed.values());
+        }
+
+        private final List<Map<String, Object>> records;
+
+        private volatile Map<Map<String, Object>, Map<String, Object>> indexed;
+    }
+
+    private static final class Operation
+    {
+        Operation(int kind, String type, List<String> keyNames, Map<String, Object> key, Map<String, Object> value)
+        {
+            this.kind = kind;
+            this.type = type;
+            this.keyNames = keyNames;
+            this.key = key;
+            this.value = value;
+        }
+
+        final int kind;
+
+        final String type;
+
+        final List<String> keyNames;
+
+        final Map<String, Object> key;
+
+        final Map<String, Object> value;
+
+        static final int COMMIT = 0;
+
+        static final int REMOVE = 1;
+
+        static final int REMOVE_VAGUELY = 2;
+
+        static final int CLEAR = 3;
+    }
+
+    private class HOCONTransaction implements Transaction
+    {
+        PlainHOCONDataSource owner()
+        {
+            return PlainHOCONDataSource.this;
+        }
+
+        HOCONTransaction enqueue(Operation operation)
+        {
+            operations.add(operation);
+            return this;
+        }
+
+        @Override
+        public boolean push() throws DataSourceException
+        {
+            List<Operation> pushing = new ArrayList<>();
+
+            Operation operation;
+            while ((operation = operations.poll()) != null)
+                pushing.add(operation);
+
+            try {
+                apply(pushing);
+            } catch (DataSourceException e) {
+                lastException = e;
+                throw e;
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            operations.clear();
+            return true;
+        }
+
+        @Override
+        public Optional<Exception> getLastException()
+        {
+            return Optional.ofNullable(lastException);
+        }
+
+        private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+
+        private volatile Exception lastException;
+    }
 }
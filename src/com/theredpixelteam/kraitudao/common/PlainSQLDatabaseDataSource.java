@@ -24,7 +24,15 @@ package com.theredpixelteam.kraitudao.common;
 import com.theredpixelteam.kraitudao.*;
 import com.theredpixelteam.kraitudao.annotations.Element;
 import com.theredpixelteam.kraitudao.annotations.metadata.common.*;
+import com.theredpixelteam.kraitudao.codec.CodecException;
+import com.theredpixelteam.kraitudao.codec.CompressedText;
+import com.theredpixelteam.kraitudao.codec.Compression;
+import com.theredpixelteam.kraitudao.codec.PackedArrays;
 import com.theredpixelteam.kraitudao.common.sql.*;
+import com.theredpixelteam.kraitudao.criteria.Aggregate;
+import com.theredpixelteam.kraitudao.criteria.Condition;
+import com.theredpixelteam.kraitudao.criteria.Criteria;
+import com.theredpixelteam.kraitudao.criteria.Projection;
 import com.theredpixelteam.kraitudao.dataobject.*;
 import com.theredpixelteam.kraitudao.dataobject.util.ValueObjectIterator;
 import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
@@ -38,11 +46,34 @@ import com.theredpixelteam.redtea.util.*;
 import com.theredpixelteam.redtea.util.Optional;
 import com.theredpixelteam.redtea.util.concurrent.Increment;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 @SuppressWarnings("unchecked")
 public class PlainSQLDatabaseDataSource implements DataSource {
@@ -83,6 +114,21 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         this(connection, tableName, interpreter, expander, container, databaseManipulator, DefaultDataArgumentWrapper.INSTANCE, DefaultDataExtractorFactory.INSTANCE);
     }
 
+    // one registry supplying the column types, bindings and extraction
+    public PlainSQLDatabaseDataSource(Connection connection,
+                                      String tableName,
+                                      DataObjectInterpreter interpreter,
+                                      DataObjectExpander expander,
+                                      DataObjectContainer container,
+                                      TypeConverterRegistry registry)
+            throws DataSourceException
+    {
+        this(connection, tableName, interpreter, expander, container,
+                new H2DatabaseManipulator(new DefaultDataTypeParser(registry)),
+                new DefaultDataArgumentWrapper(registry),
+                new DefaultDataExtractorFactory(registry));
+    }
+
     public PlainSQLDatabaseDataSource(Connection connection,
                                       String tableName,
                                       DataObjectInterpreter interpreter,
@@ -119,6 +165,11 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         return this.tableName;
     }
 
+    public Compression.Metrics getCompressionMetrics()
+    {
+        return this.compressionMetrics;
+    }
+
     private void checkTransaction(Transaction transaction) throws DataSourceException
     {
         if((transaction == null && this.currentTransaction != null)
@@ -210,6 +261,12 @@ public class PlainSQLDatabaseDataSource implements DataSource {
     private void extract(ResultSet resultSet, Object object, ValueObject valueObject, Prefix prefix, Class<?>[] signature, Increment signaturePointer)
             throws DataSourceException
     {
+        if (isCompressed(valueObject))
+        {
+            extractCompressed(resultSet, object, valueObject, prefix);
+            return;
+        }
+
         Object value = valueObject.get(object);
         ObjectConstructor<?> constructor = valueObject.getConstructor();
 
@@ -219,6 +276,12 @@ public class PlainSQLDatabaseDataSource implements DataSource {
             throw new DataSourceException("Construction failure", e);
         }
 
+        if (valueObject.hasMetadata(Packed.class) && StructureType.LIST.equals(valueObject.getStructure()))
+        {
+            extractPacked(resultSet, (List<Object>) value, valueObject, prefix);
+            return;
+        }
+
         switch (valueObject.getStructure())
         {
             case VALUE:
@@ -400,6 +463,53 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         }
     }
 
+    private void extractPacked(ResultSet resultSet, List<Object> list, ValueObject valueObject, Prefix prefix)
+            throws DataSourceException
+    {
+        packedTypeOf(valueObject);
+
+        try {
+            byte[] bytes = resultSet.getBytes(prefix.apply(valueObject.getName()));
+
+            if (bytes != null)
+                PackedArrays.unpack(bytes, valueObject.getMetadata(ValueList.class).getSilently().signatured()[0], list);
+        } catch (SQLException | CodecException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    private void extractCompressed(ResultSet resultSet, Object object, ValueObject valueObject, Prefix prefix)
+            throws DataSourceException
+    {
+        Class<?> type = compressedTypeOf(valueObject);
+        Object value = null;
+
+        try {
+            byte[] frame = resultSet.getBytes(prefix.apply(valueObject.getName()));
+
+            if (frame != null)
+                if (CompressedText.class.equals(type))
+                {
+                    CompressedText text = CompressedText.ofFrame(frame, compressionMetrics);
+
+                    if (valueObject.getMetadata(Compressed.class).map(Compressed::eager).orElse(false))
+                        text.asString();
+
+                    value = text;
+                }
+                else
+                {
+                    byte[] raw = Compression.decompress(frame, compressionMetrics);
+
+                    value = String.class.equals(type) ? new String(raw, StandardCharsets.UTF_8) : raw;
+                }
+        } catch (SQLException | CodecException e) {
+            throw new DataSourceException(e);
+        }
+
+        valueObject.set(object, value);
+    }
+
     private <E> void extractList(ResultSet resultSet,
                                  ConsumerWithThrowable<E, ? extends Throwable> add,
                                  String column,
@@ -637,27 +747,47 @@ public class PlainSQLDatabaseDataSource implements DataSource {
                                                      SupplierWithThrowable<T, X> constructor,
                                                      Consumer<T> consumer)
             throws DataSourceException
+    {
+        extractAll(resultSet, dataObject, null, constructor, consumer);
+    }
+
+    // keys are always extracted, values only if included in the projection (or no projection specified)
+    private <T, X extends Throwable> void extractAll(ResultSet resultSet,
+                                                     DataObject dataObject,
+                                                     Projection projection,
+                                                     SupplierWithThrowable<T, X> constructor,
+                                                     Consumer<T> consumer)
+            throws DataSourceException
     {
         try {
             while (resultSet.next())
-            {
-                T object;
-                try {
-                    object = constructor.get();
-                } catch (Throwable e) {
-                    throw new DataSourceException("Object construction failure", e);
-                }
-
-                for (ValueObject valueObject : new ValueObjectIterator(dataObject))
-                    extract(resultSet, object, valueObject);
-
-                consumer.accept(object);
-            }
+                consumer.accept(extractOne(resultSet, dataObject, projection, constructor));
         } catch (SQLException e) {
             throw new DataSourceException(e);
         }
     }
 
+    // extracts the current row
+    private <T, X extends Throwable> T extractOne(ResultSet resultSet,
+                                                  DataObject dataObject,
+                                                  Projection projection,
+                                                  SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        T object;
+        try {
+            object = constructor.get();
+        } catch (Throwable e) {
+            throw new DataSourceException("Object construction failure", e);
+        }
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            if (projection == null || valueObject.isKey() || projection.includes(valueObject.getName()))
+                extract(resultSet, object, valueObject);
+
+        return object;
+    }
+
     private static String[] valuesExceptKeys(DataObject dataObject)
     {
         Set<String> valueSet = dataObject.getValues().keySet();
@@ -670,111 +800,144 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         try {
             DataObject dataObject = container.interpretIfAbsent(type, interpreter);
 
-            Pair<String, DataArgument>[] keys;
-            String[] values;
-
-            DataObjectType dataObjectType = dataObject.getDataObjectType();
-            switch (dataObjectType)
-            {
-                case ELEMENT:
-                    throw new DataSourceException("Element data object is not allowed in global scope");
-
-                case UNIQUE:
-                    UniqueDataObject uniqueDataObject = (UniqueDataObject) dataObject;
-                    ValueObject key = uniqueDataObject.getKey();
-
-                    Object keyValue = key.get(object);
-
-                    if (keyValue == null)
-                        throw new DataSourceException("(pull) Null key \"" + key.getName() + "\" in UniqueDataObject");
+            if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+                throw new DataSourceException("Element data object is not allowed in global scope");
 
-                    values = valuesExceptKeys(dataObject);
-                    keys = new Pair[]{Pair.of(key.getName(), argumentWrapper.wrap(keyValue)
-                            .orElseThrow(() -> typeUnsupportedByArgumentWrapper(key.getType())))};
+            String[] values = valuesExceptKeys(dataObject);
 
-                    break;
+            try (ResultSet resultSet = manipulator.query(connection, tableName, keyPlanOf(dataObject), object, values)) {
+                if (!resultSet.next())
+                    return false;
 
-                case MULTIPLE:
+                for (ValueObject valueObject : dataObject.getValues().values())
+                    extract(resultSet, object, valueObject);
+            } catch (SQLException e) {
+                throw new DataSourceException(e);
+            }
 
-                    MultipleDataObject multipleDataObject = (MultipleDataObject) dataObject;
-                    ValueObject primaryKey = multipleDataObject.getPrimaryKey();
-                    Collection<ValueObject> secondaryKeys = multipleDataObject.getSecondaryKeys().values();
+            return true;
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+    }
 
-                    List<Pair<String, DataArgument>> keyList = new ArrayList<>();
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        Collection<T> collection = new ArrayList<>();
 
-                    Object primaryKeyValue = primaryKey.get(object);
+        DataObject dataObject = interpretGlobal(type);
+        String[] values = namesOf(dataObject);
 
-                    if (primaryKeyValue == null)
-                        throw new DataSourceException("(pull) Null primary key \"" + primaryKey.getName() + "\" in MultipleDataObject");
+        try (ResultSet resultSet = manipulator.query(connection, tableName, null, values)) {
+            extractAll(resultSet, dataObject, constructor, collection::add);
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
 
-                    keyList.add(Pair.of(primaryKey.getName(), argumentWrapper.wrap(primaryKeyValue)
-                            .orElseThrow(() -> typeUnsupportedByArgumentWrapper(primaryKey.getType()))));
+        return collection;
+    }
 
-                    for (ValueObject secondaryKey : secondaryKeys) {
-                        Object secondaryKeyValue = secondaryKey.get(object);
+    private static String[] namesOf(DataObject dataObject)
+    {
+        List<String> valueList = new ArrayList<>();
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            valueList.add(valueObject.getName());
 
-                        if (secondaryKeyValue == null)
-                            throw new DataSourceException("(pull) Null secondary key \"" + secondaryKey.getName() + "\" in MultipleDataObject");
+        return valueList.toArray(new String[0]);
+    }
 
-                        keyList.add(Pair.of(secondaryKey.getName(), argumentWrapper.wrap(secondaryKeyValue)
-                                .orElseThrow(() -> typeUnsupportedByArgumentWrapper(secondaryKey.getType()))));
-                    }
+    @Override
+    public <T> boolean pull(T object, Class<T> type, Projection projection) throws DataSourceException
+    {
+        DataObject dataObject = interpretGlobal(type);
+        checkProjection(dataObject, projection);
 
-                    values = valuesExceptKeys(dataObject);
-                    keys = keyList.toArray(new Pair[0]);
+        BindingPlan keys = keyPlanOf(dataObject);
 
-                    break;
+        List<String> valueList = new ArrayList<>();
+        List<ValueObject> projected = new ArrayList<>();
 
-                default:
-                    throw new DataSourceError("Interpretation failure");
+        for (ValueObject valueObject : dataObject.getValues().values())
+            if (projection.includes(valueObject.getName()))
+            {
+                collectColumns(valueObject, Prefix.of(), valueList);
+                projected.add(valueObject);
             }
 
-            try (ResultSet resultSet = manipulator.query(connection, tableName, keys, values)) {
-                if (!resultSet.next())
-                    return false;
+        String[] values = valueList.toArray(new String[0]);
 
-                for (ValueObject valueObject : dataObject.getValues().values())
-                    extract(resultSet, object, valueObject);
-            } catch (SQLException e) {
-                throw new DataSourceException(e);
-            }
+        try (ResultSet resultSet = manipulator.query(connection, tableName, keys, object, values)) {
+            if (!resultSet.next())
+                return false;
 
-            return true;
-        } catch (DataObjectInterpretationException e) {
+            for (ValueObject valueObject : projected)
+                extract(resultSet, object, valueObject);
+        } catch (SQLException e) {
             throw new DataSourceException(e);
         }
+
+        return true;
     }
 
     @Override
-    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, Projection projection, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
     {
         Collection<T> collection = new ArrayList<>();
 
-        String[] values;
-        DataObject dataObject;
-
-        try {
-            dataObject = container.interpretIfAbsent(type, interpreter);
-
-            if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
-                throw new DataSourceException("Element data object is not allowed in global scope");
+        DataObject dataObject = interpretGlobal(type);
+        checkProjection(dataObject, projection);
 
-            List<String> valueList = new ArrayList<>();
-            for (ValueObject valueObject : new ValueObjectIterator(dataObject))
-                valueList.add(valueObject.getName());
+        List<String> columns = new ArrayList<>();
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            if (valueObject.isKey() || projection.includes(valueObject.getName()))
+                collectColumns(valueObject, Prefix.of(), columns);
 
-            values = valueList.toArray(new String[0]);
-        } catch (DataObjectInterpretationException e) {
+        try (ResultSet resultSet = manipulator.query(connection, tableName, null, columns.toArray(new String[0]))) {
+            extractAll(resultSet, dataObject, projection, constructor, collection::add);
+        } catch (SQLException e) {
             throw new DataSourceException(e);
         }
 
-        try (ResultSet resultSet = manipulator.query(connection, tableName, null, values)) {
-            extractAll(resultSet, dataObject, constructor, collection::add);
+        return collection;
+    }
+
+    // resolved once per data object and argument wrapper, null keys are refused while binding
+    private BindingPlan keyPlanOf(DataObject dataObject) throws DataSourceException
+    {
+        DataArgumentWrapper argumentWrapper = this.argumentWrapper;
+        BindingPlan plan = keyPlans.get(dataObject);
+
+        if (plan != null && plan.getWrapper() == argumentWrapper)
+            return plan;
+
+        List<ValueObject> keys = new ArrayList<>();
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            if (valueObject.isKey())
+                keys.add(valueObject);
+
+        try {
+            plan = BindingPlan.of(keys, argumentWrapper);
         } catch (SQLException e) {
             throw new DataSourceException(e);
         }
 
-        return collection;
+        keyPlans.put(dataObject, plan);
+
+        return plan;
+    }
+
+    private static void checkProjection(DataObject dataObject, Projection projection) throws DataSourceException
+    {
+        Set<String> fields = new HashSet<>();
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            fields.add(valueObject.getName());
+
+        for (String field : projection.getFields())
+            if (!fields.contains(field))
+                throw new DataSourceException("Unknown field in projection: " + field);
     }
 
     @Override
@@ -805,37 +968,10 @@ public class PlainSQLDatabaseDataSource implements DataSource {
     {
         Collection<T> collection = new ArrayList<>();
 
-        String[] values;
-        Pair<String, DataArgument>[] keys;
-        DataObject dataObject;
-
-        try {
-            dataObject = container.interpretIfAbsent(type, interpreter);
-
-            if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
-                throw new DataSourceException("Only multiple data object allowed in this scope");
-
-            List<Pair<String, DataArgument>> keyList = new ArrayList<>();
-            List<String> valueList = new ArrayList<>();
-
-            for (ValueObject valueObject : new ValueObjectIterator(dataObject))
-            {
-                Object value = valueObject.get(object);
-
-                if (!valueObject.isKey() || value == null)
-                    valueList.add(valueObject.getName());
-                else
-                    keyList.add(Pair.of(valueObject.getName(), argumentWrapper.wrap(value)
-                            .orElseThrow(() -> typeUnsupportedByArgumentWrapper(value.getClass()))));
-            }
-
-            keys = keyList.toArray(new Pair[0]);
-            values = valueList.toArray(new String[0]);
-        } catch (DataObjectInterpretationException e) {
-            throw new DataSourceException(e);
-        }
+        DataObject dataObject = interpretVague(type);
+        Pair<Pair<String, DataArgument>[], String[]> narrowed = narrowVaguely(object, dataObject);
 
-        try (ResultSet resultSet = manipulator.query(connection, tableName, keys, values)) {
+        try (ResultSet resultSet = manipulator.query(connection, tableName, narrowed.first(), narrowed.second())) {
             extractAll(resultSet, dataObject, constructor, collection::add);
         } catch (SQLException e) {
             throw new DataSourceException(e);
@@ -844,112 +980,794 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         return collection;
     }
 
-    private void cleanupCollection(String identity) throws DataSourceException
+    private DataObject interpretVague(Class<?> type) throws DataSourceException
     {
-        List<String> collections = new ArrayList<>();
-
-        stepintoCollections(identity == null ? tableName : asCollectionTableName(identity), collections);
-
-        if (collections.isEmpty())
-            return;
+        DataObject dataObject;
 
         try {
-            manipulator.cleanTable(connection, collections.toArray(new String[0]));
-        } catch (SQLException e) {
-            throw new DataSourceException("Cleanup", e);
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
         }
-    }
 
-    private void stepintoCollections(String root, List<String> collections) throws DataSourceException
-    {
-        List<String> collectionColumns = new ArrayList<>();
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
 
-        try (ResultSet resultSet = manipulator.queryTop(connection, root, null, null, 1)) {
-            if (!resultSet.next())
-                return;
+        return dataObject;
+    }
 
-            ResultSetMetaData metadata = resultSet.getMetaData();
-            int count = metadata.getColumnCount();
+    // non-null keys narrow the query, everything else is selected
+    private Pair<Pair<String, DataArgument>[], String[]> narrowVaguely(Object object, DataObject dataObject)
+            throws DataSourceException
+    {
+        List<Pair<String, DataArgument>> keyList = new ArrayList<>();
+        List<String> valueList = new ArrayList<>();
 
-            for (int i = 0; i < count;)
-            {
-                String name = metadata.getColumnName(++i);
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+        {
+            Object value = valueObject.get(object);
 
-                if (isCollectionColumnName(name))
-                    collectionColumns.add(name);
-            }
-        } catch (SQLException e) {
-            throw new DataSourceException("Prequery", e);
+            if (!valueObject.isKey() || value == null)
+                valueList.add(valueObject.getName());
+            else
+                keyList.add(Pair.of(valueObject.getName(), argumentWrapper.wrap(value)
+                        .orElseThrow(() -> typeUnsupportedByArgumentWrapper(value.getClass()))));
         }
 
-        if (collectionColumns.isEmpty())
-            return;
-
-        try (ResultSet resultSet = manipulator.query(connection, root, null, collectionColumns.toArray(new String[0]))) {
-            while (resultSet.next())
-                for (String column : collectionColumns)
-                {
-                    String id = resultSet.getString(column);
-
-                    if (id != null)
-                        cleanupCollection(id);
-                }
+        return Pair.of(keyList.toArray(new Pair[0]), valueList.toArray(new String[0]));
+    }
 
-            collections.add(root);
-        } catch (SQLException e) {
-            throw new DataSourceException("Query", e);
-        }
+    public <T> Flow.Publisher<T> publish(Class<T> type) throws DataSourceException
+    {
+        return publish(type, type::newInstance);
     }
 
-    private void commit(Object object, ValueObject valueObject, List<Pair<String, DataArgument>> values, Prefix prefix)
+    public <T, X extends Throwable> Flow.Publisher<T> publish(Class<T> type, SupplierWithThrowable<T, X> constructor)
             throws DataSourceException
     {
-        Class<?> valueType = valueObject.getType();
+        DataObject dataObject = interpretGlobal(type);
+        String[] values = namesOf(dataObject);
 
-        switch (valueObject.getStructure())
-        {
-            case VALUE:
-                commitValue(object, valueObject, values, prefix);
-                break;
+        return publish(dataObject, () -> manipulator.query(connection, tableName, null, values), constructor);
+    }
 
-            case LIST:
-            case SET:
-            case MAP:
+    public <T> Flow.Publisher<T> publishVaguely(T object) throws DataSourceException
+    {
+        return publishVaguely(object, (Class<T>) object.getClass());
+    }
 
-                break;
-        }
+    public <T> Flow.Publisher<T> publishVaguely(T object, Class<T> type) throws DataSourceException
+    {
+        return publishVaguely(object, type, type::newInstance);
     }
 
-    private void commitList(Object object, ValueObject valueObject, List<Pair<String, DataArgument>> values, Prefix prefix)
+    public <T, X extends Throwable> Flow.Publisher<T> publishVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
             throws DataSourceException
     {
-        String rootIdentity = prefix.apply(valueObject.getName());
-        String column = asCollectionColumnName(valueObject.getName());
+        DataObject dataObject = interpretVague(type);
+        Pair<Pair<String, DataArgument>[], String[]> narrowed = narrowVaguely(object, dataObject);
 
-        cleanupCollection(rootIdentity);
-
-        String collectionIdentity = generateCollectionIdentity(tableName);
-        String collectionTable = asCollectionTableName(collectionIdentity);
+        return publish(dataObject, () -> manipulator.query(connection, tableName, narrowed.first(), narrowed.second()), constructor);
+    }
 
-        values.add(Pair.of(column, argumentWrapper.wrap(collectionIdentity)
-                .orElseThrow(() -> typeUnsupportedByArgumentWrapper(String.class))));
+    private <T, X extends Throwable> Flow.Publisher<T> publish(DataObject dataObject,
+                                                                SupplierWithThrowable<ResultSet, SQLException> query,
+                                                                SupplierWithThrowable<T, X> constructor)
+    {
+        Executor executor = this.publishExecutor;
 
-//        manipulator.createTable(connection, collectionIdentity);
-        // TODO
+        return (subscriber) -> subscriber.onSubscribe(new ResultSetSubscription<>(
+                Objects.requireNonNull(subscriber), dataObject, query, constructor, executor));
     }
 
-    private void commitValue(Object object, ValueObject valueObject, List<Pair<String, DataArgument>> values, Prefix prefix)
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Criteria<T> criteria, SupplierWithThrowable<T, X> constructor)
             throws DataSourceException
     {
-        Class<?> type = valueObject.getType();
-        Object value = valueObject.get(object);
+        Collection<T> collection = new ArrayList<>();
+
+        DataObject dataObject = interpretGlobal(criteria.getType());
+        String[] columns = columnsOf(dataObject);
+
+        DataArgument[] arguments = checkAndWrap(criteria, columns);
+
+        try (ResultSet resultSet = manipulator.query(connection, tableName, columns, criteria, arguments)) {
+            extractAll(resultSet, dataObject, constructor, collection::add);
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T, X extends Throwable> Page<T> pullPage(Class<T> type, int size, String continuation, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        if (size <= 0)
+            throw new IllegalArgumentException("Non-positive page size");
+
+        DataObject dataObject = interpretGlobal(type);
+        List<Pair<String, ValueObject[]>> keyColumns = keyColumnsOf(dataObject);
+
+        String[] keyNames = new String[keyColumns.size()];
+        for (int i = 0; i < keyNames.length; i++)
+            keyNames[i] = keyColumns.get(i).first();
+
+        Criteria.Builder<T> builder = Criteria.of(type).limit(size + 1); // one extra row tells whether there's a next page
+
+        for (String keyName : keyNames)
+            builder.orderBy(keyName);
+
+        if (continuation != null)
+        {
+            Object[] last = ContinuationToken.decode(type, continuation, keyNames.length);
+
+            builder.where(keyNames.length == 1
+                    ? Condition.greaterThan(keyNames[0], last[0])
+                    : Condition.rowGreaterThan(keyNames, last));
+        }
+
+        List<T> elements = new ArrayList<>(pull(builder.build(), constructor));
+
+        if (elements.size() <= size)
+            return new Page<>(elements, null);
+
+        elements.remove(size);
+
+        T last = elements.get(size - 1);
+        Object[] lastKey = new Object[keyNames.length];
+
+        for (int i = 0; i < lastKey.length; i++)
+        {
+            Object value = last;
+
+            for (ValueObject valueObject : keyColumns.get(i).second())
+                value = valueObject.get(value);
+
+            lastKey[i] = value;
+        }
+
+        return new Page<>(elements, ContinuationToken.encode(type, lastKey));
+    }
+
+    @Override
+    public <T> long count(Criteria<T> criteria) throws DataSourceException
+    {
+        DataObject dataObject = interpretGlobal(criteria.getType());
+        DataArgument[] arguments = checkAndWrap(criteria, columnsOf(dataObject));
+
+        try {
+            return manipulator.count(connection, tableName, criteria, arguments);
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    @Override
+    public <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpretGlobal(type);
+
+        try {
+            return manipulator.exists(connection, tableName, keyPlanOf(dataObject), object);
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    @Override
+    public <T, V> Optional<V> min(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        return aggregate(criteria, Aggregate.MIN, column);
+    }
+
+    @Override
+    public <T, V> Optional<V> max(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        return aggregate(criteria, Aggregate.MAX, column);
+    }
+
+    @Override
+    public <T> Optional<Number> sum(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        return aggregate(criteria, Aggregate.SUM, column);
+    }
+
+    private <V> Optional<V> aggregate(Criteria<?> criteria, Aggregate aggregate, String column) throws DataSourceException
+    {
+        DataObject dataObject = interpretGlobal(criteria.getType());
+        DataArgument[] arguments = checkAndWrap(criteria, columnsOf(dataObject));
+
+        ValueObject valueObject = null;
+        for (ValueObject candidate : new ValueObjectIterator(dataObject))
+            if (candidate.getName().equalsIgnoreCase(column))
+            {
+                valueObject = candidate;
+                break;
+            }
+
+        if (valueObject == null
+                || !StructureType.VALUE.equals(valueObject.getStructure())
+                || valueObject.hasMetadata(ExpandForcibly.class)
+                || !manipulator.supportType(valueObject.getType()))
+            throw new DataSourceException("Not an aggregatable value column: " + column);
+
+        Class<?> dataType = valueObject.getType();
+
+        try (ResultSet resultSet = manipulator.aggregate(connection, tableName, aggregate, column, criteria, arguments)) {
+            if (!resultSet.next())
+                return Optional.empty();
+
+            Object value;
+
+            // the result type of SUM is widened by the database, so it's not mapped back to the field type
+            if (Aggregate.SUM.equals(aggregate))
+                value = resultSet.getObject(1);
+            else
+                value = extractorFactory.create(dataType, column)
+                        .orElseThrow(() -> typeUnsupportedByExtractor(dataType))
+                        .extract(resultSet);
+
+            return resultSet.wasNull() ? Optional.empty() : Optional.of((V) value);
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    public <T> Collection<T> pullParallel(Class<T> type,
+                                          SupplierWithThrowable<Connection, SQLException> connections,
+                                          int partitions)
+            throws DataSourceException
+    {
+        return pullParallel(type, type::newInstance, connections, partitions, BlockingReads.EXECUTOR);
+    }
+
+    // each partition is a primary key range read over its own connection, the ranges carry no ordering so rows
+    // come back partition by partition in no particular order
+    public <T, X extends Throwable> Collection<T> pullParallel(Class<T> type,
+                                                               SupplierWithThrowable<T, X> constructor,
+                                                               SupplierWithThrowable<Connection, SQLException> connections,
+                                                               int partitions,
+                                                               Executor executor)
+            throws DataSourceException
+    {
+        if (partitions <= 0)
+            throw new IllegalArgumentException("Non-positive partition count");
+
+        DataObject dataObject = interpretGlobal(type);
+        String column = keyColumnsOf(dataObject).get(0).first();
+
+        Condition[] ranges = partition(column, partitions);
+
+        List<FutureTask<Collection<T>>> tasks = new ArrayList<>(ranges.length);
+        for (Condition range : ranges)
+        {
+            FutureTask<Collection<T>> task = new FutureTask<>(() -> pullRange(type, constructor, connections, range));
+
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        List<T> merged = new ArrayList<>();
+        DataSourceException exception = null;
+
+        for (FutureTask<Collection<T>> task : tasks)
+            try {
+                merged.addAll(task.get());
+            } catch (ExecutionException e) {
+                if (exception == null)
+                    exception = e.getCause() instanceof DataSourceException
+                            ? (DataSourceException) e.getCause()
+                            : new DataSourceException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                for (FutureTask<Collection<T>> remaining : tasks)
+                    remaining.cancel(true);
+
+                throw new DataSourceException("Interrupted", e);
+            }
+
+        if (exception != null)
+            throw exception;
+
+        return merged;
+    }
+
+    private <T, X extends Throwable> Collection<T> pullRange(Class<T> type,
+                                                             SupplierWithThrowable<T, X> constructor,
+                                                             SupplierWithThrowable<Connection, SQLException> connections,
+                                                             Condition range)
+            throws DataSourceException
+    {
+        Criteria.Builder<T> builder = Criteria.of(type);
+
+        if (range != null)
+            builder.where(range);
+
+        try (Connection connection = connections.get()) {
+            boolean autoCommit = connection.getAutoCommit();
+
+            try {
+                return new PlainSQLDatabaseDataSource(connection, tableName, interpreter, expander, container,
+                        manipulator, argumentWrapper, extractorFactory).pull(builder.build(), constructor);
+            } finally {
+                connection.rollback(); // read only
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    // splits by min/max on integral keys, otherwise by quantiles sampled from the key order
+    private Condition[] partition(String column, int partitions) throws DataSourceException
+    {
+        Criteria<?> whole = Criteria.of(Object.class).build();
+
+        if (partitions > 1) try {
+            Object min, max;
+
+            try (ResultSet resultSet = manipulator.aggregate(connection, tableName, Aggregate.MIN, column, whole, new DataArgument[0])) {
+                min = resultSet.next() ? resultSet.getObject(1) : null;
+            }
+
+            try (ResultSet resultSet = manipulator.aggregate(connection, tableName, Aggregate.MAX, column, whole, new DataArgument[0])) {
+                max = resultSet.next() ? resultSet.getObject(1) : null;
+            }
+
+            if (min == null || max == null) // empty table
+                return new Condition[] {null};
+
+            List<Object> boundaries = isIntegral(min) && isIntegral(max)
+                    ? splitRange(((Number) min).longValue(), ((Number) max).longValue(), partitions, min.getClass())
+                    : sampleQuantiles(column, partitions);
+
+            if (!boundaries.isEmpty())
+            {
+                Condition[] ranges = new Condition[boundaries.size() + 1];
+
+                ranges[0] = Condition.lessThan(column, boundaries.get(0));
+
+                for (int i = 1; i < boundaries.size(); i++)
+                    ranges[i] = Condition.and(
+                            Condition.greaterThanOrEqualTo(column, boundaries.get(i - 1)),
+                            Condition.lessThan(column, boundaries.get(i)));
+
+                ranges[boundaries.size()] = Condition.greaterThanOrEqualTo(column, boundaries.get(boundaries.size() - 1));
+
+                return ranges;
+            }
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
+
+        return new Condition[] {null};
+    }
+
+    private static boolean isIntegral(Object value)
+    {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static List<Object> splitRange(long min, long max, int partitions, Class<?> type)
+    {
+        List<Object> boundaries = new ArrayList<>();
+
+        // computed in double to stay clear of overflow on wide ranges
+        double step = ((double) max - (double) min + 1) / partitions;
+        long last = min;
+
+        for (int i = 1; i < partitions; i++)
+        {
+            long boundary = min + (long) (step * i);
+
+            if (boundary <= last || boundary > max)
+                continue;
+
+            boundaries.add(narrow(boundary, type));
+            last = boundary;
+        }
+
+        return boundaries;
+    }
+
+    private static Object narrow(long value, Class<?> type)
+    {
+        if (Integer.class.equals(type))
+            return (int) value;
+
+        if (Short.class.equals(type))
+            return (short) value;
+
+        if (Byte.class.equals(type))
+            return (byte) value;
+
+        return value;
+    }
+
+    // all boundaries are picked from one ordered pass over the key column, which stops at the last one
+    private List<Object> sampleQuantiles(String column, int partitions) throws DataSourceException, SQLException
+    {
+        long count = manipulator.count(connection, tableName, Criteria.of(Object.class).build(), new DataArgument[0]);
+        List<Object> boundaries = new ArrayList<>();
+
+        Criteria<?> criteria = Criteria.of(Object.class).orderBy(column).build();
+
+        try (ResultSet resultSet = manipulator.query(connection, tableName, new String[] {column}, criteria, new DataArgument[0])) {
+            long row = 0;
+
+            for (int i = 1; i < partitions; i++)
+            {
+                long offset = count * i / partitions;
+
+                if (offset == 0)
+                    continue;
+
+                while (row <= offset && resultSet.next())
+                    row++;
+
+                if (row <= offset) // rows deleted since counting
+                    break;
+
+                Object boundary = resultSet.getObject(1);
+
+                // duplicated boundaries would only produce empty ranges
+                if (boundary != null && (boundaries.isEmpty() || !boundary.equals(boundaries.get(boundaries.size() - 1))))
+                    boundaries.add(boundary);
+            }
+        }
+
+        return boundaries;
+    }
+
+    // key columns in primary key constraint order, each with the value object path to read it from an instance
+    private List<Pair<String, ValueObject[]>> keyColumnsOf(DataObject dataObject) throws DataSourceException
+    {
+        List<Pair<String, ValueObject[]>> keyColumns = new ArrayList<>();
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+        {
+            if (!valueObject.isKey())
+                continue;
+
+            Class<?> dataType = valueObject.getType();
+
+            if (valueObject.hasMetadata(ExpandForcibly.class) || !manipulator.supportType(dataType))
+                try {
+                    Map<String, ValueObject> expanded = container.expand(valueObject, expander)
+                            .orElseThrow(() -> new DataSourceException.UnsupportedValueType("(As key) " + dataType.getCanonicalName()));
+
+                    Prefix prefix = Prefix.of(valueObject.getName());
+
+                    for (ValueObject expandedValueObject : expanded.values())
+                        keyColumns.add(Pair.of(prefix.apply(expandedValueObject.getName()),
+                                new ValueObject[] {valueObject, expandedValueObject}));
+                } catch (DataObjectInterpretationException e) {
+                    throw new DataSourceException(e);
+                }
+            else
+                keyColumns.add(Pair.of(valueObject.getName(), new ValueObject[] {valueObject}));
+        }
+
+        return keyColumns;
+    }
+
+    private DataObject interpretGlobal(Class<?> type) throws DataSourceException
+    {
+        DataObject dataObject;
+
+        try {
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+
+        if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Element data object is not allowed in global scope");
+
+        return dataObject;
+    }
+
+    private DataArgument[] checkAndWrap(Criteria<?> criteria, String[] columns) throws DataSourceException
+    {
+        Set<String> available = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Collections.addAll(available, columns);
+
+        for (String column : criteria.getColumns())
+            if (!available.contains(column))
+                throw new DataSourceException("Unknown column in criteria: " + column);
+
+        List<Object> values = criteria.getValues();
+        DataArgument[] arguments = new DataArgument[values.size()];
+
+        for (int i = 0; i < arguments.length; i++)
+        {
+            Object value = values.get(i);
+
+            arguments[i] = argumentWrapper.wrap(value)
+                    .orElseThrow(() -> typeUnsupportedByArgumentWrapper(value.getClass()));
+        }
+
+        return arguments;
+    }
+
+    private String[] columnsOf(DataObject dataObject) throws DataSourceException
+    {
+        List<String> columns = new ArrayList<>();
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            collectColumns(valueObject, Prefix.of(), columns);
+
+        return columns.toArray(new String[0]);
+    }
+
+    // mirrors the column layout read by extract()
+    private void collectColumns(ValueObject valueObject, Prefix prefix, Collection<String> columns)
+            throws DataSourceException
+    {
+        if (valueObject.hasMetadata(Packed.class) || isCompressed(valueObject))
+        {
+            columns.add(prefix.apply(valueObject.getName()));
+            return;
+        }
+
+        if (!StructureType.VALUE.equals(valueObject.getStructure()))
+        {
+            columns.add(asCollectionColumnName(prefix.apply(valueObject.getName())));
+            return;
+        }
+
+        Class<?> dataType = valueObject.getType();
+        boolean expandForcibly = valueObject.hasMetadata(ExpandForcibly.class);
+
+        try {
+            if (!expandForcibly && dataType.getAnnotation(Element.class) != null)
+            {
+                DataObject dataObject = container.interpretIfAbsent(dataType, interpreter);
+
+                if (!DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+                    throw new DataSourceException.UnsupportedValueType(dataType.getCanonicalName());
+
+                Prefix nextPrefix = prefix.append(valueObject.getName());
+
+                for (ValueObject elementValueObject : dataObject.getValues().values())
+                    collectColumns(elementValueObject, nextPrefix, columns);
+            }
+            else if (expandForcibly || !manipulator.supportType(dataType))
+            {
+                Map<String, ValueObject> expanded = container.expand(valueObject, expander)
+                        .orElseThrow(() -> new DataSourceException.UnsupportedValueType(dataType.getCanonicalName()));
+
+                Prefix nextPrefix = prefix.append(valueObject.getName());
+
+                for (ValueObject expandedValueObject : expanded.values())
+                    collectColumns(expandedValueObject, nextPrefix, columns);
+            }
+            else
+                columns.add(prefix.apply(valueObject.getName()));
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    private void cleanupCollection(String identity) throws DataSourceException
+    {
+        List<String> collections = new ArrayList<>();
+
+        stepintoCollections(identity == null ? tableName : asCollectionTableName(identity), collections);
+
+        if (collections.isEmpty())
+            return;
+
+        try {
+            manipulator.cleanTable(connection, collections.toArray(new String[0]));
+        } catch (SQLException e) {
+            throw new DataSourceException("Cleanup", e);
+        }
+    }
+
+    private void stepintoCollections(String root, List<String> collections) throws DataSourceException
+    {
+        List<String> collectionColumns = new ArrayList<>();
+
+        try (ResultSet resultSet = manipulator.queryTop(connection, root, null, null, 1)) {
+            if (!resultSet.next())
+                return;
+
+            ResultSetMetaData metadata = resultSet.getMetaData();
+            int count = metadata.getColumnCount();
+
+            for (int i = 0; i < count;)
+            {
+                String name = metadata.getColumnName(++i);
+
+                if (isCollectionColumnName(name))
+                    collectionColumns.add(name);
+            }
+        } catch (SQLException e) {
+            throw new DataSourceException("Prequery", e);
+        }
+
+        if (collectionColumns.isEmpty())
+            return;
+
+        try (ResultSet resultSet = manipulator.query(connection, root, null, collectionColumns.toArray(new String[0]))) {
+            while (resultSet.next())
+                for (String column : collectionColumns)
+                {
+                    String id = resultSet.getString(column);
+
+                    if (id != null)
+                        cleanupCollection(id);
+                }
+
+            collections.add(root);
+        } catch (SQLException e) {
+            throw new DataSourceException("Query", e);
+        }
+    }
+
+    // the columns of a value in the order they are merged, null values of expanded columns null all columns beneath
+    private void plan(BindingPlan.Builder builder, int parent, ValueObject valueObject, Prefix prefix)
+            throws DataSourceException
+    {
+        // compressed first as on extraction, so @Compressed @Packed is reported instead of being packed
+        if (isCompressed(valueObject))
+        {
+            planCompressed(builder, parent, valueObject, prefix);
+            return;
+        }
+
+        if (valueObject.hasMetadata(Packed.class))
+        {
+            planPacked(builder, parent, valueObject, prefix);
+            return;
+        }
+
+        switch (valueObject.getStructure())
+        {
+            case VALUE:
+                planValue(builder, parent, valueObject, prefix);
+                break;
+
+            case LIST:
+            case SET:
+            case MAP:
+                // collection tables are only read so far
+                throw new DataSourceException.UnsupportedOperation("Committing collection \"" + valueObject.getName() + "\"");
+        }
+    }
+
+    private void commitList(Object object, ValueObject valueObject, List<Pair<String, DataArgument>> values, Prefix prefix)
+            throws DataSourceException
+    {
+        String rootIdentity = prefix.apply(valueObject.getName());
+        String column = asCollectionColumnName(valueObject.getName());
+
+        cleanupCollection(rootIdentity);
+
+        String collectionIdentity = generateCollectionIdentity(tableName);
+        String collectionTable = asCollectionTableName(collectionIdentity);
+
+        values.add(Pair.of(column, argumentWrapper.wrap(collectionIdentity)
+                .orElseThrow(() -> typeUnsupportedByArgumentWrapper(String.class))));
+
+//        manipulator.createTable(connection, collectionIdentity);
+        // TODO
+    }
+
+    private void planPacked(BindingPlan.Builder builder, int parent, ValueObject valueObject, Prefix prefix)
+            throws DataSourceException
+    {
+        packedTypeOf(valueObject);
+
+        boolean delta = valueObject.getMetadata(Packed.class).getSilently().delta();
+        Class<?> signature = StructureType.LIST.equals(valueObject.getStructure())
+                ? valueObject.getMetadata(ValueList.class).getSilently().signatured()[0]
+                : null;
+
+        bind(builder, parent, prefix.apply(valueObject.getName()), valueObject, byte[].class, (value) -> {
+            try {
+                return signature != null
+                        ? PackedArrays.pack((Collection<?>) value, signature, delta)
+                        : PackedArrays.pack(value, delta);
+            } catch (CodecException e) {
+                throw new SQLException("Packing \"" + valueObject.getName() + "\"", e);
+            }
+        });
+    }
+
+    // primitive arrays, or lists of a single boxed primitive signature, each stored in one binary column
+    private static Class<?> packedTypeOf(ValueObject valueObject) throws DataSourceException
+    {
+        if (StructureType.VALUE.equals(valueObject.getStructure()))
+        {
+            if (!PackedArrays.supports(valueObject.getType()))
+                throw new DataSourceException.UnsupportedValueType("(Packed) " + valueObject.getType().getCanonicalName());
+
+            return valueObject.getType();
+        }
+
+        Class<?>[] signature = StructureType.LIST.equals(valueObject.getStructure())
+                ? valueObject.getMetadata(ValueList.class).getSilently().signatured()
+                : null;
+
+        Class<?> arrayType = signature != null && signature.length == 1 ? PackedArrays.arrayTypeOf(signature[0]) : null;
+
+        if (arrayType == null)
+            throw new DataSourceException("@Packed only applies to primitive arrays and lists of boxed primitives (Name: "
+                    + valueObject.getName() + ")");
+
+        return arrayType;
+    }
+
+    private void planCompressed(BindingPlan.Builder builder, int parent, ValueObject valueObject, Prefix prefix)
+            throws DataSourceException
+    {
+        Class<?> type = compressedTypeOf(valueObject);
+
+        Optional<Compressed> compressed = valueObject.getMetadata(Compressed.class);
+
+        int threshold = compressed.map(Compressed::threshold).orElse(Compression.DEFAULT_THRESHOLD);
+        int level = compressed.map(Compressed::level).orElse(Compression.DEFAULT_LEVEL);
+
+        bind(builder, parent, prefix.apply(valueObject.getName()), valueObject, byte[].class, (value) -> {
+            try {
+                if (CompressedText.class.equals(type)) // frames loaded and left untouched are written back as they are
+                    return ((CompressedText) value).toFrame(threshold, level, compressionMetrics);
+
+                return Compression.compress(String.class.equals(type) ? ((String) value).getBytes(StandardCharsets.UTF_8) : (byte[]) value,
+                        threshold, level, compressionMetrics);
+            } catch (CodecException e) {
+                throw new SQLException("Compressing \"" + valueObject.getName() + "\"", e);
+            }
+        });
+    }
+
+    // CompressedText values are compressed with or without the annotation
+    private static boolean isCompressed(ValueObject valueObject)
+    {
+        return valueObject.hasMetadata(Compressed.class) || CompressedText.class.equals(valueObject.getType());
+    }
+
+    // single text or binary values, each stored in one binary column
+    private static Class<?> compressedTypeOf(ValueObject valueObject) throws DataSourceException
+    {
+        Class<?> type = valueObject.getType();
+
+        if (!StructureType.VALUE.equals(valueObject.getStructure())
+                || !(String.class.equals(type) || byte[].class.equals(type) || CompressedText.class.equals(type)))
+            throw new DataSourceException("@Compressed only applies to String, byte[] and CompressedText values (Name: "
+                    + valueObject.getName() + ")");
+
+        if (valueObject.hasMetadata(Packed.class))
+            throw new DataSourceException("@Compressed and @Packed are exclusive (Name: " + valueObject.getName() + ")");
+
+        return type;
+    }
+
+    // whatever the value type, the frame goes into a column parsed as CompressedText
+    private static Class<?> compressedColumnTypeOf(ValueObject valueObject) throws DataSourceException
+    {
+        compressedTypeOf(valueObject);
+
+        return CompressedText.class;
+    }
+
+    private void planValue(BindingPlan.Builder builder, int parent, ValueObject valueObject, Prefix prefix)
+            throws DataSourceException
+    {
+        Class<?> type = valueObject.getType();
 
         boolean supported = manipulator.supportType(type);
         boolean expandForcibly = valueObject.hasMetadata(ExpandForcibly.class);
 
         boolean elementAnnotated = type.getAnnotation(Element.class) != null;
 
-        boolean expanding = expandForcibly || supported;
+        // the same decision as for the columns of the table
+        boolean expanding = expandForcibly || !supported;
 
         if (elementAnnotated || expanding) try {
             Iterable<ValueObject> iterable;
@@ -968,42 +1786,96 @@ public class PlainSQLDatabaseDataSource implements DataSource {
                         .orElseThrow(() -> typeUnsupportedByArgumentWrapper(type))
                         .values();
 
+            int node = builder.expand(parent, valueObject);
             Prefix nextPrefix = prefix.append(valueObject.getName());
 
             for (ValueObject expandedValueObject : iterable)
-                commit(value, expandedValueObject, values, nextPrefix);
+                plan(builder, node, expandedValueObject, nextPrefix);
         } catch (DataObjectInterpretationException e) {
             throw new DataSourceException(e);
         }
-        else
-        {
-            if (value == null)
-                if (valueObject.isKey())
-                    throw new DataSourceException("Key cannot be null");
-                else if (valueObject.isNotNull())
-                    throw new DataSourceException("@NotNull declared but null value presented");
+        else try {
+            builder.bind(parent, prefix.apply(valueObject.getName()), valueObject);
+        } catch (SQLException e) {
+            throw typeUnsupportedByArgumentWrapper(type);
+        }
+    }
 
-            values.add(Pair.of(prefix.apply(valueObject.getName()), argumentWrapper.wrap(value)
-                    .orElseThrow(() -> typeUnsupportedByArgumentWrapper(type))));
+    private void bind(BindingPlan.Builder builder, int parent, String column, ValueObject valueObject, Class<?> encodedType,
+                      BindingPlan.Encoder encoder)
+            throws DataSourceException
+    {
+        try {
+            builder.bind(parent, column, valueObject, encodedType, Types.VARBINARY, encoder);
+        } catch (SQLException e) {
+            throw typeUnsupportedByArgumentWrapper(encodedType);
         }
     }
 
+    // resolved once per data object, argument wrapper and manipulator, the values bound straight into the merge
+    private BindingPlan valuePlanOf(DataObject dataObject) throws DataSourceException
+    {
+        DataArgumentWrapper argumentWrapper = this.argumentWrapper;
+        BindingPlan plan = valuePlans.get(dataObject);
+
+        if (plan != null && plan.getWrapper() == argumentWrapper)
+            return plan;
+
+        BindingPlan.Builder builder = BindingPlan.builder(argumentWrapper);
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            plan(builder, BindingPlan.ROOT, valueObject, Prefix.of());
+
+        plan = builder.build();
+
+        valuePlans.put(dataObject, plan);
+
+        return plan;
+    }
+
+    // one row merged by its keys, the table is expected to exist as for the pulls
     @Override
     public <T> Transaction commit(Transaction transaction, T object, Class<T> type)
             throws DataSourceException
     {
-        try {
-            DataObject dataObject = container.interpretIfAbsent(type, interpreter);
+        BindingPlan values = valuePlanOf(interpretGlobal(type));
 
-            if (dataObject instanceof ElementDataObject)
-                throw new DataSourceException("Element data object is not allowed in global scope");
+        return execute(transaction, "Commit", (connection) -> manipulator.insert(connection, tableName, values, object));
+    }
+
+    // a transaction begun here is not known to the caller, so it is not left open when the statement fails
+    private Transaction execute(Transaction transaction, String operation, ConsumerWithThrowable<Connection, SQLException> statement)
+            throws DataSourceException
+    {
+        TransactionImpl current = begin(transaction);
 
+        try {
+            statement.accept(connection);
+        } catch (SQLException e) {
+            if (transaction == null)
+                current.cancel();
 
-        } catch (DataObjectInterpretationException e) {
-            throw new DataSourceException(e);
+            throw new DataSourceException(operation, e);
         }
 
-        return null;
+        return current;
+    }
+
+    // statements join the given transaction, or a new one if none is given and none is in progress
+    private TransactionImpl begin(Transaction transaction) throws DataSourceException
+    {
+        transactionLock.lock();
+
+        try {
+            checkTransaction(transaction);
+
+            if (transaction == null)
+                currentTransaction = transaction = new TransactionImpl();
+
+            return (TransactionImpl) transaction;
+        } finally {
+            transactionLock.unlock();
+        }
     }
 
     @Override
@@ -1013,30 +1885,120 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         return null;
     }
 
+    // the row of the object's keys is deleted, a missing row is no failure
     @Override
     public <T> Transaction remove(Transaction transaction, T object, Class<T> type)
             throws DataSourceException
     {
-        return null;
+        BindingPlan keys = keyPlanOf(interpretGlobal(type));
+
+        return execute(transaction, "Remove", (connection) -> manipulator.delete(connection, tableName, keys, object));
     }
 
     @Override
     public Transaction clear(Transaction transaction) throws DataSourceException
     {
-        return null;
+        return execute(transaction, "Clear", (connection) -> manipulator.cleanTable(connection, tableName));
     }
 
+    // every row matching the non-null keys is deleted, as pullVaguely would select them
     @Override
+    @SuppressWarnings("rawtypes")
     public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type)
             throws DataSourceException
     {
-        return null;
+        Pair<String, DataArgument>[] keys = narrowVaguely(object, interpretVague(type)).first();
+
+        return execute(transaction, "Remove", (connection) -> manipulator.delete(connection, tableName, keys));
     }
 
     @Override
     public void waitForTransaction()
     {
-        while(this.currentTransaction != null);
+        transactionLock.lock();
+
+        try {
+            while (this.currentTransaction != null)
+                transactionFinished.awaitUninterruptibly();
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    // streams the main table and its collection tables into a snapshot, returns the count of rows
+    public long export(OutputStream output) throws DataSourceException
+    {
+        waitForTransaction();
+
+        try {
+            return TableSnapshot.export(connection, manipulator, tableName, snapshotTables(), output);
+        } catch (SQLException | IOException e) {
+            throw new DataSourceException("Export", e);
+        }
+    }
+
+    public long export(Path path) throws DataSourceException
+    {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        long rows;
+
+        try {
+            try (OutputStream output = Files.newOutputStream(temporary)) {
+                rows = export(output);
+            }
+
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new DataSourceException("Export", e);
+        }
+
+        return rows;
+    }
+
+    // replaces the contents of every table in the snapshot, committing every batch
+    public long importFrom(InputStream input) throws DataSourceException
+    {
+        return importFrom(input, TableSnapshot.DEFAULT_BATCH_SIZE);
+    }
+
+    public long importFrom(InputStream input, int batchSize) throws DataSourceException
+    {
+        waitForTransaction();
+
+        try {
+            return TableSnapshot.restore(connection, manipulator, tableName, input, batchSize);
+        } catch (SQLException | IOException e) {
+            throw new DataSourceException("Import", e);
+        }
+    }
+
+    public long importFrom(Path path) throws DataSourceException
+    {
+        try (InputStream input = Files.newInputStream(path)) {
+            return importFrom(input);
+        } catch (IOException e) {
+            throw new DataSourceException("Import", e);
+        }
+    }
+
+    private List<String> snapshotTables() throws SQLException
+    {
+        List<String> tables = new ArrayList<>();
+        String prefix = asCollectionTableName("").toUpperCase();
+
+        tables.add(tableName);
+
+        for (String table : manipulator.queryTables(connection))
+            if (table.toUpperCase().startsWith(prefix))
+                tables.add(table);
+
+        Collections.sort(tables.subList(1, tables.size()));
+
+        return tables;
     }
 
     public void createTable(Connection conection, Class<?> dataType) throws DataSourceException
@@ -1075,18 +2037,25 @@ public class PlainSQLDatabaseDataSource implements DataSource {
     @SuppressWarnings("unchecked")
     private boolean createTable0(Connection connection, String tableName, DataObject dataObject, boolean ifNotExists) throws DataSourceException
     {
+        boolean created = true;
+
         try {
             List<Constraint> tableConstraints = new ArrayList<>();
             List<Vector3<String, Class<?>, Constraint[]>> columns = new ArrayList<>();
 
             List<ValueObject> keys = new ArrayList<>();
+            List<Index> indexes = new ArrayList<>();
 
             List<ValueObject> valueObjects = new ArrayList<>();
+            List<String> columnNames = new ArrayList<>();
             for (ValueObject valueObject : new ValueObjectIterator(dataObject))
             {
                 Class<?> columnType = tryRemapping(valueObject.getType());
+                boolean packed = valueObject.hasMetadata(Packed.class);
+                boolean compressed = isCompressed(valueObject);
+                boolean collection = !packed && !compressed && !StructureType.VALUE.equals(valueObject.getStructure());
 
-                if (valueObject.hasMetadata(ExpandForcibly.class) || !manipulator.supportType(columnType))
+                if (!packed && !compressed && !collection && (valueObject.hasMetadata(ExpandForcibly.class) || !manipulator.supportType(columnType)))
                     valueObjects.addAll(container.expand(valueObject, expander)
                             .orElseThrow(() -> new DataSourceException.UnsupportedValueType(columnType.getCanonicalName())).values());
                 else
@@ -1094,16 +2063,31 @@ public class PlainSQLDatabaseDataSource implements DataSource {
 
                 for (ValueObject confirmed : valueObjects)
                 {
+                    String columnName = collection ? asCollectionColumnName(confirmed.getName()) : confirmed.getName();
+
                     if(confirmed.isKey())
                         keys.add(confirmed);
 
                     columns.add(Vector3.of(
-                            confirmed.getName(),
-                            tryRemapping(confirmed.getType()),
+                            columnName,
+                            packed ? packedTypeOf(confirmed)
+                                    : compressed ? compressedColumnTypeOf(confirmed)
+                                    : tryRemapping(confirmed.getType()),
                             confirmed.hasMetadata(NotNull.class) ? new Constraint[]{Constraint.ofNotNull()} : new Constraint[0]));
+
+                    confirmed.getMetadata(Indexed.class).ifPresent((indexed) ->
+                            indexes.add(indexed.unique() ? Index.ofUnique(columnName) : Index.of(columnName)));
+
+                    columnNames.add(columnName);
                 }
 
+                if (valueObject.isSecondaryKey()) // the primary key always leads the composite primary key index
+                    indexes.add(Index.of(columnNames.toArray(new String[0])));
+                else if (collection) // collection owner column
+                    indexes.add(Index.of(columnNames.get(0)));
+
                 valueObjects.clear();
+                columnNames.clear();
             }
 
             if(!keys.isEmpty())
@@ -1114,20 +2098,31 @@ public class PlainSQLDatabaseDataSource implements DataSource {
                     keyNames[i] = keys.get(i).getName();
 
                 tableConstraints.add(Constraint.ofPrimaryKey(keyNames));
+
+                indexes.removeIf((index) -> index.covers(keyNames) || (!index.isUnique() && Index.of(keyNames).covers(index.getColumns())));
             }
 
             Constraint[] tableConstraintArray = tableConstraints.toArray(new Constraint[0]);
             Vector3<String, Class<?>, Constraint[]>[] columnArray = columns.toArray(new Vector3[0]);
+            Index[] indexArray = indexes.stream().distinct().toArray(Index[]::new);
 
             if(ifNotExists)
-                return manipulator.createTableIfNotExists(connection, tableName, columnArray, tableConstraintArray);
+            {
+                created = manipulator.createTableIfNotExists(connection, tableName, columnArray, tableConstraintArray);
+
+                // reconcile indexes missing on an existing table
+                manipulator.createIndexIfNotExists(connection, tableName, indexArray);
+            }
             else
+            {
                 manipulator.createTable(connection, tableName, columnArray, tableConstraintArray);
+                manipulator.createIndex(connection, tableName, indexArray);
+            }
         } catch (DataObjectInterpretationException | SQLException e) {
             throw new DataSourceException(e);
         }
 
-        return true;
+        return created;
     }
 
     public DatabaseManipulator getManipulator()
@@ -1138,6 +2133,9 @@ public class PlainSQLDatabaseDataSource implements DataSource {
     public void setManipulator(DatabaseManipulator manipulator)
     {
         this.manipulator = Objects.requireNonNull(manipulator);
+
+        // the columns planned depend on the types it supports
+        valuePlans.clear();
     }
 
     public DataArgumentWrapper getArgumentWrapper()
@@ -1150,6 +2148,16 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         this.argumentWrapper = Objects.requireNonNull(argumentWrapper);
     }
 
+    public Executor getPublishExecutor()
+    {
+        return publishExecutor;
+    }
+
+    public void setPublishExecutor(Executor publishExecutor)
+    {
+        this.publishExecutor = Objects.requireNonNull(publishExecutor);
+    }
+
     public void setExtractorFactory(DataExtractorFactory extractorFactory)
     {
         this.extractorFactory = Objects.requireNonNull(extractorFactory);
@@ -1192,6 +2200,10 @@ public class PlainSQLDatabaseDataSource implements DataSource {
 
     private volatile Transaction currentTransaction;
 
+    private final Lock transactionLock = new ReentrantLock();
+
+    private final java.util.concurrent.locks.Condition transactionFinished = transactionLock.newCondition();
+
     protected String tableName;
 
     protected Connection connection;
@@ -1206,12 +2218,38 @@ public class PlainSQLDatabaseDataSource implements DataSource {
 
     protected DataArgumentWrapper argumentWrapper;
 
+    private final Map<DataObject, BindingPlan> keyPlans = new ConcurrentHashMap<>();
+
+    private final Map<DataObject, BindingPlan> valuePlans = new ConcurrentHashMap<>();
+
+    private final Compression.Metrics compressionMetrics = new Compression.Metrics();
+
     protected DataExtractorFactory extractorFactory;
 
+    // subscriptions of the publishers read and map the rows on this executor
+    protected volatile Executor publishExecutor = BlockingReads.EXECUTOR;
+
     private static final String COLLECTION_TABLE_SUFFIX = "_XXSYNTHETIC_COLLECTION_TABLE_";
 
     private static final String COLLECTION_COLUMN_SUFFIX = "_XXSYNTHETIC_TAG_COLLECTION";
 
+    // blocking JDBC reads are kept out of the common pool, created on first use
+    private static final class BlockingReads
+    {
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "kraitudao-sql-read-" + COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        private static final AtomicInteger COUNTER = new AtomicInteger();
+    }
+
     private static final Prefix MAP_VALUE_PREFIX = Prefix.of("V");
 
     private static final Prefix LIST_ELEMENT_PREFIX = Prefix.of("E");
@@ -1270,7 +2308,15 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         void destroy()
         {
             this.valid = false;
-            currentTransaction = null;
+
+            transactionLock.lock();
+
+            try {
+                currentTransaction = null;
+                transactionFinished.signalAll();
+            } finally {
+                transactionLock.unlock();
+            }
         }
 
         boolean valid()
@@ -1283,6 +2329,172 @@ public class PlainSQLDatabaseDataSource implements DataSource {
         private boolean valid = true;
     }
 
+    // rows are only read and mapped as demand arrives, the statement stays open until completion or cancellation
+    private final class ResultSetSubscription<T, X extends Throwable> implements Flow.Subscription, Runnable
+    {
+        ResultSetSubscription(Flow.Subscriber<? super T> subscriber,
+                              DataObject dataObject,
+                              SupplierWithThrowable<ResultSet, SQLException> query,
+                              SupplierWithThrowable<T, X> constructor,
+                              Executor executor)
+        {
+            this.subscriber = subscriber;
+            this.dataObject = dataObject;
+            this.query = query;
+            this.constructor = constructor;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+                illegal = new IllegalArgumentException("Non-positive request: " + n);
+            else
+                demand.accumulateAndGet(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+
+            schedule();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (wip.getAndIncrement() != 0)
+                return;
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+
+        // drain never throws, so wip always gets back to zero
+        @Override
+        public void run()
+        {
+            int missed = 1;
+
+            do {
+                drain();
+            } while ((missed = wip.addAndGet(-missed)) != 0);
+        }
+
+        private void drain()
+        {
+            if (done)
+                return;
+
+            if (cancelled)
+            {
+                terminate();
+                return;
+            }
+
+            if (illegal != null)
+            {
+                fail(illegal);
+                return;
+            }
+
+            try {
+                if (resultSet == null)
+                    resultSet = query.get();
+
+                while (demand.get() > 0 && !cancelled)
+                {
+                    if (!resultSet.next())
+                    {
+                        terminate();
+
+                        try {
+                            subscriber.onComplete();
+                        } catch (Throwable e) {
+                            report(e);
+                        }
+
+                        return;
+                    }
+
+                    T element = extractOne(resultSet, dataObject, null, constructor);
+
+                    if (demand.get() != Long.MAX_VALUE) // unbounded
+                        demand.decrementAndGet();
+
+                    try {
+                        subscriber.onNext(element);
+                    } catch (Throwable e) { // the subscriber broke the contract, the subscription is cancelled (rule 2.13)
+                        terminate();
+                        report(e);
+                        return;
+                    }
+                }
+
+                if (cancelled)
+                    terminate();
+            } catch (Throwable e) { // mapping failures, DataSourceError included, end the stream with onError
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable cause)
+        {
+            terminate();
+
+            try {
+                subscriber.onError(cause);
+            } catch (Throwable e) {
+                report(e);
+            }
+        }
+
+        private void report(Throwable e)
+        {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+
+        private void terminate()
+        {
+            done = true;
+
+            if (resultSet != null) try {
+                resultSet.close();
+            } catch (SQLException e) {
+                // ignored, nothing to report to after termination
+            }
+        }
+
+        private final Flow.Subscriber<? super T> subscriber;
+
+        private final DataObject dataObject;
+
+        private final SupplierWithThrowable<ResultSet, SQLException> query;
+
+        private final SupplierWithThrowable<T, X> constructor;
+
+        private final Executor executor;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled;
+
+        private volatile IllegalArgumentException illegal;
+
+        // only touched on the draining thread
+        private boolean done;
+
+        private ResultSet resultSet;
+    }
+
     private static class Prefix
     {
         static Prefix of()
@@ -21,5 +21,936 @@
 
 package com.theredpixelteam.kraitudao.common;
 
-public class PlainYAMLDataSource {
+import com.theredpixelteam.kraitudao.DataSource;
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.common.tree.TreeMapper;
+import com.theredpixelteam.kraitudao.common.tree.YAMLTree;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectInterpreter;
+import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+import com.theredpixelteam.redtea.util.Optional;
+import com.theredpixelteam.redtea.util.Pair;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// an append-only journal of YAML documents, indexed by key and compacted in the background
+@SuppressWarnings("unchecked")
+public class PlainYAMLDataSource implements DataSource, AutoCloseable {
+    public PlainYAMLDataSource(Path file,
+                               DataObjectInterpreter interpreter,
+                               DataObjectExpander expander,
+                               DataObjectContainer container,
+                               ThreadFactory threadFactory)
+            throws DataSourceException
+    {
+        this.file = Objects.requireNonNull(file, "file");
+        this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+        this.container = Objects.requireNonNull(container, "container");
+        this.mapper = new TreeMapper(interpreter, expander, container);
+        this.compactor = Executors.newSingleThreadExecutor(threadFactory);
+
+        try {
+            this.channel = open(file);
+            this.end = channel.size();
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    public PlainYAMLDataSource(Path file) throws DataSourceException
+    {
+        this(file, StandardDataObjectInterpreter.INSTANCE, StandardDataObjectExpander.INSTANCE, DataObjectCache.getGlobal(),
+                Executors.defaultThreadFactory());
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    public boolean isSynchronous()
+    {
+        return synchronous;
+    }
+
+    // forces pushed documents to the device before push returns
+    public void setSynchronous(boolean synchronous)
+    {
+        this.synchronous = synchronous;
+    }
+
+    public void setCompactionThreshold(double garbageRatio, long minimumGarbage)
+    {
+        if (garbageRatio <= 0 || garbageRatio >= 1)
+            throw new IllegalArgumentException("Garbage ratio out of range: " + garbageRatio);
+
+        this.garbageRatio = garbageRatio;
+        this.minimumGarbage = minimumGarbage;
+    }
+
+    public long getFileSize()
+    {
+        return end;
+    }
+
+    public long getGarbageSize()
+    {
+        Index index = this.index;
+        return index == null ? 0 : index.garbage;
+    }
+
+    public long getCompactionCount()
+    {
+        return compactions;
+    }
+
+    public Optional<Exception> getLastCompactionFailure()
+    {
+        return Optional.ofNullable(lastCompactionFailure);
+    }
+
+    private static FileChannel open(Path file) throws IOException
+    {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private DataObject interpret(Class<?> type) throws DataSourceException
+    {
+        DataObject dataObject;
+
+        try {
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+
+        if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Element data object is not allowed in global scope");
+
+        return dataObject;
+    }
+
+    private Map<String, Object> keyOf(Object object, DataObject dataObject) throws DataSourceException
+    {
+        Map<String, Object> key = mapper.keysToTree(object, dataObject);
+
+        for (Map.Entry<String, Object> entry : key.entrySet())
+            if (entry.getValue() == null)
+                throw new DataSourceException("Null key \"" + entry.getKey() + "\"");
+
+        return key;
+    }
+
+    // non-null keys of the probe have to match
+    private static boolean matchesVaguely(Map<String, Object> probe, Map<String, Object> key)
+    {
+        for (Map.Entry<String, Object> entry : probe.entrySet())
+            if (entry.getValue() != null && !entry.getValue().equals(key.get(entry.getKey())))
+                return false;
+
+        return true;
+    }
+
+    private static <T, X extends Throwable> T construct(SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        try {
+            return constructor.get();
+        } catch (Throwable e) {
+            throw new DataSourceException("Object construction failure", e);
+        }
+    }
+
+    // the index is built on first use by a scan over the document headers
+    private Index index() throws DataSourceException
+    {
+        Index index = this.index;
+
+        if (index != null)
+            return index;
+
+        lock.writeLock().lock();
+
+        try {
+            if (this.index == null)
+                this.index = rebuild();
+
+            return this.index;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // a torn document at the tail, left by an interrupted push, is truncated
+    private Index rebuild() throws DataSourceException
+    {
+        Index index = new Index();
+
+        try {
+            long valid = scan(channel, 0, index, true);
+
+            if (valid < channel.size())
+                channel.truncate(valid);
+
+            end = valid;
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+
+        return index;
+    }
+
+    // streams the document boundaries from the given position, only the part before the value mapping is decoded
+    private static long scan(FileChannel channel, long from, Index index, boolean tolerateTornTail)
+            throws IOException, DataSourceException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        long position = from;
+        long lineStart = from;
+        int lineLength = 0;
+
+        long documentStart = -1;
+        StringBuilder header = null;
+        boolean collecting = false;
+
+        int read;
+        while ((read = channel.read(buffer, position)) > 0)
+        {
+            buffer.flip();
+
+            for (int i = 0; i < read; i++)
+            {
+                byte b = buffer.get();
+
+                if (b != '\n')
+                {
+                    if (collecting || lineLength < DOCUMENT_LINE_LIMIT)
+                        line.write(b);
+
+                    lineLength++;
+                    continue;
+                }
+
+                String content = new String(line.toByteArray(), StandardCharsets.UTF_8);
+
+                if (content.startsWith(YAMLTree.DOCUMENT_START))
+                {
+                    if (documentStart >= 0)
+                        index.apply(YAMLTree.parse(header.toString()), documentStart, (int) (lineStart - documentStart));
+
+                    documentStart = lineStart;
+                    header = new StringBuilder(content).append('\n');
+                    collecting = true;
+                }
+                else if (collecting)
+                {
+                    if (content.startsWith(VALUE + ":"))
+                        collecting = false;
+                    else
+                        header.append(content).append('\n');
+                }
+
+                line.reset();
+                lineLength = 0;
+                lineStart = position + i + 1;
+            }
+
+            position += read;
+            buffer.clear();
+        }
+
+        if (documentStart < 0)
+            return position;
+
+        if (lineLength > 0)
+        {
+            if (tolerateTornTail)
+                return documentStart;
+
+            throw new DataSourceException("Truncated document at " + documentStart);
+        }
+
+        try {
+            index.apply(YAMLTree.parse(header.toString()), documentStart, (int) (lineStart - documentStart));
+        } catch (DataSourceException e) {
+            if (tolerateTornTail)
+                return documentStart;
+
+            throw e;
+        }
+
+        return position;
+    }
+
+    private String read(Record record) throws DataSourceException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(record.length);
+
+        try {
+            while (buffer.hasRemaining())
+                if (channel.read(buffer, record.offset + buffer.position()) < 0)
+                    throw new DataSourceException("Unexpected end of file at " + (record.offset + buffer.position()));
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private Map<String, Object> valueOf(Record record) throws DataSourceException
+    {
+        Object value = YAMLTree.parse(read(record)).second().get(VALUE);
+
+        if (!(value instanceof Map))
+            throw new DataSourceException("Malformed document at " + record.offset + ", missing value");
+
+        return (Map<String, Object>) value;
+    }
+
+    private <T> void fromRecord(Record record, T object, DataObject dataObject) throws DataSourceException
+    {
+        mapper.fromTree(valueOf(record), object, dataObject);
+    }
+
+    @Override
+    public <T> boolean pull(T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Map<String, Object> key = keyOf(object, dataObject);
+        index();
+
+        lock.readLock().lock();
+
+        try {
+            Index index = this.index;
+
+            Record record = index.get(type.getName(), key);
+
+            if (record == null)
+                return false;
+
+            fromRecord(record, object, dataObject);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        Map<String, Object> key = keyOf(object, interpret(type));
+        index();
+
+        lock.readLock().lock();
+
+        try {
+            Index index = this.index;
+
+            return index.get(type.getName(), key) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> long count(Class<T> type) throws DataSourceException
+    {
+        interpret(type);
+        index();
+
+        lock.readLock().lock();
+
+        try {
+            Index index = this.index;
+
+            return index.recordsOf(type.getName()).size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Collection<T> collection = new ArrayList<>();
+
+        index();
+
+        lock.readLock().lock();
+
+        try {
+            Index index = this.index;
+
+            for (Record record : index.recordsOf(type.getName()).values())
+            {
+                T object = construct(constructor);
+                fromRecord(record, object, dataObject);
+                collection.add(object);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection pull from YAML journal");
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        Map<String, Object> probe = mapper.keysToTree(object, dataObject);
+        Collection<T> collection = new ArrayList<>();
+
+        index();
+
+        lock.readLock().lock();
+
+        try {
+            Index index = this.index;
+
+            for (Map.Entry<Map<String, Object>, Record> entry : index.recordsOf(type.getName()).entrySet())
+            {
+                if (!matchesVaguely(probe, entry.getKey()))
+                    continue;
+
+                T pulled = construct(constructor);
+                fromRecord(entry.getValue(), pulled, dataObject);
+                collection.add(pulled);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        return of(transaction).enqueue(new Operation(COMMIT, type.getName(), keyOf(object, dataObject),
+                mapper.toTree(object, dataObject)));
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection commit into YAML journal");
+    }
+
+    @Override
+    public <T> Transaction remove(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        return of(transaction).enqueue(new Operation(REMOVE, type.getName(), keyOf(object, interpret(type)), null));
+    }
+
+    @Override
+    public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        return of(transaction).enqueue(new Operation(REMOVE_VAGUELY, type.getName(), mapper.keysToTree(object, dataObject), null));
+    }
+
+    @Override
+    public Transaction clear(Transaction transaction) throws DataSourceException
+    {
+        return of(transaction).enqueue(new Operation(CLEAR, null, null, null));
+    }
+
+    @Override
+    public void waitForTransaction()
+    {
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+    }
+
+    private YAMLTransaction of(Transaction transaction) throws DataSourceException
+    {
+        if (closed)
+            throw new DataSourceException("Closed");
+
+        if (transaction == null)
+            return new YAMLTransaction();
+
+        if (!(transaction instanceof YAMLTransaction) || ((YAMLTransaction) transaction).owner() != this)
+            throw new DataSourceException("Transaction not owned by this data source");
+
+        return (YAMLTransaction) transaction;
+    }
+
+    // appends the documents of a transaction in one write, the index follows only if the write succeeds
+    private void append(List<Operation> operations) throws DataSourceException
+    {
+        index();
+
+        lock.writeLock().lock();
+
+        try {
+            if (closed)
+                throw new DataSourceException("Closed");
+
+            Index index = this.index;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long position = end;
+
+            for (Operation operation : operations)
+                if (operation.kind == REMOVE_VAGUELY)
+                {
+                    for (Map<String, Object> key : new ArrayList<>(index.recordsOf(operation.type).keySet()))
+                        if (matchesVaguely(operation.key, key))
+                            position += appendDocument(out, index, new Operation(REMOVE, operation.type, key, null), position);
+                }
+                else
+                    position += appendDocument(out, index, operation, position);
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+
+                while (buffer.hasRemaining())
+                    channel.write(buffer, end + buffer.position());
+
+                if (synchronous)
+                    channel.force(false);
+
+                end = position;
+            } catch (IOException e) {
+                // the index has already been updated, so it is rebuilt from what actually reached the file
+                this.index = rebuild();
+                throw new DataSourceException(e);
+            }
+
+            if (index.garbage >= minimumGarbage && index.garbage > end * garbageRatio)
+                compactInBackground();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int appendDocument(ByteArrayOutputStream out, Index index, Operation operation, long position)
+            throws DataSourceException
+    {
+        StringBuilder document = new StringBuilder();
+        Map<String, Object> tree = new LinkedHashMap<>();
+
+        if (operation.kind != CLEAR)
+        {
+            tree.put(TYPE, operation.type);
+            tree.put(KEY, operation.key);
+        }
+
+        String tag = TAGS[operation.kind];
+        YAMLTree.emit(document, tag, tree);
+
+        // the value goes last so that index scans can stop before it
+        if (operation.value != null)
+        {
+            Map<String, Object> value = new LinkedHashMap<>();
+            value.put(VALUE, operation.value);
+
+            StringBuilder mapping = new StringBuilder();
+            YAMLTree.emit(mapping, tag, value);
+            document.append(mapping, mapping.indexOf("\n") + 1, mapping.length());
+        }
+
+        byte[] bytes = document.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+
+        index.apply(operation.kind, operation.type, operation.key, new Record(position, bytes.length));
+
+        return bytes.length;
+    }
+
+    private void compactInBackground()
+    {
+        if (!compacting.compareAndSet(false, true))
+            return;
+
+        try {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    lastCompactionFailure = e;
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compacting.set(false);
+        }
+    }
+
+    // live records are copied without blocking readers or writers, only the tail appended meanwhile is copied under the write lock
+    public void compact() throws DataSourceException
+    {
+        Path temporary = file.resolveSibling(file.getFileName() + ".compact");
+
+        compactionLock.lock();
+
+        try {
+            if (closed)
+                throw new DataSourceException("Closed");
+
+            index();
+
+            List<Record> live = new ArrayList<>();
+            Map<Record, Pair<String, Map<String, Object>>> owners = new IdentityHashMap<>();
+            long copied;
+
+            lock.readLock().lock();
+
+            try {
+                Index index = this.index;
+
+                for (Map.Entry<String, Map<Map<String, Object>, Record>> records : index.records.entrySet())
+                    for (Map.Entry<Map<String, Object>, Record> entry : records.getValue().entrySet())
+                    {
+                        live.add(entry.getValue());
+                        owners.put(entry.getValue(), Pair.of(records.getKey(), entry.getKey()));
+                    }
+
+                copied = end;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            live.sort(Comparator.comparingLong((record) -> record.offset));
+
+            try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+            {
+                Index compacted = new Index();
+
+                for (Record record : live)
+                {
+                    Pair<String, Map<String, Object>> owner = owners.get(record);
+
+                    compacted.apply(COMMIT, owner.first(), owner.second(), new Record(target.position(), record.length));
+                    transfer(channel, record.offset, record.length, target);
+                }
+
+                lock.writeLock().lock();
+
+                try {
+                    long tail = target.position();
+
+                    transfer(channel, copied, end - copied, target);
+                    scan(target, tail, compacted, false);
+
+                    target.force(true);
+
+                    try {
+                        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+
+                    channel.close();
+                    channel = open(file);
+                    end = channel.size();
+
+                    this.index = compacted;
+                    compactions++;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw new DataSourceException("Compaction failure", e);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private static void transfer(FileChannel source, long position, long count, FileChannel target) throws IOException
+    {
+        long transferred = 0;
+
+        while (transferred < count)
+        {
+            long n = source.transferTo(position + transferred, count - transferred, target);
+
+            if (n <= 0)
+                throw new IOException("Unexpected end of file at " + (position + transferred));
+
+            transferred += n;
+        }
+    }
+
+    @Override
+    public void close() throws DataSourceException
+    {
+        closed = true;
+        compactor.shutdown();
+
+        compactionLock.lock();
+        lock.writeLock().lock();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        } finally {
+            lock.writeLock().unlock();
+            compactionLock.unlock();
+        }
+    }
+
+    private final Path file;
+
+    private final DataObjectInterpreter interpreter;
+
+    private final DataObjectContainer container;
+
+    private final TreeMapper mapper;
+
+    private final ExecutorService compactor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Lock compactionLock = new ReentrantLock();
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private volatile FileChannel channel;
+
+    private volatile long end;
+
+    private volatile Index index;
+
+    private volatile boolean synchronous;
+
+    private volatile double garbageRatio = 0.5D;
+
+    private volatile long minimumGarbage = 1L << 20;
+
+    private volatile long compactions;
+
+    private volatile Exception lastCompactionFailure;
+
+    private volatile boolean closed;
+
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+    // bytes kept of lines inside a value mapping, enough to recognize the start of the next document
+    private static final int DOCUMENT_LINE_LIMIT = 64;
+
+    private static final String TYPE = "type";
+
+    private static final String KEY = "key";
+
+    private static final String VALUE = "value";
+
+    private static final int COMMIT = 0;
+
+    private static final int REMOVE = 1;
+
+    private static final int CLEAR = 2;
+
+    private static final int REMOVE_VAGUELY = 3;
+
+    private static final String[] TAGS = {"commit", "remove", "clear"};
+
+    private static final class Record
+    {
+        Record(long offset, int length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        final long offset;
+
+        final int length;
+    }
+
+    // type name to key tree to the latest committed document, with the bytes no longer reachable from it
+    private static final class Index
+    {
+        Record get(String type, Map<String, Object> key)
+        {
+            Map<Map<String, Object>, Record> records = this.records.get(type);
+            return records == null ? null : records.get(key);
+        }
+
+        Map<Map<String, Object>, Record> recordsOf(String type)
+        {
+            Map<Map<String, Object>, Record> records = this.records.get(type);
+            return records == null ? Collections.emptyMap() : records;
+        }
+
+        void apply(Pair<String, Map<String, Object>> document, long offset, int length) throws DataSourceException
+        {
+            String tag = document.first();
+            Map<String, Object> tree = document.second();
+
+            int kind = tag == null ? -1 : Arrays.asList(TAGS).indexOf(tag);
+
+            if (kind < 0)
+                throw new DataSourceException("Unknown document tag \"" + tag + "\" at " + offset);
+
+            if (kind == CLEAR)
+            {
+                apply(CLEAR, null, null, new Record(offset, length));
+                return;
+            }
+
+            Object type = tree.get(TYPE);
+            Object key = tree.get(KEY);
+
+            if (!(type instanceof String) || !(key instanceof Map))
+                throw new DataSourceException("Malformed document at " + offset + ", missing type or key");
+
+            apply(kind, (String) type, (Map<String, Object>) key, new Record(offset, length));
+        }
+
+        void apply(int kind, String type, Map<String, Object> key, Record record)
+        {
+            Record old;
+
+            switch (kind)
+            {
+                case COMMIT:
+                    old = records.computeIfAbsent(type, (unused) -> new LinkedHashMap<>()).put(key, record);
+
+                    if (old != null)
+                        garbage += old.length;
+
+                    break;
+
+                case REMOVE:
+                    old = recordsOf(type).remove(key);
+
+                    garbage += record.length + (old == null ? 0 : old.length);
+                    break;
+
+                case CLEAR:
+                    for (Map<Map<String, Object>, Record> records : this.records.values())
+                        for (Record cleared : records.values())
+                            garbage += cleared.length;
+
+                    records.clear();
+                    garbage += record.length;
+                    break;
+            }
+        }
+
+        final Map<String, Map<Map<String, Object>, Record>> records = new HashMap<>();
+
+        long garbage;
+    }
+
+    private static final class Operation
+    {
+        Operation(int kind, String type, Map<String, Object> key, Map<String, Object> value)
+        {
+            this.kind = kind;
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
+
+        final int kind;
+
+        final String type;
+
+        final Map<String, Object> key;
+
+        final Map<String, Object> value;
+    }
+
+    private class YAMLTransaction implements Transaction
+    {
+        PlainYAMLDataSource owner()
+        {
+            return PlainYAMLDataSource.this;
+        }
+
+        YAMLTransaction enqueue(Operation operation)
+        {
+            operations.add(operation);
+            return this;
+        }
+
+        @Override
+        public boolean push() throws DataSourceException
+        {
+            List<Operation> pushing = new ArrayList<>();
+
+            Operation operation;
+            while ((operation = operations.poll()) != null)
+                pushing.add(operation);
+
+            try {
+                append(pushing);
+            } catch (DataSourceException e) {
+                lastException = e;
+                throw e;
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            operations.clear();
+            return true;
+        }
+
+        @Override
+        public Optional<Exception> getLastException()
+        {
+            return Optional.ofNullable(lastException);
+        }
+
+        private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+
+        private volatile Exception lastException;
+    }
 }
@@ -0,0 +1,607 @@
+/*
+ * ShardedDataSource.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.DataSource;
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.Page;
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.criteria.Criteria;
+import com.theredpixelteam.kraitudao.criteria.Projection;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectInterpreter;
+import com.theredpixelteam.redtea.function.FunctionWithThrowable;
+import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+import com.theredpixelteam.redtea.util.Optional;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SuppressWarnings("unchecked")
+public class ShardedDataSource implements DataSource {
+    public ShardedDataSource(List<? extends DataSource> shards,
+                             DataObjectInterpreter interpreter,
+                             DataObjectContainer container,
+                             ExecutorService executor)
+    {
+        if (shards.isEmpty())
+            throw new IllegalArgumentException("No shard");
+
+        // shards are pushed and queried independently, a shared connection would serialize them and mix their commits
+        Set<Connection> connections = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DataSource shard : shards)
+            if (shard instanceof PlainSQLDatabaseDataSource
+                    && !connections.add(((PlainSQLDatabaseDataSource) shard).getConnection()))
+                throw new IllegalArgumentException("Shards sharing a connection");
+
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+        this.container = Objects.requireNonNull(container, "container");
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    public ShardedDataSource(List<? extends DataSource> shards)
+    {
+        this(shards, StandardDataObjectInterpreter.INSTANCE, DataObjectCache.getGlobal(), FanOut.EXECUTOR);
+    }
+
+    // tables name_0 .. name_{n-1}, each on its own connection from the supplier
+    public static ShardedDataSource ofTables(SupplierWithThrowable<Connection, SQLException> connections, String tableName, int count)
+            throws DataSourceException
+    {
+        List<DataSource> shards = new ArrayList<>(count);
+
+        try {
+            for (int i = 0; i < count; i++)
+                shards.add(new PlainSQLDatabaseDataSource(connections.get(), tableName + "_" + i));
+        } catch (SQLException | DataSourceException e) {
+            for (DataSource shard : shards)
+                try {
+                    ((PlainSQLDatabaseDataSource) shard).getConnection().close();
+                } catch (SQLException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+
+            throw e instanceof DataSourceException ? (DataSourceException) e : new DataSourceException(e);
+        }
+
+        return new ShardedDataSource(shards);
+    }
+
+    public List<DataSource> getShards()
+    {
+        return shards;
+    }
+
+    public int getShardCount()
+    {
+        return shards.size();
+    }
+
+    // routed by the (primary) key, so all rows of one primary key in a multiple data object live on the same shard
+    public int shardOf(Object object, Class<?> type) throws DataSourceException
+    {
+        Object key = routingKeyOf(type).get(object);
+
+        if (key == null)
+            throw new DataSourceException("Null routing key of " + type.getCanonicalName());
+
+        return shardOfKey(key);
+    }
+
+    public int shardOfKey(Object key)
+    {
+        return Math.floorMod(hash(key), shards.size());
+    }
+
+    // the key types are expected to have value based hash codes, enums are hashed by name to stay stable across runs
+    // and keys equal by value but not by equals (1.0 and 1.00, arrays) are normalized first
+    static int hash(Object key)
+    {
+        int h;
+
+        if (key instanceof Enum)
+            h = ((Enum<?>) key).name().hashCode();
+        else if (key instanceof BigDecimal)
+            h = ((BigDecimal) key).stripTrailingZeros().hashCode();
+        else if (key instanceof byte[])
+            h = Arrays.hashCode((byte[]) key);
+        else if (key instanceof char[])
+            h = Arrays.hashCode((char[]) key);
+        else
+            h = key.hashCode();
+
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+
+    private ValueObject routingKeyOf(Class<?> type) throws DataSourceException
+    {
+        DataObject dataObject;
+
+        try {
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+
+        switch (dataObject.getDataObjectType())
+        {
+            case UNIQUE:
+                return ((UniqueDataObject) dataObject).getKey();
+
+            case MULTIPLE:
+                return ((MultipleDataObject) dataObject).getPrimaryKey();
+
+            default:
+                throw new DataSourceException("Element data object is not allowed in global scope");
+        }
+    }
+
+    private DataSource route(Object object, Class<?> type) throws DataSourceException
+    {
+        return shards.get(shardOf(object, type));
+    }
+
+    private <R> List<R> fanOut(FunctionWithThrowable<DataSource, R, DataSourceException> operation) throws DataSourceException
+    {
+        List<Future<R>> futures = new ArrayList<>(shards.size());
+
+        for (DataSource shard : shards)
+            futures.add(executor.submit(() -> operation.apply(shard)));
+
+        List<R> results = new ArrayList<>(futures.size());
+        DataSourceException exception = null;
+
+        for (Future<R> future : futures)
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (exception == null)
+                    exception = e.getCause() instanceof DataSourceException
+                            ? (DataSourceException) e.getCause()
+                            : new DataSourceException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                for (Future<R> remaining : futures)
+                    remaining.cancel(true);
+
+                throw new DataSourceException("Interrupted", e);
+            }
+
+        if (exception != null)
+            throw exception;
+
+        return results;
+    }
+
+    private static <T> Collection<T> merge(List<Collection<T>> results)
+    {
+        Collection<T> merged = new ArrayList<>();
+
+        for (Collection<T> result : results)
+            merged.addAll(result);
+
+        return merged;
+    }
+
+    // orders and windows can't be merged without the column values, so only plain conditions are fanned out
+    private static void checkFanOut(Criteria<?> criteria) throws DataSourceException
+    {
+        if (!criteria.getOrders().isEmpty() || criteria.hasLimit() || criteria.hasOffset())
+            throw new DataSourceException.UnsupportedOperation("Ordered or windowed criteria across shards");
+    }
+
+    @Override
+    public <T> boolean pull(T object, Class<T> type) throws DataSourceException
+    {
+        return route(object, type).pull(object, type);
+    }
+
+    @Override
+    public <T> boolean pull(T object, Class<T> type, Projection projection) throws DataSourceException
+    {
+        return route(object, type).pull(object, type, projection);
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        return merge(fanOut(shard -> shard.pull(type, constructor)));
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, Projection projection, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        return merge(fanOut(shard -> shard.pull(type, projection, constructor)));
+    }
+
+    @Override
+    public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection pull across shards");
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        if (routingKeyOf(type).get(object) != null)
+            return route(object, type).pullVaguely(object, type, constructor);
+
+        return merge(fanOut(shard -> shard.pullVaguely(object, type, constructor)));
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Criteria<T> criteria, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        checkFanOut(criteria);
+
+        return merge(fanOut(shard -> shard.pull(criteria, constructor)));
+    }
+
+    @Override
+    public <T> long count(Criteria<T> criteria) throws DataSourceException
+    {
+        checkFanOut(criteria);
+
+        long count = 0;
+        for (long shardCount : fanOut(shard -> shard.count(criteria)))
+            count += shardCount;
+
+        return count;
+    }
+
+    @Override
+    public <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        return route(object, type).exists(object, type);
+    }
+
+    @Override
+    public <T, V> Optional<V> min(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        checkFanOut(criteria);
+
+        return extremum(fanOut(shard -> shard.<T, V>min(criteria, column)), -1);
+    }
+
+    @Override
+    public <T, V> Optional<V> max(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        checkFanOut(criteria);
+
+        return extremum(fanOut(shard -> shard.<T, V>max(criteria, column)), 1);
+    }
+
+    private static <V> Optional<V> extremum(List<Optional<V>> results, int sign)
+    {
+        V extremum = null;
+
+        for (Optional<V> result : results)
+        {
+            V value = result.getSilently();
+
+            if (value != null && (extremum == null || Integer.signum(((Comparable<Object>) value).compareTo(extremum)) == sign))
+                extremum = value;
+        }
+
+        return Optional.ofNullable(extremum);
+    }
+
+    @Override
+    public <T> Optional<Number> sum(Criteria<T> criteria, String column) throws DataSourceException
+    {
+        checkFanOut(criteria);
+
+        List<Number> values = new ArrayList<>();
+        for (Optional<Number> result : fanOut(shard -> shard.sum(criteria, column)))
+            if (result.isPresent())
+                values.add(result.getSilently());
+
+        if (values.isEmpty())
+            return Optional.empty();
+
+        boolean decimal = false, floating = false;
+        for (Number value : values)
+        {
+            decimal |= value instanceof BigDecimal;
+            floating |= value instanceof Double || value instanceof Float;
+        }
+
+        if (decimal)
+        {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (Number value : values)
+                sum = sum.add(value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString()));
+
+            return Optional.of(sum);
+        }
+
+        if (floating)
+        {
+            double sum = 0;
+            for (Number value : values)
+                sum += value.doubleValue();
+
+            return Optional.of(sum);
+        }
+
+        long sum = 0;
+        for (Number value : values)
+            sum = Math.addExact(sum, value.longValue());
+
+        return Optional.of(sum);
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        int shard = shardOf(object, type);
+        return attach(transaction, shard, shards.get(shard).commit(detach(transaction, shard), object, type));
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
+            throws DataSourceException
+    {
+        int shard = shardOf(object, type);
+        return attach(transaction, shard, shards.get(shard).commit(detach(transaction, shard), object, type, signatures));
+    }
+
+    @Override
+    public <T> Transaction remove(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        int shard = shardOf(object, type);
+        return attach(transaction, shard, shards.get(shard).remove(detach(transaction, shard), object, type));
+    }
+
+    @Override
+    public Transaction clear(Transaction transaction) throws DataSourceException
+    {
+        ShardedTransaction sharded = of(transaction);
+
+        for (int i = 0; i < shards.size(); i++)
+            sharded.transactions[i] = shards.get(i).clear(sharded.transactions[i]);
+
+        return sharded;
+    }
+
+    @Override
+    public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        if (routingKeyOf(type).get(object) != null)
+        {
+            int shard = shardOf(object, type);
+            return attach(transaction, shard, shards.get(shard).removeVaguely(detach(transaction, shard), object, type));
+        }
+
+        ShardedTransaction sharded = of(transaction);
+
+        for (int i = 0; i < shards.size(); i++)
+            sharded.transactions[i] = shards.get(i).removeVaguely(sharded.transactions[i], object, type);
+
+        return sharded;
+    }
+
+    @Override
+    public void waitForTransaction()
+    {
+        for (DataSource shard : shards)
+            shard.waitForTransaction();
+    }
+
+    private ShardedTransaction of(Transaction transaction) throws DataSourceException
+    {
+        if (transaction == null)
+            return new ShardedTransaction();
+
+        if (!(transaction instanceof ShardedTransaction) || ((ShardedTransaction) transaction).owner() != this)
+            throw new DataSourceException("Transaction not owned by this data source");
+
+        return (ShardedTransaction) transaction;
+    }
+
+    private Transaction detach(Transaction transaction, int shard) throws DataSourceException
+    {
+        return transaction == null ? null : of(transaction).transactions[shard];
+    }
+
+    private Transaction attach(Transaction transaction, int shard, Transaction shardTransaction) throws DataSourceException
+    {
+        ShardedTransaction sharded = of(transaction);
+        sharded.transactions[shard] = shardTransaction;
+        return sharded;
+    }
+
+    // moves the rows of the given type from this data source into the target in batches, returns the count of rows moved.
+    // rows whose target shard is the store they are read from stay where they are, so the target may reuse the source
+    // tables (name_0 .. name_3 growing into name_0 .. name_7). in-flight operations are not rerouted, writes to this data
+    // source have to be stopped until the resharding returns.
+    public <T> long reshard(ShardedDataSource target, Class<T> type, int batchSize) throws DataSourceException
+    {
+        boolean[][] sameStore = new boolean[shards.size()][target.shards.size()];
+
+        for (int i = 0; i < shards.size(); i++)
+            for (int j = 0; j < target.shards.size(); j++)
+                sameStore[i][j] = sameStore(shards.get(i), target.shards.get(j));
+
+        long moved = 0;
+
+        for (int i = 0; i < shards.size(); i++)
+        {
+            DataSource shard = shards.get(i);
+            String continuation = null;
+
+            do {
+                Page<T> page = shard.pullPage(type, batchSize, continuation);
+
+                List<T> batch = new ArrayList<>(page.size());
+                for (T object : page.getElements())
+                    if (!sameStore[i][target.shardOf(object, type)])
+                        batch.add(object);
+
+                if (!batch.isEmpty())
+                {
+                    Transaction transaction = null;
+                    for (T object : batch)
+                        transaction = target.commit(transaction, object, type);
+
+                    push(transaction, "Failed to push resharded batch");
+
+                    transaction = null;
+                    for (T object : batch)
+                        transaction = shard.remove(transaction, object, type);
+
+                    push(transaction, "Failed to remove resharded batch");
+                }
+
+                moved += batch.size();
+                continuation = page.getContinuation().getSilently();
+            } while (continuation != null);
+        }
+
+        return moved;
+    }
+
+    // a data source handing back no transaction for a non-empty batch did not write it
+    private static void push(Transaction transaction, String message) throws DataSourceException
+    {
+        if (transaction == null)
+            throw new DataSourceException(message + " (No transaction returned)");
+
+        if (!transaction.push())
+            throw new DataSourceException(message, transaction.getLastException().getSilently());
+    }
+
+    // the same instance, or sql tables of the same name behind the same connection or database url
+    private static boolean sameStore(DataSource a, DataSource b) throws DataSourceException
+    {
+        if (a == b)
+            return true;
+
+        if (!(a instanceof PlainSQLDatabaseDataSource) || !(b instanceof PlainSQLDatabaseDataSource))
+            return false;
+
+        PlainSQLDatabaseDataSource x = (PlainSQLDatabaseDataSource) a;
+        PlainSQLDatabaseDataSource y = (PlainSQLDatabaseDataSource) b;
+
+        if (!x.getTableName().equalsIgnoreCase(y.getTableName()))
+            return false;
+
+        if (x.getConnection() == y.getConnection())
+            return true;
+
+        try {
+            return Objects.equals(x.getConnection().getMetaData().getURL(), y.getConnection().getMetaData().getURL());
+        } catch (SQLException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    private final List<DataSource> shards;
+
+    private final DataObjectInterpreter interpreter;
+
+    private final DataObjectContainer container;
+
+    private final ExecutorService executor;
+
+    // fan-out queries block on the shards, so they are kept out of the common pool
+    private static final class FanOut
+    {
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "kraitudao-shard-" + COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        private static final AtomicInteger COUNTER = new AtomicInteger();
+    }
+
+    // pushed shard by shard, so a failure in the middle leaves earlier shards committed
+    private class ShardedTransaction implements Transaction
+    {
+        ShardedDataSource owner()
+        {
+            return ShardedDataSource.this;
+        }
+
+        @Override
+        public boolean push() throws DataSourceException
+        {
+            for (Transaction transaction : transactions)
+                if (transaction != null && !transaction.push())
+                {
+                    lastException = transaction.getLastException().getSilently();
+                    return false;
+                }
+
+            return true;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            boolean cancelled = true;
+
+            for (Transaction transaction : transactions)
+                if (transaction != null && !transaction.cancel())
+                {
+                    lastException = transaction.getLastException().getSilently();
+                    cancelled = false;
+                }
+
+            return cancelled;
+        }
+
+        @Override
+        public Optional<Exception> getLastException()
+        {
+            return Optional.ofNullable(lastException);
+        }
+
+        private final Transaction[] transactions = new Transaction[shards.size()];
+
+        private Exception lastException;
+    }
+}
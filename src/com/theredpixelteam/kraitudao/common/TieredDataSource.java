@@ -0,0 +1,1094 @@
+/*
+ * TieredDataSource.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.DataSource;
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.annotations.Element;
+import com.theredpixelteam.kraitudao.codec.BinaryReader;
+import com.theredpixelteam.kraitudao.codec.BinaryWriter;
+import com.theredpixelteam.kraitudao.codec.CodecException;
+import com.theredpixelteam.kraitudao.codec.ObjectCodec;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.dataobject.util.ValueObjectIterator;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.common.StandardDataObjectInterpreter;
+import com.theredpixelteam.redtea.function.SupplierWithThrowable;
+import com.theredpixelteam.redtea.util.Optional;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// reads are served from memory, pushed writes are persisted behind by a single writer in push order.
+// without a journal the queue lives on the heap only, writes not yet persisted are lost if the process dies.
+@SuppressWarnings("unchecked")
+public class TieredDataSource implements DataSource, AutoCloseable {
+    // the journal is replayed onto the persistent tier before the constructor returns
+    public TieredDataSource(DataSource persistent,
+                            DataObjectInterpreter interpreter,
+                            DataObjectExpander expander,
+                            DataObjectContainer container,
+                            ThreadFactory threadFactory,
+                            int maxAttempts,
+                            Path journal)
+            throws DataSourceException
+    {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("Max attempts: " + maxAttempts);
+
+        this.persistent = Objects.requireNonNull(persistent, "persistent");
+        this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+        this.expander = Objects.requireNonNull(expander, "expander");
+        this.container = Objects.requireNonNull(container, "container");
+        this.maxAttempts = maxAttempts;
+        this.journal = journal == null ? null : openJournal(journal);
+
+        if (this.journal != null)
+            try {
+                replay();
+            } catch (DataSourceException e) {
+                try {
+                    this.journal.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+
+                throw e;
+            }
+
+        this.writer = threadFactory.newThread(this::write);
+        this.writer.start();
+    }
+
+    public TieredDataSource(DataSource persistent,
+                            DataObjectInterpreter interpreter,
+                            DataObjectContainer container,
+                            ThreadFactory threadFactory)
+            throws DataSourceException
+    {
+        this(persistent, interpreter, StandardDataObjectExpander.INSTANCE, container, threadFactory, DEFAULT_MAX_ATTEMPTS, null);
+    }
+
+    public TieredDataSource(DataSource persistent, Path journal) throws DataSourceException
+    {
+        this(persistent, StandardDataObjectInterpreter.INSTANCE, StandardDataObjectExpander.INSTANCE, DataObjectCache.getGlobal(),
+                WRITERS, DEFAULT_MAX_ATTEMPTS, journal);
+    }
+
+    public TieredDataSource(DataSource persistent) throws DataSourceException
+    {
+        this(persistent, null);
+    }
+
+    public DataSource getPersistent()
+    {
+        return persistent;
+    }
+
+    public <T> int load(Class<T> type) throws DataSourceException
+    {
+        return load(type, persistent.pull(type));
+    }
+
+    // loaded by primary key ranges in parallel if persisted in a plain SQL database
+    public <T> int load(Class<T> type, SupplierWithThrowable<Connection, SQLException> connections, int partitions)
+            throws DataSourceException
+    {
+        if (!(persistent instanceof PlainSQLDatabaseDataSource))
+            return load(type);
+
+        return load(type, ((PlainSQLDatabaseDataSource) persistent).pullParallel(type, connections, partitions));
+    }
+
+    private <T> int load(Class<T> type, Collection<T> objects) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Map<List<Object>, Object> store = storeOf(type);
+
+        lock.writeLock().lock();
+
+        try {
+            for (T object : objects)
+                store.put(keyOf(object, dataObject), object);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return objects.size();
+    }
+
+    private DataObject interpret(Class<?> type) throws DataSourceException
+    {
+        DataObject dataObject;
+
+        try {
+            dataObject = container.interpretIfAbsent(type, interpreter);
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+
+        if (DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Element data object is not allowed in global scope");
+
+        return dataObject;
+    }
+
+    private Map<List<Object>, Object> storeOf(Class<?> type)
+    {
+        return stores.computeIfAbsent(type, (unused) -> new ConcurrentHashMap<>());
+    }
+
+    private static List<Object> keyOf(Object object, DataObject dataObject) throws DataSourceException
+    {
+        List<Object> key = new ArrayList<>();
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+        {
+            if (!valueObject.isKey())
+                continue;
+
+            Object value = valueObject.get(object);
+
+            if (value == null)
+                throw new DataSourceException("Null key \"" + valueObject.getName() + "\"");
+
+            key.add(value);
+        }
+
+        return key;
+    }
+
+    // non-null keys of the probe have to match
+    private static boolean matchesVaguely(Object probe, Object object, DataObject dataObject)
+    {
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+        {
+            if (!valueObject.isKey())
+                continue;
+
+            Object value = valueObject.get(probe);
+
+            if (value != null && !value.equals(valueObject.get(object)))
+                return false;
+        }
+
+        return true;
+    }
+
+    // collections are copied with their entries
+    private void copy(DataObject dataObject, Object from, Object to) throws DataSourceException
+    {
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+        {
+            Object value = valueObject.get(from);
+
+            if (value == null || StructureType.VALUE.equals(valueObject.getStructure()))
+            {
+                valueObject.set(to, copyOf(value, to));
+                continue;
+            }
+
+            Object collection = valueObject.get(to);
+
+            if (collection == null || !valueObject.getConstructor().onlyOnNull()) try {
+                valueObject.set(to, collection = valueObject.getConstructor().newInstance(to));
+            } catch (Exception e) {
+                throw new DataSourceException("Construction failure", e);
+            }
+
+            if (collection instanceof Map)
+            {
+                Map<Object, Object> map = (Map<Object, Object>) collection;
+                map.clear();
+
+                for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet())
+                    map.put(copyOf(entry.getKey(), null), copyOf(entry.getValue(), null));
+            }
+            else
+            {
+                Collection<Object> elements = (Collection<Object>) collection;
+                elements.clear();
+
+                for (Object element : (Collection<Object>) value)
+                    elements.add(copyOf(element, null));
+            }
+        }
+    }
+
+    // elements are copied value by value, arrays and dates are cloned, values of any other type are taken as immutable
+    private Object copyOf(Object value, Object owner) throws DataSourceException
+    {
+        if (value == null)
+            return null;
+
+        Class<?> type = value.getClass();
+
+        if (type.getAnnotation(Element.class) != null)
+        {
+            DataObject element;
+
+            try {
+                element = container.interpretIfAbsent(type, interpreter);
+            } catch (DataObjectInterpretationException e) {
+                throw new DataSourceException(e);
+            }
+
+            Object copy;
+
+            try {
+                copy = element.getConstructor().newInstance(owner);
+            } catch (Exception e) {
+                throw new DataSourceException("Construction failure", e);
+            }
+
+            copy(element, value, copy);
+
+            return copy;
+        }
+
+        if (type.isArray())
+        {
+            int length = Array.getLength(value);
+            Object copy = Array.newInstance(type.getComponentType(), length);
+
+            if (type.getComponentType().isPrimitive())
+                System.arraycopy(value, 0, copy, 0, length);
+            else for (int i = 0; i < length; i++)
+                Array.set(copy, i, copyOf(Array.get(value, i), null));
+
+            return copy;
+        }
+
+        if (value instanceof Date)
+            return ((Date) value).clone();
+
+        return value;
+    }
+
+    private Object snapshot(DataObject dataObject, Object object) throws DataSourceException
+    {
+        Object snapshot;
+
+        try {
+            snapshot = dataObject.getConstructor().newInstance(null);
+        } catch (Exception e) {
+            throw new DataSourceException("Construction failure", e);
+        }
+
+        copy(dataObject, object, snapshot);
+
+        return snapshot;
+    }
+
+    private static <T, X extends Throwable> T construct(SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        try {
+            return constructor.get();
+        } catch (Throwable e) {
+            throw new DataSourceException("Object construction failure", e);
+        }
+    }
+
+    @Override
+    public <T> boolean pull(T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        lock.readLock().lock();
+
+        try {
+            Object stored = storeOf(type).get(keyOf(object, dataObject));
+
+            if (stored == null)
+                return false;
+
+            copy(dataObject, stored, object);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> boolean exists(T object, Class<T> type) throws DataSourceException
+    {
+        return storeOf(type).containsKey(keyOf(object, interpret(type)));
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pull(Class<T> type, SupplierWithThrowable<T, X> constructor) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Collection<T> collection = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            for (Object stored : storeOf(type).values())
+            {
+                T object = construct(constructor);
+                copy(dataObject, stored, object);
+                collection.add(object);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T, X extends Throwable> T pull(Class<T> type, SupplierWithThrowable<T, X> constructor, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection pull from memory tier");
+    }
+
+    @Override
+    public <T, X extends Throwable> Collection<T> pullVaguely(T object, Class<T> type, SupplierWithThrowable<T, X> constructor)
+            throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        Collection<T> collection = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            for (Object stored : storeOf(type).values())
+            {
+                if (!matchesVaguely(object, stored, dataObject))
+                    continue;
+
+                T pulled = construct(constructor);
+                copy(dataObject, stored, pulled);
+                collection.add(pulled);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return collection;
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Object snapshot = snapshot(dataObject, object);
+
+        return of(transaction).enqueue(new Operation(Operation.COMMIT, type, snapshot, keyOf(snapshot, dataObject), dataObject));
+    }
+
+    @Override
+    public <T> Transaction commit(Transaction transaction, T object, Class<T> type, Class<?>... signatures)
+            throws DataSourceException
+    {
+        throw new DataSourceException.UnsupportedOperation("Collection commit into memory tier");
+    }
+
+    @Override
+    public <T> Transaction remove(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+        Object snapshot = snapshot(dataObject, object);
+
+        return of(transaction).enqueue(new Operation(Operation.REMOVE, type, snapshot, keyOf(snapshot, dataObject), dataObject));
+    }
+
+    @Override
+    public <T> Transaction removeVaguely(Transaction transaction, T object, Class<T> type) throws DataSourceException
+    {
+        DataObject dataObject = interpret(type);
+
+        if (!DataObjectType.MULTIPLE.equals(dataObject.getDataObjectType()))
+            throw new DataSourceException("Only multiple data object allowed in this scope");
+
+        return of(transaction).enqueue(new Operation(Operation.REMOVE_VAGUELY, type, snapshot(dataObject, object), null, dataObject));
+    }
+
+    @Override
+    public Transaction clear(Transaction transaction) throws DataSourceException
+    {
+        return of(transaction).enqueue(new Operation(Operation.CLEAR, null, null, null, null));
+    }
+
+    // failures are left to the next flush or close
+    @Override
+    public void waitForTransaction()
+    {
+        await(enqueued.get());
+    }
+
+    private static FileChannel openJournal(Path path) throws DataSourceException
+    {
+        try {
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new DataSourceException("Failed to open journal " + path, e);
+        }
+    }
+
+    // writes journaled by an earlier run are persisted in their order, a torn record at the tail ends the replay
+    private void replay() throws DataSourceException
+    {
+        try {
+            long size = journal.size();
+
+            if (size > Integer.MAX_VALUE)
+                throw new DataSourceException("Journal too large: " + size);
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && journal.read(buffer, buffer.position()) >= 0);
+
+            buffer.flip();
+
+            List<Operation> operations = new ArrayList<>();
+            int offset = 0;
+
+            while (offset + JOURNAL_HEADER <= buffer.limit())
+            {
+                int length = buffer.getInt(offset);
+
+                if (length <= 0 || (long) offset + JOURNAL_HEADER + length > buffer.limit())
+                    break;
+
+                ByteBuffer body = buffer.duplicate();
+                body.position(offset + JOURNAL_HEADER).limit(offset + JOURNAL_HEADER + length);
+
+                CRC32 crc = new CRC32();
+                crc.update(body.duplicate());
+
+                if ((int) crc.getValue() != buffer.getInt(offset + 4))
+                    break;
+
+                operations.add(decode(new BinaryReader(body)));
+                offset += JOURNAL_HEADER + length;
+            }
+
+            for (Operation operation : operations)
+            {
+                Exception failure = persistWithRetries(operation);
+
+                if (failure != null)
+                    throw new DataSourceException("Failed to replay journal", failure);
+            }
+
+            journal.truncate(0);
+        } catch (IOException e) {
+            throw new DataSourceException("Journal failure", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSourceException("Interrupted", e);
+        }
+    }
+
+    private Operation decode(BinaryReader reader) throws DataSourceException
+    {
+        try {
+            int kind = reader.readByte();
+
+            if (kind == Operation.CLEAR)
+                return new Operation(Operation.CLEAR, null, null, null, null);
+
+            Class<Object> type;
+
+            try {
+                type = (Class<Object>) Class.forName(reader.readString(), false, TieredDataSource.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new DataSourceException("Journaled type not found", e);
+            }
+
+            DataObject dataObject = interpret(type);
+            Object object;
+
+            try {
+                object = dataObject.getConstructor().newInstance(null);
+            } catch (Exception e) {
+                throw new DataSourceException("Construction failure", e);
+            }
+
+            codecOf(type).decode(reader, object);
+
+            return new Operation(kind, type, object, null, dataObject);
+        } catch (CodecException e) {
+            throw new DataSourceException("Corrupted journal", e);
+        }
+    }
+
+    private <T> ObjectCodec<T> codecOf(Class<T> type) throws DataSourceException
+    {
+        ObjectCodec<?> codec = codecs.get(type);
+
+        if (codec == null)
+        {
+            try {
+                codec = ObjectCodec.of(type, interpreter, expander, container);
+            } catch (CodecException e) {
+                throw new DataSourceException(e);
+            }
+
+            ObjectCodec<?> existing = codecs.putIfAbsent(type, codec);
+
+            if (existing != null)
+                codec = existing;
+        }
+
+        return (ObjectCodec<T>) codec;
+    }
+
+    // [length][crc32 of the body][kind][type name][encoded object] per operation, forced before the push returns
+    private void journal(List<Operation> operations) throws DataSourceException
+    {
+        BinaryWriter writer = new BinaryWriter();
+
+        try {
+            for (Operation operation : operations)
+            {
+                int header = writer.reserve(JOURNAL_HEADER);
+
+                writer.writeByte(operation.kind);
+
+                if (operation.kind != Operation.CLEAR)
+                {
+                    writer.writeString(operation.type.getName());
+                    codecOf((Class<Object>) operation.type).encode(operation.object, writer);
+                }
+
+                int length = writer.position() - header - JOURNAL_HEADER;
+
+                CRC32 crc = new CRC32();
+                crc.update(writer.array(), header + JOURNAL_HEADER, length);
+
+                ByteBuffer record = ByteBuffer.wrap(writer.array());
+                record.putInt(header, length);
+                record.putInt(header + 4, (int) crc.getValue());
+            }
+        } catch (CodecException e) {
+            throw new DataSourceException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(writer.array(), 0, writer.position());
+
+        try {
+            while (buffer.hasRemaining())
+                journal.write(buffer);
+
+            journal.force(false);
+        } catch (IOException e) {
+            throw new DataSourceException("Journal failure", e);
+        }
+    }
+
+    private TieredTransaction of(Transaction transaction) throws DataSourceException
+    {
+        if (closed)
+            throw new DataSourceException("Closed");
+
+        if (transaction == null)
+            return new TieredTransaction();
+
+        if (!(transaction instanceof TieredTransaction) || ((TieredTransaction) transaction).owner() != this)
+            throw new DataSourceException("Transaction not owned by this data source");
+
+        return (TieredTransaction) transaction;
+    }
+
+    // journals, applies to memory and queues for persistence under the write lock, so all of them see the same order
+    private void apply(List<Operation> operations) throws DataSourceException
+    {
+        lock.writeLock().lock();
+
+        try {
+            if (closed)
+                throw new DataSourceException("Closed");
+
+            if (journal != null)
+                journal(operations);
+
+            for (Operation operation : operations)
+            {
+                switch (operation.kind)
+                {
+                    case Operation.COMMIT:
+                        storeOf(operation.type).put(operation.key, operation.object);
+                        break;
+
+                    case Operation.REMOVE:
+                        storeOf(operation.type).remove(operation.key);
+                        break;
+
+                    case Operation.REMOVE_VAGUELY:
+                        storeOf(operation.type).values().removeIf(
+                                (stored) -> matchesVaguely(operation.object, stored, operation.dataObject));
+                        break;
+
+                    case Operation.CLEAR:
+                        stores.clear();
+                        break;
+                }
+
+                operation.sequence = enqueued.incrementAndGet();
+                operation.enqueuedNanos = System.nanoTime();
+                queue.add(operation);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write()
+    {
+        try {
+            while (true)
+            {
+                Operation operation = queue.take();
+
+                if (operation == Operation.STOP)
+                    return;
+
+                current = operation;
+
+                // retried in place, later writes must not overtake this one until it is given up
+                Exception failure = persistWithRetries(operation);
+
+                current = null;
+
+                if (failure == null)
+                    persistedCount.increment();
+                else
+                {
+                    abandoned.increment();
+                    unreported.compareAndSet(null,
+                            new DataSourceException("Write given up", failure));
+                }
+
+                flushLock.lock();
+
+                try {
+                    persisted = operation.sequence;
+                    flushed.signalAll();
+                } finally {
+                    flushLock.unlock();
+                }
+
+                if (journal != null && operation.sequence == enqueued.get())
+                    truncateJournal(operation.sequence);
+            }
+        } catch (InterruptedException e) {
+            // stopped, the waiters are released below
+        } finally {
+            flushLock.lock();
+
+            try {
+                stopped = true;
+                flushed.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    // null if persisted, otherwise the last failure once the attempts are used up
+    private Exception persistWithRetries(Operation operation) throws InterruptedException
+    {
+        long backoff = MIN_BACKOFF;
+
+        for (int attempt = 1; ; attempt++)
+            try {
+                persist(operation);
+                return null;
+            } catch (Exception e) {
+                failures.increment();
+                lastFailure = e;
+
+                if (attempt >= maxAttempts || e instanceof DataSourceException.UnsupportedOperation) // retrying would not help
+                    return e;
+
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+    }
+
+    // everything journaled is persisted once the queue is drained, so the journal only grows while the writer lags behind
+    private void truncateJournal(long sequence)
+    {
+        lock.writeLock().lock();
+
+        try {
+            if (sequence == enqueued.get())
+                journal.truncate(0);
+        } catch (IOException e) {
+            failures.increment();
+            lastFailure = e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void persist(Operation operation) throws DataSourceException
+    {
+        Transaction transaction;
+
+        switch (operation.kind)
+        {
+            case Operation.COMMIT:
+                transaction = persistent.commit(operation.object, (Class<Object>) operation.type);
+                break;
+
+            case Operation.REMOVE:
+                transaction = persistent.remove(operation.object, (Class<Object>) operation.type);
+                break;
+
+            case Operation.REMOVE_VAGUELY:
+                transaction = persistent.removeVaguely(operation.object, (Class<Object>) operation.type);
+                break;
+
+            case Operation.CLEAR:
+                transaction = persistent.clear();
+                break;
+
+            default:
+                return;
+        }
+
+        // a persistent tier handing back no transaction did not write anything
+        if (transaction == null)
+            throw new DataSourceException.UnsupportedOperation("Persistent tier returned no transaction (Kind: " + operation.kind + ")");
+
+        if (!transaction.push())
+            throw new DataSourceException("Persistence failure", transaction.getLastException().getSilently());
+    }
+
+    // blocks until everything pushed before the call is persisted, then throws the first write given up since the last report
+    public void flush() throws DataSourceException
+    {
+        long target = enqueued.get();
+
+        await(target);
+        report(target);
+    }
+
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException, DataSourceException
+    {
+        long target = enqueued.get();
+        long nanos = unit.toNanos(timeout);
+
+        flushLock.lock();
+
+        try {
+            while (persisted < target && !stopped)
+            {
+                if (nanos <= 0)
+                    return false;
+
+                nanos = flushed.awaitNanos(nanos);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+
+        report(target);
+        return true;
+    }
+
+    private void await(long target)
+    {
+        flushLock.lock();
+
+        try {
+            while (persisted < target && !stopped)
+                flushed.awaitUninterruptibly();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void report(long target) throws DataSourceException
+    {
+        DataSourceException failure = unreported.getAndSet(null);
+
+        if (failure != null)
+            throw failure;
+
+        if (persisted < target)
+            throw new DataSourceException("Writer stopped with " + (target - persisted) + " writes pending");
+    }
+
+    public long getPendingCount()
+    {
+        return enqueued.get() - persisted;
+    }
+
+    // age of the oldest write not yet persisted
+    public long getLagNanos()
+    {
+        Operation oldest = current;
+
+        if (oldest == null)
+            oldest = queue.peek();
+
+        return oldest == null || oldest == Operation.STOP ? 0 : System.nanoTime() - oldest.enqueuedNanos;
+    }
+
+    public long getPersistedCount()
+    {
+        return persistedCount.sum();
+    }
+
+    public long getFailureCount()
+    {
+        return failures.sum();
+    }
+
+    // writes given up after the max attempts, memory is ahead of the persistent tier for their keys
+    public long getAbandonedCount()
+    {
+        return abandoned.sum();
+    }
+
+    public Optional<Exception> getLastFailure()
+    {
+        return Optional.ofNullable(lastFailure);
+    }
+
+    // persists the pending writes before stopping the writer, throws the first write given up since the last report
+    @Override
+    public void close() throws DataSourceException
+    {
+        long target;
+
+        lock.writeLock().lock();
+
+        try {
+            if (closed)
+                return;
+
+            closed = true;
+            target = enqueued.get();
+            queue.add(Operation.STOP);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSourceException("Interrupted", e);
+        }
+
+        if (journal != null)
+            try {
+                journal.close();
+            } catch (IOException e) {
+                throw new DataSourceException("Journal failure", e);
+            }
+
+        report(target);
+    }
+
+    private final DataSource persistent;
+
+    private final DataObjectInterpreter interpreter;
+
+    private final DataObjectExpander expander;
+
+    private final DataObjectContainer container;
+
+    private final int maxAttempts;
+
+    private final FileChannel journal;
+
+    private final Map<Class<?>, ObjectCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    private final Map<Class<?>, Map<List<Object>, Object>> stores = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final BlockingQueue<Operation> queue = new LinkedBlockingQueue<>();
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private volatile long persisted;
+
+    private volatile Operation current;
+
+    private final Lock flushLock = new ReentrantLock();
+
+    private final Condition flushed = flushLock.newCondition();
+
+    private final LongAdder persistedCount = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder abandoned = new LongAdder();
+
+    private volatile Exception lastFailure;
+
+    private final AtomicReference<DataSourceException> unreported = new AtomicReference<>();
+
+    private volatile boolean closed;
+
+    private volatile boolean stopped;
+
+    private final Thread writer;
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    private static final long MIN_BACKOFF = 10;
+
+    private static final long MAX_BACKOFF = 5000;
+
+    private static final int JOURNAL_HEADER = 8;
+
+    // daemon, so a data source never closed doesn't keep the process alive, pending writes are kept by flush, close or the journal
+    private static final ThreadFactory WRITERS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "kraitudao-tiered-writer-" + COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    };
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final class Operation
+    {
+        Operation(int kind, Class<?> type, Object object, List<Object> key, DataObject dataObject)
+        {
+            this.kind = kind;
+            this.type = type;
+            this.object = object;
+            this.key = key;
+            this.dataObject = dataObject;
+        }
+
+        final int kind;
+
+        final Class<?> type;
+
+        final Object object;
+
+        final List<Object> key;
+
+        final DataObject dataObject;
+
+        long sequence;
+
+        long enqueuedNanos;
+
+        static final int COMMIT = 0;
+
+        static final int REMOVE = 1;
+
+        static final int REMOVE_VAGUELY = 2;
+
+        static final int CLEAR = 3;
+
+        static final Operation STOP = new Operation(-1, null, null, null, null);
+    }
+
+    private class TieredTransaction implements Transaction
+    {
+        TieredDataSource owner()
+        {
+            return TieredDataSource.this;
+        }
+
+        TieredTransaction enqueue(Operation operation)
+        {
+            operations.add(operation);
+            return this;
+        }
+
+        @Override
+        public boolean push() throws DataSourceException
+        {
+            if (closed)
+            {
+                lastException = new DataSourceException("Closed");
+                return false;
+            }
+
+            List<Operation> pushing = new ArrayList<>();
+
+            Operation operation;
+            while ((operation = operations.poll()) != null)
+                pushing.add(operation);
+
+            try {
+                apply(pushing);
+            } catch (DataSourceException e) {
+                lastException = e;
+                return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            operations.clear();
+            return true;
+        }
+
+        @Override
+        public Optional<Exception> getLastException()
+        {
+            return Optional.ofNullable(lastException);
+        }
+
+        private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+
+        private volatile Exception lastException;
+    }
+}
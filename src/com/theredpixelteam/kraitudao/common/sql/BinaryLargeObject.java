@@ -0,0 +1,93 @@
+/*
+ * BinaryLargeObject.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.Objects;
+
+// a BLOB read lazily, only valid as long as the database keeps the underlying blob (usually the transaction)
+public final class BinaryLargeObject {
+    private BinaryLargeObject(Blob blob)
+    {
+        this.blob = blob;
+    }
+
+    public static BinaryLargeObject of(Blob blob)
+    {
+        return new BinaryLargeObject(Objects.requireNonNull(blob, "blob"));
+    }
+
+    public long length() throws SQLException
+    {
+        byte[] bytes = this.bytes;
+
+        if (bytes != null)
+            return bytes.length;
+
+        return blob.length();
+    }
+
+    public InputStream openStream() throws SQLException
+    {
+        byte[] bytes = this.bytes;
+
+        if (bytes != null)
+            return new ByteArrayInputStream(bytes);
+
+        return blob.getBinaryStream();
+    }
+
+    // materialized once, the array is shared
+    public byte[] toByteArray() throws SQLException
+    {
+        byte[] bytes = this.bytes;
+
+        if (bytes == null)
+        {
+            long length = blob.length();
+
+            if (length > Integer.MAX_VALUE)
+                throw new SQLException("BLOB too large to be materialized: " + length + " bytes");
+
+            this.bytes = bytes = blob.getBytes(1, (int) length);
+        }
+
+        return bytes;
+    }
+
+    public boolean isMaterialized()
+    {
+        return bytes != null;
+    }
+
+    public void free() throws SQLException
+    {
+        blob.free();
+    }
+
+    private final Blob blob;
+
+    private volatile byte[] bytes;
+}
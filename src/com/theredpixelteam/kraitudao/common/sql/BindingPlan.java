@@ -0,0 +1,327 @@
+/*
+ * BindingPlan.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import com.theredpixelteam.kraitudao.dataobject.ValueObject;
+import com.theredpixelteam.redtea.util.Pair;
+
+import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+// columns bound straight from the accessors, with the applier of every column resolved up front
+public final class BindingPlan {
+    private BindingPlan(ValueObject[] valueObjects, String[] columns, Node[] nodes, DataArgumentWrapper wrapper)
+    {
+        this.valueObjects = valueObjects;
+        this.columns = columns;
+        this.nodes = nodes;
+        this.expanded = nodes.length != columns.length;
+        this.wrapper = wrapper;
+    }
+
+    // keys are required to be non-null
+    public static BindingPlan of(Collection<ValueObject> valueObjects, DataArgumentWrapper wrapper) throws SQLException
+    {
+        Builder builder = builder(wrapper);
+
+        for (ValueObject valueObject : valueObjects)
+            builder.bind(ROOT, valueObject.getName(), valueObject);
+
+        return builder.build();
+    }
+
+    public static Builder builder(DataArgumentWrapper wrapper)
+    {
+        return new Builder(Objects.requireNonNull(wrapper, "wrapper"));
+    }
+
+    public String[] getColumns()
+    {
+        return columns.clone();
+    }
+
+    String[] columns()
+    {
+        return columns;
+    }
+
+    public ValueObject[] getValueObjects()
+    {
+        return valueObjects.clone();
+    }
+
+    public int size()
+    {
+        return columns.length;
+    }
+
+    public DataArgumentWrapper getWrapper()
+    {
+        return wrapper;
+    }
+
+    // returns the index following the last bound parameter
+    public int bind(PreparedStatement preparedStatement, int index, Object object) throws SQLException
+    {
+        Object[] owners = owners();
+
+        for (int i = 0; i < nodes.length; i++)
+        {
+            Node node = nodes[i];
+            Object value = node.valueOf(node.parent == ROOT ? object : owners[node.parent]);
+
+            if (!node.bound)
+                owners[i] = value;
+            else if (value == null)
+                preparedStatement.setNull(index++, node.nullType);
+            else
+                node.applierOf(value.getClass(), wrapper).apply(preparedStatement, index++, value);
+        }
+
+        return index;
+    }
+
+    // for manipulators only accepting wrapped arguments
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Pair<String, DataArgument>[] wrap(Object object) throws SQLException
+    {
+        Pair<String, DataArgument>[] arguments = new Pair[columns.length];
+        Object[] owners = owners();
+
+        for (int i = 0, column = 0; i < nodes.length; i++)
+        {
+            Node node = nodes[i];
+            Object value = node.valueOf(node.parent == ROOT ? object : owners[node.parent]);
+
+            if (!node.bound)
+            {
+                owners[i] = value;
+                continue;
+            }
+
+            DataArgumentApplier applier = value == null ? null : node.applierOf(value.getClass(), wrapper);
+            int nullType = node.nullType;
+
+            arguments[column] = Pair.of(columns[column], new DataArgument() {
+                @Override
+                public void apply(PreparedStatement preparedStatement, int index) throws SQLException
+                {
+                    if (applier == null)
+                        preparedStatement.setNull(index, nullType);
+                    else
+                        applier.apply(preparedStatement, index, value);
+                }
+
+                @Override
+                public Object getValue()
+                {
+                    return value;
+                }
+            });
+
+            column++;
+        }
+
+        return arguments;
+    }
+
+    // values of the expanded nodes while binding, flat plans need none
+    private Object[] owners()
+    {
+        return expanded ? new Object[nodes.length] : null;
+    }
+
+    private final ValueObject[] valueObjects;
+
+    private final String[] columns;
+
+    private final Node[] nodes;
+
+    private final boolean expanded;
+
+    private final DataArgumentWrapper wrapper;
+
+    // parent of the values read from the bound object itself
+    public static final int ROOT = -1;
+
+    private static final String SQLSTATE_NOT_NULL = "23502";
+
+    public static interface Encoder
+    {
+        Object encode(Object value) throws SQLException;
+    }
+
+    // nodes are added parents first, the values of a null parent are bound as null without being checked
+    public static final class Builder
+    {
+        private Builder(DataArgumentWrapper wrapper)
+        {
+            this.wrapper = wrapper;
+        }
+
+        // returns the parent of the values read from the value of the value object
+        public int expand(int parent, ValueObject valueObject)
+        {
+            checkParent(parent);
+
+            nodes.add(new Node(valueObject, parent, false, null, Types.NULL, null, false));
+
+            return nodes.size() - 1;
+        }
+
+        public Builder bind(int parent, String column, ValueObject valueObject) throws SQLException
+        {
+            Class<?> type = valueObject.getType();
+            boolean exact = type.isPrimitive() || Modifier.isFinal(type.getModifiers());
+
+            return bind(parent, column, valueObject, type, exact, Types.NULL, null);
+        }
+
+        // the encoded values are all of the given type
+        public Builder bind(int parent, String column, ValueObject valueObject, Class<?> encodedType, int nullType, Encoder encoder)
+                throws SQLException
+        {
+            return bind(parent, column, valueObject, encodedType, true, nullType, Objects.requireNonNull(encoder, "encoder"));
+        }
+
+        private Builder bind(int parent, String column, ValueObject valueObject, Class<?> type, boolean exact, int nullType, Encoder encoder)
+                throws SQLException
+        {
+            checkParent(parent);
+
+            DataArgumentApplier applier = wrapper.applierOf(type).orElse(null);
+
+            // values of other declared types may still be of a supported subtype
+            if (applier == null && exact)
+                throw new SQLException("Unsupported value type: " + type.getCanonicalName());
+
+            nodes.add(new Node(valueObject, parent, true, new Resolved(type, applier), nullType, encoder, exact));
+            valueObjects.add(valueObject);
+            columns.add(Objects.requireNonNull(column, "column"));
+
+            return this;
+        }
+
+        public BindingPlan build()
+        {
+            return new BindingPlan(valueObjects.toArray(new ValueObject[0]), columns.toArray(new String[0]),
+                    nodes.toArray(new Node[0]), wrapper);
+        }
+
+        private void checkParent(int parent)
+        {
+            if (parent != ROOT && (parent < 0 || parent >= nodes.size() || nodes.get(parent).bound))
+                throw new IllegalArgumentException("Not an expanded node: " + parent);
+        }
+
+        private final DataArgumentWrapper wrapper;
+
+        private final List<Node> nodes = new ArrayList<>();
+
+        private final List<ValueObject> valueObjects = new ArrayList<>();
+
+        private final List<String> columns = new ArrayList<>();
+    }
+
+    private static final class Node
+    {
+        Node(ValueObject valueObject, int parent, boolean bound, Resolved declared, int nullType, Encoder encoder, boolean exact)
+        {
+            this.valueObject = valueObject;
+            this.parent = parent;
+            this.bound = bound;
+            this.resolved = declared;
+            this.nullType = nullType;
+            this.encoder = encoder;
+            this.exact = exact;
+        }
+
+        // null for a null owner, encoded for the bound nodes
+        Object valueOf(Object owner) throws SQLException
+        {
+            if (owner == null)
+                return null;
+
+            Object value = valueObject.get(owner);
+
+            if (value == null)
+            {
+                if (valueObject.isKey())
+                    throw new SQLException("Null key \"" + valueObject.getName() + "\"", SQLSTATE_NOT_NULL);
+                else if (valueObject.isNotNull())
+                    throw new SQLException("@NotNull declared but null value presented (Name: " + valueObject.getName() + ")",
+                            SQLSTATE_NOT_NULL);
+
+                return null;
+            }
+
+            return encoder == null ? value : encoder.encode(value);
+        }
+
+        // subtypes of a non-final declared type are resolved on first sight and kept until the next one
+        DataArgumentApplier applierOf(Class<?> type, DataArgumentWrapper wrapper) throws SQLException
+        {
+            Resolved resolved = this.resolved;
+
+            if (!exact && resolved.type != type)
+                this.resolved = resolved = new Resolved(type, wrapper.applierOf(type).orElse(null));
+
+            if (resolved.applier == null)
+                throw new SQLException("Unsupported value type: " + type.getCanonicalName());
+
+            return resolved.applier;
+        }
+
+        final ValueObject valueObject;
+
+        final int parent;
+
+        final boolean bound;
+
+        final int nullType;
+
+        final Encoder encoder;
+
+        final boolean exact;
+
+        Resolved resolved;
+    }
+
+    private static final class Resolved
+    {
+        Resolved(Class<?> type, DataArgumentApplier applier)
+        {
+            this.type = type;
+            this.applier = applier;
+        }
+
+        final Class<?> type;
+
+        final DataArgumentApplier applier;
+    }
+}
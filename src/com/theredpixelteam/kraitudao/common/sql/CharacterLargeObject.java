@@ -0,0 +1,93 @@
+/*
+ * CharacterLargeObject.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.Objects;
+
+// a CLOB read lazily, only valid as long as the database keeps the underlying clob (usually the transaction)
+public final class CharacterLargeObject {
+    private CharacterLargeObject(Clob clob)
+    {
+        this.clob = clob;
+    }
+
+    public static CharacterLargeObject of(Clob clob)
+    {
+        return new CharacterLargeObject(Objects.requireNonNull(clob, "clob"));
+    }
+
+    public long length() throws SQLException
+    {
+        String string = this.string;
+
+        if (string != null)
+            return string.length();
+
+        return clob.length();
+    }
+
+    public Reader openReader() throws SQLException
+    {
+        String string = this.string;
+
+        if (string != null)
+            return new StringReader(string);
+
+        return clob.getCharacterStream();
+    }
+
+    // materialized once
+    public String asString() throws SQLException
+    {
+        String string = this.string;
+
+        if (string == null)
+        {
+            long length = clob.length();
+
+            if (length > Integer.MAX_VALUE)
+                throw new SQLException("CLOB too large to be materialized: " + length + " characters");
+
+            this.string = string = clob.getSubString(1, (int) length);
+        }
+
+        return string;
+    }
+
+    public boolean isMaterialized()
+    {
+        return string != null;
+    }
+
+    public void free() throws SQLException
+    {
+        clob.free();
+    }
+
+    private final Clob clob;
+
+    private volatile String string;
+}
@@ -23,6 +23,16 @@ package com.theredpixelteam.kraitudao.common.sql;
 
 import com.theredpixelteam.redtea.util.Optional;
 
+import java.sql.SQLException;
+
 public interface DataArgumentWrapper {
     public Optional<DataArgument> wrap(Object object);
+
+    // resolved once per type by binding plans, the default goes through wrap for every value
+    public default Optional<DataArgumentApplier> applierOf(Class<?> type)
+    {
+        return Optional.of((preparedStatement, index, value) -> wrap(value)
+                .orElseThrow(() -> new SQLException("Unsupported value type: " + value.getClass().getCanonicalName()))
+                .apply(preparedStatement, index));
+    }
 }
@@ -21,14 +21,27 @@
 
 package com.theredpixelteam.kraitudao.common.sql;
 
+import com.theredpixelteam.kraitudao.criteria.Aggregate;
+import com.theredpixelteam.kraitudao.criteria.Criteria;
 import com.theredpixelteam.redtea.util.Pair;
 import com.theredpixelteam.redtea.util.Vector3;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLType;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 public interface DatabaseManipulator {
     public ResultSet query(Connection connection, String tableName, Pair<String, DataArgument>[] keys, String[] values)
@@ -37,6 +50,30 @@ public interface DatabaseManipulator {
     public ResultSet queryTop(Connection connection, String tableName, Pair<String, DataArgument>[] keys, String values[], int limit)
             throws SQLException;
 
+    public ResultSet query(Connection connection, String tableName, String[] values, Criteria<?> criteria, DataArgument[] arguments)
+            throws SQLException;
+
+    public long count(Connection connection, String tableName, Criteria<?> criteria, DataArgument[] arguments)
+            throws SQLException;
+
+    public boolean exists(Connection connection, String tableName, Pair<String, DataArgument>[] keys)
+            throws SQLException;
+
+    public default ResultSet query(Connection connection, String tableName, BindingPlan keys, Object object, String[] values)
+            throws SQLException
+    {
+        return query(connection, tableName, keys.wrap(object), values);
+    }
+
+    public default boolean exists(Connection connection, String tableName, BindingPlan keys, Object object)
+            throws SQLException
+    {
+        return exists(connection, tableName, keys.wrap(object));
+    }
+
+    public ResultSet aggregate(Connection connection, String tableName, Aggregate aggregate, String column, Criteria<?> criteria, DataArgument[] arguments)
+            throws SQLException;
+
     public default Collection<String> queryTables(Connection connection) throws SQLException
     {
         return queryTables(connection, null);
@@ -48,15 +85,36 @@ public interface DatabaseManipulator {
     public int delete(Connection connection, String tableName, Pair<String, DataArgument>[] keysAndValues)
             throws SQLException;
 
+    public default int delete(Connection connection, String tableName, BindingPlan keys, Object object)
+            throws SQLException
+    {
+        return delete(connection, tableName, keys.wrap(object));
+    }
+
     public int insert(Connection connection, String tableName, Pair<String, DataArgument>[] values)
             throws SQLException;
 
+    public default int insert(Connection connection, String tableName, BindingPlan values, Object object)
+            throws SQLException
+    {
+        return insert(connection, tableName, values.wrap(object));
+    }
+
     public void createTable(Connection connection, String tableName, Vector3<String, Class<?>, Constraint[]>[] columns, Constraint[] tableConstraints)
             throws SQLException;
 
     public boolean createTableIfNotExists(Connection connection, String tableName, Vector3<String, Class<?>, Constraint[]>[] columns, Constraint[] tableConstraints)
             throws SQLException;
 
+    public void createIndex(Connection connection, String tableName, Index[] indexes)
+            throws SQLException;
+
+    public boolean createIndexIfNotExists(Connection connection, String tableName, Index[] indexes)
+            throws SQLException;
+
+    public Collection<String> queryIndexes(Connection connection, String tableName)
+            throws SQLException;
+
     public void cleanTable(Connection connection, String... tableNames)
             throws SQLException;
 
@@ -67,4 +125,103 @@ public interface DatabaseManipulator {
             throws SQLException;
 
     public boolean supportType(Class<?> type);
+
+    // forward-only read of a whole table, ordered if any columns are given
+    public default ResultSet scan(Connection connection, String tableName, String[] orderBy, int fetchSize)
+            throws SQLException
+    {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(fetchSize);
+
+        return new ResultSetFromDisposableStatement(statement.executeQuery("SELECT * FROM " + tableName
+                + (orderBy == null || orderBy.length == 0 ? "" : " ORDER BY " + String.join(",", orderBy))));
+    }
+
+    public default String[] queryPrimaryKey(Connection connection, String tableName) throws SQLException
+    {
+        DatabaseMetaData metadata = connection.getMetaData();
+        TreeMap<Short, String> columns = new TreeMap<>();
+
+        // unquoted identifiers are stored in upper case by most databases
+        for (String name : new String[] {tableName, tableName.toUpperCase()})
+        {
+            try (ResultSet resultSet = metadata.getPrimaryKeys(null, null, name)) {
+                while (resultSet.next())
+                    columns.put(resultSet.getShort("KEY_SEQ"), resultSet.getString("COLUMN_NAME"));
+            }
+
+            if (!columns.isEmpty())
+                break;
+        }
+
+        return columns.values().toArray(new String[0]);
+    }
+
+    // plain insert for batched loading, parameters in the order of the columns
+    public default PreparedStatement prepareInsert(Connection connection, String tableName, String[] columns)
+            throws SQLException
+    {
+        List<String> arguments = new ArrayList<>(columns.length);
+
+        for (int i = 0; i < columns.length; i++)
+            arguments.add("?");
+
+        return connection.prepareStatement("INSERT INTO " + tableName
+                + " (" + String.join(",", columns) + ") VALUES (" + String.join(",", arguments) + ")");
+    }
+
+    public default void renameTable(Connection connection, String from, String to) throws SQLException
+    {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + from + " RENAME TO " + to);
+        }
+    }
+
+    // secondary indexes in their column order, the index of the primary key left out
+    public default Collection<Index> describeIndexes(Connection connection, String tableName) throws SQLException
+    {
+        DatabaseMetaData metadata = connection.getMetaData();
+        Map<String, TreeMap<Short, String>> columns = new LinkedHashMap<>();
+        Set<String> unique = new HashSet<>();
+
+        // unquoted identifiers are stored in upper case by most databases
+        for (String name : new String[] {tableName, tableName.toUpperCase()})
+        {
+            try (ResultSet resultSet = metadata.getIndexInfo(null, null, name, false, true)) {
+                while (resultSet.next())
+                {
+                    String indexName = resultSet.getString("INDEX_NAME");
+                    String columnName = resultSet.getString("COLUMN_NAME");
+
+                    if (indexName == null || columnName == null)
+                        continue;
+
+                    columns.computeIfAbsent(indexName, (key) -> new TreeMap<>())
+                            .put(resultSet.getShort("ORDINAL_POSITION"), columnName);
+
+                    if (!resultSet.getBoolean("NON_UNIQUE"))
+                        unique.add(indexName);
+                }
+            }
+
+            if (!columns.isEmpty())
+                break;
+        }
+
+        List<String> primaryKey = Arrays.asList(queryPrimaryKey(connection, tableName));
+        Collection<Index> indexes = new ArrayList<>();
+
+        for (Map.Entry<String, TreeMap<Short, String>> entry : columns.entrySet())
+        {
+            String[] indexColumns = entry.getValue().values().toArray(new String[0]);
+            boolean isUnique = unique.contains(entry.getKey());
+
+            if (isUnique && Arrays.asList(indexColumns).equals(primaryKey))
+                continue;
+
+            indexes.add(isUnique ? Index.ofUnique(indexColumns) : Index.of(indexColumns));
+        }
+
+        return indexes;
+    }
 }
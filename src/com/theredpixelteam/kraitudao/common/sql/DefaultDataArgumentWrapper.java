@@ -21,55 +21,48 @@
 
 package com.theredpixelteam.kraitudao.common.sql;
 
-import com.theredpixelteam.kraitudao.misc.Misc;
 import com.theredpixelteam.redtea.util.Optional;
 
-import java.io.InputStream;
-import java.io.Reader;
-import java.math.BigDecimal;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.Objects;
 
 public class DefaultDataArgumentWrapper implements DataArgumentWrapper {
+    public DefaultDataArgumentWrapper()
+    {
+        this(TypeConverterRegistry.getDefault());
+    }
+
+    public DefaultDataArgumentWrapper(TypeConverterRegistry registry)
+    {
+        this.registry = Objects.requireNonNull(registry, "registry");
+    }
+
     @Override
     public Optional<DataArgument> wrap(Object object)
     {
-        DataArgumentApplier applier;
+        TypeConverter converter = registry.resolve(object.getClass());
 
-        Class<?> t = Misc.tryToUnbox(object.getClass());
+        if (converter == null)
+            return Optional.empty();
 
-        BLOCK: {
-            do {
-                if((applier = MAPPED.get(t)) != null)
-                    break BLOCK;
-            } while((t = t.getSuperclass()) != null);
+        return Optional.of(new DataArgumentImpl(object, converter));
+    }
 
-            return Optional.empty();
-        }
+    @Override
+    public Optional<DataArgumentApplier> applierOf(Class<?> type)
+    {
+        return Optional.ofNullable(registry.resolve(type));
+    }
 
-        return Optional.of(new DataArgumentImpl(object, applier));
+    public TypeConverterRegistry getRegistry()
+    {
+        return registry;
     }
 
-    public static final DefaultDataArgumentWrapper INSTANCE = new DefaultDataArgumentWrapper();
+    protected final TypeConverterRegistry registry;
 
-    protected static final Map<Class<?>, DataArgumentApplier> MAPPED = new HashMap<Class<?>, DataArgumentApplier>() {
-        {
-            put(boolean.class,      (p, i, v) -> p.setBoolean(i, (Boolean) v));
-            put(byte.class,         (p, i, v) -> p.setByte(i, (Byte) v));
-            put(char.class,         (p, i, v) -> p.setNCharacterStream(i, new SingletonReader((Character) v), 1));
-            put(short.class,        (p, i, v) -> p.setShort(i, (Short) v));
-            put(int.class,          (p, i, v) -> p.setInt(i, (Integer) v));
-            put(long.class,         (p, i, v) -> p.setLong(i, (Long) v));
-            put(float.class,        (p, i, v) -> p.setFloat(i, (Float) v));
-            put(double.class,       (p, i, v) -> p.setDouble(i, (Double) v));
-            put(String.class,       (p, i, v) -> p.setNString(i, (String) v));
-            put(BigDecimal.class,   (p, i, v) -> p.setBigDecimal(i, (BigDecimal) v));
-            put(UUID.class,         (p, i, v) -> p.setString(i, v.toString()));
-        }
-    };
+    public static final DefaultDataArgumentWrapper INSTANCE = new DefaultDataArgumentWrapper();
 
     private static class DataArgumentImpl implements DataArgument
     {
@@ -95,59 +88,4 @@ public class DefaultDataArgumentWrapper implements DataArgumentWrapper {
 
         private final Object value;
     }
-
-    private static interface DataArgumentApplier
-    {
-        public void apply(PreparedStatement preparedStatement, int index, Object value) throws SQLException;
-    }
-
-    private static class SingletonInputStream extends InputStream
-    {
-        SingletonInputStream(byte b)
-        {
-            this.b = b;
-        }
-
-        @Override
-        public int read()
-        {
-            if(readed)
-                return -1;
-
-            readed = true;
-            return b;
-        }
-
-        private volatile boolean readed;
-
-        private final byte b;
-    }
-
-    private static class SingletonReader extends Reader
-    {
-        SingletonReader(char c)
-        {
-            this.c = c;
-        }
-
-        @Override
-        public int read(char[] cbuf, int off, int len)
-        {
-            if(readed)
-                return -1;
-
-            readed = true;
-            cbuf[0] = c;
-            return 1;
-        }
-
-        @Override
-        public void close()
-        {
-        }
-
-        private volatile boolean readed;
-
-        private final char c;
-    }
 }
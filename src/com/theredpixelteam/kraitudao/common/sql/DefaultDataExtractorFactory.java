@@ -21,25 +21,25 @@
 
 package com.theredpixelteam.kraitudao.common.sql;
 
-import com.theredpixelteam.kraitudao.DataSourceError;
-import com.theredpixelteam.kraitudao.misc.Misc;
 import com.theredpixelteam.redtea.util.Optional;
 
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.Reader;
-import java.math.BigDecimal;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.Objects;
 
 public class DefaultDataExtractorFactory implements DataExtractorFactory {
+    public DefaultDataExtractorFactory()
+    {
+        this(TypeConverterRegistry.getDefault());
+    }
+
+    public DefaultDataExtractorFactory(TypeConverterRegistry registry)
+    {
+        this.registry = Objects.requireNonNull(registry, "registry");
+    }
+
     @Override
     public Optional<DataExtractor> create(Class<?> type, String columnName)
     {
-        DirectableDataExtractor directableDataExtractor = MAPPED.get(Misc.tryToUnbox(type));
+        DirectableDataExtractor directableDataExtractor = registry.resolve(type);
 
         if(directableDataExtractor == null)
             return Optional.empty();
@@ -50,7 +50,7 @@ public class DefaultDataExtractorFactory implements DataExtractorFactory {
     @Override
     public Optional<DataExtractor> create(Class<?> type, int columnIndex)
     {
-        DirectableDataExtractor directableDataExtractor = MAPPED.get(Misc.tryToUnbox(type));
+        DirectableDataExtractor directableDataExtractor = registry.resolve(type);
 
         if(directableDataExtractor == null)
             return Optional.empty();
@@ -58,41 +58,12 @@ public class DefaultDataExtractorFactory implements DataExtractorFactory {
         return Optional.of(resultSet -> directableDataExtractor.extract(resultSet, null, columnIndex, true));
     }
 
-    private static char readSilently(Reader reader)
+    public TypeConverterRegistry getRegistry()
     {
-        try {
-            int i = reader.read();
-
-            if(i < 0)
-                throw new EOFException();
-
-            return (char) i;
-        } catch (IOException e) {
-            throw new DataSourceError(e);
-        }
+        return registry;
     }
 
-    public static final DefaultDataExtractorFactory INSTANCE = new DefaultDataExtractorFactory();
-
-    private static final Map<Class<?>, DirectableDataExtractor> MAPPED = new HashMap<Class<?>, DirectableDataExtractor>()
-    {
-        {
-            put(boolean.class,      (r, n, i, u) -> u ? r.getBoolean(i) : r.getBoolean(n));
-            put(byte.class,         (r, n, i, u) -> u ? r.getByte(i) : r.getByte(n));
-            put(char.class,         (r, n, i, u) -> readSilently(u ? r.getNCharacterStream(i) : r.getNCharacterStream(n)));
-            put(short.class,        (r, n, i, u) -> u ? r.getShort(i) : r.getShort(n));
-            put(int.class,          (r, n, i, u) -> u ? r.getInt(i) : r.getInt(n));
-            put(long.class,         (r, n, i, u) -> u ? r.getLong(i) : r.getLong(n));
-            put(float.class,        (r, n, i, u) -> u ? r.getFloat(i) : r.getFloat(n));
-            put(double.class,       (r, n, i, u) -> u ? r.getDouble(i) : r.getDouble(n));
-            put(String.class,       (r, n, i, u) -> u ? r.getNString(i) : r.getNString(n));
-            put(BigDecimal.class,   (r, n, i, u) -> u ? r.getBigDecimal(i) : r.getBigDecimal(n));
-            put(UUID.class,         (r, n, i, u) -> UUID.fromString(u ? r.getString(i) : r.getString(n)));
-        }
-    };
+    protected final TypeConverterRegistry registry;
 
-    private static interface DirectableDataExtractor
-    {
-        Object extract(ResultSet resultSet, String name, int index, boolean usingIndex) throws SQLException;
-    }
+    public static final DefaultDataExtractorFactory INSTANCE = new DefaultDataExtractorFactory();
 }
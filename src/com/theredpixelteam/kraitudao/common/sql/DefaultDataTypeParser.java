@@ -22,44 +22,43 @@
 package com.theredpixelteam.kraitudao.common.sql;
 
 import com.theredpixelteam.kraitudao.DataSourceError;
-import com.theredpixelteam.kraitudao.misc.Misc;
 
-import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Objects;
 
 public class DefaultDataTypeParser implements DataTypeParser {
+    public DefaultDataTypeParser()
+    {
+        this(TypeConverterRegistry.getDefault());
+    }
+
+    public DefaultDataTypeParser(TypeConverterRegistry registry)
+    {
+        this.registry = Objects.requireNonNull(registry, "registry");
+    }
+
     @Override
     public String parseType(Class<?> dataType)
     {
-        String type = MAPPING.get(Misc.tryToUnbox(dataType));
+        TypeConverter converter = registry.resolve(dataType);
 
-        if(type == null)
+        if(converter == null)
             throw new DataSourceError("Unsupported type: " + dataType.getCanonicalName());
 
-        return type;
+        return converter.getSqlType();
     }
 
     @Override
     public boolean supportType(Class<?> dataType)
     {
-        return MAPPING.containsKey(Misc.tryToUnbox(dataType));
+        return registry.supports(dataType);
+    }
+
+    public TypeConverterRegistry getRegistry()
+    {
+        return registry;
     }
 
-    private static final Map<Class<?>, String> MAPPING = new HashMap<Class<?>, String>() {
-        {
-            put(boolean.class,      "BIT");
-            put(byte.class,         "TINYINT");
-            put(char.class,         "NCHAR(1)");
-            put(short.class,        "SMALLINT");
-            put(int.class,          "INTEGER");
-            put(long.class,         "BIGINT");
-            put(float.class,        "REAL");
-            put(double.class,       "DOUBLE");
-            put(String.class,       "NVARCHAR");
-            put(BigDecimal.class,   "DECIMAL");
-        }
-    };
+    protected final TypeConverterRegistry registry;
 
     public static final DefaultDataTypeParser INSTANCE = new DefaultDataTypeParser();
 }
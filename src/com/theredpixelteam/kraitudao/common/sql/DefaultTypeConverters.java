@@ -0,0 +1,397 @@
+/*
+ * DefaultTypeConverters.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import com.theredpixelteam.kraitudao.DataSourceError;
+import com.theredpixelteam.kraitudao.codec.CodecException;
+import com.theredpixelteam.kraitudao.codec.CompressedText;
+import com.theredpixelteam.kraitudao.codec.Compression;
+import com.theredpixelteam.kraitudao.codec.PackedArrays;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+final class DefaultTypeConverters {
+    private DefaultTypeConverters()
+    {
+    }
+
+    static TypeConverterRegistry registerAll(TypeConverterRegistry registry)
+    {
+        //               Type                  |  SQL type                  |  Binding                                                  |  Extraction
+        registry.register(boolean.class,        "BIT",                      (p, i, v) -> p.setBoolean(i, (Boolean) v),                  (r, n, i, u) -> u ? r.getBoolean(i) : r.getBoolean(n));
+        registry.register(byte.class,           "TINYINT",                  (p, i, v) -> p.setByte(i, (Byte) v),                        (r, n, i, u) -> u ? r.getByte(i) : r.getByte(n));
+        registry.register(char.class,           "NCHAR(1)",                 (p, i, v) -> p.setNString(i, characterOf((Character) v)),   (r, n, i, u) -> readSilently(u ? r.getNCharacterStream(i) : r.getNCharacterStream(n)));
+        registry.register(short.class,          "SMALLINT",                 (p, i, v) -> p.setShort(i, (Short) v),                      (r, n, i, u) -> u ? r.getShort(i) : r.getShort(n));
+        registry.register(int.class,            "INTEGER",                  (p, i, v) -> p.setInt(i, (Integer) v),                      (r, n, i, u) -> u ? r.getInt(i) : r.getInt(n));
+        registry.register(long.class,           "BIGINT",                   (p, i, v) -> p.setLong(i, (Long) v),                        (r, n, i, u) -> u ? r.getLong(i) : r.getLong(n));
+        registry.register(float.class,          "REAL",                     (p, i, v) -> p.setFloat(i, (Float) v),                      (r, n, i, u) -> u ? r.getFloat(i) : r.getFloat(n));
+        registry.register(double.class,         "DOUBLE",                   (p, i, v) -> p.setDouble(i, (Double) v),                    (r, n, i, u) -> u ? r.getDouble(i) : r.getDouble(n));
+        registry.register(String.class,         "NVARCHAR",                 (p, i, v) -> p.setNString(i, (String) v),                   (r, n, i, u) -> u ? r.getNString(i) : r.getNString(n));
+        registry.register(BigDecimal.class,     "DECIMAL",                  (p, i, v) -> p.setBigDecimal(i, (BigDecimal) v),            (r, n, i, u) -> u ? r.getBigDecimal(i) : r.getBigDecimal(n));
+        registry.register(UUID.class,           "UUID",                     (p, i, v) -> p.setObject(i, v),                             (r, n, i, u) -> u ? r.getObject(i, UUID.class) : r.getObject(n, UUID.class));
+        registry.register(Instant.class,        "TIMESTAMP(9) WITH TIME ZONE", (p, i, v) -> p.setObject(i, ((Instant) v).atOffset(ZoneOffset.UTC)),
+                                                                                                                                        (r, n, i, u) -> instantOf(u ? r.getObject(i, OffsetDateTime.class) : r.getObject(n, OffsetDateTime.class)));
+        registry.register(LocalDateTime.class,  "TIMESTAMP(9)",             (p, i, v) -> p.setObject(i, v),                             (r, n, i, u) -> u ? r.getObject(i, LocalDateTime.class) : r.getObject(n, LocalDateTime.class));
+        registry.register(Duration.class,       "BIGINT",                   (p, i, v) -> p.setLong(i, nanosOf((Duration) v)),           (r, n, i, u) -> durationOf(u ? r.getLong(i) : r.getLong(n), r.wasNull()));
+        registry.register(Enum.class,           new EnumConverter(null));
+
+        registry.register(byte[].class,         "BLOB",                     (p, i, v) -> p.setBytes(i, (byte[]) v),                     (r, n, i, u) -> u ? r.getBytes(i) : r.getBytes(n));
+        registry.register(short[].class,        "VARBINARY",                (p, i, v) -> p.setBytes(i, pack(v)),                        (r, n, i, u) -> unpack(u ? r.getBytes(i) : r.getBytes(n), short[].class));
+        registry.register(int[].class,          "VARBINARY",                (p, i, v) -> p.setBytes(i, pack(v)),                        (r, n, i, u) -> unpack(u ? r.getBytes(i) : r.getBytes(n), int[].class));
+        registry.register(long[].class,         "VARBINARY",                (p, i, v) -> p.setBytes(i, pack(v)),                        (r, n, i, u) -> unpack(u ? r.getBytes(i) : r.getBytes(n), long[].class));
+        registry.register(float[].class,        "VARBINARY",                (p, i, v) -> p.setBytes(i, pack(v)),                        (r, n, i, u) -> unpack(u ? r.getBytes(i) : r.getBytes(n), float[].class));
+        registry.register(double[].class,       "VARBINARY",                (p, i, v) -> p.setBytes(i, pack(v)),                        (r, n, i, u) -> unpack(u ? r.getBytes(i) : r.getBytes(n), double[].class));
+        registry.register(CompressedText.class, "VARBINARY",                (p, i, v) -> p.setBytes(i, frameOf((CompressedText) v)),    (r, n, i, u) -> textOf(u ? r.getBytes(i) : r.getBytes(n)));
+        registry.register(ByteBuffer.class,     "BLOB",                     (p, i, v) -> p.setBinaryStream(i, streamOf((ByteBuffer) v), ((ByteBuffer) v).remaining()),
+                                                                                                                                        (r, n, i, u) -> bufferOf(u ? r.getBytes(i) : r.getBytes(n)));
+
+        // streams and handles read through the blob only when consumed
+        registry.register(InputStream.class,    "BLOB",                     (p, i, v) -> p.setBinaryStream(i, (InputStream) v),         (r, n, i, u) -> {
+            Blob blob = blobOf(r, n, i, u);
+            return blob == null ? null : BinaryLargeObject.of(blob).openStream();
+        });
+        registry.register(Reader.class,         "CLOB",                     (p, i, v) -> p.setCharacterStream(i, (Reader) v),           (r, n, i, u) -> {
+            Clob clob = clobOf(r, n, i, u);
+            return clob == null ? null : CharacterLargeObject.of(clob).openReader();
+        });
+        registry.register(Path.class,           "BLOB",                     (p, i, v) -> p.setBinaryStream(i, new PathInputStream((Path) v), sizeOf((Path) v)),
+                                                                                                                                        (r, n, i, u) -> spool(blobOf(r, n, i, u)));
+        registry.register(BinaryLargeObject.class,    "BLOB",               (p, i, v) -> p.setBinaryStream(i, ((BinaryLargeObject) v).openStream(), ((BinaryLargeObject) v).length()),
+                                                                                                                                        (r, n, i, u) -> {
+            Blob blob = blobOf(r, n, i, u);
+            return blob == null ? null : BinaryLargeObject.of(blob);
+        });
+        registry.register(CharacterLargeObject.class, "CLOB",               (p, i, v) -> p.setCharacterStream(i, ((CharacterLargeObject) v).openReader(), ((CharacterLargeObject) v).length()),
+                                                                                                                                        (r, n, i, u) -> {
+            Clob clob = clobOf(r, n, i, u);
+            return clob == null ? null : CharacterLargeObject.of(clob);
+        });
+
+        return registry;
+    }
+
+    private static String characterOf(char c)
+    {
+        return c < CHARACTERS.length ? CHARACTERS[c] : String.valueOf(c);
+    }
+
+    private static char readSilently(Reader reader)
+    {
+        try {
+            int i = reader.read();
+
+            if(i < 0)
+                throw new EOFException();
+
+            return (char) i;
+        } catch (IOException e) {
+            throw new DataSourceError(e);
+        }
+    }
+
+    private static Instant instantOf(OffsetDateTime dateTime)
+    {
+        return dateTime == null ? null : dateTime.toInstant();
+    }
+
+    private static long nanosOf(Duration duration) throws SQLException
+    {
+        try {
+            return duration.toNanos();
+        } catch (ArithmeticException e) {
+            throw new SQLException("Duration out of range: " + duration, e);
+        }
+    }
+
+    private static Duration durationOf(long nanos, boolean wasNull)
+    {
+        return wasNull ? null : Duration.ofNanos(nanos);
+    }
+
+    private static byte[] pack(Object array) throws SQLException
+    {
+        try {
+            return PackedArrays.pack(array, false);
+        } catch (CodecException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static Object unpack(byte[] bytes, Class<?> arrayType) throws SQLException
+    {
+        if (bytes == null)
+            return null;
+
+        try {
+            return PackedArrays.unpack(bytes, arrayType);
+        } catch (CodecException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static byte[] frameOf(CompressedText text) throws SQLException
+    {
+        try {
+            return text.toFrame(Compression.DEFAULT_THRESHOLD, Compression.DEFAULT_LEVEL, null);
+        } catch (CodecException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static CompressedText textOf(byte[] frame)
+    {
+        return frame == null ? null : CompressedText.ofFrame(frame, null);
+    }
+
+    // heap buffers are streamed from their backing array, neither is copied
+    private static InputStream streamOf(ByteBuffer buffer)
+    {
+        if (buffer.hasArray())
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    private static ByteBuffer bufferOf(byte[] bytes)
+    {
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    private static Blob blobOf(ResultSet resultSet, String name, int index, boolean usingIndex) throws SQLException
+    {
+        return usingIndex ? resultSet.getBlob(index) : resultSet.getBlob(name);
+    }
+
+    private static Clob clobOf(ResultSet resultSet, String name, int index, boolean usingIndex) throws SQLException
+    {
+        return usingIndex ? resultSet.getClob(index) : resultSet.getClob(name);
+    }
+
+    private static long sizeOf(Path path) throws SQLException
+    {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    // paths are materialized into temporary files owned by the caller
+    private static Path spool(Blob blob) throws SQLException
+    {
+        if (blob == null)
+            return null;
+
+        try (InputStream stream = blob.getBinaryStream()) {
+            Path path = Files.createTempFile("kraitudao", ".blob");
+            Files.copy(stream, path, StandardCopyOption.REPLACE_EXISTING);
+
+            return path;
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static final String[] CHARACTERS = new String[128];
+
+    static {
+        for (char c = 0; c < CHARACTERS.length; c++)
+            CHARACTERS[c] = String.valueOf(c).intern();
+    }
+
+    // ordinals as SMALLINT, specialized to the constants of each enum type
+    private static class EnumConverter implements TypeConverter
+    {
+        EnumConverter(Class<?> type)
+        {
+            this.type = type;
+            this.constants = type == null ? null : type.getEnumConstants();
+        }
+
+        @Override
+        public String getSqlType()
+        {
+            return "SMALLINT";
+        }
+
+        @Override
+        public TypeConverter specialize(Class<?> type)
+        {
+            // constants with a body are anonymous subclasses of their enum
+            Class<?> enumType = type.isEnum() ? type : type.getSuperclass();
+
+            return enumType != null && enumType.isEnum() ? new EnumConverter(enumType) : this;
+        }
+
+        @Override
+        public void apply(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+        {
+            Enum<?> constant = (Enum<?>) value;
+            int ordinal = constant.ordinal();
+
+            if (ordinal > Short.MAX_VALUE)
+                throw new SQLException("Enum ordinal out of SMALLINT range: " + constant.getDeclaringClass().getCanonicalName() + "." + constant.name());
+
+            preparedStatement.setShort(index, (short) ordinal);
+        }
+
+        @Override
+        public Object extract(ResultSet resultSet, String name, int index, boolean usingIndex) throws SQLException
+        {
+            short ordinal = usingIndex ? resultSet.getShort(index) : resultSet.getShort(name);
+
+            if (resultSet.wasNull())
+                return null;
+
+            if (constants == null)
+                throw new SQLException("Enum type unknown, declared as " + Enum.class.getCanonicalName());
+
+            if (ordinal < 0 || ordinal >= constants.length)
+                throw new SQLException("Enum ordinal out of range: " + type.getCanonicalName() + "#" + ordinal);
+
+            return constants[ordinal];
+        }
+
+        private final Class<?> type;
+
+        private final Object[] constants;
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+                return 0;
+
+            if (!buffer.hasRemaining())
+                return -1;
+
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+
+            return len;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+
+        private final ByteBuffer buffer;
+    }
+
+    // the file is only opened once the driver starts reading, and closed at its end
+    private static class PathInputStream extends InputStream
+    {
+        PathInputStream(Path path)
+        {
+            this.path = path;
+        }
+
+        private InputStream stream() throws IOException
+        {
+            if (stream == null)
+            {
+                if (closed)
+                    throw new IOException("Stream closed");
+
+                stream = Files.newInputStream(path);
+            }
+
+            return stream;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = stream().read();
+
+            if (b < 0)
+                close();
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (closed)
+                return -1;
+
+            int n = stream().read(b, off, len);
+
+            if (n < 0)
+                close();
+
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            closed = true;
+
+            if (stream != null)
+                stream.close();
+        }
+
+        private final Path path;
+
+        private InputStream stream;
+
+        private boolean closed;
+    }
+}
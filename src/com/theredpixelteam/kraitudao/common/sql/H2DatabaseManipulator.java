@@ -21,6 +21,11 @@
 
 package com.theredpixelteam.kraitudao.common.sql;
 
+import com.theredpixelteam.kraitudao.criteria.Aggregate;
+import com.theredpixelteam.kraitudao.criteria.Condition;
+import com.theredpixelteam.kraitudao.criteria.Criteria;
+import com.theredpixelteam.kraitudao.criteria.Operator;
+import com.theredpixelteam.kraitudao.criteria.Order;
 import com.theredpixelteam.redtea.util.Pair;
 import com.theredpixelteam.redtea.util.Vector3;
 
@@ -31,6 +36,8 @@ import java.net.URL;
 import java.sql.*;
 import java.sql.Date;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class H2DatabaseManipulator implements DatabaseManipulator {
     public H2DatabaseManipulator()
@@ -81,14 +88,261 @@ public class H2DatabaseManipulator implements DatabaseManipulator {
         return new ResultSetFromDisposableStatement(preparedStatement.executeQuery());
     }
 
+    @Override
+    public ResultSet query(Connection connection, String tableName, BindingPlan keys, Object object, String[] values)
+            throws SQLException
+    {
+        PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT " + combine(values, ",", "*") + " FROM " + tableName + " WHERE " + narrow(keys.columns())
+        );
+
+        try {
+            keys.bind(preparedStatement, 1, object);
+        } catch (SQLException e) {
+            preparedStatement.close();
+            throw e;
+        }
+
+        return new ResultSetFromDisposableStatement(preparedStatement.executeQuery());
+    }
+
+    @Override
+    public boolean exists(Connection connection, String tableName, BindingPlan keys, Object object)
+            throws SQLException
+    {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT 1 FROM " + tableName + " WHERE " + narrow(keys.columns()) + " FETCH FIRST 1 ROWS ONLY")) {
+            keys.bind(preparedStatement, 1, object);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    @Override
+    public ResultSet query(Connection connection, String tableName, String[] values, Criteria<?> criteria, DataArgument[] arguments)
+            throws SQLException
+    {
+        String statement = cached(tableName + ":" + combine(values, ",", "*") + ":" + criteria.getShape(),
+                () -> select(tableName, values, criteria));
+
+        return execute(connection, statement, criteria, arguments);
+    }
+
+    @Override
+    public long count(Connection connection, String tableName, Criteria<?> criteria, DataArgument[] arguments)
+            throws SQLException
+    {
+        String statement = cached(tableName + ":COUNT:" + criteria.getShape(),
+                () -> aggregation(tableName, "COUNT(*)", criteria));
+
+        try (ResultSet resultSet = execute(connection, statement, criteria, arguments)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public boolean exists(Connection connection, String tableName, Pair<String, DataArgument>[] keys)
+            throws SQLException
+    {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT 1 FROM " + tableName + " WHERE " + narrow(keys) + " FETCH FIRST 1 ROWS ONLY")) {
+            injectArguments(preparedStatement, keys);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    @Override
+    public ResultSet aggregate(Connection connection, String tableName, Aggregate aggregate, String column, Criteria<?> criteria, DataArgument[] arguments)
+            throws SQLException
+    {
+        String expression = aggregate.name() + "(" + column + ") AS " + column;
+        String statement = cached(tableName + ":" + expression + ":" + criteria.getShape(),
+                () -> aggregation(tableName, expression, criteria));
+
+        return execute(connection, statement, criteria, arguments);
+    }
+
+    private ResultSet execute(Connection connection, String statement, Criteria<?> criteria, DataArgument[] arguments)
+            throws SQLException
+    {
+        PreparedStatement preparedStatement = connection.prepareStatement(statement);
+
+        int index = injectArguments(preparedStatement, arguments, 1);
+
+        if (criteria.hasOffset())
+            preparedStatement.setInt(index++, criteria.getOffset());
+
+        if (criteria.hasLimit())
+            preparedStatement.setInt(index, criteria.getLimit());
+
+        return new ResultSetFromDisposableStatement(preparedStatement.executeQuery());
+    }
+
+    private String cached(String key, Supplier<String> statement)
+    {
+        String cached = statementCache.get(key);
+
+        if (cached == null)
+        {
+            if (statementCache.size() >= STATEMENT_CACHE_LIMIT)
+                statementCache.clear();
+
+            statementCache.put(key, cached = statement.get());
+        }
+
+        return cached;
+    }
+
+    protected String select(String tableName, String[] values, Criteria<?> criteria)
+    {
+        StringBuilder statement = new StringBuilder("SELECT ")
+                .append(combine(values, ",", "*"))
+                .append(" FROM ").append(tableName)
+                .append(" WHERE ");
+
+        if (criteria.getCondition().isPresent())
+            condition(statement, criteria.getCondition().getSilently());
+        else
+            statement.append("TRUE");
+
+        List<Order> orders = criteria.getOrders();
+        if (!orders.isEmpty())
+            statement.append(" ORDER BY ").append(combine(orders.toArray(), ",", null));
+
+        if (criteria.hasOffset())
+            statement.append(" OFFSET ? ROWS");
+
+        if (criteria.hasLimit())
+            statement.append(" FETCH FIRST ? ROWS ONLY");
+
+        return statement.toString();
+    }
+
+    protected String aggregation(String tableName, String expression, Criteria<?> criteria)
+    {
+        // a window over the rows has to be cut before aggregating
+        if (criteria.hasLimit() || criteria.hasOffset())
+            return "SELECT " + expression + " FROM (" + select(tableName, null, criteria) + ")";
+
+        StringBuilder statement = new StringBuilder("SELECT ")
+                .append(expression)
+                .append(" FROM ").append(tableName)
+                .append(" WHERE ");
+
+        if (criteria.getCondition().isPresent())
+            condition(statement, criteria.getCondition().getSilently());
+        else
+            statement.append("TRUE");
+
+        return statement.toString();
+    }
+
+    protected void condition(StringBuilder statement, Condition condition)
+    {
+        switch (condition.getOperator())
+        {
+            case AND:
+            case OR:
+                String connector = " " + condition.getOperator().name() + " ";
+
+                statement.append("(");
+
+                int i = 0;
+                for (Condition sub : ((Condition.Junction) condition).getConditions())
+                {
+                    if (i++ != 0)
+                        statement.append(connector);
+
+                    condition(statement, sub);
+                }
+
+                statement.append(")");
+                return;
+
+            case NOT:
+                statement.append("NOT (");
+                condition(statement, ((Condition.Negation) condition).getCondition());
+                statement.append(")");
+                return;
+
+            case ROW_GREATER:
+            case ROW_LESS:
+                String[] columns = ((Condition.RowComparison) condition).getColumns();
+
+                statement.append("(").append(combine(columns, ",", null)).append(")")
+                        .append(Operator.ROW_GREATER.equals(condition.getOperator()) ? ">" : "<")
+                        .append("(").append(arguments(columns.length)).append(")");
+                return;
+        }
+
+        Condition.Comparison comparison = (Condition.Comparison) condition;
+
+        statement.append(comparison.getColumn());
+
+        switch (comparison.getOperator())
+        {
+            case EQUAL:
+                statement.append("=?");
+                break;
+
+            case NOT_EQUAL:
+                statement.append("<>?");
+                break;
+
+            case LESS:
+                statement.append("<?");
+                break;
+
+            case LESS_OR_EQUAL:
+                statement.append("<=?");
+                break;
+
+            case GREATER:
+                statement.append(">?");
+                break;
+
+            case GREATER_OR_EQUAL:
+                statement.append(">=?");
+                break;
+
+            case BETWEEN:
+                statement.append(" BETWEEN ? AND ?");
+                break;
+
+            case IN:
+                statement.append(" IN (").append(arguments(comparison.getValueCount())).append(")");
+                break;
+
+            case LIKE:
+                statement.append(" LIKE ?");
+                break;
+
+            case IS_NULL:
+                statement.append(" IS NULL");
+                break;
+
+            case IS_NOT_NULL:
+                statement.append(" IS NOT NULL");
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported operator: " + comparison.getOperator());
+        }
+    }
+
     @Override
     public Collection<String> queryTables(Connection connection, String pattern) throws SQLException
     {
         Collection<String> tables = new ArrayList<>();
 
         PreparedStatement preparedStatement = connection.prepareStatement(
-                "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE SQL IS NOT NULL"
-                + (pattern == null ? "" : "AND TABLE_NAME LIKE '" + pattern + "'")
+                "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA <> 'INFORMATION_SCHEMA'"
+                + (pattern == null ? "" : " AND TABLE_NAME LIKE '" + pattern + "'")
         );
 
         try (ResultSet resultSet = preparedStatement.executeQuery()) {
@@ -138,6 +392,22 @@ public class H2DatabaseManipulator implements DatabaseManipulator {
         return n;
     }
 
+    @Override
+    public int insert(Connection connection, String tableName, BindingPlan values, Object object) throws SQLException
+    {
+        if(values.size() == 0)
+            return 0;
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "MERGE INTO " + tableName +
+                        " (" + combine(values.columns(), ",", null) + ")" +
+                        " VALUES (" + arguments(values.size()) + ")")) {
+            values.bind(preparedStatement, 1, object);
+
+            return preparedStatement.executeUpdate();
+        }
+    }
+
     @Override
     public void createTable(Connection connection, String tableName, Vector3<String, Class<?>, Constraint[]>[] columns, Constraint[] tableConstraints)
             throws SQLException
@@ -152,6 +422,41 @@ public class H2DatabaseManipulator implements DatabaseManipulator {
         return createTable0(connection, tableName, columns, tableConstraints, true);
     }
 
+    @Override
+    public void createIndex(Connection connection, String tableName, Index[] indexes)
+            throws SQLException
+    {
+        createIndex0(connection, tableName, indexes, false);
+    }
+
+    @Override
+    public boolean createIndexIfNotExists(Connection connection, String tableName, Index[] indexes)
+            throws SQLException
+    {
+        return createIndex0(connection, tableName, indexes, true);
+    }
+
+    @Override
+    public Collection<String> queryIndexes(Connection connection, String tableName) throws SQLException
+    {
+        Collection<String> indexes = new ArrayList<>();
+
+        PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT DISTINCT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES WHERE UPPER(TABLE_NAME) = UPPER(?)"
+        );
+
+        preparedStatement.setString(1, tableName);
+
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next())
+                indexes.add(resultSet.getString("INDEX_NAME"));
+        } finally {
+            preparedStatement.close();
+        }
+
+        return indexes;
+    }
+
     @Override
     public void cleanTable(Connection connection, String... tableNames) throws SQLException
     {
@@ -187,6 +492,45 @@ public class H2DatabaseManipulator implements DatabaseManipulator {
         return n != 0;
     }
 
+    private boolean createIndex0(Connection connection, String tableName, Index[] indexes, boolean onNotExists)
+            throws SQLException
+    {
+        if (indexes == null || indexes.length == 0)
+            return false;
+
+        Set<String> existing = new HashSet<>();
+
+        if (onNotExists)
+            for (String index : queryIndexes(connection, tableName))
+                existing.add(index.toUpperCase());
+
+        Statement statement = connection.createStatement();
+        int count = 0;
+
+        for (Index index : indexes)
+        {
+            String indexName = indexName(tableName, index);
+
+            if (!existing.add(indexName.toUpperCase()))
+                continue;
+
+            statement.addBatch(
+                    "CREATE " + (index.isUnique() ? "UNIQUE " : "") + "INDEX " + (onNotExists ? "IF NOT EXISTS " : "") +
+                            indexName + " ON " + tableName + " (" + combine(index.getColumns(), ",", null) + ")"
+            );
+
+            count++;
+        }
+
+        if (count != 0)
+            statement.executeBatch();
+
+        statement.clearBatch();
+        statement.close();
+
+        return count != 0;
+    }
+
     @Override
     public void dropTable(Connection connection, String... tableName) throws SQLException
     {
@@ -290,18 +634,22 @@ public class H2DatabaseManipulator implements DatabaseManipulator {
 
         int p = tableConstraints.length - 1, i = 0;
         while(i < p)
-            parseConstraint(statement, tableConstraints[i], tableName, i++);
+            parseConstraint(statement, tableConstraints[i], tableName, i++).append(",");
         parseConstraint(statement, tableConstraints[i], tableName, i);
 
         return statement.toString();
     }
 
-    protected void parseConstraint(StringBuilder statement, Constraint tableConstraint, String tableName, int i)
+    protected StringBuilder parseConstraint(StringBuilder statement, Constraint tableConstraint, String tableName, int i)
     {
-        statement
+        return statement
                 .append("CONSTRAINT CONSTRAINT_XXSYNTHETIC_").append(tableName).append("_").append(i).append(" ")
-                .append(constraintParser.parse(tableConstraint, false))
-                .append(",");
+                .append(constraintParser.parse(tableConstraint, false));
+    }
+
+    protected String indexName(String tableName, Index index)
+    {
+        return "INDEX_XXSYNTHETIC_" + tableName + "_" + (index.isUnique() ? "U_" : "") + combine(index.getColumns(), "_", null);
     }
 
     protected static void injectArguments(PreparedStatement preparedStatement, Pair<String, DataArgument>[] arguments)
@@ -314,6 +662,18 @@ public class H2DatabaseManipulator implements DatabaseManipulator {
             arguments[i].second().apply(preparedStatement, ++i);
     }
 
+    protected static int injectArguments(PreparedStatement preparedStatement, DataArgument[] arguments, int index)
+            throws SQLException
+    {
+        if (arguments == null)
+            return index;
+
+        for (DataArgument argument : arguments)
+            argument.apply(preparedStatement, index++);
+
+        return index;
+    }
+
     protected static String arguments(int count)
     {
         count -= 1;
@@ -360,9 +720,27 @@ public class H2DatabaseManipulator implements DatabaseManipulator {
         return stmt.toString();
     }
 
+    protected static String narrow(String[] columns)
+    {
+        if(columns == null || columns.length == 0)
+            return "TRUE";
+
+        StringBuilder stmt = new StringBuilder();
+
+        for(int i = 0; i < columns.length - 1; i++)
+            stmt.append(columns[i]).append("=? AND ");
+        stmt.append(columns[columns.length - 1]).append("=?");
+
+        return stmt.toString();
+    }
+
     private ConstraintParser constraintParser;
 
     private DataTypeParser dataTypeParser;
 
+    protected final Map<String, String> statementCache = new ConcurrentHashMap<>();
+
+    protected static final int STATEMENT_CACHE_LIMIT = 1024;
+
     public static final DatabaseManipulator INSTANCE = new H2DatabaseManipulator();
 }
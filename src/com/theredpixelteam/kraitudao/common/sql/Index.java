@@ -0,0 +1,94 @@
+/*
+ * Index.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+public class Index {
+    protected Index(String[] columns, boolean unique)
+    {
+        Objects.requireNonNull(columns, "columns");
+
+        if (columns.length == 0)
+            throw new IllegalArgumentException("Index with no column");
+
+        this.columns = Arrays.copyOf(columns, columns.length);
+        this.unique = unique;
+    }
+
+    public static Index of(String... columns)
+    {
+        return new Index(columns, false);
+    }
+
+    public static Index ofUnique(String... columns)
+    {
+        return new Index(columns, true);
+    }
+
+    public String[] getColumns()
+    {
+        return Arrays.copyOf(columns, columns.length);
+    }
+
+    public boolean isUnique()
+    {
+        return unique;
+    }
+
+    public boolean covers(String... prefix)
+    {
+        if (prefix.length > columns.length)
+            return false;
+
+        for (int i = 0; i < prefix.length; i++)
+            if (!columns[i].equalsIgnoreCase(prefix[i]))
+                return false;
+
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        if (this == object)
+            return true;
+
+        if (!(object instanceof Index))
+            return false;
+
+        Index index = (Index) object;
+
+        return unique == index.unique && Arrays.equals(columns, index.columns);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(columns) * 31 + (unique ? 1 : 0);
+    }
+
+    private final String[] columns;
+
+    private final boolean unique;
+}
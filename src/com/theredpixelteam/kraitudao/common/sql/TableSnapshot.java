@@ -0,0 +1,919 @@
+/*
+ * TableSnapshot.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import com.theredpixelteam.kraitudao.codec.BinaryReader;
+import com.theredpixelteam.kraitudao.codec.BinaryWriter;
+import com.theredpixelteam.kraitudao.codec.CodecException;
+import com.theredpixelteam.redtea.util.Vector3;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// table dumps as a sequence of deflated chunks, each framed by its raw length, compressed length and crc32.
+// records never span chunks, a table record announces the columns of the row records following it.
+public final class TableSnapshot {
+    private TableSnapshot()
+    {
+    }
+
+    public static long export(Connection connection,
+                              DatabaseManipulator manipulator,
+                              String root,
+                              Collection<String> tableNames,
+                              OutputStream output)
+            throws SQLException, IOException
+    {
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+        ChunkWriter chunks = new ChunkWriter(stream);
+        BinaryWriter writer = chunks.writer;
+        long rows = 0;
+
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+
+        writer.writeString(root);
+        chunks.flush();
+
+        try {
+            for (String tableName : tableNames)
+            {
+                String[] primaryKey = manipulator.queryPrimaryKey(connection, tableName);
+
+                try (ResultSet resultSet = manipulator.scan(connection, tableName, primaryKey, FETCH_SIZE)) {
+                    Column[] columns = columnsOf(tableName, resultSet.getMetaData());
+
+                    writer.writeByte(RECORD_TABLE);
+                    writer.writeString(tableName);
+                    writer.writeVarInt(columns.length);
+
+                    for (Column column : columns)
+                    {
+                        writer.writeString(column.name);
+                        writer.writeByte(column.kind.ordinal());
+                        writer.writeVarInt(column.sqlType);
+                        writer.writeBoolean(column.notNull);
+                    }
+
+                    writer.writeVarInt(primaryKey.length);
+
+                    for (String key : primaryKey)
+                        writer.writeString(key);
+
+                    while (resultSet.next())
+                    {
+                        writer.writeByte(RECORD_ROW);
+                        int bitmap = writer.reserve((columns.length + 7) >>> 3);
+
+                        for (int i = 0; i < columns.length; i++)
+                            if (!write(resultSet, i + 1, columns[i].kind, writer))
+                                writer.setBit(bitmap, i);
+
+                        rows++;
+
+                        if (writer.position() >= CHUNK_SIZE)
+                            chunks.flush();
+                    }
+                }
+            }
+
+            chunks.flush();
+            stream.writeInt(0); // end of snapshot
+            stream.flush();
+        } finally {
+            chunks.deflater.end();
+        }
+
+        return rows;
+    }
+
+    // tables of the snapshot are replaced, those missing are created with their primary key.
+    // tables named after the root of the snapshot are renamed after the given root.
+    // rows are loaded into staging tables first, which are renamed over the tables once the whole snapshot is read,
+    // so a corrupted or truncated snapshot leaves the tables untouched. secondary indexes of the replaced tables
+    // are rebuilt on the tables swapped in.
+    public static long restore(Connection connection,
+                               DatabaseManipulator manipulator,
+                               String root,
+                               InputStream input,
+                               int batchSize)
+            throws SQLException, IOException
+    {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size: " + batchSize);
+
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+
+        if (stream.readInt() != MAGIC)
+            throw new IOException("Not a table snapshot");
+
+        int version = stream.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version: " + version);
+
+        Set<String> existing = new HashSet<>();
+
+        for (String tableName : manipulator.queryTables(connection))
+            existing.add(tableName.toUpperCase());
+
+        ChunkReader chunks = new ChunkReader(stream);
+        Loader loader = new Loader(connection, manipulator, batchSize);
+
+        try {
+            if (!chunks.next())
+                throw new EOFException("Truncated snapshot");
+
+            String snapshotRoot = chunks.reader.readString();
+
+            while (chunks.next())
+            {
+                BinaryReader reader = chunks.reader;
+
+                while (reader.remaining() != 0)
+                    switch (reader.readByte())
+                    {
+                        case RECORD_TABLE:
+                            loader.table(rename(reader.readString(), snapshotRoot, root), readColumns(reader), existing);
+                            break;
+
+                        case RECORD_ROW:
+                            loader.row(reader);
+                            break;
+
+                        default:
+                            throw new IOException("Corrupted snapshot: unknown record");
+                    }
+            }
+
+            loader.finish();
+        } catch (CodecException e) {
+            loader.abort();
+            throw new IOException("Corrupted snapshot", e);
+        } catch (SQLException | IOException | RuntimeException e) {
+            loader.abort();
+            throw e;
+        } finally {
+            chunks.inflater.end();
+        }
+
+        return loader.rows;
+    }
+
+    private static String rename(String tableName, String from, String to)
+    {
+        if (tableName.regionMatches(true, 0, from, 0, from.length()))
+            return to + tableName.substring(from.length());
+
+        return tableName;
+    }
+
+    private static Vector3<String[], Column[], String[]> readColumns(BinaryReader reader) throws CodecException, IOException
+    {
+        Column[] columns = new Column[reader.readVarInt()];
+        String[] names = new String[columns.length];
+
+        for (int i = 0; i < columns.length; i++)
+        {
+            names[i] = reader.readString();
+
+            int kind = reader.readByte();
+            if (kind < 0 || kind >= KINDS.length)
+                throw new IOException("Corrupted snapshot: unknown column kind " + kind);
+
+            columns[i] = new Column(names[i], KINDS[kind], reader.readVarInt(), reader.readBoolean());
+        }
+
+        String[] primaryKey = new String[reader.readVarInt()];
+
+        for (int i = 0; i < primaryKey.length; i++)
+            primaryKey[i] = reader.readString();
+
+        return Vector3.of(names, columns, primaryKey);
+    }
+
+    private static Column[] columnsOf(String tableName, ResultSetMetaData metadata) throws SQLException
+    {
+        Column[] columns = new Column[metadata.getColumnCount()];
+
+        for (int i = 0; i < columns.length; i++)
+        {
+            int sqlType = metadata.getColumnType(i + 1);
+            Kind kind = Kind.of(sqlType, metadata.getColumnTypeName(i + 1), metadata.getPrecision(i + 1));
+
+            if (kind == null)
+                throw new SQLException("Unsupported column type " + metadata.getColumnTypeName(i + 1)
+                        + " (Table: " + tableName + ", Column: " + metadata.getColumnName(i + 1) + ")");
+
+            columns[i] = new Column(metadata.getColumnName(i + 1), kind, sqlType,
+                    metadata.isNullable(i + 1) == ResultSetMetaData.columnNoNulls);
+        }
+
+        return columns;
+    }
+
+    // returns false on null
+    private static boolean write(ResultSet resultSet, int index, Kind kind, BinaryWriter writer) throws SQLException
+    {
+        switch (kind)
+        {
+            case BOOLEAN:
+            {
+                boolean value = resultSet.getBoolean(index);
+
+                if (resultSet.wasNull())
+                    return false;
+
+                writer.writeBoolean(value);
+                return true;
+            }
+
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            {
+                long value = resultSet.getLong(index);
+
+                if (resultSet.wasNull())
+                    return false;
+
+                writer.writeSignedVarLong(value);
+                return true;
+            }
+
+            case FLOAT:
+            {
+                float value = resultSet.getFloat(index);
+
+                if (resultSet.wasNull())
+                    return false;
+
+                writer.writeFloat(value);
+                return true;
+            }
+
+            case DOUBLE:
+            {
+                double value = resultSet.getDouble(index);
+
+                if (resultSet.wasNull())
+                    return false;
+
+                writer.writeDouble(value);
+                return true;
+            }
+
+            case DECIMAL:
+            {
+                BigDecimal value = resultSet.getBigDecimal(index);
+
+                if (value == null)
+                    return false;
+
+                byte[] unscaled = value.unscaledValue().toByteArray();
+
+                writer.writeSignedVarInt(value.scale());
+                writer.writeVarInt(unscaled.length);
+                writer.writeBytes(unscaled, 0, unscaled.length);
+                return true;
+            }
+
+            case CHAR:
+            case STRING:
+            {
+                String value = resultSet.getString(index);
+
+                if (value == null)
+                    return false;
+
+                writer.writeString(value);
+                return true;
+            }
+
+            case BYTES:
+            {
+                byte[] value = resultSet.getBytes(index);
+
+                if (value == null)
+                    return false;
+
+                writer.writeVarInt(value.length);
+                writer.writeBytes(value, 0, value.length);
+                return true;
+            }
+
+            case UUID:
+            {
+                UUID value = resultSet.getObject(index, UUID.class);
+
+                if (value == null)
+                    return false;
+
+                writer.writeLong(value.getMostSignificantBits());
+                writer.writeLong(value.getLeastSignificantBits());
+                return true;
+            }
+
+            case TIMESTAMP:
+            {
+                LocalDateTime value = resultSet.getObject(index, LocalDateTime.class);
+
+                if (value == null)
+                    return false;
+
+                writer.writeSignedVarLong(value.toEpochSecond(ZoneOffset.UTC));
+                writer.writeVarInt(value.getNano());
+                return true;
+            }
+
+            case TIMESTAMP_TZ:
+            {
+                OffsetDateTime value = resultSet.getObject(index, OffsetDateTime.class);
+
+                if (value == null)
+                    return false;
+
+                writer.writeSignedVarLong(value.toEpochSecond());
+                writer.writeVarInt(value.getNano());
+                writer.writeSignedVarInt(value.getOffset().getTotalSeconds());
+                return true;
+            }
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static void bind(PreparedStatement statement, int index, Kind kind, BinaryReader reader) throws SQLException, CodecException
+    {
+        switch (kind)
+        {
+            case BOOLEAN:
+                statement.setBoolean(index, reader.readBoolean());
+                break;
+
+            case BYTE:
+                statement.setByte(index, (byte) reader.readSignedVarLong());
+                break;
+
+            case SHORT:
+                statement.setShort(index, (short) reader.readSignedVarLong());
+                break;
+
+            case INT:
+                statement.setInt(index, (int) reader.readSignedVarLong());
+                break;
+
+            case LONG:
+                statement.setLong(index, reader.readSignedVarLong());
+                break;
+
+            case FLOAT:
+                statement.setFloat(index, reader.readFloat());
+                break;
+
+            case DOUBLE:
+                statement.setDouble(index, reader.readDouble());
+                break;
+
+            case DECIMAL:
+            {
+                int scale = reader.readSignedVarInt();
+                statement.setBigDecimal(index, new BigDecimal(new BigInteger(reader.readBytes(reader.readVarInt())), scale));
+                break;
+            }
+
+            case CHAR:
+            case STRING:
+                statement.setString(index, reader.readString());
+                break;
+
+            case BYTES:
+                statement.setBytes(index, reader.readBytes(reader.readVarInt()));
+                break;
+
+            case UUID:
+                statement.setObject(index, new UUID(reader.readLong(), reader.readLong()));
+                break;
+
+            case TIMESTAMP:
+            {
+                long seconds = reader.readSignedVarLong();
+                statement.setObject(index, LocalDateTime.ofEpochSecond(seconds, reader.readVarInt(), ZoneOffset.UTC));
+                break;
+            }
+
+            case TIMESTAMP_TZ:
+            {
+                long seconds = reader.readSignedVarLong();
+                int nanos = reader.readVarInt();
+                ZoneOffset offset = ZoneOffset.ofTotalSeconds(reader.readSignedVarInt());
+
+                statement.setObject(index, OffsetDateTime.ofInstant(Instant.ofEpochSecond(seconds, nanos), offset));
+                break;
+            }
+        }
+    }
+
+    private enum Kind
+    {
+        BOOLEAN(boolean.class),
+        BYTE(byte.class),
+        SHORT(short.class),
+        INT(int.class),
+        LONG(long.class),
+        FLOAT(float.class),
+        DOUBLE(double.class),
+        DECIMAL(BigDecimal.class),
+        CHAR(char.class),
+        STRING(String.class),
+        BYTES(byte[].class),
+        UUID(java.util.UUID.class),
+        TIMESTAMP(LocalDateTime.class),
+        TIMESTAMP_TZ(Instant.class);
+
+        Kind(Class<?> type)
+        {
+            this.type = type;
+        }
+
+        static Kind of(int sqlType, String typeName, int precision)
+        {
+            if ("UUID".equalsIgnoreCase(typeName))
+                return UUID;
+
+            switch (sqlType)
+            {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    return BOOLEAN;
+
+                case Types.TINYINT:
+                    return BYTE;
+
+                case Types.SMALLINT:
+                    return SHORT;
+
+                case Types.INTEGER:
+                    return INT;
+
+                case Types.BIGINT:
+                    return LONG;
+
+                case Types.REAL:
+                    return FLOAT;
+
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return DOUBLE;
+
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return DECIMAL;
+
+                case Types.CHAR:
+                case Types.NCHAR:
+                    return precision == 1 ? CHAR : STRING;
+
+                case Types.VARCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.LONGNVARCHAR:
+                case Types.CLOB:
+                case Types.NCLOB:
+                    return STRING;
+
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                    return BYTES;
+
+                case Types.TIMESTAMP:
+                    return TIMESTAMP;
+
+                case Types.TIMESTAMP_WITH_TIMEZONE:
+                    return TIMESTAMP_TZ;
+
+                default:
+                    return null;
+            }
+        }
+
+        final Class<?> type;
+    }
+
+    private static final class Column
+    {
+        Column(String name, Kind kind, int sqlType, boolean notNull)
+        {
+            this.name = name;
+            this.kind = kind;
+            this.sqlType = sqlType;
+            this.notNull = notNull;
+        }
+
+        final String name;
+
+        final Kind kind;
+
+        final int sqlType;
+
+        final boolean notNull;
+    }
+
+    private static final class ChunkWriter
+    {
+        ChunkWriter(DataOutputStream stream)
+        {
+            this.stream = stream;
+        }
+
+        void flush() throws IOException
+        {
+            int length = writer.position();
+
+            if (length == 0)
+                return;
+
+            crc.reset();
+            crc.update(writer.array(), 0, length);
+
+            deflater.reset();
+            deflater.setInput(writer.array(), 0, length);
+            deflater.finish();
+
+            int compressed = 0;
+
+            while (!deflater.finished())
+            {
+                if (compressed == buffer.length)
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+
+                compressed += deflater.deflate(buffer, compressed, buffer.length - compressed);
+            }
+
+            stream.writeInt(length);
+            stream.writeInt(compressed);
+            stream.writeInt((int) crc.getValue());
+            stream.write(buffer, 0, compressed);
+
+            writer.reset();
+        }
+
+        final DataOutputStream stream;
+
+        final BinaryWriter writer = new BinaryWriter(CHUNK_SIZE + (CHUNK_SIZE >>> 2));
+
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        final CRC32 crc = new CRC32();
+
+        byte[] buffer = new byte[CHUNK_SIZE >>> 1];
+    }
+
+    private static final class ChunkReader
+    {
+        ChunkReader(DataInputStream stream)
+        {
+            this.stream = stream;
+        }
+
+        // false at the end of the snapshot
+        boolean next() throws IOException
+        {
+            int length = stream.readInt();
+
+            if (length == 0)
+                return false;
+
+            int compressed = stream.readInt();
+            int checksum = stream.readInt();
+
+            if (length < 0 || compressed < 0)
+                throw new IOException("Corrupted snapshot: illegal chunk length");
+
+            if (input.length < compressed)
+                input = new byte[compressed];
+
+            if (raw.length < length)
+                raw = new byte[length];
+
+            stream.readFully(input, 0, compressed);
+
+            inflater.reset();
+            inflater.setInput(input, 0, compressed);
+
+            try {
+                if (inflater.inflate(raw, 0, length) != length || !inflater.finished())
+                    throw new IOException("Corrupted snapshot: chunk length mismatch");
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted snapshot", e);
+            }
+
+            crc.reset();
+            crc.update(raw, 0, length);
+
+            if ((int) crc.getValue() != checksum)
+                throw new IOException("Corrupted snapshot: chunk checksum mismatch");
+
+            reader.reset(raw, 0, length);
+
+            return true;
+        }
+
+        final DataInputStream stream;
+
+        final BinaryReader reader = new BinaryReader();
+
+        final Inflater inflater = new Inflater();
+
+        final CRC32 crc = new CRC32();
+
+        byte[] input = new byte[0];
+
+        byte[] raw = new byte[0];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Vector3<String, Class<?>, Constraint[]>[] definitionsOf(Column[] columns)
+    {
+        Vector3<String, Class<?>, Constraint[]>[] definitions = new Vector3[columns.length];
+
+        for (int i = 0; i < columns.length; i++)
+            definitions[i] = Vector3.of(columns[i].name, columns[i].kind.type,
+                    columns[i].notNull ? new Constraint[] {Constraint.ofNotNull()} : new Constraint[0]);
+
+        return definitions;
+    }
+
+    private static final class Loader
+    {
+        Loader(Connection connection, DatabaseManipulator manipulator, int batchSize)
+        {
+            this.connection = connection;
+            this.manipulator = manipulator;
+            this.batchSize = batchSize;
+        }
+
+        void table(String tableName, Vector3<String[], Column[], String[]> layout, Set<String> existing)
+                throws SQLException, IOException
+        {
+            close();
+
+            Staged table = new Staged(tableName, layout, existing.contains(tableName.toUpperCase()));
+
+            for (Staged other : staged)
+                if (other.tableName.equalsIgnoreCase(tableName))
+                    throw new IOException("Corrupted snapshot: duplicate table " + tableName);
+
+            staged.add(table);
+
+            // left over by an earlier restore that didn't get to clean up
+            manipulator.dropTableIfExists(connection, table.stagingName);
+            manipulator.createTable(connection, table.stagingName, table.definitions, table.constraints);
+
+            this.columns = layout.second();
+            this.statement = manipulator.prepareInsert(connection, table.stagingName, table.columns);
+        }
+
+        void row(BinaryReader reader) throws SQLException, CodecException, IOException
+        {
+            if (statement == null)
+                throw new IOException("Corrupted snapshot: row outside of a table");
+
+            int bitmap = reader.skip((columns.length + 7) >>> 3);
+
+            for (int i = 0; i < columns.length; i++)
+                if (reader.bit(bitmap, i))
+                    statement.setNull(i + 1, columns[i].sqlType);
+                else
+                    bind(statement, i + 1, columns[i].kind, reader);
+
+            statement.addBatch();
+            rows++;
+
+            if (++pending == batchSize)
+                execute();
+        }
+
+        // only the staging tables are written until the snapshot is read through
+        void execute() throws SQLException
+        {
+            if (pending == 0)
+                return;
+
+            statement.executeBatch();
+            connection.commit();
+
+            pending = 0;
+        }
+
+        void close() throws SQLException
+        {
+            if (statement == null)
+                return;
+
+            execute();
+
+            statement.close();
+            statement = null;
+        }
+
+        // ddl commits implicitly in most databases, so the swap is undone by hand when one of the renames fails
+        void finish() throws SQLException
+        {
+            close();
+
+            for (Staged table : staged)
+                if (table.existing)
+                {
+                    table.indexes = manipulator.describeIndexes(connection, table.tableName);
+
+                    // left over by an earlier restore that didn't get to clean up
+                    manipulator.dropTableIfExists(connection, table.retiredName);
+                }
+
+            connection.commit();
+
+            int swapped = 0;
+
+            try {
+                for (Staged table : staged)
+                {
+                    if (table.existing)
+                        manipulator.renameTable(connection, table.tableName, table.retiredName);
+
+                    try {
+                        manipulator.renameTable(connection, table.stagingName, table.tableName);
+                    } catch (SQLException e) {
+                        if (table.existing)
+                            manipulator.renameTable(connection, table.retiredName, table.tableName);
+
+                        throw e;
+                    }
+
+                    swapped++;
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                unswap(swapped, e);
+                throw e;
+            }
+
+            // the tables are restored from here on, failures only leave the retired tables behind
+            for (Staged table : staged)
+                if (table.existing)
+                {
+                    manipulator.dropTableIfExists(connection, table.retiredName);
+                    manipulator.createIndex(connection, table.tableName, table.indexes.toArray(new Index[0]));
+                }
+
+            connection.commit();
+        }
+
+        // the tables swapped in go back to staging, dropped with the others by abort
+        void unswap(int swapped, SQLException failure)
+        {
+            for (int i = swapped - 1; i >= 0; i--)
+            {
+                Staged table = staged.get(i);
+
+                try {
+                    manipulator.renameTable(connection, table.tableName, table.stagingName);
+
+                    if (table.existing)
+                        manipulator.renameTable(connection, table.retiredName, table.tableName);
+                } catch (SQLException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        void abort()
+        {
+            try {
+                if (statement != null)
+                    statement.close();
+
+                connection.rollback();
+            } catch (SQLException e) {
+                // the original failure is reported
+            }
+
+            try {
+                dropStaged();
+            } catch (SQLException e) {
+                // the original failure is reported
+            }
+        }
+
+        void dropStaged() throws SQLException
+        {
+            for (Staged table : staged)
+                manipulator.dropTableIfExists(connection, table.stagingName);
+
+            connection.commit();
+        }
+
+        final Connection connection;
+
+        final DatabaseManipulator manipulator;
+
+        final int batchSize;
+
+        final List<Staged> staged = new ArrayList<>();
+
+        PreparedStatement statement;
+
+        Column[] columns;
+
+        int pending;
+
+        long rows;
+    }
+
+    private static final class Staged
+    {
+        Staged(String tableName, Vector3<String[], Column[], String[]> layout, boolean existing)
+        {
+            this.tableName = tableName;
+            this.stagingName = tableName + STAGING_SUFFIX;
+            this.retiredName = tableName + RETIRED_SUFFIX;
+            this.columns = layout.first();
+            this.definitions = definitionsOf(layout.second());
+            this.constraints = layout.third().length == 0
+                    ? new Constraint[0] : new Constraint[] {Constraint.ofPrimaryKey(layout.third())};
+            this.existing = existing;
+        }
+
+        final String tableName;
+
+        final String stagingName;
+
+        final String retiredName;
+
+        final String[] columns;
+
+        final Vector3<String, Class<?>, Constraint[]>[] definitions;
+
+        final Constraint[] constraints;
+
+        final boolean existing;
+
+        Collection<Index> indexes;
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private static final int MAGIC = 0x4B534E50;
+
+    private static final int VERSION = 1;
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int FETCH_SIZE = 1024;
+
+    private static final byte RECORD_TABLE = 1;
+
+    private static final byte RECORD_ROW = 2;
+
+    private static final String STAGING_SUFFIX = "__RESTORE";
+
+    private static final String RETIRED_SUFFIX = "__RETIRED";
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+}
@@ -0,0 +1,65 @@
+/*
+ * TypeConverter.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+// the column type, binding and extraction of one java type, registered together
+public interface TypeConverter extends DataArgumentApplier, DirectableDataExtractor {
+    public String getSqlType();
+
+    // converters registered for a supertype may narrow to the resolved type, called once per type
+    public default TypeConverter specialize(Class<?> type)
+    {
+        return this;
+    }
+
+    public static TypeConverter of(String sqlType, DataArgumentApplier applier, DirectableDataExtractor extractor)
+    {
+        Objects.requireNonNull(sqlType, "sqlType");
+        Objects.requireNonNull(applier, "applier");
+        Objects.requireNonNull(extractor, "extractor");
+
+        return new TypeConverter() {
+            @Override
+            public String getSqlType()
+            {
+                return sqlType;
+            }
+
+            @Override
+            public void apply(PreparedStatement preparedStatement, int index, Object value) throws SQLException
+            {
+                applier.apply(preparedStatement, index, value);
+            }
+
+            @Override
+            public Object extract(ResultSet resultSet, String name, int index, boolean usingIndex) throws SQLException
+            {
+                return extractor.extract(resultSet, name, index, usingIndex);
+            }
+        };
+    }
+}
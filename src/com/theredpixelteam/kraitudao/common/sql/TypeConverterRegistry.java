@@ -0,0 +1,123 @@
+/*
+ * TypeConverterRegistry.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.sql;
+
+import com.theredpixelteam.kraitudao.misc.Misc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// resolution walks boxing, superclasses and interfaces once per type, registering starts over with a fresh cache
+public class TypeConverterRegistry {
+    public TypeConverterRegistry()
+    {
+        this.converters = new HashMap<>();
+        this.resolved = cacheOf(converters);
+    }
+
+    public TypeConverterRegistry(TypeConverterRegistry registry)
+    {
+        this.converters = registry.converters;
+        this.resolved = cacheOf(converters);
+    }
+
+    public static TypeConverterRegistry getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public synchronized TypeConverterRegistry register(Class<?> type, TypeConverter converter)
+    {
+        Map<Class<?>, TypeConverter> converters = new HashMap<>(this.converters);
+        converters.put(Misc.tryToUnbox(Objects.requireNonNull(type, "type")), Objects.requireNonNull(converter, "converter"));
+
+        this.converters = converters;
+        this.resolved = cacheOf(converters);
+
+        return this;
+    }
+
+    public TypeConverterRegistry register(Class<?> type, String sqlType, DataArgumentApplier applier, DirectableDataExtractor extractor)
+    {
+        return register(type, TypeConverter.of(sqlType, applier, extractor));
+    }
+
+    // null if unsupported
+    public TypeConverter resolve(Class<?> type)
+    {
+        return resolved.get(type);
+    }
+
+    public boolean supports(Class<?> type)
+    {
+        return resolved.get(type) != null;
+    }
+
+    private static ClassValue<TypeConverter> cacheOf(Map<Class<?>, TypeConverter> converters)
+    {
+        return new ClassValue<TypeConverter>() {
+            @Override
+            protected TypeConverter computeValue(Class<?> type)
+            {
+                TypeConverter converter = resolve(converters, type);
+
+                return converter == null ? null : converter.specialize(type);
+            }
+        };
+    }
+
+    private static TypeConverter resolve(Map<Class<?>, TypeConverter> converters, Class<?> type)
+    {
+        Class<?> t = Misc.tryToUnbox(type);
+        TypeConverter converter;
+
+        do {
+            if ((converter = converters.get(t)) != null)
+                return converter;
+        } while ((t = t.getSuperclass()) != null);
+
+        // implementations of registered interfaces, such as Path
+        for (t = type; t != null; t = t.getSuperclass())
+            if ((converter = resolveInterfaces(converters, t)) != null)
+                return converter;
+
+        return null;
+    }
+
+    private static TypeConverter resolveInterfaces(Map<Class<?>, TypeConverter> converters, Class<?> type)
+    {
+        TypeConverter converter;
+
+        for (Class<?> implemented : type.getInterfaces())
+            if ((converter = converters.get(implemented)) != null || (converter = resolveInterfaces(converters, implemented)) != null)
+                return converter;
+
+        return null;
+    }
+
+    private volatile Map<Class<?>, TypeConverter> converters;
+
+    private volatile ClassValue<TypeConverter> resolved;
+
+    private static final TypeConverterRegistry DEFAULT = DefaultTypeConverters.registerAll(new TypeConverterRegistry());
+}
@@ -0,0 +1,184 @@
+/*
+ * BinaryTree.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// trees of Map<String, Object>, List<Object> and normalized scalars as tagged binary values
+@SuppressWarnings("unchecked")
+public final class BinaryTree {
+    private BinaryTree()
+    {
+    }
+
+    public static byte[] encode(Object tree) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encode(out, tree);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static void encode(DataOutputStream out, Object tree) throws IOException
+    {
+        if (tree == null)
+            out.writeByte(NULL);
+        else if (tree instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong((Long) tree);
+        }
+        else if (tree instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) tree);
+        }
+        else if (tree instanceof Boolean)
+            out.writeByte((Boolean) tree ? TRUE : FALSE);
+        else if (tree instanceof String)
+        {
+            byte[] bytes = ((String) tree).getBytes(StandardCharsets.UTF_8);
+
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (tree instanceof Map)
+        {
+            Map<String, Object> map = (Map<String, Object>) tree;
+
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+
+            for (Map.Entry<String, Object> entry : map.entrySet())
+            {
+                encode(out, entry.getKey());
+                encode(out, entry.getValue());
+            }
+        }
+        else if (tree instanceof List)
+        {
+            List<Object> list = (List<Object>) tree;
+
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+
+            for (Object element : list)
+                encode(out, element);
+        }
+        else
+            throw new IOException("Not a tree value: " + tree.getClass().getCanonicalName());
+    }
+
+    public static Object decode(ByteBuffer buffer, int[] position)
+    {
+        int tag = buffer.get(position[0]++);
+
+        switch (tag)
+        {
+            case NULL:
+                return null;
+
+            case LONG:
+            {
+                long value = buffer.getLong(position[0]);
+                position[0] += 8;
+                return value;
+            }
+
+            case DOUBLE:
+            {
+                double value = buffer.getDouble(position[0]);
+                position[0] += 8;
+                return value;
+            }
+
+            case TRUE:
+                return Boolean.TRUE;
+
+            case FALSE:
+                return Boolean.FALSE;
+
+            case STRING:
+            {
+                byte[] bytes = new byte[buffer.getInt(position[0])];
+                position[0] += 4;
+
+                for (int i = 0; i < bytes.length; i++)
+                    bytes[i] = buffer.get(position[0]++);
+
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            case MAP:
+            {
+                int size = buffer.getInt(position[0]);
+                position[0] += 4;
+
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++)
+                    map.put((String) decode(buffer, position), decode(buffer, position));
+
+                return map;
+            }
+
+            case LIST:
+            {
+                int size = buffer.getInt(position[0]);
+                position[0] += 4;
+
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++)
+                    list.add(decode(buffer, position));
+
+                return list;
+            }
+
+            default:
+                throw new IllegalStateException("Corrupted tree tag " + tag);
+        }
+    }
+
+    private static final int NULL = 0;
+
+    private static final int LONG = 1;
+
+    private static final int DOUBLE = 2;
+
+    private static final int TRUE = 3;
+
+    private static final int FALSE = 4;
+
+    private static final int STRING = 5;
+
+    private static final int MAP = 6;
+
+    private static final int LIST = 7;
+}
@@ -0,0 +1,798 @@
+/*
+ * HOCONTree.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.tree;
+
+import com.theredpixelteam.kraitudao.DataSourceException;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+// the subset of HOCON without substitutions and includes, read into trees of Map<String, Object>, List<Object> and scalars
+@SuppressWarnings("unchecked")
+public final class HOCONTree {
+    private HOCONTree()
+    {
+    }
+
+    public static void emit(StringBuilder out, Map<String, Object> root)
+    {
+        for (Map.Entry<String, Object> entry : root.entrySet())
+        {
+            emitKey(out, entry.getKey());
+            emitField(out, entry.getValue(), 0);
+        }
+    }
+
+    private static void emitField(StringBuilder out, Object value, int indent)
+    {
+        if (value instanceof Map && !((Map<String, Object>) value).isEmpty())
+            out.append(' ');
+        else
+            out.append(" = ");
+
+        emitValue(out, value, indent);
+        out.append('\n');
+    }
+
+    private static void emitValue(StringBuilder out, Object value, int indent)
+    {
+        if (value instanceof Map)
+        {
+            Map<String, Object> object = (Map<String, Object>) value;
+
+            if (object.isEmpty())
+            {
+                out.append("{}");
+                return;
+            }
+
+            out.append("{\n");
+
+            for (Map.Entry<String, Object> entry : object.entrySet())
+            {
+                indent(out, indent + INDENT);
+                emitKey(out, entry.getKey());
+                emitField(out, entry.getValue(), indent + INDENT);
+            }
+
+            indent(out, indent);
+            out.append('}');
+        }
+        else if (value instanceof List)
+        {
+            List<Object> array = (List<Object>) value;
+
+            if (array.isEmpty())
+            {
+                out.append("[]");
+                return;
+            }
+
+            out.append("[\n");
+
+            for (Object element : array)
+            {
+                indent(out, indent + INDENT);
+                emitValue(out, element, indent + INDENT);
+                out.append('\n');
+            }
+
+            indent(out, indent);
+            out.append(']');
+        }
+        else
+            emitScalar(out, value);
+    }
+
+    private static void emitKey(StringBuilder out, String key)
+    {
+        if (PLAIN_KEY.matcher(key).matches())
+            out.append(key);
+        else
+            quote(out, key);
+    }
+
+    private static void emitScalar(StringBuilder out, Object value)
+    {
+        if (value == null)
+            out.append("null");
+        else if (value instanceof String)
+            quote(out, (String) value);
+        else if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()))
+            quote(out, value.toString()); // no literal form, converted back on demand
+        else
+            out.append(value);
+    }
+
+    private static void quote(StringBuilder out, String string)
+    {
+        out.append('"');
+
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+
+            switch (c)
+            {
+                case '"':
+                    out.append("\\\"");
+                    break;
+
+                case '\\':
+                    out.append("\\\\");
+                    break;
+
+                case '\n':
+                    out.append("\\n");
+                    break;
+
+                case '\r':
+                    out.append("\\r");
+                    break;
+
+                case '\t':
+                    out.append("\\t");
+                    break;
+
+                default:
+                    if (c < 0x20 || c == 0x7F)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+
+        out.append('"');
+    }
+
+    private static void indent(StringBuilder out, int indent)
+    {
+        for (int i = 0; i < indent; i++)
+            out.append(' ');
+    }
+
+    public static Map<String, Object> parse(String text) throws DataSourceException
+    {
+        return new Parser(text, 0, text.length(), 1).parseRoot();
+    }
+
+    // top-level fields are parsed in parallel and merged in order
+    public static Map<String, Object> parse(String text, Executor executor) throws DataSourceException
+    {
+        List<int[]> sections = sections(text);
+
+        if (sections.size() < 2)
+            return parse(text);
+
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+
+        for (int[] section : sections)
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new Parser(text, section[0], section[1], section[2]).parseRoot();
+                } catch (DataSourceException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+
+        Map<String, Object> root = new LinkedHashMap<>();
+
+        for (CompletableFuture<Map<String, Object>> future : futures)
+            try {
+                for (Map.Entry<String, Object> entry : future.join().entrySet())
+                    merge(root, entry.getKey(), entry.getValue());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof DataSourceException)
+                    throw (DataSourceException) e.getCause();
+
+                throw new DataSourceException(e.getCause());
+            }
+
+        return root;
+    }
+
+    // the start, end and first line of each top-level field, found without parsing values
+    private static List<int[]> sections(String text)
+    {
+        List<int[]> sections = new ArrayList<>();
+
+        int start = 0;
+        int end = text.length();
+        int line = 1;
+
+        // a braced root
+        int first = skipInsignificant(text, 0, end);
+        if (first < end && text.charAt(first) == '{')
+        {
+            int last = end - 1;
+            while (last > first && Character.isWhitespace(text.charAt(last)))
+                last--;
+
+            if (text.charAt(last) != '}')
+                return Collections.singletonList(new int[] {0, end, 1});
+
+            line += count(text, 0, first + 1, '\n');
+            start = first + 1;
+            end = last;
+        }
+
+        int depth = 0;
+        int sectionStart = start;
+        int sectionLine = line;
+        char lastSignificant = 0;
+        boolean content = false;
+
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+
+            if (c == '"')
+            {
+                int close = skipString(text, i, end);
+                line += count(text, i, close, '\n');
+                i = close - 1;
+                lastSignificant = '"';
+                content = true;
+                continue;
+            }
+
+            if (c == '#' || (c == '/' && i + 1 < end && text.charAt(i + 1) == '/'))
+            {
+                while (i + 1 < end && text.charAt(i + 1) != '\n')
+                    i++;
+
+                continue;
+            }
+
+            if (c == '{' || c == '[')
+                depth++;
+            else if (c == '}' || c == ']')
+                depth--;
+
+            if (depth == 0 && (c == '\n' || c == ','))
+            {
+                if (content && lastSignificant != '=' && lastSignificant != ':')
+                {
+                    sections.add(new int[] {sectionStart, i, sectionLine});
+                    sectionStart = i + 1;
+                    sectionLine = c == '\n' ? line + 1 : line;
+                    content = false;
+                }
+                else if (!content)
+                {
+                    sectionStart = i + 1;
+                    sectionLine = c == '\n' ? line + 1 : line;
+                }
+            }
+            else if (!Character.isWhitespace(c))
+            {
+                lastSignificant = c;
+                content = true;
+            }
+
+            if (c == '\n')
+                line++;
+        }
+
+        if (depth != 0)
+            return Collections.singletonList(new int[] {0, text.length(), 1});
+
+        if (content)
+            sections.add(new int[] {sectionStart, end, sectionLine});
+
+        return sections;
+    }
+
+    private static int skipInsignificant(String text, int i, int end)
+    {
+        while (i < end)
+        {
+            char c = text.charAt(i);
+
+            if (Character.isWhitespace(c))
+                i++;
+            else if (c == '#' || (c == '/' && i + 1 < end && text.charAt(i + 1) == '/'))
+                while (i < end && text.charAt(i) != '\n')
+                    i++;
+            else
+                break;
+        }
+
+        return i;
+    }
+
+    // the position after the closing quote, or the end if unterminated
+    private static int skipString(String text, int i, int end)
+    {
+        if (text.startsWith(TRIPLE_QUOTE, i))
+        {
+            int close = text.indexOf(TRIPLE_QUOTE, i + 3);
+
+            if (close < 0 || close >= end)
+                return end;
+
+            // quotes right before the closing ones belong to the string
+            close += 3;
+            while (close < end && text.charAt(close) == '"')
+                close++;
+
+            return close;
+        }
+
+        for (i++; i < end; i++)
+        {
+            char c = text.charAt(i);
+
+            if (c == '\\')
+                i++;
+            else if (c == '"' || c == '\n')
+                return i + 1;
+        }
+
+        return end;
+    }
+
+    private static int count(String text, int from, int to, char c)
+    {
+        int count = 0;
+
+        for (int i = from; i < to; i++)
+            if (text.charAt(i) == c)
+                count++;
+
+        return count;
+    }
+
+    // objects are merged, everything else is replaced
+    private static void merge(Map<String, Object> object, String key, Object value)
+    {
+        Object existing = object.get(key);
+
+        if (existing instanceof Map && value instanceof Map)
+        {
+            Map<String, Object> merged = new LinkedHashMap<>((Map<String, Object>) existing);
+
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet())
+                merge(merged, entry.getKey(), entry.getValue());
+
+            object.put(key, merged);
+        }
+        else
+        {
+            object.remove(key); // the last definition decides the position
+            object.put(key, value);
+        }
+    }
+
+    public static final String TRIPLE_QUOTE = "\"\"\"";
+
+    private static final int INDENT = 2;
+
+    private static final Pattern PLAIN_KEY = Pattern.compile("[A-Za-z_][A-Za-z0-9_\\-]*");
+
+    private static final Pattern INTEGER = Pattern.compile("-?[0-9]+");
+
+    private static final Pattern FLOAT = Pattern.compile("-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+
+    private static final String UNQUOTED_FORBIDDEN = "$\"{}[]:=,+#`^?!@*&\\";
+
+    private static final class Parser
+    {
+        Parser(String text, int start, int end, int line)
+        {
+            this.text = text;
+            this.position = start;
+            this.end = end;
+            this.line = line;
+        }
+
+        Map<String, Object> parseRoot() throws DataSourceException
+        {
+            skipWhitespace(true);
+
+            Map<String, Object> root;
+
+            if (peek() == '{')
+            {
+                position++;
+                root = parseObjectBody(true);
+            }
+            else
+                root = parseObjectBody(false);
+
+            skipWhitespace(true);
+
+            if (position < end)
+                throw malformed("unexpected content after root object");
+
+            return root;
+        }
+
+        Map<String, Object> parseObjectBody(boolean braced) throws DataSourceException
+        {
+            Map<String, Object> object = new LinkedHashMap<>();
+
+            while (true)
+            {
+                skipSeparators();
+
+                if (position >= end)
+                {
+                    if (braced)
+                        throw malformed("unterminated object");
+
+                    return object;
+                }
+
+                if (peek() == '}')
+                {
+                    if (!braced)
+                        throw malformed("unexpected '}'");
+
+                    position++;
+                    return object;
+                }
+
+                List<String> path = parseKey();
+
+                skipWhitespace(false);
+
+                Object value;
+                char c = peek();
+
+                if (c == '{')
+                {
+                    position++;
+                    value = parseObjectBody(true);
+                }
+                else if (c == '=' || c == ':')
+                {
+                    position++;
+                    skipWhitespace(true);
+                    value = parseValue();
+                }
+                else
+                    throw malformed("expected '=', ':' or '{' after key");
+
+                put(object, path, value);
+
+                expectSeparator(braced ? '}' : 0);
+            }
+        }
+
+        List<Object> parseArray() throws DataSourceException
+        {
+            List<Object> array = new ArrayList<>();
+
+            while (true)
+            {
+                skipSeparators();
+
+                if (position >= end)
+                    throw malformed("unterminated array");
+
+                if (peek() == ']')
+                {
+                    position++;
+                    return array;
+                }
+
+                array.add(parseValue());
+
+                expectSeparator(']');
+            }
+        }
+
+        Object parseValue() throws DataSourceException
+        {
+            if (position >= end)
+                throw malformed("missing value");
+
+            char c = peek();
+
+            switch (c)
+            {
+                case '{':
+                    position++;
+                    return parseObjectBody(true);
+
+                case '[':
+                    position++;
+                    return parseArray();
+
+                case '"':
+                    return parseQuoted();
+
+                case '$':
+                    throw malformed("substitutions are not supported");
+            }
+
+            String token = parseUnquoted().trim();
+
+            if (token.isEmpty())
+                throw malformed("missing value");
+
+            switch (token)
+            {
+                case "null":
+                    return null;
+
+                case "true":
+                case "yes":
+                case "on":
+                    return Boolean.TRUE;
+
+                case "false":
+                case "no":
+                case "off":
+                    return Boolean.FALSE;
+            }
+
+            if (INTEGER.matcher(token).matches())
+                try {
+                    return Long.parseLong(token);
+                } catch (NumberFormatException e) {
+                    return token; // out of range, converted on demand
+                }
+
+            if (FLOAT.matcher(token).matches())
+                return Double.parseDouble(token);
+
+            return token;
+        }
+
+        List<String> parseKey() throws DataSourceException
+        {
+            List<String> path = new ArrayList<>();
+            StringBuilder segment = new StringBuilder();
+            boolean quoted = false;
+
+            while (position < end)
+            {
+                char c = peek();
+
+                if (c == '"')
+                {
+                    segment.append(parseQuoted());
+                    quoted = true;
+                }
+                else if (c == '.')
+                {
+                    path.add(segment.toString());
+                    segment.setLength(0);
+                    quoted = false;
+                    position++;
+                }
+                else if (c == ' ' || c == '\t' || c == '=' || c == ':' || c == '{' || c == '\n' || c == '\r')
+                    break;
+                else if (UNQUOTED_FORBIDDEN.indexOf(c) >= 0)
+                    throw malformed("illegal character '" + c + "' in key");
+                else
+                {
+                    segment.append(c);
+                    position++;
+                }
+            }
+
+            if (segment.length() == 0 && !quoted)
+                throw malformed("empty key");
+
+            path.add(segment.toString());
+
+            return path;
+        }
+
+        String parseQuoted() throws DataSourceException
+        {
+            if (text.startsWith(TRIPLE_QUOTE, position))
+            {
+                int close = skipString(text, position, end);
+
+                if (close >= end && !text.startsWith(TRIPLE_QUOTE, close - 3))
+                    throw malformed("unterminated string");
+
+                String string = text.substring(position + 3, close - 3);
+                line += count(text, position, close, '\n');
+                position = close;
+
+                return string;
+            }
+
+            StringBuilder sb = new StringBuilder();
+
+            for (position++; position < end; position++)
+            {
+                char c = text.charAt(position);
+
+                if (c == '"')
+                {
+                    position++;
+                    return sb.toString();
+                }
+
+                if (c == '\n')
+                    break;
+
+                if (c != '\\')
+                {
+                    sb.append(c);
+                    continue;
+                }
+
+                if (++position >= end)
+                    break;
+
+                char escaped = text.charAt(position);
+                switch (escaped)
+                {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+
+                    case 'r':
+                        sb.append('\r');
+                        break;
+
+                    case 't':
+                        sb.append('\t');
+                        break;
+
+                    case 'b':
+                        sb.append('\b');
+                        break;
+
+                    case 'f':
+                        sb.append('\f');
+                        break;
+
+                    case 'u':
+                        if (position + 4 >= end)
+                            throw malformed("truncated unicode escape");
+
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(position + 1, position + 5), 16));
+                        } catch (NumberFormatException e) {
+                            throw malformed("illegal unicode escape");
+                        }
+
+                        position += 4;
+                        break;
+
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(escaped);
+                        break;
+
+                    default:
+                        throw malformed("illegal escape '\\" + escaped + "'");
+                }
+            }
+
+            throw malformed("unterminated string");
+        }
+
+        String parseUnquoted()
+        {
+            int start = position;
+
+            while (position < end)
+            {
+                char c = peek();
+
+                if (c == '\n' || c == ',' || c == '}' || c == ']' || c == '#'
+                        || (c == '/' && position + 1 < end && text.charAt(position + 1) == '/'))
+                    break;
+
+                position++;
+            }
+
+            return text.substring(start, position);
+        }
+
+        void put(Map<String, Object> object, List<String> path, Object value)
+        {
+            for (int i = path.size() - 1; i > 0; i--)
+            {
+                Map<String, Object> nested = new LinkedHashMap<>();
+                nested.put(path.get(i), value);
+                value = nested;
+            }
+
+            merge(object, path.get(0), value);
+        }
+
+        // a value ends at a comma, a newline, a comment or the closing bracket
+        void expectSeparator(char closing) throws DataSourceException
+        {
+            skipWhitespace(false);
+
+            if (position >= end)
+                return;
+
+            char c = peek();
+
+            if (c == ',' || c == '\n' || c == '\r' || c == '#' || c == '/' || (closing != 0 && c == closing))
+                return;
+
+            throw malformed("expected a separator, found '" + c + "'");
+        }
+
+        void skipSeparators()
+        {
+            while (true)
+            {
+                skipWhitespace(true);
+
+                if (position < end && peek() == ',')
+                    position++;
+                else
+                    return;
+            }
+        }
+
+        void skipWhitespace(boolean newlines)
+        {
+            while (position < end)
+            {
+                char c = peek();
+
+                if (c == '\n')
+                {
+                    if (!newlines)
+                        return;
+
+                    line++;
+                    position++;
+                }
+                else if (Character.isWhitespace(c) || c == '\uFEFF')
+                    position++;
+                else if (newlines && (c == '#' || (c == '/' && position + 1 < end && text.charAt(position + 1) == '/')))
+                    while (position < end && peek() != '\n')
+                        position++;
+                else
+                    return;
+            }
+        }
+
+        char peek()
+        {
+            return position < end ? text.charAt(position) : 0;
+        }
+
+        DataSourceException malformed(String message)
+        {
+            return new DataSourceException("Malformed HOCON at line " + line + ": " + message);
+        }
+
+        private final String text;
+
+        private final int end;
+
+        private int position;
+
+        private int line;
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * TreeMapper.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.tree;
+
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.kraitudao.annotations.Element;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ExpandForcibly;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueList;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueMap;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueSet;
+import com.theredpixelteam.kraitudao.dataobject.*;
+import com.theredpixelteam.kraitudao.dataobject.util.ValueObjectIterator;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectExpander;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationException;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpreter;
+import com.theredpixelteam.kraitudao.interpreter.DataObjectMalformationException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+// maps data objects from and to trees of Map<String, Object>, List<Object> and normalized scalars
+@SuppressWarnings("unchecked")
+public class TreeMapper {
+    public TreeMapper(DataObjectInterpreter interpreter, DataObjectExpander expander, DataObjectContainer container)
+    {
+        this.interpreter = Objects.requireNonNull(interpreter, "interpreter");
+        this.expander = Objects.requireNonNull(expander, "expander");
+        this.container = Objects.requireNonNull(container, "container");
+    }
+
+    public Map<String, Object> toTree(Object object, DataObject dataObject) throws DataSourceException
+    {
+        Map<String, Object> tree = new LinkedHashMap<>();
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            tree.put(valueObject.getName(), toTree(valueObject, valueObject.get(object)));
+
+        return tree;
+    }
+
+    public Map<String, Object> keysToTree(Object object, DataObject dataObject) throws DataSourceException
+    {
+        Map<String, Object> tree = new LinkedHashMap<>();
+
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            if (valueObject.isKey())
+                tree.put(valueObject.getName(), toTree(valueObject, valueObject.get(object)));
+
+        return tree;
+    }
+
+    // absent entries leave the fields untouched
+    public void fromTree(Map<String, Object> tree, Object object, DataObject dataObject) throws DataSourceException
+    {
+        for (ValueObject valueObject : new ValueObjectIterator(dataObject))
+            if (tree.containsKey(valueObject.getName()))
+                fromTree(valueObject, tree.get(valueObject.getName()), object);
+    }
+
+    public Object toTree(ValueObject valueObject, Object value) throws DataSourceException
+    {
+        if (value == null)
+            return null;
+
+        switch (valueObject.getStructure())
+        {
+            case VALUE:
+                return valueToTree(valueObject, value);
+
+            case MAP:
+            {
+                Class<?>[] signature = signatureOf(valueObject);
+                Map<String, Object> tree = new LinkedHashMap<>();
+
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                    tree.put(String.valueOf(scalar(entry.getKey())), elementToTree(signature[1], entry.getValue()));
+
+                return tree;
+            }
+
+            case SET:
+            case LIST:
+            {
+                Class<?>[] signature = signatureOf(valueObject);
+                List<Object> tree = new ArrayList<>();
+
+                for (Object element : (Collection<?>) value)
+                    tree.add(elementToTree(signature[0], element));
+
+                return tree;
+            }
+
+            default:
+                throw new DataSourceException.UnsupportedValueType(valueObject.getName());
+        }
+    }
+
+    private Object valueToTree(ValueObject valueObject, Object value) throws DataSourceException
+    {
+        Class<?> type = valueObject.getType();
+        boolean expandForcibly = valueObject.hasMetadata(ExpandForcibly.class);
+
+        if (!expandForcibly && isScalarType(type))
+            return scalar(value);
+
+        if (!expandForcibly && type.getAnnotation(Element.class) != null)
+            return toTree(value, interpretElement(type));
+
+        Map<String, Object> tree = new LinkedHashMap<>();
+
+        for (ValueObject expandedValueObject : expand(valueObject).values())
+            tree.put(expandedValueObject.getName(), toTree(expandedValueObject, expandedValueObject.get(value)));
+
+        return tree;
+    }
+
+    private Object elementToTree(Class<?> type, Object element) throws DataSourceException
+    {
+        if (element == null)
+            return null;
+
+        if (isScalarType(type))
+            return scalar(element);
+
+        if (type.getAnnotation(Element.class) != null)
+            return toTree(element, interpretElement(type));
+
+        throw new DataSourceException.UnsupportedValueType("(As collection element) " + type.getCanonicalName());
+    }
+
+    // the object is the owner of the value object, or the intermediate value of an expanded one
+    public void fromTree(ValueObject valueObject, Object tree, Object object) throws DataSourceException
+    {
+        if (tree == null)
+        {
+            if (!valueObject.getType().isPrimitive())
+                valueObject.set(object, null);
+
+            return;
+        }
+
+        switch (valueObject.getStructure())
+        {
+            case VALUE:
+                valueFromTree(valueObject, tree, object);
+                return;
+
+            case MAP:
+            {
+                Class<?>[] signature = signatureOf(valueObject);
+                Map<Object, Object> map = (Map<Object, Object>) collectionOf(valueObject, object);
+
+                map.clear();
+                for (Map.Entry<String, Object> entry : asMap(tree, valueObject).entrySet())
+                    map.put(convert(entry.getKey(), signature[0]), elementFromTree(signature[1], entry.getValue()));
+
+                return;
+            }
+
+            case SET:
+            case LIST:
+            {
+                Class<?>[] signature = signatureOf(valueObject);
+                Collection<Object> collection = (Collection<Object>) collectionOf(valueObject, object);
+
+                collection.clear();
+                for (Object element : asList(tree, valueObject))
+                    collection.add(elementFromTree(signature[0], element));
+
+                return;
+            }
+
+            default:
+                throw new DataSourceException.UnsupportedValueType(valueObject.getName());
+        }
+    }
+
+    private void valueFromTree(ValueObject valueObject, Object tree, Object object) throws DataSourceException
+    {
+        Class<?> type = valueObject.getType();
+        boolean expandForcibly = valueObject.hasMetadata(ExpandForcibly.class);
+
+        if (!expandForcibly && isScalarType(type))
+        {
+            valueObject.set(object, convert(tree, type));
+            return;
+        }
+
+        Object value = valueObject.get(object);
+
+        if (value == null) try {
+            valueObject.set(object, value = valueObject.getConstructor().newInstance(object));
+        } catch (Exception e) {
+            throw new DataSourceException("Construction failure", e);
+        }
+
+        if (!expandForcibly && type.getAnnotation(Element.class) != null)
+        {
+            fromTree(asMap(tree, valueObject), value, interpretElement(type));
+            return;
+        }
+
+        Map<String, Object> expandedTree = asMap(tree, valueObject);
+
+        for (ValueObject expandedValueObject : expand(valueObject).values())
+            if (expandedTree.containsKey(expandedValueObject.getName()))
+                fromTree(expandedValueObject, expandedTree.get(expandedValueObject.getName()), value);
+    }
+
+    private Object elementFromTree(Class<?> type, Object tree) throws DataSourceException
+    {
+        if (tree == null)
+            return null;
+
+        if (isScalarType(type))
+            return convert(tree, type);
+
+        if (type.getAnnotation(Element.class) == null)
+            throw new DataSourceException.UnsupportedValueType("(As collection element) " + type.getCanonicalName());
+
+        DataObject elementDataObject = interpretElement(type);
+        Object element;
+
+        try {
+            element = elementDataObject.getConstructor().newInstance(null);
+        } catch (Exception e) {
+            throw new DataSourceException("Exception occurred when constructing element data object", e);
+        }
+
+        if (!(tree instanceof Map))
+            throw new DataSourceException("Malformed element of type " + type.getCanonicalName());
+
+        fromTree((Map<String, Object>) tree, element, elementDataObject);
+
+        return element;
+    }
+
+    private static Object collectionOf(ValueObject valueObject, Object object) throws DataSourceException
+    {
+        Object value = valueObject.get(object);
+
+        if (value == null || !valueObject.getConstructor().onlyOnNull()) try {
+            valueObject.set(object, value = valueObject.getConstructor().newInstance(object));
+        } catch (Exception e) {
+            throw new DataSourceException("Construction failure", e);
+        }
+
+        return value;
+    }
+
+    private static Map<String, Object> asMap(Object tree, ValueObject valueObject) throws DataSourceException
+    {
+        if (!(tree instanceof Map))
+            throw malformed(valueObject, "mapping");
+
+        return (Map<String, Object>) tree;
+    }
+
+    private static List<Object> asList(Object tree, ValueObject valueObject) throws DataSourceException
+    {
+        if (!(tree instanceof List))
+            throw malformed(valueObject, "sequence");
+
+        return (List<Object>) tree;
+    }
+
+    private static DataSourceException malformed(ValueObject valueObject, String expected)
+    {
+        return new DataSourceException("Malformed value of \"" + valueObject.getName() + "\", expected " + expected);
+    }
+
+    // only flat signatures, nested collections are not representable here
+    private static Class<?>[] signatureOf(ValueObject valueObject) throws DataSourceException
+    {
+        Class<?>[] signature;
+        int length;
+
+        switch (valueObject.getStructure())
+        {
+            case MAP:
+                signature = valueObject.getMetadata(ValueMap.class)
+                        .orElseThrow(() -> missing("@ValueMap", valueObject)).signatured();
+                length = 2;
+                break;
+
+            case SET:
+                signature = valueObject.getMetadata(ValueSet.class)
+                        .orElseThrow(() -> missing("@ValueSet", valueObject)).signatured();
+                length = 1;
+                break;
+
+            case LIST:
+                signature = valueObject.getMetadata(ValueList.class)
+                        .orElseThrow(() -> missing("@ValueList", valueObject)).signatured();
+                length = 1;
+                break;
+
+            default:
+                throw new DataSourceException.UnsupportedValueType(valueObject.getName());
+        }
+
+        if (signature.length != length)
+            throw new DataSourceException.UnsupportedValueType("(Nested collection) " + valueObject.getName());
+
+        return signature;
+    }
+
+    private static DataSourceException missing(String metadata, ValueObject valueObject)
+    {
+        return new DataSourceException(new DataObjectMalformationException(
+                "Missing metadata " + metadata + " (Name: " + valueObject.getName() + ")"));
+    }
+
+    private DataObject interpretElement(Class<?> type) throws DataSourceException
+    {
+        try {
+            DataObject dataObject = container.interpretIfAbsent(type, interpreter);
+
+            if (!DataObjectType.ELEMENT.equals(dataObject.getDataObjectType()))
+                throw new DataSourceException.UnsupportedValueType(type.getCanonicalName());
+
+            return dataObject;
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    private Map<String, ValueObject> expand(ValueObject valueObject) throws DataSourceException
+    {
+        try {
+            return container.expand(valueObject, expander)
+                    .orElseThrow(() -> new DataSourceException.UnsupportedValueType(valueObject.getType().getCanonicalName()));
+        } catch (DataObjectInterpretationException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    public static boolean isScalarType(Class<?> type)
+    {
+        return type.isPrimitive()
+                || Number.class.isAssignableFrom(type)
+                || type == String.class
+                || type == Boolean.class
+                || type == Character.class
+                || type.isEnum();
+    }
+
+    // integers to Long, floating numbers to Double, everything else without a tree form to String
+    public static Object scalar(Object value)
+    {
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Long || value instanceof Double)
+            return value;
+
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+
+        if (value instanceof Float)
+            return ((Float) value).doubleValue();
+
+        if (value instanceof Enum)
+            return ((Enum<?>) value).name();
+
+        return value.toString();
+    }
+
+    public static Object convert(Object scalar, Class<?> type) throws DataSourceException
+    {
+        if (scalar == null)
+            return null;
+
+        try {
+            if (type == String.class)
+                return scalar.toString();
+
+            if (type == long.class || type == Long.class)
+                return scalar instanceof Number ? ((Number) scalar).longValue() : Long.parseLong(scalar.toString());
+
+            if (type == int.class || type == Integer.class)
+                return scalar instanceof Number ? ((Number) scalar).intValue() : Integer.parseInt(scalar.toString());
+
+            if (type == short.class || type == Short.class)
+                return scalar instanceof Number ? ((Number) scalar).shortValue() : Short.parseShort(scalar.toString());
+
+            if (type == byte.class || type == Byte.class)
+                return scalar instanceof Number ? ((Number) scalar).byteValue() : Byte.parseByte(scalar.toString());
+
+            if (type == double.class || type == Double.class)
+                return scalar instanceof Number ? ((Number) scalar).doubleValue() : Double.parseDouble(scalar.toString());
+
+            if (type == float.class || type == Float.class)
+                return scalar instanceof Number ? ((Number) scalar).floatValue() : Float.parseFloat(scalar.toString());
+
+            if (type == boolean.class || type == Boolean.class)
+                return scalar instanceof Boolean ? scalar : Boolean.parseBoolean(scalar.toString());
+
+            if (type == char.class || type == Character.class)
+            {
+                String string = scalar.toString();
+
+                if (string.length() != 1)
+                    throw new DataSourceException("Not a character: " + string);
+
+                return string.charAt(0);
+            }
+
+            if (type == BigDecimal.class)
+                return new BigDecimal(scalar.toString());
+
+            if (type == BigInteger.class)
+                return new BigInteger(scalar.toString());
+
+            if (type.isEnum())
+                return Enum.valueOf((Class<Enum>) type, scalar.toString());
+        } catch (IllegalArgumentException e) {
+            throw new DataSourceException("Unconvertible value \"" + scalar + "\" to " + type.getCanonicalName(), e);
+        }
+
+        throw new DataSourceException.UnsupportedValueType(type.getCanonicalName());
+    }
+
+    private final DataObjectInterpreter interpreter;
+
+    private final DataObjectExpander expander;
+
+    private final DataObjectContainer container;
+}
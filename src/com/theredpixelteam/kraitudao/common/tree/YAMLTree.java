@@ -0,0 +1,657 @@
+/*
+ * YAMLTree.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.tree;
+
+import com.theredpixelteam.kraitudao.DataSourceException;
+import com.theredpixelteam.redtea.util.Pair;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+// the block-style subset of YAML written by the plain YAML data source, one tagged mapping per document
+@SuppressWarnings("unchecked")
+public final class YAMLTree {
+    private YAMLTree()
+    {
+    }
+
+    public static void emit(StringBuilder out, String tag, Map<String, Object> tree)
+    {
+        out.append(DOCUMENT_START).append(" !").append(tag);
+
+        if (tree.isEmpty())
+        {
+            out.append(" {}\n");
+            return;
+        }
+
+        out.append('\n');
+        emitMapping(out, tree, 0);
+    }
+
+    private static void emitMapping(StringBuilder out, Map<String, Object> mapping, int indent)
+    {
+        for (Map.Entry<String, Object> entry : mapping.entrySet())
+        {
+            indent(out, indent);
+            emitKey(out, entry.getKey());
+            out.append(':');
+            emitNested(out, entry.getValue(), indent);
+        }
+    }
+
+    private static void emitSequence(StringBuilder out, List<Object> sequence, int indent)
+    {
+        for (Object element : sequence)
+        {
+            indent(out, indent);
+            out.append('-');
+            emitNested(out, element, indent);
+        }
+    }
+
+    private static void emitNested(StringBuilder out, Object value, int indent)
+    {
+        if (value instanceof Map)
+        {
+            Map<String, Object> mapping = (Map<String, Object>) value;
+
+            if (mapping.isEmpty())
+                out.append(" {}\n");
+            else
+            {
+                out.append('\n');
+                emitMapping(out, mapping, indent + INDENT);
+            }
+        }
+        else if (value instanceof List)
+        {
+            List<Object> sequence = (List<Object>) value;
+
+            if (sequence.isEmpty())
+                out.append(" []\n");
+            else
+            {
+                out.append('\n');
+                emitSequence(out, sequence, indent + INDENT);
+            }
+        }
+        else
+        {
+            out.append(' ');
+            emitScalar(out, value);
+            out.append('\n');
+        }
+    }
+
+    private static void emitKey(StringBuilder out, String key)
+    {
+        if (PLAIN_KEY.matcher(key).matches())
+            out.append(key);
+        else
+            quote(out, key);
+    }
+
+    public static void emitScalar(StringBuilder out, Object value)
+    {
+        if (value == null)
+            out.append("null");
+        else if (value instanceof String)
+            quote(out, (String) value);
+        else if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()))
+        {
+            double d = (Double) value;
+            out.append(Double.isNaN(d) ? ".nan" : (d > 0 ? ".inf" : "-.inf"));
+        }
+        else
+            out.append(value);
+    }
+
+    private static void quote(StringBuilder out, String string)
+    {
+        out.append('"');
+
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+
+            switch (c)
+            {
+                case '"':
+                    out.append("\\\"");
+                    break;
+
+                case '\\':
+                    out.append("\\\\");
+                    break;
+
+                case '\n':
+                    out.append("\\n");
+                    break;
+
+                case '\r':
+                    out.append("\\r");
+                    break;
+
+                case '\t':
+                    out.append("\\t");
+                    break;
+
+                default:
+                    if (c < 0x20 || c == 0x7F)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+
+        out.append('"');
+    }
+
+    private static void indent(StringBuilder out, int indent)
+    {
+        for (int i = 0; i < indent; i++)
+            out.append(' ');
+    }
+
+    // returns the tag and the root mapping of a single document
+    public static Pair<String, Map<String, Object>> parse(String document) throws DataSourceException
+    {
+        List<Line> lines = new ArrayList<>();
+
+        String[] raw = document.split("\n", -1);
+        for (int i = 0; i < raw.length; i++)
+        {
+            String line = raw[i];
+
+            if (line.endsWith("\r"))
+                line = line.substring(0, line.length() - 1);
+
+            String trimmed = line.trim();
+
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+
+            int indent = 0;
+            while (line.charAt(indent) == ' ')
+                indent++;
+
+            lines.add(new Line(i + 1, indent, stripComment(trimmed)));
+        }
+
+        if (lines.isEmpty() || !lines.get(0).content.startsWith(DOCUMENT_START))
+            throw new DataSourceException("Malformed YAML: missing document start");
+
+        Line header = lines.remove(0);
+        String rest = header.content.substring(DOCUMENT_START.length()).trim();
+
+        String tag = null;
+        if (rest.startsWith("!"))
+        {
+            int end = rest.indexOf(' ');
+            tag = end < 0 ? rest.substring(1) : rest.substring(1, end);
+            rest = end < 0 ? "" : rest.substring(end + 1).trim();
+        }
+
+        Map<String, Object> root;
+
+        if (!rest.isEmpty())
+        {
+            Object inline = parseInline(rest, header.number);
+
+            if (!(inline instanceof Map))
+                throw malformed(header.number, "root is not a mapping");
+
+            root = (Map<String, Object>) inline;
+        }
+        else if (lines.isEmpty())
+            root = new LinkedHashMap<>();
+        else
+        {
+            Cursor cursor = new Cursor(lines);
+            Object block = parseBlock(cursor, cursor.peek().indent);
+
+            if (!(block instanceof Map))
+                throw malformed(lines.get(0).number, "root is not a mapping");
+
+            if (cursor.hasNext())
+                throw malformed(cursor.peek().number, "unexpected indentation");
+
+            root = (Map<String, Object>) block;
+        }
+
+        return Pair.of(tag, root);
+    }
+
+    private static Object parseBlock(Cursor cursor, int indent) throws DataSourceException
+    {
+        Line first = cursor.peek();
+
+        if (isSequenceItem(first.content))
+            return parseSequence(cursor, indent);
+
+        return parseMapping(cursor, indent);
+    }
+
+    private static Map<String, Object> parseMapping(Cursor cursor, int indent) throws DataSourceException
+    {
+        Map<String, Object> mapping = new LinkedHashMap<>();
+
+        while (cursor.hasNext())
+        {
+            Line line = cursor.peek();
+
+            if (line.indent < indent)
+                break;
+
+            if (line.indent > indent)
+                throw malformed(line.number, "unexpected indentation");
+
+            if (isSequenceItem(line.content))
+                break;
+
+            cursor.next();
+
+            int colon = findColon(line.content);
+            if (colon < 0)
+                throw malformed(line.number, "expected a mapping entry");
+
+            String key = parseKey(line.content.substring(0, colon).trim(), line.number);
+            String value = line.content.substring(colon + 1).trim();
+
+            if (mapping.containsKey(key))
+                throw malformed(line.number, "duplicated key \"" + key + "\"");
+
+            mapping.put(key, value.isEmpty() ? parseNested(cursor, indent, true) : parseInline(value, line.number));
+        }
+
+        return mapping;
+    }
+
+    private static List<Object> parseSequence(Cursor cursor, int indent) throws DataSourceException
+    {
+        List<Object> sequence = new ArrayList<>();
+
+        while (cursor.hasNext())
+        {
+            Line line = cursor.peek();
+
+            if (line.indent < indent || !isSequenceItem(line.content))
+                break;
+
+            if (line.indent > indent)
+                throw malformed(line.number, "unexpected indentation");
+
+            cursor.next();
+
+            String value = line.content.substring(1).trim();
+
+            if (value.isEmpty())
+                sequence.add(parseNested(cursor, indent, false));
+            else if (!value.startsWith("\"") && !value.startsWith("'") && findColon(value) >= 0)
+            {
+                // compact mapping "- key: value", continued at the indentation of its first key
+                int nested = line.indent + line.content.indexOf(value);
+                cursor.push(new Line(line.number, nested, value));
+                sequence.add(parseMapping(cursor, nested));
+            }
+            else
+                sequence.add(parseInline(value, line.number));
+        }
+
+        return sequence;
+    }
+
+    private static Object parseNested(Cursor cursor, int indent, boolean allowSameIndentSequence) throws DataSourceException
+    {
+        if (!cursor.hasNext())
+            return null;
+
+        Line next = cursor.peek();
+
+        if (next.indent > indent)
+            return parseBlock(cursor, next.indent);
+
+        // "key:" followed by a sequence at the same indentation
+        if (allowSameIndentSequence && next.indent == indent && isSequenceItem(next.content))
+            return parseSequence(cursor, indent);
+
+        return null;
+    }
+
+    private static Object parseInline(String value, int number) throws DataSourceException
+    {
+        if (value.equals("{}"))
+            return new LinkedHashMap<>();
+
+        if (value.startsWith("[") && value.endsWith("]"))
+        {
+            List<Object> sequence = new ArrayList<>();
+            String content = value.substring(1, value.length() - 1).trim();
+
+            if (!content.isEmpty())
+                for (String element : splitFlow(content, number))
+                    sequence.add(parseScalar(element.trim(), number));
+
+            return sequence;
+        }
+
+        if (value.startsWith("{") || value.startsWith("["))
+            throw malformed(number, "unsupported flow collection");
+
+        return parseScalar(value, number);
+    }
+
+    private static List<String> splitFlow(String content, int number) throws DataSourceException
+    {
+        List<String> elements = new ArrayList<>();
+        int start = 0;
+        char quote = 0;
+
+        for (int i = 0; i < content.length(); i++)
+        {
+            char c = content.charAt(i);
+
+            if (quote != 0)
+            {
+                if (c == '\\' && quote == '"')
+                    i++;
+                else if (c == quote)
+                    quote = 0;
+            }
+            else if (c == '"' || c == '\'')
+                quote = c;
+            else if (c == ',')
+            {
+                elements.add(content.substring(start, i));
+                start = i + 1;
+            }
+            else if (c == '[' || c == '{')
+                throw malformed(number, "nested flow collection");
+        }
+
+        elements.add(content.substring(start));
+
+        return elements;
+    }
+
+    public static Object parseScalar(String value, int number) throws DataSourceException
+    {
+        if (value.startsWith("\""))
+            return unquoteDouble(value, number);
+
+        if (value.startsWith("'"))
+        {
+            if (value.length() < 2 || !value.endsWith("'"))
+                throw malformed(number, "unterminated string");
+
+            return value.substring(1, value.length() - 1).replace("''", "'");
+        }
+
+        switch (value)
+        {
+            case "null":
+            case "Null":
+            case "NULL":
+            case "~":
+                return null;
+
+            case "true":
+            case "True":
+            case "TRUE":
+                return Boolean.TRUE;
+
+            case "false":
+            case "False":
+            case "FALSE":
+                return Boolean.FALSE;
+
+            case ".nan":
+            case ".NaN":
+                return Double.NaN;
+
+            case ".inf":
+            case "+.inf":
+                return Double.POSITIVE_INFINITY;
+
+            case "-.inf":
+                return Double.NEGATIVE_INFINITY;
+        }
+
+        if (INTEGER.matcher(value).matches())
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return value; // out of range, converted on demand
+            }
+
+        if (FLOAT.matcher(value).matches())
+            return Double.parseDouble(value);
+
+        return value;
+    }
+
+    private static String unquoteDouble(String value, int number) throws DataSourceException
+    {
+        StringBuilder sb = new StringBuilder();
+        int i = 1;
+
+        for (; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (c == '"')
+                break;
+
+            if (c != '\\')
+            {
+                sb.append(c);
+                continue;
+            }
+
+            if (++i >= value.length())
+                throw malformed(number, "unterminated escape");
+
+            char escaped = value.charAt(i);
+            switch (escaped)
+            {
+                case 'n':
+                    sb.append('\n');
+                    break;
+
+                case 'r':
+                    sb.append('\r');
+                    break;
+
+                case 't':
+                    sb.append('\t');
+                    break;
+
+                case '0':
+                    sb.append('\0');
+                    break;
+
+                case 'u':
+                    if (i + 4 >= value.length())
+                        throw malformed(number, "truncated unicode escape");
+
+                    try {
+                        sb.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw malformed(number, "illegal unicode escape");
+                    }
+
+                    i += 4;
+                    break;
+
+                default:
+                    sb.append(escaped);
+            }
+        }
+
+        if (i != value.length() - 1)
+            throw malformed(number, "unterminated string");
+
+        return sb.toString();
+    }
+
+    private static String parseKey(String key, int number) throws DataSourceException
+    {
+        // only a quoted key may be empty, map values keep whatever keys they were given
+        boolean quoted = key.startsWith("\"") || key.startsWith("'");
+        Object parsed = quoted ? parseScalar(key, number) : key;
+
+        if (!(parsed instanceof String) || (!quoted && ((String) parsed).isEmpty()))
+            throw malformed(number, "illegal key");
+
+        return (String) parsed;
+    }
+
+    // the colon of "key: value" or "key:", outside of quotes
+    private static int findColon(String content)
+    {
+        char quote = 0;
+
+        for (int i = 0; i < content.length(); i++)
+        {
+            char c = content.charAt(i);
+
+            if (quote != 0)
+            {
+                if (c == '\\' && quote == '"')
+                    i++;
+                else if (c == quote)
+                    quote = 0;
+            }
+            else if (c == '"' || c == '\'')
+            {
+                if (i == 0)
+                    quote = c;
+            }
+            else if (c == ':' && (i + 1 == content.length() || content.charAt(i + 1) == ' '))
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static String stripComment(String content)
+    {
+        char quote = 0;
+
+        for (int i = 0; i < content.length(); i++)
+        {
+            char c = content.charAt(i);
+
+            if (quote != 0)
+            {
+                if (c == '\\' && quote == '"')
+                    i++;
+                else if (c == quote)
+                    quote = 0;
+            }
+            else if (c == '"' || c == '\'')
+                quote = c;
+            else if (c == '#' && i > 0 && content.charAt(i - 1) == ' ')
+                return content.substring(0, i).trim();
+        }
+
+        return content;
+    }
+
+    private static boolean isSequenceItem(String content)
+    {
+        return content.equals("-") || content.startsWith("- ");
+    }
+
+    private static DataSourceException malformed(int number, String message)
+    {
+        return new DataSourceException("Malformed YAML at line " + number + ": " + message);
+    }
+
+    public static final String DOCUMENT_START = "---";
+
+    private static final int INDENT = 2;
+
+    private static final Pattern PLAIN_KEY = Pattern.compile("[A-Za-z_][A-Za-z0-9_.\\-]*");
+
+    private static final Pattern INTEGER = Pattern.compile("[-+]?[0-9]+");
+
+    private static final Pattern FLOAT = Pattern.compile("[-+]?([0-9]+\\.[0-9]*|\\.[0-9]+)([eE][-+]?[0-9]+)?|[-+]?[0-9]+[eE][-+]?[0-9]+");
+
+    private static final class Line
+    {
+        Line(int number, int indent, String content)
+        {
+            this.number = number;
+            this.indent = indent;
+            this.content = content;
+        }
+
+        final int number;
+
+        final int indent;
+
+        final String content;
+    }
+
+    private static final class Cursor
+    {
+        Cursor(List<Line> lines)
+        {
+            this.lines = lines;
+        }
+
+        boolean hasNext()
+        {
+            return pushed != null || position < lines.size();
+        }
+
+        Line peek()
+        {
+            return pushed != null ? pushed : lines.get(position);
+        }
+
+        Line next()
+        {
+            if (pushed != null)
+            {
+                Line line = pushed;
+                pushed = null;
+                return line;
+            }
+
+            return lines.get(position++);
+        }
+
+        void push(Line line)
+        {
+            pushed = line;
+        }
+
+        private final List<Line> lines;
+
+        private int position;
+
+        private Line pushed;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Condition.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.criteria;
+
+import java.util.*;
+
+public abstract class Condition {
+    Condition(Operator operator)
+    {
+        this.operator = operator;
+    }
+
+    public Operator getOperator()
+    {
+        return operator;
+    }
+
+    public abstract void collectColumns(Collection<String> columns);
+
+    public abstract void collectValues(List<Object> values);
+
+    abstract void appendShape(StringBuilder shape);
+
+    public String getShape()
+    {
+        String shape;
+
+        if ((shape = this.shape) == null)
+        {
+            StringBuilder sb = new StringBuilder();
+            appendShape(sb);
+            this.shape = shape = sb.toString();
+        }
+
+        return shape;
+    }
+
+    public Condition and(Condition condition)
+    {
+        return and(this, condition);
+    }
+
+    public Condition or(Condition condition)
+    {
+        return or(this, condition);
+    }
+
+    public Condition negate()
+    {
+        return not(this);
+    }
+
+    public static Condition equalTo(String column, Object value)
+    {
+        return new Comparison(Operator.EQUAL, column, value);
+    }
+
+    public static Condition notEqualTo(String column, Object value)
+    {
+        return new Comparison(Operator.NOT_EQUAL, column, value);
+    }
+
+    public static Condition lessThan(String column, Object value)
+    {
+        return new Comparison(Operator.LESS, column, value);
+    }
+
+    public static Condition lessThanOrEqualTo(String column, Object value)
+    {
+        return new Comparison(Operator.LESS_OR_EQUAL, column, value);
+    }
+
+    public static Condition greaterThan(String column, Object value)
+    {
+        return new Comparison(Operator.GREATER, column, value);
+    }
+
+    public static Condition greaterThanOrEqualTo(String column, Object value)
+    {
+        return new Comparison(Operator.GREATER_OR_EQUAL, column, value);
+    }
+
+    public static Condition between(String column, Object lowerBound, Object upperBound)
+    {
+        return new Comparison(Operator.BETWEEN, column, lowerBound, upperBound);
+    }
+
+    public static Condition in(String column, Object... values)
+    {
+        if (values.length == 0)
+            throw new IllegalArgumentException("Empty value list of IN (Column: " + column + ")");
+
+        return new Comparison(Operator.IN, column, values);
+    }
+
+    public static Condition in(String column, Collection<?> values)
+    {
+        return in(column, values.toArray());
+    }
+
+    public static Condition like(String column, String pattern)
+    {
+        return new Comparison(Operator.LIKE, column, pattern);
+    }
+
+    public static Condition isNull(String column)
+    {
+        return new Comparison(Operator.IS_NULL, column);
+    }
+
+    public static Condition isNotNull(String column)
+    {
+        return new Comparison(Operator.IS_NOT_NULL, column);
+    }
+
+    public static Condition rowGreaterThan(String[] columns, Object[] values)
+    {
+        return new RowComparison(Operator.ROW_GREATER, columns, values);
+    }
+
+    public static Condition rowLessThan(String[] columns, Object[] values)
+    {
+        return new RowComparison(Operator.ROW_LESS, columns, values);
+    }
+
+    public static Condition and(Condition... conditions)
+    {
+        return new Junction(Operator.AND, conditions);
+    }
+
+    public static Condition or(Condition... conditions)
+    {
+        return new Junction(Operator.OR, conditions);
+    }
+
+    public static Condition not(Condition condition)
+    {
+        return new Negation(condition);
+    }
+
+    private final Operator operator;
+
+    private volatile String shape;
+
+    public static final class Comparison extends Condition
+    {
+        Comparison(Operator operator, String column, Object... values)
+        {
+            super(operator);
+            this.column = Objects.requireNonNull(column, "column");
+            this.values = values;
+
+            for (Object value : values)
+                if (value == null)
+                    throw new IllegalArgumentException("Null value in condition (Column: " + column + ", use isNull/isNotNull instead)");
+        }
+
+        public String getColumn()
+        {
+            return column;
+        }
+
+        public int getValueCount()
+        {
+            return values.length;
+        }
+
+        @Override
+        public void collectColumns(Collection<String> columns)
+        {
+            columns.add(column);
+        }
+
+        @Override
+        public void collectValues(List<Object> values)
+        {
+            Collections.addAll(values, this.values);
+        }
+
+        @Override
+        void appendShape(StringBuilder shape)
+        {
+            shape.append(getOperator().name()).append("(").append(column);
+
+            if (Operator.IN.equals(getOperator()))
+                shape.append(",").append(values.length);
+
+            shape.append(")");
+        }
+
+        private final String column;
+
+        private final Object[] values;
+    }
+
+    public static final class RowComparison extends Condition
+    {
+        RowComparison(Operator operator, String[] columns, Object[] values)
+        {
+            super(operator);
+
+            if (columns.length == 0 || columns.length != values.length)
+                throw new IllegalArgumentException("Row value arity mismatch");
+
+            for (int i = 0; i < columns.length; i++)
+            {
+                Objects.requireNonNull(columns[i], "column");
+
+                if (values[i] == null)
+                    throw new IllegalArgumentException("Null value in row comparison (Column: " + columns[i] + ")");
+            }
+
+            this.columns = Arrays.copyOf(columns, columns.length);
+            this.values = Arrays.copyOf(values, values.length);
+        }
+
+        public String[] getColumns()
+        {
+            return Arrays.copyOf(columns, columns.length);
+        }
+
+        @Override
+        public void collectColumns(Collection<String> columns)
+        {
+            Collections.addAll(columns, this.columns);
+        }
+
+        @Override
+        public void collectValues(List<Object> values)
+        {
+            Collections.addAll(values, this.values);
+        }
+
+        @Override
+        void appendShape(StringBuilder shape)
+        {
+            shape.append(getOperator().name()).append("(");
+
+            for (int i = 0; i < columns.length; i++)
+            {
+                if (i != 0)
+                    shape.append(",");
+
+                shape.append(columns[i]);
+            }
+
+            shape.append(")");
+        }
+
+        private final String[] columns;
+
+        private final Object[] values;
+    }
+
+    public static final class Junction extends Condition
+    {
+        Junction(Operator operator, Condition... conditions)
+        {
+            super(operator);
+
+            if (conditions.length == 0)
+                throw new IllegalArgumentException("Empty junction");
+
+            List<Condition> list = new ArrayList<>(conditions.length);
+
+            for (Condition condition : conditions) // flatten nested junctions of the same kind
+                if (Objects.requireNonNull(condition, "condition").getOperator().equals(operator))
+                    list.addAll(((Junction) condition).conditions);
+                else
+                    list.add(condition);
+
+            this.conditions = Collections.unmodifiableList(list);
+        }
+
+        public List<Condition> getConditions()
+        {
+            return conditions;
+        }
+
+        @Override
+        public void collectColumns(Collection<String> columns)
+        {
+            for (Condition condition : conditions)
+                condition.collectColumns(columns);
+        }
+
+        @Override
+        public void collectValues(List<Object> values)
+        {
+            for (Condition condition : conditions)
+                condition.collectValues(values);
+        }
+
+        @Override
+        void appendShape(StringBuilder shape)
+        {
+            shape.append(getOperator().name()).append("(");
+
+            int i = 0;
+            for (Condition condition : conditions)
+            {
+                if (i++ != 0)
+                    shape.append(",");
+
+                condition.appendShape(shape);
+            }
+
+            shape.append(")");
+        }
+
+        private final List<Condition> conditions;
+    }
+
+    public static final class Negation extends Condition
+    {
+        Negation(Condition condition)
+        {
+            super(Operator.NOT);
+            this.condition = Objects.requireNonNull(condition, "condition");
+        }
+
+        public Condition getCondition()
+        {
+            return condition;
+        }
+
+        @Override
+        public void collectColumns(Collection<String> columns)
+        {
+            condition.collectColumns(columns);
+        }
+
+        @Override
+        public void collectValues(List<Object> values)
+        {
+            condition.collectValues(values);
+        }
+
+        @Override
+        void appendShape(StringBuilder shape)
+        {
+            shape.append("NOT(");
+            condition.appendShape(shape);
+            shape.append(")");
+        }
+
+        private final Condition condition;
+    }
+}
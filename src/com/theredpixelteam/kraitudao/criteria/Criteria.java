@@ -0,0 +1,221 @@
+/*
+ * Criteria.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.criteria;
+
+import com.theredpixelteam.redtea.util.Optional;
+
+import java.util.*;
+
+public final class Criteria<T> {
+    private Criteria(Class<T> type, Condition condition, List<Order> orders, int limit, int offset)
+    {
+        this.type = type;
+        this.condition = condition;
+        this.orders = Collections.unmodifiableList(orders);
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public static <T> Builder<T> of(Class<T> type)
+    {
+        return new Builder<>(type);
+    }
+
+    public Class<T> getType()
+    {
+        return type;
+    }
+
+    public Optional<Condition> getCondition()
+    {
+        return Optional.ofNullable(condition);
+    }
+
+    public List<Order> getOrders()
+    {
+        return orders;
+    }
+
+    public boolean hasLimit()
+    {
+        return limit >= 0;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public boolean hasOffset()
+    {
+        return offset > 0;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    public Set<String> getColumns()
+    {
+        Set<String> columns = new LinkedHashSet<>();
+
+        if (condition != null)
+            condition.collectColumns(columns);
+
+        for (Order order : orders)
+            columns.add(order.getColumn());
+
+        return columns;
+    }
+
+    public List<Object> getValues()
+    {
+        List<Object> values = new ArrayList<>();
+
+        if (condition != null)
+            condition.collectValues(values);
+
+        return values;
+    }
+
+    // values, limit and offset are bound as arguments, so they are not part of the shape
+    public String getShape()
+    {
+        String shape;
+
+        if ((shape = this.shape) == null)
+        {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append(condition == null ? "*" : condition.getShape());
+
+            for (Order order : orders)
+                sb.append("|").append(order);
+
+            if (hasLimit())
+                sb.append("|LIMIT");
+
+            if (hasOffset())
+                sb.append("|OFFSET");
+
+            this.shape = shape = sb.toString();
+        }
+
+        return shape;
+    }
+
+    public Builder<T> toBuilder()
+    {
+        Builder<T> builder = new Builder<>(type);
+
+        builder.condition = condition;
+        builder.orders.addAll(orders);
+        builder.limit = limit;
+        builder.offset = offset;
+
+        return builder;
+    }
+
+    private final Class<T> type;
+
+    private final Condition condition;
+
+    private final List<Order> orders;
+
+    private final int limit;
+
+    private final int offset;
+
+    private volatile String shape;
+
+    public static class Builder<T>
+    {
+        Builder(Class<T> type)
+        {
+            this.type = Objects.requireNonNull(type, "type");
+        }
+
+        public Builder<T> where(Condition condition)
+        {
+            this.condition = Objects.requireNonNull(condition, "condition");
+            return this;
+        }
+
+        public Builder<T> and(Condition condition)
+        {
+            this.condition = this.condition == null ? condition : this.condition.and(condition);
+            return this;
+        }
+
+        public Builder<T> or(Condition condition)
+        {
+            this.condition = this.condition == null ? condition : this.condition.or(condition);
+            return this;
+        }
+
+        public Builder<T> orderBy(String column)
+        {
+            orders.add(Order.ascending(column));
+            return this;
+        }
+
+        public Builder<T> orderByDescending(String column)
+        {
+            orders.add(Order.descending(column));
+            return this;
+        }
+
+        public Builder<T> limit(int limit)
+        {
+            if (limit < 0)
+                throw new IllegalArgumentException("Negative limit");
+
+            this.limit = limit;
+            return this;
+        }
+
+        public Builder<T> offset(int offset)
+        {
+            if (offset < 0)
+                throw new IllegalArgumentException("Negative offset");
+
+            this.offset = offset;
+            return this;
+        }
+
+        public Criteria<T> build()
+        {
+            return new Criteria<>(type, condition, new ArrayList<>(orders), limit, offset);
+        }
+
+        private final Class<T> type;
+
+        private Condition condition;
+
+        private final List<Order> orders = new ArrayList<>();
+
+        private int limit = -1;
+
+        private int offset;
+    }
+}
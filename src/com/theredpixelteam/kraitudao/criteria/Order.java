@@ -0,0 +1,62 @@
+/*
+ * Order.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.criteria;
+
+import java.util.Objects;
+
+public final class Order {
+    private Order(String column, boolean descending)
+    {
+        this.column = Objects.requireNonNull(column, "column");
+        this.descending = descending;
+    }
+
+    public static Order ascending(String column)
+    {
+        return new Order(column, false);
+    }
+
+    public static Order descending(String column)
+    {
+        return new Order(column, true);
+    }
+
+    public String getColumn()
+    {
+        return column;
+    }
+
+    public boolean isDescending()
+    {
+        return descending;
+    }
+
+    @Override
+    public String toString()
+    {
+        return column + (descending ? " DESC" : " ASC");
+    }
+
+    private final String column;
+
+    private final boolean descending;
+}
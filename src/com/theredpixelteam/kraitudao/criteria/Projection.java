@@ -0,0 +1,79 @@
+/*
+ * Projection.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.criteria;
+
+import java.util.*;
+
+public final class Projection {
+    private Projection(Set<String> fields)
+    {
+        this.fields = Collections.unmodifiableSet(fields);
+    }
+
+    public static Projection of(String... fields)
+    {
+        return of(Arrays.asList(fields));
+    }
+
+    public static Projection of(Collection<String> fields)
+    {
+        Set<String> set = new LinkedHashSet<>();
+
+        for (String field : fields)
+            set.add(Objects.requireNonNull(field, "field"));
+
+        if (set.isEmpty())
+            throw new IllegalArgumentException("Empty projection");
+
+        return new Projection(set);
+    }
+
+    public Set<String> getFields()
+    {
+        return fields;
+    }
+
+    public boolean includes(String field)
+    {
+        return fields.contains(field);
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        return object instanceof Projection && fields.equals(((Projection) object).fields);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return fields.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.join(",", fields);
+    }
+
+    private final Set<String> fields;
+}
@@ -42,7 +42,12 @@ public interface DataObjectContainer {
     public default DataObject interpretIfAbsent(Class<?> type, DataObjectInterpreter interpreter)
             throws DataObjectInterpretationException
     {
-        return get(type).orElse(interpret(type, interpreter));
+        Optional<DataObject> cached = get(type);
+
+        if (cached.isPresent())
+            return cached.getSilently();
+
+        return interpret(type, interpreter);
     }
 
     public Optional<Map<String, ValueObject>> expand(ValueObject valueObject, DataObjectExpander expander)
@@ -0,0 +1,123 @@
+/*
+ * IgnoredValues.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.interpreter.common;
+
+import com.theredpixelteam.kraitudao.misc.Misc;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// @IgnoreWhenEquals compiled against the value type, matching exactly what the string comparison
+// of value.toString() matched, non-canonical spellings such as "007" for an int never match
+final class IgnoredValues {
+    private IgnoredValues()
+    {
+    }
+
+    static Predicate<Object> of(Class<?> type, String value)
+    {
+        Class<?> unboxed = Misc.tryToUnbox(type);
+
+        try {
+            if (unboxed == boolean.class)
+            {
+                boolean expected = Boolean.parseBoolean(value);
+                return canonical(value, String.valueOf(expected)) ? v -> (Boolean) v == expected : NEVER;
+            }
+
+            if (unboxed == char.class)
+            {
+                if (value.length() != 1)
+                    return NEVER;
+
+                char expected = value.charAt(0);
+                return v -> (Character) v == expected;
+            }
+
+            if (unboxed == byte.class)
+            {
+                byte expected = Byte.parseByte(value);
+                return canonical(value, String.valueOf(expected)) ? v -> (Byte) v == expected : NEVER;
+            }
+
+            if (unboxed == short.class)
+            {
+                short expected = Short.parseShort(value);
+                return canonical(value, String.valueOf(expected)) ? v -> (Short) v == expected : NEVER;
+            }
+
+            if (unboxed == int.class)
+            {
+                int expected = Integer.parseInt(value);
+                return canonical(value, String.valueOf(expected)) ? v -> (Integer) v == expected : NEVER;
+            }
+
+            if (unboxed == long.class)
+            {
+                long expected = Long.parseLong(value);
+                return canonical(value, String.valueOf(expected)) ? v -> (Long) v == expected : NEVER;
+            }
+
+            // compared bitwise, so "NaN" matches NaN and "-0.0" does not match 0.0
+            if (unboxed == float.class)
+            {
+                int expected = Float.floatToIntBits(Float.parseFloat(value));
+                return canonical(value, String.valueOf(Float.intBitsToFloat(expected)))
+                        ? v -> Float.floatToIntBits((Float) v) == expected : NEVER;
+            }
+
+            if (unboxed == double.class)
+            {
+                long expected = Double.doubleToLongBits(Double.parseDouble(value));
+                return canonical(value, String.valueOf(Double.longBitsToDouble(expected)))
+                        ? v -> Double.doubleToLongBits((Double) v) == expected : NEVER;
+            }
+        } catch (NumberFormatException e) {
+            return NEVER;
+        }
+
+        if (type == String.class)
+            return value::equals;
+
+        if (type.isEnum())
+        {
+            Map<Object, Object> matched = new IdentityHashMap<>();
+
+            for (Object constant : type.getEnumConstants())
+                if (value.equals(constant.toString()))
+                    matched.put(constant, constant);
+
+            return matched.isEmpty() ? NEVER : matched::containsKey;
+        }
+
+        // no parsed form known, still compared through the string
+        return v -> value.equals(v.toString());
+    }
+
+    private static boolean canonical(String value, String canonical)
+    {
+        return value.equals(canonical);
+    }
+
+    private static final Predicate<Object> NEVER = v -> false;
+}
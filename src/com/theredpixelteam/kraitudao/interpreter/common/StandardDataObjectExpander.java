@@ -27,6 +27,13 @@ import com.theredpixelteam.kraitudao.interpreter.DataObjectInterpretationExcepti
 import com.theredpixelteam.kraitudao.interpreter.DataObjectMalformationException;
 import com.theredpixelteam.redtea.util.Optional;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
@@ -130,16 +137,18 @@ public class StandardDataObjectExpander implements DataObjectExpander {
         {
             case THIS:
                 try {
-                    checkReturnType(m0 = dataObject.getType().getMethod(getter.name(), type), type);
+                    checkReturnType(m0 = dataObject.getType().getMethod(getter.name(), origin.getType()), type);
                 } catch (NoSuchMethodException e) {
                     throw new DataObjectMalformationException(String.format("Expanding (Name: %s, Entry: %s)",
                             valueObjectContainer.getName(),
                             entry.name()), e);
                 }
 
+                ThisGetter thisGetter = accessor(m0, ThisGetter.class);
+
                 valueObjectContainer.getter = (object) -> {
                     try {
-                        return m0.invoke(object, origin.get(object));
+                        return thisGetter.get(object, origin.get(object));
                     } catch (Exception e) {
                         throw new DataObjectError("Reflection error", e);
                     }
@@ -155,9 +164,11 @@ public class StandardDataObjectExpander implements DataObjectExpander {
                             entry.name()), e);
                 }
 
+                FieldGetter fieldGetter = accessor(m0, FieldGetter.class);
+
                 valueObjectContainer.getter = (object) -> {
                     try {
-                        return m0.invoke(origin.get(object));
+                        return fieldGetter.get(origin.get(object));
                     } catch (Exception e) {
                         throw new DataObjectError("Reflection error", e);
                     }
@@ -176,9 +187,11 @@ public class StandardDataObjectExpander implements DataObjectExpander {
                             entry.name()), e);
                 }
 
+                ThisSetter thisSetter = accessor(m1, ThisSetter.class);
+
                 valueObjectContainer.setter = (object, value) -> {
                     try {
-                        m1.invoke(object, origin.get(object), value);
+                        thisSetter.set(object, origin.get(object), value);
                     } catch (Exception e) {
                         throw new DataObjectError("Reflection error", e);
                     }
@@ -194,9 +207,11 @@ public class StandardDataObjectExpander implements DataObjectExpander {
                             entry.name()), e);
                 }
 
+                FieldSetter fieldSetter = accessor(m1, FieldSetter.class);
+
                 valueObjectContainer.setter = (object, value) -> {
                     try {
-                        m1.invoke(origin.get(object), value);
+                        fieldSetter.set(origin.get(object), value);
                     } catch (Exception e) {
                         throw new DataObjectError("Reflection error", e);
                     }
@@ -205,6 +220,42 @@ public class StandardDataObjectExpander implements DataObjectExpander {
         }
     }
 
+    // each accessor spun into a class of its own by the lambda metafactory, calling the method directly so the
+    // call is a constant the JIT can inline; methods of types our class loader cannot resolve, or which it
+    // cannot access, are left to reflection
+    private static <T> T accessor(Method method, Class<T> accessorType)
+    {
+        if(!visible(method.getDeclaringClass()))
+            return accessorType.cast(new ReflectiveAccessor(method));
+
+        CallSite callSite;
+        try {
+            Method sam = accessorType.getMethods()[0];
+            MethodType samType = MethodType.methodType(sam.getReturnType(), sam.getParameterTypes());
+            MethodHandle handle = LOOKUP.unreflect(method);
+
+            callSite = LambdaMetafactory.metafactory(LOOKUP, sam.getName(), MethodType.methodType(accessorType),
+                    samType, handle, handle.type().wrap().changeReturnType(samType.returnType()));
+        } catch (IllegalAccessException | LambdaConversionException e) {
+            return accessorType.cast(new ReflectiveAccessor(method));
+        }
+
+        try {
+            return accessorType.cast(callSite.getTarget().invoke());
+        } catch (Throwable e) {
+            throw new DataObjectError("Accessor construction", e);
+        }
+    }
+
+    private static boolean visible(Class<?> type)
+    {
+        try {
+            return Class.forName(type.getName(), false, StandardDataObjectExpander.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
     private static void checkReturnType(Method method, Class<?> required) throws NoSuchMethodException
     {
         if(!method.getReturnType().equals(required))
@@ -239,5 +290,74 @@ public class StandardDataObjectExpander implements DataObjectExpander {
         final ValueObject source;
     }
 
+    static interface FieldGetter
+    {
+        Object get(Object origin) throws Exception;
+    }
+
+    static interface ThisGetter
+    {
+        Object get(Object object, Object origin) throws Exception;
+    }
+
+    static interface FieldSetter
+    {
+        void set(Object origin, Object value) throws Exception;
+    }
+
+    static interface ThisSetter
+    {
+        void set(Object object, Object origin, Object value) throws Exception;
+    }
+
+    static class ReflectiveAccessor implements FieldGetter, ThisGetter, FieldSetter, ThisSetter
+    {
+        ReflectiveAccessor(Method method)
+        {
+            this.method = method;
+        }
+
+        @Override
+        public Object get(Object origin) throws Exception
+        {
+            return invoke(origin);
+        }
+
+        @Override
+        public Object get(Object object, Object origin) throws Exception
+        {
+            return invoke(object, origin);
+        }
+
+        @Override
+        public void set(Object origin, Object value) throws Exception
+        {
+            invoke(origin, value);
+        }
+
+        @Override
+        public void set(Object object, Object origin, Object value) throws Exception
+        {
+            invoke(object, origin, value);
+        }
+
+        // thrown as the spun accessors would throw it
+        private Object invoke(Object object, Object... arguments) throws Exception
+        {
+            try {
+                return method.invoke(object, arguments);
+            } catch (InvocationTargetException e) {
+                if(e.getCause() instanceof Exception)
+                    throw (Exception) e.getCause();
+
+                throw e;
+            }
+        }
+
+        private final Method method;
+    }
+
     public static final StandardDataObjectExpander INSTANCE = new StandardDataObjectExpander();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
 }
@@ -31,6 +31,7 @@ import com.theredpixelteam.kraitudao.annotations.metadata.Metadata;
 import com.theredpixelteam.kraitudao.annotations.metadata.MetadataCollection;
 import com.theredpixelteam.kraitudao.annotations.metadata.common.Constructor;
 import com.theredpixelteam.kraitudao.annotations.metadata.common.IgnoreWhenEquals;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.NotNull;
 import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueList;
 import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueMap;
 import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueSet;
@@ -54,6 +55,7 @@ import com.theredpixelteam.redtea.util.ThreeStateOptional;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 @SuppressWarnings("unchecked")
 public class StandardDataObjectInterpreter implements DataObjectInterpreter {
@@ -1550,6 +1552,12 @@ public class StandardDataObjectInterpreter implements DataObjectInterpreter {
 
             this.metadata = Collections.unmodifiableMap(this.metadata);
 
+            // metadata consulted on every value, resolved once
+            this.notNull = this.metadata.containsKey(NotNull.class);
+            this.ignored = getMetadata(IgnoreWhenEquals.class)
+                    .map(ignoreWhenEquals -> IgnoredValues.of(type, ignoreWhenEquals.value()))
+                    .orElse(null);
+
             this.sealed = true;
         }
 
@@ -1608,9 +1616,7 @@ public class StandardDataObjectInterpreter implements DataObjectInterpreter {
         {
             Object returned = getter.get(object);
 
-            Optional<IgnoreWhenEquals> ignoreWhenEquals = getMetadata(IgnoreWhenEquals.class);
-            if(ignoreWhenEquals.isPresent()
-                    && returned.toString().equals(ignoreWhenEquals.get().value()))
+            if(returned != null && ignored != null && ignored.test(returned))
                 return null;
 
             return returned;
@@ -1631,7 +1637,12 @@ public class StandardDataObjectInterpreter implements DataObjectInterpreter {
             if(!this.ownerType.isInstance(object))
                 throwIncapableObject(object, this.ownerType);
 
-            if(!type.isInstance(value) && (compatibleType == null || !compatibleType.isInstance(value)))
+            if(value == null)
+            {
+                if(this.type.isPrimitive())
+                    return false;
+            }
+            else if(!type.isInstance(value) && (compatibleType == null || !compatibleType.isInstance(value)))
                 return false;
 
             set0(object, value);
@@ -1667,6 +1678,12 @@ public class StandardDataObjectInterpreter implements DataObjectInterpreter {
             return secondaryKey;
         }
 
+        @Override
+        public boolean isNotNull()
+        {
+            return sealed ? notNull : ValueObject.super.isNotNull();
+        }
+
         @Override
         public Optional<ExpandRule> getExpandRule()
         {
@@ -1717,6 +1734,10 @@ public class StandardDataObjectInterpreter implements DataObjectInterpreter {
 
         ObjectConstructor<?> objectConstructor;
 
+        private boolean notNull;
+
+        private Predicate<Object> ignored;
+
         private boolean sealed;
 
         static interface Getter
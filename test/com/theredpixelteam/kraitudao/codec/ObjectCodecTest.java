@@ -0,0 +1,304 @@
+/*
+ * ObjectCodecTest.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.codec;
+
+import com.theredpixelteam.kraitudao.annotations.Element;
+import com.theredpixelteam.kraitudao.annotations.Key;
+import com.theredpixelteam.kraitudao.annotations.Unique;
+import com.theredpixelteam.kraitudao.annotations.Value;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueList;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueMap;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueSet;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+// encode/decode round trips and schema checks of the object codec, run with
+//   java -cp <classes> com.theredpixelteam.kraitudao.codec.ObjectCodecTest
+// exits non-zero on failure
+public final class ObjectCodecTest {
+    private ObjectCodecTest()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<String> errors = new ArrayList<>();
+
+        ObjectCodec<Sample> codec = ObjectCodec.of(Sample.class);
+
+        // every value kind, then the same with every nullable value null
+        roundTrip(errors, "filled", codec, filled());
+        roundTrip(errors, "empty", codec, new Sample());
+
+        for (String string : STRINGS)
+        {
+            Sample sample = new Sample();
+            sample.text = string;
+            sample.names = new ArrayList<>(Collections.singletonList(string));
+            sample.counts = new LinkedHashMap<>(Collections.singletonMap(string, (long) string.length()));
+
+            roundTrip(errors, "string [" + string + "]", codec, sample);
+        }
+
+        // decoding overwrites every value of a reused object, nulls included
+        try {
+            Sample reused = filled();
+            codec.decode(codec.encode(new Sample()), reused);
+
+            if (!new Sample().equals(reused))
+                errors.add("reused: decoded as " + reused + ", expected " + new Sample());
+        } catch (CodecException e) {
+            errors.add("reused: failed: " + e);
+        }
+
+        // the schema hash is a function of the type, so it stays stable across codec instances
+        ObjectCodec<Sample> again = ObjectCodec.of(Sample.class);
+        if (again.getSchemaHash() != codec.getSchemaHash())
+            errors.add("schema hash changed between codecs: " + codec.getSchemaHash() + " and " + again.getSchemaHash());
+
+        // bytes of another schema are refused rather than misread
+        ObjectCodec<Other> other = ObjectCodec.of(Other.class);
+
+        try {
+            other.decode(codec.encode(filled()), new Other());
+            errors.add("mismatch: bytes of Sample decoded as Other");
+        } catch (CodecException.SchemaMismatch e) {
+            if (e.getExpected() != other.getSchemaHash() || e.getActual() != codec.getSchemaHash())
+                errors.add("mismatch: reported " + e.getMessage());
+        }
+
+        // truncated input fails with a codec exception at every length
+        byte[] bytes = codec.encode(filled());
+
+        for (int length = 0; length < bytes.length; length++)
+            try {
+                codec.decode(Arrays.copyOf(bytes, length), new Sample());
+                errors.add("truncated: " + length + " of " + bytes.length + " bytes decoded");
+            } catch (CodecException e) {
+                // expected
+            } catch (RuntimeException e) {
+                errors.add("truncated: " + length + " of " + bytes.length + " bytes failed with " + e);
+            }
+
+        if (errors.size() > 10)
+            errors.subList(10, errors.size()).clear();
+
+        System.out.println("ObjectCodec round trip " + (errors.isEmpty() ? "PASS" : "FAIL " + errors));
+
+        if (!errors.isEmpty())
+            System.exit(1);
+    }
+
+    private static void roundTrip(List<String> errors, String name, ObjectCodec<Sample> codec, Sample sample)
+    {
+        try {
+            Sample decoded = codec.decode(codec.encode(sample), new Sample());
+
+            if (!sample.equals(decoded))
+                errors.add(name + ": decoded as " + decoded + ", expected " + sample);
+        } catch (CodecException e) {
+            errors.add(name + ": failed: " + e);
+        }
+    }
+
+    private static Sample filled()
+    {
+        Sample sample = new Sample();
+
+        sample.id = -7;
+        sample.flag = true;
+        sample.b = Byte.MIN_VALUE;
+        sample.s = Short.MAX_VALUE;
+        sample.c = '\uffff';
+        sample.i = Integer.MIN_VALUE;
+        sample.l = Long.MAX_VALUE;
+        sample.f = Float.NaN;
+        sample.d = -0.0;
+        sample.boxed = Long.MIN_VALUE;
+        sample.text = "text \u00e9\u4e2d\ud83d\ude00";
+        sample.color = Color.BLUE;
+        sample.amount = new BigDecimal("-12345678901234567890.000123");
+        sample.big = BigInteger.ONE.shiftLeft(130).negate();
+        sample.names = new ArrayList<>(Arrays.asList("a", null, ""));
+        sample.numbers = new LinkedHashSet<>(Arrays.asList(3, -1, 0));
+        sample.counts = new LinkedHashMap<>();
+        sample.counts.put("x", 1L);
+        sample.counts.put("y", null);
+        sample.part = new Part("head", 1);
+        sample.parts = new ArrayList<>(Arrays.asList(new Part("a", 2), null, new Part(null, 3)));
+
+        return sample;
+    }
+
+    // strings around the UTF-8 boundaries of the writer
+    private static final String[] STRINGS = {
+            "", "\u0000", "\u007f", "\u0080", "\u07ff", "\u0800", "\uffff", "\ud83d\ude00", "tab\t", "line\n"
+    };
+
+    public enum Color
+    {
+        RED,
+        GREEN,
+        BLUE
+    }
+
+    @Element
+    public static class Part
+    {
+        public Part()
+        {
+        }
+
+        Part(String name, int weight)
+        {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            return object instanceof Part
+                    && Objects.equals(name, ((Part) object).name)
+                    && weight == ((Part) object).weight;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(name, weight);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Part[" + name + ", " + weight + "]";
+        }
+
+        @Value
+        public String name;
+
+        @Value
+        public int weight;
+    }
+
+    @Unique
+    public static class Sample
+    {
+        @Override
+        public boolean equals(Object object)
+        {
+            return object instanceof Sample && toString().equals(object.toString());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return toString().hashCode();
+        }
+
+        // floating point values by their bits, so NaN and -0.0 compare as written, the set in order
+        // since its decoded form is unordered
+        @Override
+        public String toString()
+        {
+            return "Sample[" + id + ", " + flag + ", " + b + ", " + s + ", " + (int) c + ", " + i + ", " + l + ", "
+                    + Float.floatToRawIntBits(f) + ", " + Double.doubleToRawLongBits(d) + ", " + boxed + ", " + text + ", "
+                    + color + ", " + amount + ", " + big + ", " + names + ", " + (numbers == null ? null : new TreeSet<>(numbers)) + ", " + counts + ", "
+                    + part + ", " + parts + "]";
+        }
+
+        @Key
+        public Integer id = 0;
+
+        @Value
+        public boolean flag;
+
+        @Value
+        public byte b;
+
+        @Value
+        public short s;
+
+        @Value
+        public char c;
+
+        @Value
+        public int i;
+
+        @Value
+        public long l;
+
+        @Value
+        public float f;
+
+        @Value
+        public double d;
+
+        @Value
+        public Long boxed;
+
+        @Value
+        public String text;
+
+        @Value
+        public Color color;
+
+        @Value
+        public BigDecimal amount;
+
+        @Value
+        public BigInteger big;
+
+        @Value
+        @ValueList(signatured = String.class)
+        public List<String> names;
+
+        @Value
+        @ValueSet(signatured = Integer.class)
+        public Set<Integer> numbers;
+
+        @Value
+        @ValueMap(signatured = {String.class, Long.class})
+        public Map<String, Long> counts;
+
+        @Value
+        public Part part;
+
+        @Value
+        @ValueList(signatured = Part.class)
+        public List<Part> parts;
+    }
+
+    // the same key, another value set
+    @Unique
+    public static class Other
+    {
+        @Key
+        public Integer id = 0;
+
+        @Value
+        public String text;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * DataSourceUtilStressTest.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.DataSource;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// contention stress of the guarded data sources on platform threads, run with
+//   java -cp <classes> com.theredpixelteam.kraitudao.common.DataSourceUtilStressTest [threads] [calls per thread]
+// exits non-zero on failure
+public final class DataSourceUtilStressTest {
+    private DataSourceUtilStressTest()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        boolean passed = true;
+
+        passed &= run("synchronizedDataSource", 1, threads, calls, DataSourceUtil::synchronizedDataSource);
+
+        for (int permits : new int[] {1, 4, 32})
+            passed &= run("boundedDataSource(" + permits + ")", permits, threads, calls,
+                    (dataSource) -> DataSourceUtil.boundedDataSource(dataSource, permits));
+
+        if (!passed)
+            System.exit(1);
+    }
+
+    private static boolean run(String name, int permits, int threads, int calls, Guarding guarding) throws InterruptedException
+    {
+        Counting counting = new Counting();
+        DataSource guarded = guarding.guard(counting.dataSource());
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> started = new ArrayList<>(threads);
+
+        for (int i = 0; i < threads; i++)
+        {
+            // small stacks, the point is the number of waiters rather than their depth
+            Thread thread = new Thread(null, () -> {
+                try {
+                    start.await();
+
+                    for (int j = 0; j < calls; j++)
+                        guarded.pull(Object.class);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, name + "-" + i, 256 * 1024);
+
+            thread.start();
+            started.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (Thread thread : started)
+            thread.join();
+
+        long elapsed = System.nanoTime() - begin;
+        long expected = (long) threads * calls;
+
+        List<String> errors = new ArrayList<>();
+
+        if (failure.get() != null)
+            errors.add("call failed: " + failure.get());
+
+        if (counting.calls.get() != expected)
+            errors.add("calls " + counting.calls.get() + ", expected " + expected);
+
+        if (counting.maxInFlight.get() > permits)
+            errors.add("max in flight " + counting.maxInFlight.get() + ", permits " + permits);
+
+        if (counting.inFlight.get() != 0)
+            errors.add("still in flight " + counting.inFlight.get());
+
+        System.out.printf("%-24s %s threads=%d calls=%d maxInFlight=%d elapsed=%dms%s%n",
+                name, errors.isEmpty() ? "PASS" : "FAIL", threads, expected, counting.maxInFlight.get(),
+                elapsed / 1_000_000, errors.isEmpty() ? "" : " " + errors);
+
+        return errors.isEmpty();
+    }
+
+    private interface Guarding
+    {
+        DataSource guard(DataSource dataSource);
+    }
+
+    // a data source recording how many calls overlap, each call widening the window for a race
+    private static final class Counting
+    {
+        DataSource dataSource()
+        {
+            return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] {DataSource.class},
+                    (proxy, method, args) -> {
+                        if (method.getDeclaringClass() == Object.class)
+                            return method.getName().equals("equals") ? proxy == args[0]
+                                    : method.getName().equals("hashCode") ? System.identityHashCode(proxy)
+                                    : "Counting";
+
+                        int current = inFlight.incrementAndGet();
+                        maxInFlight.accumulateAndGet(current, Math::max);
+
+                        Thread.yield();
+
+                        calls.incrementAndGet();
+                        inFlight.decrementAndGet();
+
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                    });
+        }
+
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        final AtomicLong calls = new AtomicLong();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * OffHeapDataSourceTest.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.annotations.Key;
+import com.theredpixelteam.kraitudao.annotations.Unique;
+import com.theredpixelteam.kraitudao.annotations.Value;
+import com.theredpixelteam.kraitudao.annotations.metadata.common.ValueList;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// commit/pull round trips over every column encoding, variable length columns placed next to each other
+// and at the end of the row, run with
+//   java -cp <classes> com.theredpixelteam.kraitudao.common.OffHeapDataSourceTest [rows]
+// exits non-zero on failure
+public final class OffHeapDataSourceTest {
+    private OffHeapDataSourceTest()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        List<String> errors = new ArrayList<>();
+
+        try (OffHeapDataSource dataSource = new OffHeapDataSource()) {
+            Transaction transaction = null;
+            for (int i = 0; i < rows; i++)
+                transaction = dataSource.commit(transaction, row(i, ""), Row.class);
+
+            transaction.push();
+
+            for (int i = 0; i < rows; i++)
+                expect(errors, "committed", dataSource, row(i, ""));
+
+            // rewritten rows release their heap values, the others have to stay readable
+            transaction = null;
+            for (int i = 0; i < rows; i += 3)
+                transaction = dataSource.commit(transaction, row(i, "rewritten "), Row.class);
+
+            for (int i = 1; i < rows; i += 3)
+                transaction = dataSource.remove(transaction, row(i, ""), Row.class);
+
+            transaction.push();
+
+            for (int i = 0; i < rows; i++)
+                if (i % 3 == 1)
+                {
+                    if (dataSource.exists(row(i, ""), Row.class))
+                        errors.add("removed row " + i + " still present");
+                }
+                else
+                    expect(errors, "rewritten", dataSource, row(i, i % 3 == 0 ? "rewritten " : ""));
+
+            int size = dataSource.pull(Row.class, Row::new).size();
+            int expected = rows - (rows + 1) / 3;
+            if (size != expected)
+                errors.add(size + " rows pulled, expected " + expected);
+        } catch (Exception e) {
+            errors.add("failed: " + e);
+        }
+
+        if (errors.size() > 10)
+            errors.subList(10, errors.size()).clear();
+
+        System.out.println("OffHeapDataSource round trip " + (errors.isEmpty() ? "PASS" : "FAIL " + errors));
+
+        if (!errors.isEmpty())
+            System.exit(1);
+    }
+
+    // nulls and empty strings mixed into the variable length columns
+    private static Row row(int i, String prefix)
+    {
+        Row row = new Row();
+
+        row.id = i;
+        row.name = prefix + "name " + i;
+        row.note = i % 5 == 0 ? null : i % 5 == 1 ? "" : prefix + "note \u00e9\u4e2d " + i;
+        row.count = i * 1_000_000_007L;
+        row.amount = i % 7 == 0 ? null : new BigDecimal(i).movePointLeft(2);
+        row.color = Color.values()[i % Color.values().length];
+        row.tags = i % 4 == 0 ? null : Arrays.asList(prefix + "a" + i, "b");
+        row.last = prefix + "last " + i;
+
+        return row;
+    }
+
+    private static void expect(List<String> errors, String stage, OffHeapDataSource dataSource, Row expected) throws Exception
+    {
+        Row row = new Row();
+        row.id = expected.id;
+
+        if (!dataSource.pull(row, Row.class))
+            errors.add(stage + ": row " + expected.id + " missing");
+        else if (!expected.equals(row))
+            errors.add(stage + ": row " + expected.id + " read back as " + row + ", expected " + expected);
+    }
+
+    public enum Color
+    {
+        RED,
+        GREEN,
+        BLUE
+    }
+
+    @Unique
+    public static class Row
+    {
+        @Override
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof Row))
+                return false;
+
+            Row row = (Row) object;
+
+            return Objects.equals(id, row.id)
+                    && Objects.equals(name, row.name)
+                    && Objects.equals(note, row.note)
+                    && count == row.count
+                    && Objects.equals(amount, row.amount)
+                    && color == row.color
+                    && Objects.equals(tags, row.tags)
+                    && Objects.equals(last, row.last);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(id);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[" + id + ", " + name + ", " + note + ", " + count + ", " + amount + ", " + color + ", " + tags + ", " + last + "]";
+        }
+
+        @Key
+        public Integer id = 0;
+
+        @Value
+        public String name;
+
+        @Value
+        public String note;
+
+        @Value
+        public long count;
+
+        @Value
+        public BigDecimal amount;
+
+        @Value
+        public Color color;
+
+        @Value
+        @ValueList(signatured = String.class)
+        public List<String> tags;
+
+        @Value
+        public String last;
+    }
+}
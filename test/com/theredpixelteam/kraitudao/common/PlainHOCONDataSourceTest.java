@@ -0,0 +1,141 @@
+/*
+ * PlainHOCONDataSourceTest.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common;
+
+import com.theredpixelteam.kraitudao.Transaction;
+import com.theredpixelteam.kraitudao.annotations.Key;
+import com.theredpixelteam.kraitudao.annotations.Unique;
+import com.theredpixelteam.kraitudao.annotations.Value;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// commit/reopen round trips of the HOCON file, run with
+//   java -cp <classes> com.theredpixelteam.kraitudao.common.PlainHOCONDataSourceTest
+// exits non-zero on failure
+public final class PlainHOCONDataSourceTest {
+    private PlainHOCONDataSourceTest()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Path directory = Files.createTempDirectory("kraitudao-hocon");
+        Path file = directory.resolve("data.conf");
+
+        List<String> errors = new ArrayList<>();
+
+        try {
+            PlainHOCONDataSource dataSource = new PlainHOCONDataSource(file);
+
+            Transaction transaction = null;
+            for (int i = 0; i < NAMES.length; i++)
+                transaction = dataSource.commit(transaction, new Record(i, NAMES[i], i * 1000L), Record.class);
+
+            transaction.push();
+            dataSource.close();
+
+            // every record read back after reopening
+            dataSource = new PlainHOCONDataSource(file);
+
+            for (int i = 0; i < NAMES.length; i++)
+                expect(errors, "reopened", dataSource, i, NAMES[i], i * 1000L);
+
+            // a second write over the indexed sections, then once more from the file
+            dataSource.commit(new Record(0, "updated", -1L), Record.class).push();
+            dataSource.remove(new Record(3, null, 0L), Record.class).push();
+            dataSource.close();
+
+            dataSource = new PlainHOCONDataSource(file);
+
+            expect(errors, "rewritten", dataSource, 0, "updated", -1L);
+
+            if (dataSource.exists(new Record(3, null, 0L), Record.class))
+                errors.add("rewritten: removed record 3 still present");
+
+            for (int i = 4; i < NAMES.length; i++)
+                expect(errors, "rewritten", dataSource, i, NAMES[i], i * 1000L);
+
+            int size = dataSource.pull(Record.class, Record::new).size();
+            if (size != NAMES.length - 1)
+                errors.add("rewritten: " + size + " records, expected " + (NAMES.length - 1));
+
+            dataSource.close();
+        } catch (Exception e) {
+            errors.add("failed: " + e);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+            Files.deleteIfExists(directory);
+        }
+
+        System.out.println("PlainHOCONDataSource round trip " + (errors.isEmpty() ? "PASS" : "FAIL " + errors));
+
+        if (!errors.isEmpty())
+            System.exit(1);
+    }
+
+    private static void expect(List<String> errors, String stage, PlainHOCONDataSource dataSource, int id, String name, long count)
+            throws Exception
+    {
+        Record record = new Record(id, null, 0L);
+
+        if (!dataSource.pull(record, Record.class))
+            errors.add(stage + ": record " + id + " missing");
+        else if (!name.equals(record.name) || record.count != count)
+            errors.add(stage + ": record " + id + " read back as [" + record.name + "] " + record.count
+                    + ", expected [" + name + "] " + count);
+    }
+
+    // strings the HOCON emitter has to quote or escape
+    private static final String[] NAMES = {
+            "plain", "a: b", "#hash", "- dash", "line1\nline2", "  lead", "trail ", "null", "true", "",
+            "quote\"s", "back\\slash", "{brace}", "[x, y]", "tab\there", "${sub}", "'single'",
+            "\u00fc\u65e5\u672c", "a,b", "key = v", "// c"
+    };
+
+    @Unique
+    public static class Record
+    {
+        public Record()
+        {
+        }
+
+        Record(Integer id, String name, long count)
+        {
+            this.id = id;
+            this.name = name;
+            this.count = count;
+        }
+
+        @Key
+        public Integer id = 0;
+
+        @Value
+        public String name = "";
+
+        @Value
+        public long count;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * TreeFormatTest.java
+ *
+ * Copyright (C) 2018 The Red Pixel <theredpixelteam.com>
+ * Copyright (C) 2018 KuCrO3 Studio <kucro3.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package com.theredpixelteam.kraitudao.common.tree;
+
+import com.theredpixelteam.redtea.util.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// emit/parse round trips of the YAML, HOCON and binary tree formats, run with
+//   java -cp <classes> com.theredpixelteam.kraitudao.common.tree.TreeFormatTest
+// exits non-zero on failure
+public final class TreeFormatTest {
+    private TreeFormatTest()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<String> errors = new ArrayList<>();
+
+        Map<String, Object> tree = tree();
+
+        // YAML
+        try {
+            StringBuilder out = new StringBuilder();
+            YAMLTree.emit(out, "h.Record", withNonFinite(tree));
+
+            Pair<String, Map<String, Object>> parsed = YAMLTree.parse(out.toString());
+
+            if (!"h.Record".equals(parsed.first()))
+                errors.add("YAML: tag read back as " + parsed.first());
+
+            compare(errors, "YAML", withNonFinite(tree), parsed.second());
+        } catch (Exception e) {
+            errors.add("YAML: failed: " + e);
+        }
+
+        // HOCON, records are arrays of objects under the type name
+        try {
+            Map<String, Object> root = new LinkedHashMap<>();
+            root.put("h.Record", Arrays.asList(tree, new LinkedHashMap<>()));
+
+            StringBuilder out = new StringBuilder();
+            HOCONTree.emit(out, root);
+
+            compare(errors, "HOCON", root, HOCONTree.parse(out.toString()));
+        } catch (Exception e) {
+            errors.add("HOCON: failed: " + e);
+        }
+
+        // binary
+        try {
+            byte[] bytes = BinaryTree.encode(withNonFinite(tree));
+            int[] position = {0};
+
+            compare(errors, "binary", withNonFinite(tree), BinaryTree.decode(ByteBuffer.wrap(bytes), position));
+
+            if (position[0] != bytes.length)
+                errors.add("binary: " + position[0] + " of " + bytes.length + " bytes read");
+        } catch (Exception e) {
+            errors.add("binary: failed: " + e);
+        }
+
+        System.out.println("tree formats round trip " + (errors.isEmpty() ? "PASS" : "FAIL " + errors));
+
+        if (!errors.isEmpty())
+            System.exit(1);
+    }
+
+    // scalars in their normalized form: Long, Double, Boolean and String
+    private static Map<String, Object> tree()
+    {
+        Map<String, Object> tree = new LinkedHashMap<>();
+
+        tree.put("id", 42L);
+        tree.put("negative", Long.MIN_VALUE);
+        tree.put("ratio", -0.125);
+        tree.put("large", 1.0E300);
+        tree.put("flag", Boolean.TRUE);
+        tree.put("off", Boolean.FALSE);
+        tree.put("absent", null);
+
+        for (int i = 0; i < STRINGS.length; i++)
+            tree.put("s" + i, STRINGS[i]);
+
+        Map<String, Object> keys = new LinkedHashMap<>();
+        for (String string : STRINGS)
+            keys.put(string, string.length() + 0L);
+        tree.put("keys", keys);
+
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("list", new ArrayList<>(Arrays.asList(STRINGS)));
+        nested.put("numbers", Arrays.asList(1L, -2L, 3.5, null, Boolean.FALSE));
+        nested.put("empty list", new ArrayList<>());
+        nested.put("empty map", new LinkedHashMap<>());
+        nested.put("lists", Arrays.asList(Arrays.asList(1L, 2L), new ArrayList<>(), Arrays.asList("x")));
+
+        Map<String, Object> element = new LinkedHashMap<>();
+        element.put("name", "a: b");
+        element.put("value", 7L);
+        nested.put("elements", Arrays.asList(element, new LinkedHashMap<>(element)));
+
+        tree.put("nested", nested);
+
+        return tree;
+    }
+
+    // HOCON has no literal for them, the others read them back as doubles
+    private static Map<String, Object> withNonFinite(Map<String, Object> tree)
+    {
+        Map<String, Object> copy = new LinkedHashMap<>(tree);
+
+        copy.put("nan", Double.NaN);
+        copy.put("infinity", Double.POSITIVE_INFINITY);
+        copy.put("negative infinity", Double.NEGATIVE_INFINITY);
+
+        return copy;
+    }
+
+    private static void compare(List<String> errors, String format, Object expected, Object actual)
+    {
+        compare(errors, format, "", expected, actual);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void compare(List<String> errors, String format, String path, Object expected, Object actual)
+    {
+        if (expected instanceof Map && actual instanceof Map)
+        {
+            Map<String, Object> expectedMap = (Map<String, Object>) expected, actualMap = (Map<String, Object>) actual;
+
+            if (!expectedMap.keySet().equals(actualMap.keySet()))
+                errors.add(format + ": keys at \"" + path + "\" read back as " + actualMap.keySet() + ", expected " + expectedMap.keySet());
+            else
+                for (Map.Entry<String, Object> entry : expectedMap.entrySet())
+                    compare(errors, format, path + "/" + entry.getKey(), entry.getValue(), actualMap.get(entry.getKey()));
+        }
+        else if (expected instanceof List && actual instanceof List)
+        {
+            List<Object> expectedList = (List<Object>) expected, actualList = (List<Object>) actual;
+
+            if (expectedList.size() != actualList.size())
+                errors.add(format + ": " + actualList.size() + " elements at \"" + path + "\", expected " + expectedList.size());
+            else
+                for (int i = 0; i < expectedList.size(); i++)
+                    compare(errors, format, path + "[" + i + "]", expectedList.get(i), actualList.get(i));
+        }
+        else if (!Objects.equals(expected, actual))
+            errors.add(format + ": \"" + path + "\" read back as " + describe(actual) + ", expected " + describe(expected));
+    }
+
+    private static String describe(Object value)
+    {
+        return value == null ? "null" : "[" + value + "] (" + value.getClass().getSimpleName() + ")";
+    }
+
+    // strings the text formats have to quote or escape
+    private static final String[] STRINGS = {
+            "plain", "", " ", "a: b", "#hash", "- dash", "line1\nline2", "cr\rlf", "  lead", "trail ", "null", "~",
+            "true", "False", "42", "-1.5e3", ".nan", "quote\"s", "back\\slash", "{brace}", "[x, y]", "tab\there",
+            "${sub}", "'single'", "\u00fc\u65e5\u672c", "a,b", "key = v", "// c", "---", "\"\"\"", "bell\u0007"
+    };
+}